@@ -0,0 +1,73 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * BitmapPoolのテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolTest {
+
+    @Test
+    public void get_returnsSmallestBucketWithinLimit() {
+        BitmapPool pool = new BitmapPool(10 * 1024 * 1024);
+        Bitmap small = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap large = Bitmap.createBitmap(200, 200, Bitmap.Config.ARGB_8888);
+        pool.put(large);
+        pool.put(small);
+
+        // 必要なバイト数以上で、最も小さいものを返す
+        assertSame(small, pool.get(90, 90, Bitmap.Config.ARGB_8888));
+
+        // 必要なバイト数の2倍を超えるものは返さない
+        assertNull(pool.get(100, 100, Bitmap.Config.ARGB_8888));
+        assertSame(large, pool.get(150, 150, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.size());
+
+        assertEquals(2, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void put_rejectsUnusableBitmaps() {
+        BitmapPool pool = new BitmapPool(10 * 1024 * 1024);
+
+        Bitmap immutable = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888).copy(Bitmap.Config.ARGB_8888, false);
+        pool.put(immutable);
+
+        Bitmap recycled = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        recycled.recycle();
+        pool.put(recycled);
+
+        assertEquals(0, pool.size());
+        assertNull(pool.get(100, 100, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void put_evictsOldestOverBudget() {
+        // 100x100のARGB_8888を2枚まで
+        BitmapPool pool = new BitmapPool(2 * 100 * 100 * 4);
+        Bitmap first = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap second = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap third = Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888);
+        pool.put(first);
+        pool.put(second);
+        pool.put(third);
+
+        assertEquals(2 * 100 * 100 * 4, pool.size());
+        assertTrue(first.isRecycled());
+        assertFalse(second.isRecycled());
+
+        Bitmap a = pool.get(100, 100, Bitmap.Config.ARGB_8888);
+        Bitmap b = pool.get(100, 100, Bitmap.Config.ARGB_8888);
+        assertNotSame(first, a);
+        assertNotSame(first, b);
+        assertNull(pool.get(100, 100, Bitmap.Config.ARGB_8888));
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * DecodeSchedulerのテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class DecodeSchedulerTest {
+
+    private ImageCache mCache;
+    private DecodeScheduler mScheduler;
+
+    @Before
+    public void setUp() {
+        mCache = new ImageCache(null, null);
+        mScheduler = new DecodeScheduler(mCache);
+    }
+
+    @Test
+    public void request_sharesDecodeForSameKey() throws Exception {
+        BlockingSource source = new BlockingSource();
+        RecordingCallback first = new RecordingCallback();
+        RecordingCallback second = new RecordingCallback();
+
+        mScheduler.request("a#160", source, first);
+        mScheduler.request("a#160", source, second);
+        source.release();
+
+        assertTrue(first.await());
+        assertTrue(second.await());
+        assertEquals(1, source.mDecodeCount.get());
+        assertSame(first.mBitmap, second.mBitmap);
+    }
+
+    @Test
+    public void cancel_skipsDeliveryToRecycledView() throws Exception {
+        BlockingSource source = new BlockingSource();
+        RecordingCallback cancelled = new RecordingCallback();
+        RecordingCallback other = new RecordingCallback();
+
+        mScheduler.request("a#160", source, cancelled);
+        mScheduler.cancel(cancelled);
+
+        // 別のキーを依頼し直した受け取り手には、新しいキーの画像だけを渡す
+        mScheduler.request("b#160", new BlockingSource().released(), other);
+        source.release();
+
+        assertTrue(other.await());
+        assertEquals("b#160", other.mKey);
+        assertFalse(cancelled.await());
+    }
+
+    @Test
+    public void request_decodesLatestRequestFirst() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(mCache, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        // 1つしかないスレッドを止めている間に、順番に依頼する
+        BlockingSource blocker = new BlockingSource();
+        scheduler.request("blocker#160", blocker, new RecordingCallback());
+        assertTrue(blocker.awaitStarted());
+
+        RecordingCallback last = new RecordingCallback();
+        scheduler.request("a#160", new RecordingSource("a", order), new RecordingCallback());
+        scheduler.request("b#160", new RecordingSource("b", order), new RecordingCallback());
+        scheduler.request("c#160", new RecordingSource("c", order), last);
+        blocker.release();
+
+        assertTrue(last.await());
+        awaitSize(order, 3);
+        assertEquals(Arrays.asList("c", "b", "a"), order);
+    }
+
+    @Test
+    public void request_promotesPendingPrefetchToVisible() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(mCache, 1);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+        BlockingSource blocker = new BlockingSource();
+        scheduler.request("blocker#160", blocker, new RecordingCallback());
+        assertTrue(blocker.awaitStarted());
+
+        RecordingSource prefetched = new RecordingSource("p1", order);
+        scheduler.prefetch("p1#160", prefetched);
+        scheduler.prefetch("p2#160", new RecordingSource("p2", order));
+        scheduler.request("v#160", new RecordingSource("v", order), new RecordingCallback());
+
+        // 先読みを待っている画像が表示されることになったら、表示するための依頼として先頭に並べ直す
+        RecordingCallback promoted = new RecordingCallback();
+        scheduler.request("p1#160", prefetched, promoted);
+        blocker.release();
+
+        assertTrue(promoted.await());
+        assertEquals("p1#160", promoted.mKey);
+        awaitSize(order, 3);
+        assertEquals(Arrays.asList("p1", "v", "p2"), order);
+        assertEquals(1, prefetched.mDecodeCount.get());
+    }
+
+    private static void awaitSize(List<String> list, int size) throws InterruptedException {
+        for (int i = 0; i < 100 && list.size() < size; i++) {
+            Thread.sleep(20);
+        }
+    }
+
+    /**
+     * 読み込んだ順番を記録する処理。
+     */
+    private static class RecordingSource implements ImageCache.Source {
+        private final String mName;
+        private final List<String> mOrder;
+        private final AtomicInteger mDecodeCount = new AtomicInteger();
+
+        RecordingSource(String name, List<String> order) {
+            this.mName = name;
+            this.mOrder = order;
+        }
+
+        @Override
+        public Bitmap decode() {
+            mDecodeCount.incrementAndGet();
+            mOrder.add(mName);
+            return Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    /**
+     * release()を呼ぶまで読み込みを止める処理。
+     */
+    private static class BlockingSource implements ImageCache.Source {
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private final CountDownLatch mStarted = new CountDownLatch(1);
+        private final AtomicInteger mDecodeCount = new AtomicInteger();
+
+        @Override
+        public Bitmap decode() {
+            mDecodeCount.incrementAndGet();
+            mStarted.countDown();
+            try {
+                mLatch.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888);
+        }
+
+        void release() {
+            mLatch.countDown();
+        }
+
+        boolean awaitStarted() throws InterruptedException {
+            return mStarted.await(2, TimeUnit.SECONDS);
+        }
+
+        BlockingSource released() {
+            release();
+            return this;
+        }
+    }
+
+    private static class RecordingCallback implements DecodeScheduler.Callback {
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile String mKey;
+        private volatile Bitmap mBitmap;
+
+        @Override
+        public void onDecoded(String key, Bitmap bitmap) {
+            mKey = key;
+            mBitmap = bitmap;
+            mLatch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return mLatch.await(2, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * GalleryPrefetcherの、スクロールに合わせて先読みを依頼するテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class GalleryPrefetcherScrollTest {
+
+    private static final int ITEM_COUNT = 40;
+
+    private RecordingScheduler mScheduler;
+    private GalleryPrefetcher mPrefetcher;
+    private GalleryPrefetcher.Provider mProvider;
+
+    @Before
+    public void setUp() {
+        ImageCache cache = new ImageCache(null, null);
+        mScheduler = new RecordingScheduler(cache);
+        mPrefetcher = new GalleryPrefetcher(mScheduler, cache);
+        mProvider = new GalleryPrefetcher.Provider() {
+            @Override
+            public int getItemCount() {
+                return ITEM_COUNT;
+            }
+
+            @Override
+            public String getKey(int position) {
+                return String.valueOf(position);
+            }
+
+            @Override
+            public ImageCache.Source getSource(int position) {
+                return new ImageCache.Source() {
+                    @Override
+                    public Bitmap decode() {
+                        return null;
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    public void prefetch_skipsPositionsAlreadyRequested() {
+        mPrefetcher.prefetch(mProvider, 1, 0, 7, 4);
+        assertEquals(Arrays.asList("8", "9", "10", "11"), mScheduler.takeKeys());
+
+        // 2つ進んだ分だけ、新しく依頼する
+        mPrefetcher.prefetch(mProvider, 1, 2, 9, 4);
+        assertEquals(Arrays.asList("12", "13"), mScheduler.takeKeys());
+
+        // 追い越されていない範囲は、依頼し直さない
+        mPrefetcher.prefetch(mProvider, 1, 2, 9, 2);
+        assertTrue(mScheduler.takeKeys().isEmpty());
+    }
+
+    @Test
+    public void prefetch_cancelsWhenDirectionChanges() {
+        mPrefetcher.prefetch(mProvider, 1, 10, 17, 4);
+        mScheduler.takeKeys();
+        int cancelled = mScheduler.mCancelCount;
+
+        // 上にスクロールし始めたら、下の先読みを取り消して、見えている範囲の前を先読みする
+        mPrefetcher.prefetch(mProvider, -1, 10, 17, 4);
+        assertEquals(cancelled + 1, mScheduler.mCancelCount);
+        assertEquals(Arrays.asList("9", "8", "7", "6"), mScheduler.takeKeys());
+
+        // 同じ向きが続く間は取り消さない
+        mPrefetcher.prefetch(mProvider, -1, 8, 15, 4);
+        assertEquals(cancelled + 1, mScheduler.mCancelCount);
+        assertEquals(Arrays.asList("5", "4"), mScheduler.takeKeys());
+
+        // 下に戻ったら、取り消した位置も先読みし直す
+        mPrefetcher.prefetch(mProvider, 1, 8, 15, 4);
+        assertEquals(cancelled + 2, mScheduler.mCancelCount);
+        assertEquals(Arrays.asList("16", "17", "18", "19"), mScheduler.takeKeys());
+    }
+
+    @Test
+    public void prefetch_stopsAtEndOfList() {
+        mPrefetcher.prefetch(mProvider, 1, 32, 37, 6);
+        assertEquals(Arrays.asList("38", "39"), mScheduler.takeKeys());
+
+        mPrefetcher.prefetch(mProvider, -1, 0, 7, 6);
+        assertTrue(mScheduler.takeKeys().isEmpty());
+    }
+
+    /**
+     * 読み込まずに、先読みの依頼を記録するスケジューラ。
+     */
+    private static class RecordingScheduler extends DecodeScheduler {
+        private final List<String> mKeys = new ArrayList<String>();
+        private int mCancelCount;
+
+        RecordingScheduler(ImageCache cache) {
+            super(cache, 1);
+        }
+
+        @Override
+        public synchronized void prefetch(String key, ImageCache.Source source) {
+            mKeys.add(key);
+        }
+
+        @Override
+        public synchronized void cancelPrefetch() {
+            mCancelCount++;
+        }
+
+        List<String> takeKeys() {
+            List<String> keys = new ArrayList<String>(mKeys);
+            mKeys.clear();
+            return keys;
+        }
+    }
+}
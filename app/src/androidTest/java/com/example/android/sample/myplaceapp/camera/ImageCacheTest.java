@@ -0,0 +1,118 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * ImageCacheのテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageCacheTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mDirectory = new File(context.getCacheDir(), "ImageCacheTest");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteDirectory();
+    }
+
+    @Test
+    public void load_countsHitsAndMissesPerTier() {
+        DiskImageCache disk = new DiskImageCache(mDirectory, DiskImageCache.DEFAULT_MAX_SIZE);
+        CountingSource source = new CountingSource();
+
+        // どこにもないので、元の画像から読み込んでメモリとディスクに入れる
+        ImageCache cache = new ImageCache(disk, null);
+        assertNull(cache.acquire("a#120"));
+        Bitmap decoded = cache.acquire("a#120", source);
+        assertNotNull(decoded);
+        assertEquals(1, source.mDecodeCount.get());
+
+        assertSame(decoded, cache.acquire("a#120"));
+        assertEquals(1, cache.getMemoryHitCount());
+        assertEquals(1, cache.getMemoryMissCount());
+        assertEquals(0, cache.getDiskHitCount());
+        assertEquals(1, cache.getDiskMissCount());
+
+        // メモリのキャッシュが失われても、ディスクから読み込む
+        ImageCache restored = new ImageCache(disk, null);
+        assertNull(restored.acquire("a#120"));
+        Bitmap fromDisk = restored.acquire("a#120", source);
+        assertEquals(1, source.mDecodeCount.get());
+        assertEquals(WIDTH, fromDisk.getWidth());
+        assertEquals(HEIGHT, fromDisk.getHeight());
+
+        assertEquals(0, restored.getMemoryHitCount());
+        assertEquals(1, restored.getMemoryMissCount());
+        assertEquals(1, restored.getDiskHitCount());
+        assertEquals(0, restored.getDiskMissCount());
+    }
+
+    @Test
+    public void load_storesCompressedEntryOnDisk() {
+        DiskImageCache disk = new DiskImageCache(mDirectory, DiskImageCache.DEFAULT_MAX_SIZE);
+        ImageCache cache = new ImageCache(disk, new BitmapPool(1024 * 1024));
+        cache.acquire("a#120", new CountingSource());
+
+        // ピクセルをそのまま保存した大きさの1/10より小さい
+        byte[] entry = disk.get("a#120");
+        assertNotNull(entry);
+        assertTrue(entry.length + " bytes", entry.length < WIDTH * HEIGHT * 4 / 10);
+
+        // 読み込んだ画像は、ほぼ元の色になる
+        Bitmap fromDisk = new ImageCache(disk, new BitmapPool(1024 * 1024))
+                .acquire("a#120", new CountingSource());
+        int pixel = fromDisk.getPixel(WIDTH / 2, HEIGHT / 2);
+        assertTrue(Math.abs(Color.red(pixel) - 200) < 8);
+        assertTrue(Math.abs(Color.green(pixel) - 100) < 8);
+        assertTrue(Math.abs(Color.blue(pixel) - 50) < 8);
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * 単色の画像を作り、作った回数を数える処理。
+     */
+    private static class CountingSource implements ImageCache.Source {
+        private final AtomicInteger mDecodeCount = new AtomicInteger();
+
+        @Override
+        public Bitmap decode() {
+            mDecodeCount.incrementAndGet();
+            Bitmap bitmap = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.rgb(200, 100, 50));
+            return bitmap;
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaceArchiverによる、古い日の位置情報のセグメントファイルへの移動のテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaceArchiverTest {
+
+    private static final String TEST_DB_NAME = "PlaceArchiverTest.db";
+    private static final String TEST_SEGMENT_NAME = "PlaceArchiverTest.seg";
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    /**
+     * 5分間隔で10日分。
+     */
+    private static final int ROWS = 24 * 12 * 10;
+    private static final long INTERVAL = 5L * 60L * 1000L;
+
+    private Context mContext;
+    private PlaceDBHelper mHelper;
+    private SQLiteDatabase mDb;
+    private File mSegment;
+    private PlaceArchiver mArchiver;
+    private PlaceArchive mArchive;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB_NAME);
+        mSegment = new File(mContext.getCacheDir(), TEST_SEGMENT_NAME);
+        mSegment.delete();
+
+        mHelper = new PlaceDBHelper(mContext, TEST_DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+        mArchive = new PlaceArchive(mSegment);
+        mArchiver = new PlaceArchiver(mDb, mArchive, new PlaceRTreeUpdater(mDb));
+
+        insertRows(new Random(1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DB_NAME);
+        mSegment.delete();
+    }
+
+    @Test
+    public void archivedDay_matchesSQLiteRowsExactly() throws Exception {
+        int dayKey = DayKey.of(START_TIME + 3 * PlaceRepository.DAY);
+        PlaceTrack expected = readStoredTrack(dayKey);
+        String summary = readDaySummary(dayKey);
+        assertTrue(expected.size() > 0);
+
+        mArchiver.archiveDay(dayKey);
+
+        // SQLiteからは削除され、空間インデックスからも消えていること
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_E7,
+                PlaceDBHelper.COLUMN_DAY_KEY + " = " + dayKey));
+        if (PlaceDBHelper.hasRTree(mDb)) {
+            assertEquals(ROWS - expected.size(), DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_RTREE));
+        }
+
+        PlaceTrack actual = readArchivedTrack(dayKey);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getId(i), actual.getId(i));
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 0);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 0);
+        }
+
+        // 日ごとの集計は、作り直してもアーカイブ前と同じになること
+        new PlaceDayUpdater(mDb).rebuild(Collections.singleton(dayKey));
+        assertEquals(summary, readDaySummary(dayKey));
+    }
+
+    @Test
+    public void archiveBefore_movesOnlyOlderDays() throws Exception {
+        int beforeDayKey = DayKey.of(START_TIME + 7 * PlaceRepository.DAY);
+        long remaining = DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_E7,
+                PlaceDBHelper.COLUMN_DAY_KEY + " >= " + beforeDayKey);
+
+        int archived = mArchiver.archiveBefore(beforeDayKey);
+
+        assertTrue(archived >= 7);
+        assertEquals(archived, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_ARCHIVE));
+        assertEquals(remaining, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_E7));
+
+        // 2回目は移すものがない
+        assertEquals(0, mArchiver.archiveBefore(beforeDayKey));
+    }
+
+    @Test
+    public void boundsQuery_includesArchivedDays() throws Exception {
+        long fromTime = START_TIME + 2 * PlaceRepository.DAY + 7 * INTERVAL;
+        long toTime = START_TIME + 8 * PlaceRepository.DAY;
+        PlaceBoundsQuery points = new PlaceBoundsQuery(35.0, 139.0, 36.5, 140.5, fromTime, toTime);
+        PlaceBoundsQuery grid = points.withGrid(0.01);
+
+        Set<Long> expectedIds = readIds(points);
+        assertTrue(expectedIds.size() > 0);
+        Map<Long, Integer> expectedCells = readCells(grid);
+
+        mArchiver.archiveBefore(DayKey.of(START_TIME + 7 * PlaceRepository.DAY));
+
+        // 古い日をセグメントファイルに移しても、同じ地点と格子が返ること
+        assertEquals(expectedIds, readIds(points));
+        assertEquals(expectedCells, readCells(grid));
+    }
+
+    @Test
+    public void archiveIterator_returnsPointsInRange() throws Exception {
+        long fromTime = START_TIME + PlaceRepository.DAY + 13 * INTERVAL;
+        long toTime = START_TIME + 4 * PlaceRepository.DAY - 5 * INTERVAL;
+        long expected = DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_E7,
+                PlaceDBHelper.COLUMN_TIME + " BETWEEN " + fromTime + " AND " + toTime);
+
+        mArchiver.archiveBefore(DayKey.of(START_TIME + 7 * PlaceRepository.DAY));
+
+        Cursor blocks = mDb.query(PlaceDBHelper.TABLE_ARCHIVE, PlaceArchiveIterator.BLOCK_PROJECTION,
+                PlaceArchiveIterator.timeSelection(fromTime, toTime), null, null, null,
+                PlaceArchiveIterator.BLOCK_SORT_ORDER);
+        PlaceArchiveIterator archived = new PlaceArchiveIterator(mArchive, blocks, fromTime, toTime);
+
+        // 範囲の端の日も含めて、範囲の中の地点だけが時刻順に返ること
+        long count = 0;
+        long lastTime = Long.MIN_VALUE;
+        while (archived.hasNext()) {
+            PlaceTrack block = archived.next();
+            for (int i = 0; i < block.size(); i++) {
+                assertTrue(block.getTime(i) >= fromTime && block.getTime(i) <= toTime);
+                assertTrue(block.getTime(i) >= lastTime);
+                lastTime = block.getTime(i);
+                count++;
+            }
+        }
+        assertEquals(expected, count);
+    }
+
+    @Test
+    public void restoreMatching_restoresOnlyMatchingDays() throws Exception {
+        int dayKey = DayKey.of(START_TIME + 3 * PlaceRepository.DAY);
+        PlaceTrack expected = readStoredTrack(dayKey);
+        long time = expected.getTime(expected.size() / 2);
+        int archived = mArchiver.archiveBefore(DayKey.of(START_TIME + 7 * PlaceRepository.DAY));
+
+        // 1地点だけに一致する条件でも、その日全体がSQLiteに戻ること
+        Set<Integer> restored = mArchiver.restoreMatching(PlaceDBHelper.COLUMN_TIME + " = ?",
+                new String[]{String.valueOf(time)});
+        assertEquals(Collections.singleton(dayKey), restored);
+        assertEquals(archived - 1, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_ARCHIVE));
+
+        PlaceTrack actual = readStoredTrack(dayKey);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getId(i), actual.getId(i));
+            assertEquals(expected.getTime(i), actual.getTime(i));
+            assertEquals(expected.getLatitude(i), actual.getLatitude(i), 0);
+            assertEquals(expected.getLongitude(i), actual.getLongitude(i), 0);
+        }
+
+        // 戻した日は空間インデックスにも入っていること
+        if (PlaceDBHelper.hasRTree(mDb)) {
+            assertEquals(1, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_RTREE,
+                    PlaceDBHelper.COLUMN_RTREE_ID + " = " + expected.getId(expected.size() / 2)));
+        }
+
+        // 一致する地点がなければ、何も戻さない
+        assertTrue(mArchiver.restoreMatching(PlaceDBHelper.COLUMN_ID + " < 0", null).isEmpty());
+        assertEquals(archived - 1, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_ARCHIVE));
+    }
+
+    private Set<Long> readIds(PlaceBoundsQuery query) {
+        Cursor cursor = query.queryWithArchive(mDb, mArchive, PlaceDBHelper.hasRTree(mDb),
+                new String[]{PlaceDBHelper.COLUMN_ID}, null, null, null, null, null);
+        Set<Long> ids = new HashSet<Long>();
+        try {
+            while (cursor.moveToNext()) {
+                assertTrue(ids.add(cursor.getLong(0)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    private Map<Long, Integer> readCells(PlaceBoundsQuery query) {
+        Cursor cursor = query.queryWithArchive(mDb, mArchive, PlaceDBHelper.hasRTree(mDb),
+                null, null, null, null, null, null);
+        Map<Long, Integer> cells = new HashMap<Long, Integer>();
+        try {
+            int keyIndex = cursor.getColumnIndexOrThrow(PlaceBoundsQuery.COLUMN_CELL_KEY);
+            int countIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_POINT_COUNT);
+            while (cursor.moveToNext()) {
+                cells.put(cursor.getLong(keyIndex), cursor.getInt(countIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+        return cells;
+    }
+
+    private void insertRows(Random random) {
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + PlaceDBHelper.TABLE_E7
+                + " (" + PlaceDBHelper.COLUMN_LATITUDE_E7 + ", " + PlaceDBHelper.COLUMN_LONGITUDE_E7
+                + ", " + PlaceDBHelper.COLUMN_TIME + ", " + PlaceDBHelper.COLUMN_DAY_KEY + ") VALUES (?, ?, ?, ?)");
+
+        long latitude = PlaceDBHelper.toE7(35.681167);
+        long longitude = PlaceDBHelper.toE7(139.767052);
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                long time = START_TIME + i * INTERVAL;
+                latitude += random.nextInt(20001) - 10000;
+                longitude += random.nextInt(20001) - 10000;
+
+                insert.bindLong(1, latitude);
+                insert.bindLong(2, longitude);
+                insert.bindLong(3, time);
+                insert.bindLong(4, DayKey.of(time));
+                insert.executeInsert();
+            }
+
+            mDb.execSQL("INSERT INTO " + PlaceDBHelper.TABLE_DAY
+                    + " SELECT day_key, COUNT(*), MIN(time), MAX(time), MIN(latitude), MAX(latitude),"
+                    + " MIN(longitude), MAX(longitude) FROM PLACE GROUP BY day_key");
+            if (PlaceDBHelper.hasRTree(mDb)) {
+                mDb.execSQL("INSERT INTO " + PlaceDBHelper.TABLE_RTREE
+                        + " SELECT _id, latitude, latitude, longitude, longitude, time, time FROM PLACE");
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private PlaceTrack readStoredTrack(int dayKey) {
+        Cursor cursor = mDb.query(PlaceDBHelper.TABLE_NAME, PlaceRepository.PLACE_PROJECTION,
+                PlaceDBHelper.COLUMN_DAY_KEY + " = " + dayKey, null, null, null, PlacePageQuery.SORT_ORDER);
+        try {
+            return PlaceTrack.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private PlaceTrack readArchivedTrack(int dayKey) throws Exception {
+        Cursor cursor = mDb.query(PlaceDBHelper.TABLE_ARCHIVE,
+                new String[]{PlaceDBHelper.COLUMN_SEGMENT_OFFSET, PlaceDBHelper.COLUMN_SEGMENT_LENGTH},
+                PlaceDBHelper.COLUMN_DAY_KEY + " = " + dayKey, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToNext());
+            return mArchive.read(cursor.getLong(0), cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private String readDaySummary(int dayKey) {
+        Cursor cursor = mDb.query(PlaceDBHelper.TABLE_DAY, null,
+                PlaceDBHelper.COLUMN_DAY_KEY + " = " + dayKey, null, null, null, null);
+        try {
+            assertTrue(cursor.moveToNext());
+            StringBuilder summary = new StringBuilder();
+            for (int i = 0; i < cursor.getColumnCount(); i++) {
+                summary.append(cursor.getString(i)).append(',');
+            }
+            return summary.toString();
+        } finally {
+            cursor.close();
+        }
+    }
+}
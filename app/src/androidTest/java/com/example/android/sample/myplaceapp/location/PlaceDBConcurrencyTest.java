@@ -0,0 +1,144 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * 書き込み中の読み込みが、WALによって待たされなくなることを確認するテスト。
+ * 所要時間は比べず、書き込みのトランザクションを開いたまま読み込みが終わるかどうかを確かめる。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaceDBConcurrencyTest {
+
+    private static final String TEST_DB_NAME = "PlaceConcurrencyTest.db";
+
+    /**
+     * 書き込み側が1トランザクションで挿入する件数。
+     */
+    private static final int ROWS_PER_TRANSACTION = 2000;
+
+    /**
+     * 読み込みが終わらない場合に、待たされていると判断するまでの秒数。
+     * 速さを測るためではなく、テストが止まらないようにするための値なので、十分に長くしている。
+     */
+    private static final long BLOCKED_TIMEOUT_SECONDS = 30;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @Test
+    public void readDoesNotWaitForOpenWriteTransaction() throws Exception {
+        PlaceDBHelper helper = new PlaceDBHelper(mContext, TEST_DB_NAME);
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            assertTrue(db.isWriteAheadLoggingEnabled());
+
+            // コミット済みの行
+            db.beginTransaction();
+            try {
+                writeRows(db, 0L);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            final CountDownLatch writeStarted = new CountDownLatch(1);
+            final CountDownLatch commitAllowed = new CountDownLatch(1);
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    db.beginTransaction();
+                    try {
+                        writeRows(db, ROWS_PER_TRANSACTION);
+                        writeStarted.countDown();
+                        // 読み込みが終わるまで、コミットせずに待つ
+                        commitAllowed.await();
+                        db.setTransactionSuccessful();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        db.endTransaction();
+                    }
+                }
+            });
+
+            final AtomicLong readCount = new AtomicLong(-1L);
+            final AtomicReference<Throwable> readError = new AtomicReference<Throwable>();
+            final CountDownLatch readDone = new CountDownLatch(1);
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        readCount.set(DatabaseUtils.queryNumEntries(db, PlaceDBHelper.TABLE_E7));
+                    } catch (Throwable e) {
+                        readError.set(e);
+                    } finally {
+                        readDone.countDown();
+                    }
+                }
+            });
+
+            try {
+                writer.start();
+                assertTrue(writeStarted.await(BLOCKED_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+                // 書き込みのトランザクションが開いている間に読む
+                reader.start();
+                assertTrue("read was blocked by the open write transaction",
+                        readDone.await(BLOCKED_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+                assertNull(readError.get());
+
+                // コミット前の行は見えず、コミット済みのスナップショットが読める
+                assertEquals(ROWS_PER_TRANSACTION, readCount.get());
+            } finally {
+                commitAllowed.countDown();
+                writer.join();
+                reader.join();
+            }
+
+            assertEquals(2 * ROWS_PER_TRANSACTION, DatabaseUtils.queryNumEntries(db, PlaceDBHelper.TABLE_E7));
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static void writeRows(SQLiteDatabase db, long startTime) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + PlaceDBHelper.TABLE_E7
+                + " (" + PlaceDBHelper.COLUMN_LATITUDE_E7 + ", " + PlaceDBHelper.COLUMN_LONGITUDE_E7
+                + ", " + PlaceDBHelper.COLUMN_TIME + ") VALUES (?, ?, ?)");
+
+        long time = startTime;
+        for (int i = 0; i < ROWS_PER_TRANSACTION; i++) {
+            insert.bindLong(1, PlaceDBHelper.toE7(35.0 + i * 0.00001));
+            insert.bindLong(2, PlaceDBHelper.toE7(139.0 + i * 0.00001));
+            insert.bindLong(3, time++);
+            insert.executeInsert();
+        }
+    }
+}
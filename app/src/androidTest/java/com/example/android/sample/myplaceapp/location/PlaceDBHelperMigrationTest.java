@@ -0,0 +1,159 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaceDBHelperのマイグレーションのテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaceDBHelperMigrationTest {
+
+    private static final String TEST_DB_NAME = "PlaceMigrationTest.db";
+
+    /**
+     * 5分間隔で1年分記録した件数。
+     */
+    private static final int ROWS_PER_DAY = 24 * 12;
+    private static final int DAYS = 365;
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @Test
+    public void upgradeFromVersion1() throws Exception {
+        createVersion1Database();
+
+        PlaceDBHelper helper = new PlaceDBHelper(mContext, TEST_DB_NAME);
+        SQLiteDatabase db = helper.getReadableDatabase();
+
+        try {
+            // 既存の行が失われていないこと
+            assertEquals(ROWS_PER_DAY * DAYS,
+                    DatabaseUtils.queryNumEntries(db, PlaceDBHelper.TABLE_NAME));
+
+            // 日単位の検索が、インデックスだけで並び替えまで済むこと
+            long dayStart = START_TIME + 100 * PlaceRepository.DAY;
+            String plan = explainQueryPlan(db,
+                    "SELECT _id, latitude, longitude, time FROM PLACE"
+                            + " WHERE time BETWEEN " + dayStart + " AND " + (dayStart + PlaceRepository.DAY - 1)
+                            + " ORDER BY time");
+
+            assertTrue(plan, plan.contains(PlaceDBHelper.INDEX_TIME));
+            assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+            // 日のキーによる検索が、インデックスの等価検索になること
+            int dayKey = DayKey.of(dayStart);
+            String dayKeyPlan = explainQueryPlan(db,
+                    "SELECT _id, latitude, longitude, time FROM PLACE"
+                            + " WHERE day_key = " + dayKey
+                            + " ORDER BY time");
+
+            assertTrue(dayKeyPlan, dayKeyPlan.contains(PlaceDBHelper.INDEX_DAY_KEY));
+            assertFalse(dayKeyPlan, dayKeyPlan.contains("TEMP B-TREE"));
+
+            // 既存の行に、日のキーが設定されていること
+            assertEquals(0, DatabaseUtils.queryNumEntries(db, PlaceDBHelper.TABLE_NAME,
+                    PlaceDBHelper.COLUMN_DAY_KEY + " = 0"));
+
+            // 緯度・経度がE7の整数に移され、ビューからは元の値で読めること
+            Cursor cursor = db.query(PlaceDBHelper.TABLE_NAME,
+                    new String[]{PlaceDBHelper.COLUMN_LATITUDE, PlaceDBHelper.COLUMN_LONGITUDE,
+                            PlaceDBHelper.COLUMN_LATITUDE_E7, PlaceDBHelper.COLUMN_REGISTER_TIME},
+                    PlaceDBHelper.COLUMN_ID + " = ?", new String[]{"1234"}, null, null, null);
+            try {
+                assertTrue(cursor.moveToNext());
+                assertEquals(35.0 + 233 * 0.0001, cursor.getDouble(0), 1e-9);
+                assertEquals(139.0 + 533 * 0.0001, cursor.getDouble(1), 1e-9);
+                assertEquals(PlaceDBHelper.toE7(35.0 + 233 * 0.0001), cursor.getLong(2));
+                assertNotNull(cursor.getString(3));
+            } finally {
+                cursor.close();
+            }
+
+            // 既存の行が、空間インデックスに登録されていること
+            if (PlaceDBHelper.hasRTree(db)) {
+                assertEquals(ROWS_PER_DAY * DAYS,
+                        DatabaseUtils.queryNumEntries(db, PlaceDBHelper.TABLE_RTREE));
+            }
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * バージョン1のスキーマで、1年分の位置情報を持つデータベースを作る。
+     */
+    private void createVersion1Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DB_NAME, Context.MODE_PRIVATE, null);
+
+        try {
+            db.execSQL("CREATE TABLE PLACE ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "latitude REAL NOT NULL, "
+                    + "longitude REAL NOT NULL, "
+                    + "time INTEGER NOT NULL, "
+                    + "register_time TIMESTAMP DEFAULT (DATETIME('now', 'localtime')))");
+
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO PLACE (latitude, longitude, time) VALUES (?, ?, ?)");
+
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < ROWS_PER_DAY * DAYS; i++) {
+                    insert.bindDouble(1, 35.0 + (i % 1000) * 0.0001);
+                    insert.bindDouble(2, 139.0 + (i % 700) * 0.0001);
+                    insert.bindLong(3, START_TIME + i * 5L * 60L * 1000L);
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            db.setVersion(1);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static String explainQueryPlan(SQLiteDatabase db, String sql) {
+        StringBuilder plan = new StringBuilder();
+
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return plan.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaceJournalFlusherによる、ジャーナルからSQLiteへの移動のテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaceJournalFlusherTest {
+
+    private static final String TEST_DB_NAME = "PlaceJournalFlusherTest.db";
+    private static final String TEST_JOURNAL_NAME = "PlaceJournalFlusherTest.bin";
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    private Context mContext;
+    private PlaceDBHelper mHelper;
+    private SQLiteDatabase mDb;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB_NAME);
+        mFile = new File(mContext.getCacheDir(), TEST_JOURNAL_NAME);
+        mFile.delete();
+
+        mHelper = new PlaceDBHelper(mContext, TEST_DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DB_NAME);
+        mFile.delete();
+    }
+
+    @Test
+    public void flush_movesRecordsInOneTransaction() throws Exception {
+        PlaceJournal journal = new PlaceJournal(mFile);
+        journal.append(places(0, 10));
+
+        PlaceTrack inserted = newFlusher(journal).flush();
+
+        assertEquals(10, inserted.size());
+        assertEquals(10, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_NAME));
+        assertEquals(10, DatabaseUtils.longForQuery(mDb,
+                "SELECT SUM(" + PlaceDBHelper.COLUMN_POINT_COUNT + ") FROM " + PlaceDBHelper.TABLE_DAY, null));
+        assertEquals(10, readFlushedSequence());
+        assertFalse(journal.hasRecords());
+
+        // E7の値がそのまま書き込まれていること
+        assertEquals(PlaceDBHelper.toE7(35.0 + 9 * 0.001), DatabaseUtils.longForQuery(mDb,
+                "SELECT " + PlaceDBHelper.COLUMN_LATITUDE_E7 + " FROM " + PlaceDBHelper.TABLE_E7
+                        + " WHERE " + PlaceDBHelper.COLUMN_ID + " = " + inserted.getId(9), null));
+    }
+
+    @Test
+    public void flush_isIdempotentAfterCrashBeforeDiscard() throws Exception {
+        PlaceJournal journal = new PlaceJournal(mFile);
+        journal.append(places(0, 5));
+        newFlusher(journal).flush();
+
+        // コミットした後、ジャーナルから削除する前に終了した状態を作る
+        journal.append(places(5, 3));
+        mDb.beginTransaction();
+        try {
+            for (PlaceJournal.Entry entry : journal.readAfter(readFlushedSequence())) {
+                ContentValues values = new ContentValues();
+                values.put(PlaceDBHelper.COLUMN_LATITUDE_E7, entry.getLatitudeE7());
+                values.put(PlaceDBHelper.COLUMN_LONGITUDE_E7, entry.getLongitudeE7());
+                values.put(PlaceDBHelper.COLUMN_TIME, entry.getTime());
+                values.put(PlaceDBHelper.COLUMN_DAY_KEY, entry.getDayKey());
+                mDb.insertOrThrow(PlaceDBHelper.TABLE_E7, null, values);
+            }
+            mDb.execSQL("UPDATE " + PlaceDBHelper.TABLE_JOURNAL_STATE
+                    + " SET " + PlaceDBHelper.COLUMN_FLUSHED_SEQUENCE + " = 8");
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+
+        // 起動し直して移す
+        PlaceJournal reopened = new PlaceJournal(mFile);
+        assertTrue(reopened.hasRecords());
+        PlaceTrack inserted = newFlusher(reopened).flush();
+
+        assertEquals(0, inserted.size());
+        assertEquals(8, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_NAME));
+        assertFalse(reopened.hasRecords());
+
+        // 続きの通し番号で追記したものは移される
+        reopened.append(places(8, 2));
+        assertEquals(2, newFlusher(reopened).flush().size());
+        assertEquals(10, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_NAME));
+        assertEquals(10, readFlushedSequence());
+    }
+
+    @Test
+    public void flush_restartsSequenceWhenJournalIsLost() throws Exception {
+        PlaceJournal journal = new PlaceJournal(mFile);
+        journal.append(places(0, 5));
+        newFlusher(journal).flush();
+
+        assertTrue(mFile.delete());
+        PlaceJournal recreated = new PlaceJournal(mFile);
+        recreated.append(places(5, 2));
+
+        assertEquals(2, newFlusher(recreated).flush().size());
+        assertEquals(7, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_NAME));
+    }
+
+    private PlaceJournalFlusher newFlusher(PlaceJournal journal) {
+        return new PlaceJournalFlusher(mDb, journal, new PlaceDayUpdater(mDb), new PlaceRTreeUpdater(mDb));
+    }
+
+    private long readFlushedSequence() {
+        return DatabaseUtils.longForQuery(mDb, "SELECT " + PlaceDBHelper.COLUMN_FLUSHED_SEQUENCE
+                + " FROM " + PlaceDBHelper.TABLE_JOURNAL_STATE, null);
+    }
+
+    private static List<Place> places(int from, int count) {
+        List<Place> places = new ArrayList<Place>(count);
+        for (int i = from; i < from + count; i++) {
+            Place place = new Place();
+            place.setLatitude(35.0 + i * 0.001);
+            place.setLongitude(139.0 - i * 0.001);
+            place.setTime(START_TIME + i * 60000L);
+            places.add(place);
+        }
+        return places;
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlacePageQueryによるページ単位の読み込みのテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlacePageQueryTest {
+
+    private static final String TEST_DB_NAME = "PlacePageQueryTest.db";
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    /**
+     * 1件ごとに同じ取得時刻の行を持たせて、取得時刻だけではページの境界を決められないようにする。
+     */
+    private static final int ROWS = 10007;
+
+    private Context mContext;
+    private PlaceDBHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB_NAME);
+
+        mHelper = new PlaceDBHelper(mContext, TEST_DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+
+        SQLiteStatement insert = mDb.compileStatement(
+                "INSERT INTO PLACE_E7 (latitude_e7, longitude_e7, time, day_key) VALUES (?, ?, ?, ?)");
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                long time = START_TIME + (i / 2) * 1000L;
+                insert.bindLong(1, PlaceDBHelper.toE7(35.0 + i * 0.00001));
+                insert.bindLong(2, PlaceDBHelper.toE7(139.0 + i * 0.00001));
+                insert.bindLong(3, time);
+                insert.bindLong(4, DayKey.of(time));
+                insert.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @Test
+    public void readsAllRowsOnceInOrder() throws Exception {
+        PlacePageQuery query = new PlacePageQuery(100);
+
+        int read = 0;
+        long lastTime = Long.MIN_VALUE;
+        long lastId = Long.MIN_VALUE;
+
+        while (true) {
+            Cursor cursor = query.query(mDb, PlaceRepository.PLACE_PROJECTION, null, null, null);
+            PlaceTrack page;
+            try {
+                page = PlaceTrack.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+
+            assertTrue(page.size() <= 100);
+            for (int i = 0; i < page.size(); i++) {
+                // (取得時刻, _id)の昇順で、重複も抜けもないこと
+                long time = page.getTime(i);
+                long id = page.getId(i);
+                assertTrue(time > lastTime || (time == lastTime && id > lastId));
+                lastTime = time;
+                lastId = id;
+                read++;
+            }
+
+            if (page.size() < 100) {
+                break;
+            }
+            query = query.next(lastTime, lastId);
+        }
+
+        assertEquals(ROWS, read);
+    }
+
+    @Test
+    public void pageSeeksIndexWithoutSorting() throws Exception {
+        int dayKey = DayKey.of(START_TIME);
+        String plan = explainQueryPlan("SELECT _id, latitude, longitude, time FROM PLACE"
+                + " WHERE (day_key = " + dayKey + ")"
+                + " AND time >= " + START_TIME + " AND (time > " + START_TIME + " OR _id > 1)"
+                + " ORDER BY " + PlacePageQuery.SORT_ORDER + " LIMIT 100");
+
+        assertTrue(plan, plan.contains(PlaceDBHelper.INDEX_DAY_KEY));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+
+        String rangePlan = explainQueryPlan("SELECT _id, latitude, longitude, time FROM PLACE"
+                + " WHERE (time BETWEEN " + START_TIME + " AND " + (START_TIME + PlaceRepository.DAY) + ")"
+                + " AND time >= " + START_TIME + " AND (time > " + START_TIME + " OR _id > 1)"
+                + " ORDER BY " + PlacePageQuery.SORT_ORDER + " LIMIT 100");
+
+        assertTrue(rangePlan, rangePlan.contains(PlaceDBHelper.INDEX_TIME));
+        assertFalse(rangePlan, rangePlan.contains("TEMP B-TREE"));
+    }
+
+    private String explainQueryPlan(String sql) {
+        StringBuilder plan = new StringBuilder();
+
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return plan.toString();
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 空間インデックスによる矩形検索のテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaceSpatialIndexTest {
+
+    private static final String TAG = "PlaceSpatialIndexTest";
+
+    private static final String TEST_DB_NAME = "PlaceSpatialIndexTest.db";
+
+    /**
+     * 100万件。30秒間隔で約1年分。
+     */
+    private static final int ROWS = 1000000;
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long INTERVAL = 30L * 1000L;
+
+    /**
+     * 検索する矩形の数。
+     */
+    private static final int QUERIES = 30;
+
+    private Context mContext;
+    private PlaceDBHelper mHelper;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB_NAME);
+
+        mHelper = new PlaceDBHelper(mContext, TEST_DB_NAME);
+        mDb = mHelper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @Test
+    public void boundsQuery_matchesBruteForceAndIsFaster() throws Exception {
+        boolean rtree = PlaceDBHelper.hasRTree(mDb);
+        insertRows(new Random(1), rtree);
+
+        Random random = new Random(2);
+        long indexNanos = 0L;
+        long scanNanos = 0L;
+
+        for (int q = 0; q < QUERIES; q++) {
+            // 地図の1画面程度の矩形。半分は取得時刻の範囲も指定する
+            double minLatitude = 35.0 + random.nextDouble() * 0.9;
+            double minLongitude = 139.0 + random.nextDouble() * 0.9;
+            double maxLatitude = minLatitude + 0.01 + random.nextDouble() * 0.03;
+            double maxLongitude = minLongitude + 0.01 + random.nextDouble() * 0.03;
+
+            PlaceBoundsQuery query;
+            String timeCondition = "";
+            if (q % 2 == 0) {
+                query = new PlaceBoundsQuery(minLatitude, minLongitude, maxLatitude, maxLongitude);
+            } else {
+                long fromTime = START_TIME + (long) (random.nextDouble() * ROWS) * INTERVAL;
+                long toTime = fromTime + 30L * PlaceRepository.DAY;
+                query = new PlaceBoundsQuery(minLatitude, minLongitude, maxLatitude, maxLongitude, fromTime, toTime);
+                timeCondition = " AND time BETWEEN " + fromTime + " AND " + toTime;
+            }
+
+            long start = SystemClock.elapsedRealtimeNanos();
+            List<Long> actual = readIds(query.query(mDb, rtree,
+                    new String[]{PlaceDBHelper.COLUMN_ID}, null, null, null, null, null));
+            indexNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            // インデックスを使わずに全件を調べた結果。矩形は格納値と同じE7に丸めて比べる
+            start = SystemClock.elapsedRealtimeNanos();
+            List<Long> expected = readIds(mDb.rawQuery("SELECT _id FROM " + PlaceDBHelper.TABLE_E7 + " NOT INDEXED"
+                    + " WHERE latitude_e7 BETWEEN " + PlaceDBHelper.toE7(minLatitude) + " AND " + PlaceDBHelper.toE7(maxLatitude)
+                    + " AND longitude_e7 BETWEEN " + PlaceDBHelper.toE7(minLongitude) + " AND " + PlaceDBHelper.toE7(maxLongitude)
+                    + timeCondition, null));
+            scanNanos += SystemClock.elapsedRealtimeNanos() - start;
+
+            Collections.sort(actual);
+            Collections.sort(expected);
+            assertEquals("query " + q, expected, actual);
+        }
+
+        double indexMs = indexNanos / 1e6 / QUERIES;
+        double scanMs = scanNanos / 1e6 / QUERIES;
+        Log.i(TAG, String.format("%d rows, average bounds query: %s=%.2fms, full scan=%.2fms",
+                ROWS, rtree ? "rtree" : "lat/lon index", indexMs, scanMs));
+
+        assertTrue("index=" + indexMs + "ms, scan=" + scanMs + "ms", indexMs < scanMs);
+    }
+
+    @Test
+    public void gridQuery_countsEveryPointOnceWithBoundedRows() throws Exception {
+        boolean rtree = PlaceDBHelper.hasRTree(mDb);
+        insertRows(new Random(3), rtree);
+
+        // 0.5度四方を、0.01度の格子でまとめる
+        PlaceBoundsQuery query = new PlaceBoundsQuery(35.2, 139.2, 35.7, 139.7).withGrid(0.01);
+        Cursor cursor = query.query(mDb, rtree, null, null, null, null, null, null);
+
+        int rows = cursor.getCount();
+        GridClusterer.Clusters clusters = GridClusterer.fromCursor(cursor);
+        cursor.close();
+
+        long total = 0;
+        for (int i = 0; i < clusters.size(); i++) {
+            total += clusters.getCount(i);
+        }
+
+        long expected = DatabaseUtils.longForQuery(mDb, "SELECT COUNT(*) FROM PLACE"
+                + " WHERE latitude BETWEEN 35.2 AND 35.7 AND longitude BETWEEN 139.2 AND 139.7", null);
+        assertEquals(expected, total);
+
+        // 行数は、記録の件数ではなく格子の数で決まる
+        double cells = (0.5 / query.getLatitudeGridSize() + 1) * (0.5 / 0.01 + 1);
+        assertTrue(rows + " rows", rows <= cells);
+    }
+
+    @Test
+    public void rtreeUpdater_followsUpdateAndDelete() throws Exception {
+        PlaceRTreeUpdater updater = new PlaceRTreeUpdater(mDb);
+        if (!updater.isEnabled()) {
+            Log.i(TAG, "rtree is not available");
+            return;
+        }
+
+        for (int i = 0; i < 10; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PlaceDBHelper.COLUMN_LATITUDE, 35.0 + i * 0.01);
+            values.put(PlaceDBHelper.COLUMN_LONGITUDE, 139.0 + i * 0.01);
+            values.put(PlaceDBHelper.COLUMN_TIME, START_TIME + i);
+            long id = mDb.insertOrThrow(PlaceDBHelper.TABLE_E7, null, PlaceDBHelper.toE7Values(values));
+            updater.onInserted(id, values);
+        }
+
+        // 1件を矩形の外へ動かす
+        String selection = PlaceDBHelper.COLUMN_TIME + " = ?";
+        String[] args = {String.valueOf(START_TIME + 3)};
+        List<Long> ids = updater.collectIds(selection, args);
+        ContentValues moved = new ContentValues();
+        moved.put(PlaceDBHelper.COLUMN_LATITUDE, 10.0);
+        mDb.update(PlaceDBHelper.TABLE_E7, PlaceDBHelper.toE7Values(moved), selection, args);
+        updater.refresh(ids);
+
+        // 1件を削除する
+        args = new String[]{String.valueOf(START_TIME + 5)};
+        ids = updater.collectIds(selection, args);
+        mDb.delete(PlaceDBHelper.TABLE_E7, selection, args);
+        updater.refresh(ids);
+
+        assertEquals(9, DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_RTREE));
+
+        PlaceBoundsQuery query = new PlaceBoundsQuery(34.9, 138.9, 36.0, 140.0);
+        List<Long> found = readIds(query.query(mDb, true,
+                new String[]{PlaceDBHelper.COLUMN_ID}, null, null, PlaceDBHelper.COLUMN_ID, null, null));
+        assertEquals(8, found.size());
+        assertFalse(found.contains(4L));
+        assertFalse(found.contains(6L));
+    }
+
+    @Test
+    public void boundsQuery_clampsInfiniteBoundsAndRejectsNaN() throws Exception {
+        PlaceRTreeUpdater updater = new PlaceRTreeUpdater(mDb);
+        boolean rtree = updater.isEnabled();
+
+        for (int i = 0; i < 5; i++) {
+            ContentValues values = new ContentValues();
+            values.put(PlaceDBHelper.COLUMN_LATITUDE, -80.0 + i * 40.0);
+            values.put(PlaceDBHelper.COLUMN_LONGITUDE, -170.0 + i * 85.0);
+            values.put(PlaceDBHelper.COLUMN_TIME, START_TIME + i);
+            long id = mDb.insertOrThrow(PlaceDBHelper.TABLE_E7, null, PlaceDBHelper.toE7Values(values));
+            if (rtree) {
+                updater.onInserted(id, values);
+            }
+        }
+
+        // 無限大は世界全体の矩形になり、SQLとして正しく実行できる
+        PlaceBoundsQuery query = new PlaceBoundsQuery(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        assertEquals(5, readIds(query.query(mDb, rtree,
+                new String[]{PlaceDBHelper.COLUMN_ID}, null, null, null, null, null)).size());
+
+        Cursor cursor = query.withGrid(10.0).query(mDb, rtree, null, null, null, null, null, null);
+        assertEquals(5, GridClusterer.fromCursor(cursor).size());
+        cursor.close();
+
+        try {
+            new PlaceBoundsQuery(Double.NaN, 139.0, 36.0, 140.0);
+            fail("NaN latitude");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new PlaceBoundsQuery(35.0, 139.0, 36.0, 140.0).withGrid(Double.POSITIVE_INFINITY);
+            fail("infinite grid");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private void insertRows(Random random, boolean rtree) {
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + PlaceDBHelper.TABLE_E7
+                + " (" + PlaceDBHelper.COLUMN_LATITUDE_E7 + ", " + PlaceDBHelper.COLUMN_LONGITUDE_E7
+                + ", " + PlaceDBHelper.COLUMN_TIME + ") VALUES (?, ?, ?)");
+
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < ROWS; i++) {
+                insert.bindLong(1, PlaceDBHelper.toE7(35.0 + random.nextDouble()));
+                insert.bindLong(2, PlaceDBHelper.toE7(139.0 + random.nextDouble()));
+                insert.bindLong(3, START_TIME + i * INTERVAL);
+                insert.executeInsert();
+            }
+
+            if (rtree) {
+                mDb.execSQL("INSERT INTO " + PlaceDBHelper.TABLE_RTREE
+                        + " SELECT _id, latitude, latitude, longitude, longitude, time, time FROM PLACE");
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private static List<Long> readIds(Cursor cursor) {
+        List<Long> ids = new ArrayList<Long>();
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+}
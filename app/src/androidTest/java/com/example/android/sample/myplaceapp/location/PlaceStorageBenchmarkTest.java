@@ -0,0 +1,205 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 位置情報をE7の整数で持つテーブル(バージョン7)と、それ以前のREALのテーブルの、
+ * ファイルサイズと読み込み時間を比べるテスト。
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaceStorageBenchmarkTest {
+
+    private static final String TAG = "PlaceStorageBenchmark";
+
+    private static final String TEST_DB_NAME = "PlaceStorageBenchmarkTest.db";
+
+    /**
+     * 2分間隔で3年分。
+     */
+    private static final int ROWS = 3 * 365 * 24 * 30;
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+    private static final long INTERVAL = 2L * 60L * 1000L;
+
+    /**
+     * 読み込み時間を測る回数。最も速かった回を使う。
+     */
+    private static final int RUNS = 5;
+
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mContext.deleteDatabase(TEST_DB_NAME);
+    }
+
+    @Test
+    public void e7Layout_isSmallerThanRealLayout() throws Exception {
+        createVersion6Database();
+
+        // バージョン6のままで測る
+        SQLiteDatabase legacy = mContext.openOrCreateDatabase(TEST_DB_NAME, Context.MODE_PRIVATE, null);
+        long legacySize;
+        double legacyScan;
+        double legacyYear;
+        try {
+            legacy.execSQL("VACUUM");
+            legacySize = databaseSize(legacy);
+            legacyScan = measureScan(legacy);
+            legacyYear = measureYear(legacy);
+        } finally {
+            legacy.close();
+        }
+
+        // バージョン7にマイグレーションしてから測る
+        PlaceDBHelper helper = new PlaceDBHelper(mContext, TEST_DB_NAME);
+        long e7Size;
+        double e7Scan;
+        double e7Year;
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            assertEquals(ROWS, DatabaseUtils.queryNumEntries(db, PlaceDBHelper.TABLE_E7));
+
+            db.execSQL("VACUUM");
+            e7Size = databaseSize(db);
+            e7Scan = measureScan(db);
+            e7Year = measureYear(db);
+        } finally {
+            helper.close();
+        }
+
+        Log.i(TAG, String.format("%d rows: size %d KB -> %d KB (%.1f%%)",
+                ROWS, legacySize / 1024, e7Size / 1024, 100.0 * (e7Size - legacySize) / legacySize));
+        Log.i(TAG, String.format("full scan: %.1f ms -> %.1f ms, one year by cursor: %.1f ms -> %.1f ms",
+                legacyScan, e7Scan, legacyYear, e7Year));
+
+        assertTrue(e7Size < legacySize);
+    }
+
+    /**
+     * バージョン6のスキーマで、3年分の位置情報を持つデータベースを作る。
+     */
+    private void createVersion6Database() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(TEST_DB_NAME, Context.MODE_PRIVATE, null);
+
+        try {
+            db.execSQL("CREATE TABLE PLACE ("
+                    + "_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "latitude REAL NOT NULL, "
+                    + "longitude REAL NOT NULL, "
+                    + "time INTEGER NOT NULL, "
+                    + "register_time TIMESTAMP DEFAULT (DATETIME('now', 'localtime')), "
+                    + "day_key INTEGER NOT NULL DEFAULT 0)");
+            db.execSQL("CREATE TABLE PLACE_DAY (day_key INTEGER PRIMARY KEY, point_count INTEGER NOT NULL, "
+                    + "first_time INTEGER NOT NULL, last_time INTEGER NOT NULL, "
+                    + "min_latitude REAL NOT NULL, max_latitude REAL NOT NULL, "
+                    + "min_longitude REAL NOT NULL, max_longitude REAL NOT NULL)");
+
+            // 空間インデックスは、両方のレイアウトで同じなので登録しない
+            try {
+                db.execSQL("CREATE VIRTUAL TABLE PLACE_RTREE USING rtree("
+                        + "id, min_latitude, max_latitude, min_longitude, max_longitude, min_time, max_time)");
+            } catch (SQLiteException e) {
+                db.execSQL("CREATE INDEX PLACE_LAT_LON_IDX ON PLACE (latitude, longitude, time)");
+            }
+
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO PLACE (latitude, longitude, time, day_key) VALUES (?, ?, ?, ?)");
+
+            // 歩く程度の速さで、少しずつ移動し続ける
+            Random random = new Random(1);
+            double latitude = 35.681167;
+            double longitude = 139.767052;
+
+            db.beginTransaction();
+            try {
+                for (int i = 0; i < ROWS; i++) {
+                    long time = START_TIME + i * INTERVAL;
+                    latitude += (random.nextDouble() - 0.5) * 0.002;
+                    longitude += (random.nextDouble() - 0.5) * 0.002;
+
+                    // GPSの精度に合わせて、小数点以下7桁に丸める
+                    insert.bindDouble(1, Math.rint(latitude * 1e7) / 1e7);
+                    insert.bindDouble(2, Math.rint(longitude * 1e7) / 1e7);
+                    insert.bindLong(3, time);
+                    insert.bindLong(4, DayKey.of(time));
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+
+            db.execSQL("CREATE INDEX PLACE_TIME_IDX ON PLACE (time, _id, latitude, longitude)");
+            db.execSQL("CREATE INDEX PLACE_DAY_KEY_IDX ON PLACE (day_key, time, _id, latitude, longitude)");
+
+            db.setVersion(6);
+        } finally {
+            db.close();
+        }
+    }
+
+    private static long databaseSize(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "PRAGMA page_count", null)
+                * DatabaseUtils.longForQuery(db, "PRAGMA page_size", null);
+    }
+
+    /**
+     * 全件を読んで集計する時間(ms)を返す。
+     */
+    private static double measureScan(SQLiteDatabase db) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            DatabaseUtils.stringForQuery(db,
+                    "SELECT COUNT(*) || AVG(latitude) || AVG(longitude) FROM PLACE", null);
+            best = Math.min(best, SystemClock.elapsedRealtimeNanos() - start);
+        }
+        return best / 1e6;
+    }
+
+    /**
+     * 1年分の位置情報を、取得時刻順にカーソルで読む時間(ms)を返す。
+     */
+    private static double measureYear(SQLiteDatabase db) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            Cursor cursor = db.query(PlaceDBHelper.TABLE_NAME, PlaceRepository.PLACE_PROJECTION,
+                    PlaceDBHelper.COLUMN_TIME + " BETWEEN ? AND ?",
+                    new String[]{String.valueOf(START_TIME), String.valueOf(START_TIME + 365 * PlaceRepository.DAY)},
+                    null, null, PlaceDBHelper.COLUMN_TIME);
+            try {
+                PlaceTrack.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+            best = Math.min(best, SystemClock.elapsedRealtimeNanos() - start);
+        }
+        return best / 1e6;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.sample.myplaceapp;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+/**
+ * WALモードのデータベースで、書き込みが落ち着いた時にチェックポイントを実行するクラス。
+ * <p>
+ * 書き込みのたびにチェックポイントを行うと、書き込み側のスレッドでWALの内容をDB本体へ
+ * コピーすることになるため、書き込みが途絶えてから一定時間後に、専用のスレッドで実行する。
+ */
+public class IdleWalCheckpointer {
+
+    private static final String TAG = "IdleWalCheckpointer";
+
+    /**
+     * 自動チェックポイントを行うWALのページ数。
+     * 通常はアイドル時のチェックポイントに任せ、書き込みが続いてWALが肥大化した場合だけ自動で行われる。
+     */
+    public static final int AUTO_CHECKPOINT_PAGES = 1000;
+
+    /**
+     * 最後の書き込みから、チェックポイントを行うまでの時間ms。
+     */
+    private static final long IDLE_DELAY_MS = 10 * 1000;
+
+    /**
+     * チェックポイントを行うスレッド。全てのデータベースで共有する。
+     */
+    private static HandlerThread sThread;
+
+    private final SQLiteOpenHelper mHelper;
+
+    private final Handler mHandler;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param helper チェックポイントを行うデータベース
+     */
+    public IdleWalCheckpointer(SQLiteOpenHelper helper) {
+        this.mHelper = helper;
+        this.mHandler = new Handler(getLooperThread().getLooper());
+    }
+
+    /**
+     * 書き込みが行われたことを知らせる。
+     * 以降、書き込みがないまま一定時間が経過したらチェックポイントを行う。
+     */
+    public void onWrite() {
+        mHandler.removeCallbacks(mCheckpoint);
+        mHandler.postDelayed(mCheckpoint, IDLE_DELAY_MS);
+    }
+
+    /**
+     * 自動チェックポイントの間隔を設定する。
+     * SQLiteOpenHelper#onConfigure()から呼び出す。
+     *
+     * @param db
+     */
+    public static void configure(SQLiteDatabase db) {
+        DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint=" + AUTO_CHECKPOINT_PAGES, null);
+    }
+
+    /**
+     * チェックポイントを行う処理。
+     * PASSIVEモードなので、読み書き中の接続を待たせることはない。
+     */
+    private final Runnable mCheckpoint = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                SQLiteDatabase db = mHelper.getWritableDatabase();
+                if (db.isWriteAheadLoggingEnabled()) {
+                    DatabaseUtils.longForQuery(db, "PRAGMA wal_checkpoint(PASSIVE)", null);
+                }
+            } catch (SQLiteException e) {
+                // 次の書き込み後に再度実行されるので、ここでは記録するだけにする
+                Log.w(TAG, "checkpoint failed", e);
+            }
+        }
+    };
+
+    private static synchronized HandlerThread getLooperThread() {
+        if (sThread == null) {
+            sThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            sThread.start();
+        }
+        return sThread;
+    }
+}
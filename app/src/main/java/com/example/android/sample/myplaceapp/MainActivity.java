@@ -17,9 +17,9 @@ import android.view.View;
 import com.example.android.sample.myplaceapp.camera.CameraFragment;
 import com.example.android.sample.myplaceapp.camera.CameraLegacyFragment;
 import com.example.android.sample.myplaceapp.camera.PictureFragment;
+import com.example.android.sample.myplaceapp.location.DayKey;
 import com.example.android.sample.myplaceapp.location.LoggedDateFragment;
 import com.example.android.sample.myplaceapp.location.LoggedMapFragment;
-import com.example.android.sample.myplaceapp.location.Place;
 
 /**
  * メインアクティビティ。
@@ -38,7 +38,7 @@ public class MainActivity extends AppCompatActivity implements LoggedDateFragmen
         setContentView(R.layout.activity_main);
 
         // 本日の日付文字列
-        String date = String.format(Place.DATE_STR_FORMAT,System.currentTimeMillis());
+        String date = DayKey.toDateString(DayKey.of(System.currentTimeMillis()));
 
         // 地図フラグメントを生成する
         LoggedMapFragment mapFragment = LoggedMapFragment.newInstance(date);
@@ -131,4 +131,11 @@ public class MainActivity extends AppCompatActivity implements LoggedDateFragmen
         PictureFragment pictureFragment = (PictureFragment) getFragmentManager().findFragmentById(R.id.GalleryContainer);
         pictureFragment.setDate(date);
     }
+
+    @Override
+    public void onAllHistorySelected() {
+        // 地図を全期間の表示に切り替える
+        LoggedMapFragment mapFragment = (LoggedMapFragment) getFragmentManager().findFragmentById(R.id.MapContainer);
+        mapFragment.showAllHistory();
+    }
 }
@@ -0,0 +1,191 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 使い終えたBitmapを溜めておき、次の読み込みでBitmapFactory.Options.inBitmapに再利用するプール。
+ * <p>
+ * Bitmapは確保したバイト数ごとのバケットに分けて持ち、必要なバイト数以上で最も小さいものを返す。
+ * 大きすぎるBitmapを使うとメモリが無駄になるので、必要なバイト数のMAX_SIZE_MULTIPLE倍までに限る。
+ * 合計のバイト数が上限を超えたら、最も古く戻されたものから捨てる。
+ * <p>
+ * inBitmapに使えるのは変更可能なBitmapだけなので、読み込みの際はinMutableを指定する。
+ * 画面に表示中のBitmapを戻してはいけない。
+ */
+public class BitmapPool {
+
+    /**
+     * 必要なバイト数に対して、返してよいBitmapのバイト数の倍率の上限。
+     */
+    private static final int MAX_SIZE_MULTIPLE = 2;
+
+    private final long mMaxSize;
+
+    /**
+     * 確保したバイト数から、そのバイト数のBitmap。
+     */
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+
+    /**
+     * 戻された順のBitmap。上限を超えた時に、先頭から捨てる。
+     */
+    private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+
+    private long mSize;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param maxSize 保持するBitmapの合計のバイト数の上限
+     */
+    public BitmapPool(long maxSize) {
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * 使い終えたBitmapを戻す。再利用できないBitmapは捨てる。
+     *
+     * @param bitmap
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) {
+            return;
+        }
+
+        int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSize) {
+            return;
+        }
+
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            mBuckets.put(size, bucket);
+        }
+        bucket.addLast(bitmap);
+        mOrder.addLast(bitmap);
+        mSize += size;
+
+        trimToSize();
+    }
+
+    /**
+     * 指定した大きさの画像を読み込める、再利用するBitmapを取り出す。
+     *
+     * @param width
+     * @param height
+     * @param config
+     * @return 使えるBitmapがない場合はnull
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        long required = (long) width * height * bytesPerPixel(config);
+
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = required > Integer.MAX_VALUE
+                ? null : mBuckets.ceilingEntry((int) required);
+        if (entry == null || entry.getKey() > required * MAX_SIZE_MULTIPLE) {
+            mMissCount++;
+            return null;
+        }
+
+        Bitmap bitmap = entry.getValue().pollLast();
+        if (entry.getValue().isEmpty()) {
+            mBuckets.remove(entry.getKey());
+        }
+        mOrder.remove(bitmap);
+        mSize -= entry.getKey();
+        mHitCount++;
+        return bitmap;
+    }
+
+    /**
+     * 保持しているBitmapを全て捨てる。
+     */
+    public synchronized void clear() {
+        mBuckets.clear();
+        mOrder.clear();
+        mSize = 0;
+    }
+
+    /**
+     * 保持しているBitmapの合計のバイト数を返す。
+     *
+     * @return
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * 再利用できるBitmapを返せた回数を返す。
+     *
+     * @return
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 再利用できるBitmapがなかった回数を返す。
+     *
+     * @return
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * ログに出力する、集計の文字列を返す。
+     *
+     * @return
+     */
+    public synchronized String getStats() {
+        int requests = mHitCount + mMissCount;
+        return String.format(Locale.US, "pool hit=%d miss=%d (%.0f%%) evicted=%d size=%dKB",
+                mHitCount, mMissCount, requests == 0 ? 0.0 : 100.0 * mHitCount / requests,
+                mEvictionCount, mSize / 1024);
+    }
+
+    /**
+     * 合計のバイト数が上限以下になるまで、最も古く戻されたものから捨てる。
+     */
+    private void trimToSize() {
+        Iterator<Bitmap> iterator = mOrder.iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            iterator.remove();
+
+            int size = bitmap.getAllocationByteCount();
+            ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(size);
+            }
+            mSize -= size;
+            mEvictionCount++;
+
+            // 表示に使われていないことが分かっているので、ネイティブのメモリもすぐに解放する
+            bitmap.recycle();
+        }
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        if (config == Bitmap.Config.RGB_565) {
+            return 2;
+        }
+        return 4;
+    }
+}
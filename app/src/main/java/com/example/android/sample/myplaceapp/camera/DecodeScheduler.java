@@ -0,0 +1,297 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 一覧に表示する画像の読み込みを、ワーカースレッドで順番に行うクラス。
+ * <p>
+ * 同じキーの読み込みは1つにまとめ、読み込み終えた画像を待っている全ての受け取り手に渡す。
+ * 待っている受け取り手がいなくなった読み込みは、始まる前であれば取り消す。
+ * 最後に依頼されたものから読み込むので、スクロールした時は、いま画面に出ているものが先に表示される。
+ * 先読みの依頼は、表示するための依頼が全て終わってから読み込む。
+ * <p>
+ * AsyncTaskの共有のスレッドを使い切らないように、専用の、CPUの数より少ないスレッドで読み込む。
+ * 受け取り手の呼び出しは、UIスレッドで行う。request()とcancel()もUIスレッドから呼ぶ。
+ */
+public class DecodeScheduler {
+
+    /**
+     * 同時に読み込む数の上限。
+     */
+    private static final int MAX_THREADS = 4;
+
+    /**
+     * 使われていないスレッドを終了するまでの秒数。
+     */
+    private static final long KEEP_ALIVE_SECONDS = 10;
+
+    /**
+     * 読み込んだ画像の受け取り手。
+     */
+    public interface Callback {
+
+        /**
+         * 画像を読み込んだ。UIスレッドで呼ばれる。
+         * 受け取った画像は表示中として数えられているので、表示をやめる時にImageCache.release()を呼ぶ。
+         *
+         * @param key
+         * @param bitmap
+         */
+        void onDecoded(String key, Bitmap bitmap);
+    }
+
+    private final ImageCache mCache;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * キーから、読み込み中か、読み込みを待っている依頼。
+     */
+    private final Map<String, Request> mRequests = new HashMap<String, Request>();
+
+    /**
+     * 受け取り手から、待っている依頼。
+     */
+    private final Map<Callback, Request> mCallbacks = new HashMap<Callback, Request>();
+
+    /**
+     * 依頼した順番。大きいものほど先に読み込む。
+     */
+    private long mSequence;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param cache 読み込んだ画像を入れるキャッシュ
+     */
+    public DecodeScheduler(ImageCache cache) {
+        this(cache, Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_THREADS)));
+    }
+
+    /**
+     * スレッドの数を指定するコンストラクタ。テストで読み込む順番を確かめるために使う。
+     *
+     * @param cache 読み込んだ画像を入れるキャッシュ
+     * @param threads 同時に読み込む数
+     */
+    DecodeScheduler(ImageCache cache, int threads) {
+        this.mCache = cache;
+
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new DecodeThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 画像の読み込みを依頼する。受け取り手が前に依頼していたものは取り消す。
+     *
+     * @param key キャッシュのキー
+     * @param source 元の画像を読み込む処理
+     * @param callback 受け取り手
+     */
+    public synchronized void request(String key, ImageCache.Source source, Callback callback) {
+        cancel(callback);
+
+        Request request = mRequests.get(key);
+        if (request == null) {
+            request = new Request(key, source);
+            request.sequence = ++mSequence;
+            mRequests.put(key, request);
+            mExecutor.execute(request);
+        } else if (!request.started && mExecutor.remove(request)) {
+            // 同じものを読み込もうとしているので、いま表示されている分として先頭に並べ直す
+            request.sequence = ++mSequence;
+            request.prefetch = false;
+            mExecutor.execute(request);
+        }
+
+        request.callbacks.add(callback);
+        mCallbacks.put(callback, request);
+    }
+
+    /**
+     * まだ表示しない画像の先読みを依頼する。読み込んだ画像はキャッシュに入れるだけにする。
+     * 同じキーを読み込み中か、読み込みを待っている場合は何もしない。
+     *
+     * @param key キャッシュのキー
+     * @param source 元の画像を読み込む処理
+     */
+    public synchronized void prefetch(String key, ImageCache.Source source) {
+        if (mRequests.containsKey(key)) {
+            return;
+        }
+
+        Request request = new Request(key, source);
+        request.sequence = ++mSequence;
+        request.prefetch = true;
+        mRequests.put(key, request);
+        mExecutor.execute(request);
+    }
+
+    /**
+     * 始まっていない先読みを全て取り消す。表示するために待っている受け取り手がいるものは残す。
+     */
+    public synchronized void cancelPrefetch() {
+        Iterator<Request> iterator = mRequests.values().iterator();
+        while (iterator.hasNext()) {
+            Request request = iterator.next();
+            if (request.prefetch && request.callbacks.isEmpty() && !request.started
+                    && mExecutor.remove(request)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 受け取り手の依頼を取り消す。他に待っている受け取り手がいなければ、読み込みも取り消す。
+     *
+     * @param callback
+     */
+    public synchronized void cancel(Callback callback) {
+        Request request = mCallbacks.remove(callback);
+        if (request == null) {
+            return;
+        }
+
+        request.callbacks.remove(callback);
+        if (request.callbacks.isEmpty() && !request.started && mExecutor.remove(request)) {
+            mRequests.remove(request.key);
+        }
+    }
+
+    /**
+     * 全ての依頼を取り消す。読み込み中のものは、終わってもキャッシュに入れるだけにする。
+     */
+    public synchronized void cancelAll() {
+        for (Request request : mRequests.values()) {
+            request.callbacks.clear();
+            if (!request.started) {
+                mExecutor.remove(request);
+            }
+        }
+        mCallbacks.clear();
+        mRequests.clear();
+    }
+
+    /**
+     * 読み込みを始める。始まる前に取り消されていたらfalseを返す。
+     */
+    private synchronized boolean start(Request request) {
+        if (mRequests.get(request.key) != request) {
+            return false;
+        }
+        request.started = true;
+        return true;
+    }
+
+    /**
+     * 読み込んだ画像を受け取り手に渡す。UIスレッドで呼ぶ。
+     */
+    private void deliver(Request request, Bitmap bitmap) {
+        List<Callback> callbacks;
+        synchronized (this) {
+            if (mRequests.get(request.key) == request) {
+                mRequests.remove(request.key);
+            }
+            callbacks = new ArrayList<Callback>(request.callbacks);
+            for (Callback callback : callbacks) {
+                mCallbacks.remove(callback);
+            }
+            request.callbacks.clear();
+        }
+
+        if (bitmap == null) {
+            return;
+        }
+
+        if (callbacks.isEmpty()) {
+            // 待っている受け取り手がいなくなったので、読み込んだ時に数えた分を戻す
+            mCache.release(bitmap);
+            return;
+        }
+
+        // 読み込んだ時に1つ数えているので、2つ目の受け取り手から数える
+        for (int i = 1; i < callbacks.size(); i++) {
+            mCache.retain(bitmap);
+        }
+        for (Callback callback : callbacks) {
+            callback.onDecoded(request.key, bitmap);
+        }
+    }
+
+    /**
+     * 1つのキーの読み込み。
+     */
+    private class Request implements Runnable, Comparable<Request> {
+        private final String key;
+        private final ImageCache.Source source;
+        private final List<Callback> callbacks = new ArrayList<Callback>();
+        private long sequence;
+        private boolean prefetch;
+        private boolean started;
+
+        public Request(String key, ImageCache.Source source) {
+            this.key = key;
+            this.source = source;
+        }
+
+        @Override
+        public void run() {
+            if (!start(this)) {
+                return;
+            }
+
+            final Bitmap bitmap = mCache.acquire(key, source);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(Request.this, bitmap);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Request another) {
+            // 表示するためのものを、先読みより先に読み込む
+            if (prefetch != another.prefetch) {
+                return prefetch ? 1 : -1;
+            }
+            // 後に依頼したものを先に読み込む
+            return sequence > another.sequence ? -1 : (sequence < another.sequence ? 1 : 0);
+        }
+    }
+
+    /**
+     * UIスレッドの描画を妨げないように、優先度を下げたスレッドを作る。
+     */
+    private static class DecodeThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "DecodeScheduler #" + mCount.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.content.Context;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * バイト列を、アプリのcacheディレクトリにファイルとして保存するキャッシュ。
+ * <p>
+ * 合計のバイト数が上限を超えたら、最も長く読まれていないものから削除する。
+ * 読み書きと削除はジャーナルに1行ずつ追記し、開く時にジャーナルを読み直して、読まれた順番も復元する。
+ * <p>
+ * 値はまず一時ファイルに書き、名前を変えてからジャーナルに記録する。
+ * そのため、途中で終了しても、ジャーナルに記録されたファイルは常に書き終えたものになる。
+ * ジャーナルに記録されていないファイルと一時ファイルは、開く時に削除する。
+ * <p>
+ * ファイルの読み書きはロックの外で行うので、複数のスレッドから同時に読める。
+ * 読んでいる間に削除された場合は、キャッシュになかったものとして扱う。
+ */
+public class DiskImageCache {
+
+    /**
+     * ディレクトリの名前。アプリのcacheディレクトリに作る。
+     */
+    private static final String DIR_NAME = "images";
+
+    /**
+     * 合計のバイト数の上限の初期値。
+     */
+    static final long DEFAULT_MAX_SIZE = 48 * 1024 * 1024;
+
+    static final String JOURNAL_NAME = "journal";
+    private static final String JOURNAL_TEMP_NAME = "journal.tmp";
+
+    /**
+     * ジャーナルの1行目。形式を変えた場合は、古いキャッシュを捨てる。
+     */
+    private static final String JOURNAL_HEADER = "DiskImageCache 1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * ジャーナルの、エントリの数を超えた余分な行がこの数を超えたら、作り直す。
+     */
+    private static final int REBUILD_THRESHOLD = 2000;
+
+    private static DiskImageCache sInstance;
+
+    private final File mDirectory;
+
+    private final long mMaxSize;
+
+    /**
+     * ファイル名から、そのバイト数。読まれた順に並ぶ。
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<String, Long>(0, 0.75f, true);
+
+    private long mSize;
+
+    /**
+     * ジャーナルの行のうち、エントリの数を超えた余分な行の数。
+     */
+    private int mRedundantOpCount;
+
+    private Writer mJournalWriter;
+
+    /**
+     * 一時ファイルの名前に付ける番号。
+     */
+    private long mNextTempId;
+
+    /**
+     * コンストラクタ。ディレクトリは最初に使う時に開く。
+     *
+     * @param directory キャッシュのファイルを置くディレクトリ
+     * @param maxSize 合計のバイト数の上限
+     */
+    DiskImageCache(File directory, long maxSize) {
+        this.mDirectory = directory;
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * アプリのキャッシュを返す。
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized DiskImageCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DiskImageCache(new File(context.getCacheDir(), DIR_NAME), DEFAULT_MAX_SIZE);
+        }
+        return sInstance;
+    }
+
+    /**
+     * 値を読み込む。
+     *
+     * @param key
+     * @return キャッシュにない場合、または読み込めなかった場合はnull
+     */
+    public byte[] get(String key) {
+        String name = toFileName(key);
+
+        synchronized (this) {
+            if (!open() || mEntries.get(name) == null) {
+                return null;
+            }
+            appendJournal(READ + " " + name);
+        }
+
+        try {
+            return readFully(new File(mDirectory, name));
+        } catch (IOException e) {
+            // 読んでいる間に削除された
+            return null;
+        }
+    }
+
+    /**
+     * 値を保存する。同じキーの値があれば置き換える。
+     *
+     * @param key
+     * @param value
+     */
+    public void put(String key, byte[] value) {
+        if (value.length > mMaxSize) {
+            return;
+        }
+
+        String name = toFileName(key);
+        File temp;
+        synchronized (this) {
+            if (!open()) {
+                return;
+            }
+            temp = new File(mDirectory, name + "." + (mNextTempId++) + TEMP_SUFFIX);
+        }
+
+        try {
+            writeFully(temp, value);
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (mJournalWriter == null || !temp.renameTo(new File(mDirectory, name))) {
+                temp.delete();
+                return;
+            }
+
+            Long previous = mEntries.put(name, (long) value.length);
+            if (previous != null) {
+                mSize -= previous;
+                mRedundantOpCount++;
+            }
+            mSize += value.length;
+            appendJournal(CLEAN + " " + name + " " + value.length);
+            trimToSize();
+        }
+    }
+
+    /**
+     * 保存しているバイト数の合計を返す。
+     *
+     * @return
+     */
+    public synchronized long size() {
+        open();
+        return mSize;
+    }
+
+    /**
+     * 保存している値の数を返す。
+     *
+     * @return
+     */
+    public synchronized int getEntryCount() {
+        open();
+        return mEntries.size();
+    }
+
+    /**
+     * ジャーナルを閉じる。再び使う時は開き直す。
+     */
+    synchronized void close() {
+        if (mJournalWriter != null) {
+            closeQuietly(mJournalWriter);
+            mJournalWriter = null;
+        }
+    }
+
+    /**
+     * まだ開いていなければ、ジャーナルを読み込んで開く。
+     *
+     * @return 開けなかった場合はfalse
+     */
+    private boolean open() {
+        if (mJournalWriter != null) {
+            return true;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            return false;
+        }
+
+        mEntries.clear();
+        mSize = 0;
+        mRedundantOpCount = 0;
+        try {
+            readJournal();
+            deleteUnknownFiles();
+            if (mRedundantOpCount >= REBUILD_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+                rebuildJournal();
+            } else {
+                mJournalWriter = new OutputStreamWriter(
+                        new FileOutputStream(new File(mDirectory, JOURNAL_NAME), true), Charset.forName("US-ASCII"));
+            }
+            trimToSize();
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+            return false;
+        }
+    }
+
+    /**
+     * ジャーナルを読み込んで、エントリと読まれた順番を復元する。
+     * 形式が違う場合は、空のジャーナルを作る。書き込み途中の最後の行は無視する。
+     */
+    private void readJournal() throws IOException {
+        File journal = new File(mDirectory, JOURNAL_NAME);
+        if (!journal.exists()) {
+            rebuildJournal();
+            close();
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(journal));
+        int lineCount = 0;
+        try {
+            if (!JOURNAL_HEADER.equals(reader.readLine())) {
+                // 以前の形式のキャッシュは捨てる
+                closeQuietly(reader);
+                reader = null;
+                rebuildJournal();
+                close();
+                return;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineCount++;
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && CLEAN.equals(parts[0])) {
+                    Long size = parseLong(parts[2]);
+                    if (size == null) {
+                        continue;
+                    }
+                    Long previous = mEntries.put(parts[1], size);
+                    if (previous != null) {
+                        mSize -= previous;
+                    }
+                    mSize += size;
+                } else if (parts.length == 2 && READ.equals(parts[0])) {
+                    // 読まれた順番を更新する
+                    mEntries.get(parts[1]);
+                } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    Long previous = mEntries.remove(parts[1]);
+                    if (previous != null) {
+                        mSize -= previous;
+                    }
+                }
+            }
+        } finally {
+            if (reader != null) {
+                closeQuietly(reader);
+            }
+        }
+
+        mRedundantOpCount = lineCount - mEntries.size();
+    }
+
+    /**
+     * ジャーナルに記録されていないファイルと一時ファイルを削除する。
+     * ジャーナルに記録されているのにファイルがないエントリは、取り除く。
+     * mEntriesを参照すると読まれた順番が変わるので、写しを使って確認する。
+     */
+    private void deleteUnknownFiles() {
+        File[] files = mDirectory.listFiles();
+        Map<String, Long> recorded = new HashMap<String, Long>(mEntries);
+        Set<String> existing = new HashSet<String>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(JOURNAL_NAME)) {
+                    continue;
+                }
+                // 記録の行が書き込み途中で、バイト数が違うものも削除する
+                Long size = recorded.get(name);
+                if (size != null && size == file.length()) {
+                    existing.add(name);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!existing.contains(entry.getKey())) {
+                mSize -= entry.getValue();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * 現在のエントリだけを、読まれた順に記録したジャーナルを作り直す。
+     */
+    private void rebuildJournal() throws IOException {
+        close();
+
+        File temp = new File(mDirectory, JOURNAL_TEMP_NAME);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(temp), Charset.forName("US-ASCII"));
+        try {
+            writer.write(JOURNAL_HEADER + "\n");
+            for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+
+        if (!temp.renameTo(new File(mDirectory, JOURNAL_NAME))) {
+            throw new IOException("failed to rename " + temp);
+        }
+        mRedundantOpCount = 0;
+        mJournalWriter = new OutputStreamWriter(
+                new FileOutputStream(new File(mDirectory, JOURNAL_NAME), true), Charset.forName("US-ASCII"));
+    }
+
+    /**
+     * ジャーナルに1行追記する。余分な行が増えたら、作り直す。
+     */
+    private void appendJournal(String line) {
+        try {
+            mJournalWriter.write(line + "\n");
+            mJournalWriter.flush();
+
+            if (!line.startsWith(CLEAN)) {
+                mRedundantOpCount++;
+            }
+            if (mRedundantOpCount >= REBUILD_THRESHOLD && mRedundantOpCount >= mEntries.size()) {
+                rebuildJournal();
+            }
+        } catch (IOException e) {
+            // 書けなかった操作は、次に開いた時に失われるだけ
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 合計のバイト数が上限以下になるまで、最も長く読まれていないものから削除する。
+     */
+    private void trimToSize() {
+        List<String> removed = new ArrayList<String>();
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            mSize -= entry.getValue();
+            removed.add(entry.getKey());
+            iterator.remove();
+        }
+
+        for (String name : removed) {
+            new File(mDirectory, name).delete();
+            if (mJournalWriter != null) {
+                appendJournal(REMOVE + " " + name);
+            }
+        }
+    }
+
+    /**
+     * キーを、ファイル名に使える文字列に変換する。
+     */
+    static String toFileName(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest(key.getBytes(Charset.forName("UTF-8")));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        FileInputStream input = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int offset = 0;
+            while (offset < data.length) {
+                int read = input.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+                offset += read;
+            }
+            return data;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    private static void writeFully(File file, byte[] data) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
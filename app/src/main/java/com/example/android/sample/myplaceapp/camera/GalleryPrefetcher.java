@@ -0,0 +1,200 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.support.v7.widget.GridLayoutManager;
+import android.support.v7.widget.RecyclerView;
+
+/**
+ * 一覧のスクロールの向きと速さから、これから表示される行の画像を先読みするクラス。
+ * <p>
+ * 下にスクロールしていれば最後に見えている行の先を、上にスクロールしていれば最初に見えている行の前を、
+ * 速いほど多くの行を先読みする。向きが変わったら、始まっていない先読みを取り消す。
+ * <p>
+ * 先読みした画像で、表示中の画像がメモリのキャッシュから追い出されないように、
+ * 表示中と先読みの画像の合計が、キャッシュの上限のBUDGET_RATIO以下になる数までしか先読みしない。
+ */
+public class GalleryPrefetcher extends RecyclerView.OnScrollListener {
+
+    /**
+     * ゆっくりスクロールしている時に先読みする行数。
+     */
+    static final int MIN_ROWS = 1;
+
+    /**
+     * 速くスクロールしている時に先読みする行数の上限。
+     */
+    static final int MAX_ROWS = 6;
+
+    /**
+     * 今の速さで、何フレーム先までに表示される行を先読みするか。
+     */
+    static final int FRAMES_AHEAD = 30;
+
+    /**
+     * 表示中と先読みの画像に使ってよい、メモリのキャッシュの割合。
+     */
+    static final float BUDGET_RATIO = 0.5f;
+
+    /**
+     * 先読みする画像を取得する、アダプタ。
+     */
+    public interface Provider {
+
+        /**
+         * 画像の数を返す。
+         *
+         * @return
+         */
+        int getItemCount();
+
+        /**
+         * 指定した位置の画像の、キャッシュのキーを返す。
+         *
+         * @param position
+         * @return
+         */
+        String getKey(int position);
+
+        /**
+         * 指定した位置の画像を、元の画像から読み込む処理を返す。
+         *
+         * @param position
+         * @return
+         */
+        ImageCache.Source getSource(int position);
+    }
+
+    private final DecodeScheduler mScheduler;
+
+    private final ImageCache mCache;
+
+    /**
+     * 最後にスクロールした向き。下が1、上が-1、まだスクロールしていなければ0。
+     */
+    private int mDirection;
+
+    /**
+     * 今の向きで、先読みを依頼した最も先の位置。
+     */
+    private int mPrefetchedUntil = RecyclerView.NO_POSITION;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param scheduler
+     * @param cache
+     */
+    public GalleryPrefetcher(DecodeScheduler scheduler, ImageCache cache) {
+        this.mScheduler = scheduler;
+        this.mCache = cache;
+    }
+
+    /**
+     * 一覧の中身が変わった時に、先読みした位置を忘れる。
+     */
+    public void reset() {
+        mScheduler.cancelPrefetch();
+        mDirection = 0;
+        mPrefetchedUntil = RecyclerView.NO_POSITION;
+    }
+
+    @Override
+    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+        if (dy == 0) {
+            return;
+        }
+        if (!(recyclerView.getLayoutManager() instanceof GridLayoutManager)
+                || !(recyclerView.getAdapter() instanceof Provider)) {
+            return;
+        }
+        GridLayoutManager layoutManager = (GridLayoutManager) recyclerView.getLayoutManager();
+        Provider provider = (Provider) recyclerView.getAdapter();
+
+        int direction = dy > 0 ? 1 : -1;
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        int spanCount = layoutManager.getSpanCount();
+        int visibleCount = last - first + 1;
+        int rowHeight = recyclerView.getHeight() * spanCount / visibleCount;
+        int count = Math.min(rowsAhead(Math.abs(dy), rowHeight) * spanCount,
+                budget(mCache.getMaxSize(), mCache.getEntrySizeEstimate(), visibleCount));
+
+        prefetch(provider, direction, first, last, count);
+    }
+
+    /**
+     * 見えている範囲の先を、指定した数だけ先読みする。既に依頼した位置は依頼し直さない。
+     *
+     * @param provider
+     * @param direction 下にスクロールしていれば1、上なら-1
+     * @param first 最初に見えている位置
+     * @param last 最後に見えている位置
+     * @param count 先読みする数
+     */
+    void prefetch(Provider provider, int direction, int first, int last, int count) {
+        if (direction != mDirection) {
+            // 反対側の先読みは、もう表示されないので取り消す
+            mScheduler.cancelPrefetch();
+            mDirection = direction;
+            mPrefetchedUntil = RecyclerView.NO_POSITION;
+        }
+
+        int from = direction > 0 ? last + 1 : first - 1;
+        for (int i = 0; i < count; i++) {
+            int position = from + direction * i;
+            if (position < 0 || position >= provider.getItemCount()) {
+                break;
+            }
+            if (isPrefetched(position)) {
+                continue;
+            }
+            mScheduler.prefetch(provider.getKey(position), provider.getSource(position));
+            mPrefetchedUntil = position;
+        }
+    }
+
+    /**
+     * 今の向きで、既に先読みを依頼した位置か。
+     */
+    private boolean isPrefetched(int position) {
+        if (mPrefetchedUntil == RecyclerView.NO_POSITION) {
+            return false;
+        }
+        return mDirection > 0 ? position <= mPrefetchedUntil : position >= mPrefetchedUntil;
+    }
+
+    /**
+     * 1フレームにスクロールした量から、先読みする行数を求める。
+     *
+     * @param distance 1フレームにスクロールしたピクセル数
+     * @param rowHeight 1行の高さ
+     * @return
+     */
+    static int rowsAhead(int distance, int rowHeight) {
+        if (rowHeight <= 0) {
+            return MIN_ROWS;
+        }
+        long rows = (long) distance * FRAMES_AHEAD / rowHeight;
+        return (int) Math.max(MIN_ROWS, Math.min(MAX_ROWS, rows));
+    }
+
+    /**
+     * 表示中の画像を追い出さずに先読みできる、画像の数を求める。
+     *
+     * @param maxSize メモリのキャッシュの上限のキロバイト数
+     * @param entrySize 画像1枚のキロバイト数。分からない場合は0
+     * @param visibleCount 表示中の画像の数
+     * @return
+     */
+    static int budget(int maxSize, int entrySize, int visibleCount) {
+        if (entrySize <= 0) {
+            // 1枚も読み込んでいなければ、表示する分を先に読み込む
+            return 0;
+        }
+        int total = (int) (maxSize * BUDGET_RATIO / entrySize);
+        return Math.max(0, total - visibleCount);
+    }
+}
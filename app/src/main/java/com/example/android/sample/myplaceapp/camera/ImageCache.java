@@ -1,22 +1,104 @@
 package com.example.android.sample.myplaceapp.camera;
 
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.support.v4.util.LruCache;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * 画像をキャッシュするクラス。
+ * <p>
+ * メモリとディスクの2段で保持する。メモリになければディスクから、ディスクにもなければ元の画像から読み込む。
+ * ディスクには、表示する大きさに縮小済みの画像をJPEGで保存するので、画面の回転や日付の切り替えで
+ * メモリのキャッシュが失われても、元の写真を縮小し直さずに、小さなJPEGを読み込むだけで表示できる。
+ * ピクセルをそのまま保存するより1枚が1/10程度に小さくなり、ディスクの上限に多くの画像が入る。
+ * キーには、同じ画像を違う大きさで読み込んだものを区別するため、大きさを含める。
+ * <p>
+ * メモリから追い出したBitmapは、BitmapPoolに戻して次の読み込みに再利用する。
+ * 表示中のBitmapを書き換えないように、表示している間はretain()で参照を数え、
+ * 追い出された後も、release()で参照がなくなるまではプールに戻さない。
  */
 public class ImageCache {
 
+    /**
+     * ディスクに保存する形式の識別子("IMG2")。ピクセルをそのまま保存していた"IMG1"は読まない。
+     */
+    private static final int DISK_MAGIC = 0x494d4732;
+
+    /**
+     * ディスクに保存する形式のヘッダのバイト数。識別子(4)、幅(4)、高さ(4)。
+     * 幅と高さは、読み込む前にプールからBitmapを選ぶために使う。
+     */
+    private static final int DISK_HEADER_SIZE = 12;
+
+    /**
+     * ディスクに保存するJPEGの品質。
+     */
+    private static final int DISK_JPEG_QUALITY = 85;
+
+    /**
+     * 元の画像を読み込む処理。
+     */
+    public interface Source {
+
+        /**
+         * 画像を読み込む。
+         *
+         * @return 読み込めなかった場合はnull
+         */
+        Bitmap decode();
+    }
+
     /**
      * キャッシュ。
      */
     private LruCache<String, Bitmap> mCache;
 
+    /**
+     * ディスクのキャッシュ。使わない場合はnull。
+     */
+    private DiskImageCache mDiskCache;
+
+    /**
+     * 追い出したBitmapを戻すプール。使わない場合はnull。
+     */
+    private BitmapPool mPool;
+
+    /**
+     * 表示中のBitmapと、表示しているViewの数。
+     */
+    private final Map<Bitmap, Integer> mRetained = new IdentityHashMap<Bitmap, Integer>();
+
+    /**
+     * 表示中にメモリから追い出されたBitmap。表示が終わったらプールに戻す。
+     */
+    private final Set<Bitmap> mEvicted = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    /**
+     * 最後にメモリのキャッシュに入れた画像のキロバイト数。先読みする数の見積もりに使う。
+     */
+    private final AtomicInteger mLastEntrySize = new AtomicInteger();
+
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+    private final AtomicInteger mMemoryMisses = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mDiskMisses = new AtomicInteger();
+
     /**
      * 画像をキャッシュする。
+     *
+     * @param diskCache ディスクのキャッシュ。メモリだけで保持する場合はnull
+     * @param pool 追い出したBitmapを戻すプール。使わない場合はnull
      */
-    public ImageCache() {
+    public ImageCache(DiskImageCache diskCache, BitmapPool pool) {
         long maxMemory = Runtime.getRuntime().maxMemory() / 1024;
         int cacheSize = (int)(maxMemory / 8);
 
@@ -24,7 +106,27 @@ public class ImageCache {
             protected int sizeOf(String key, Bitmap value) {
                 return value.getAllocationByteCount() / 1024;
             }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue) {
+                    recycle(oldValue);
+                }
+            }
         };
+        mDiskCache = diskCache;
+        mPool = pool;
+    }
+
+    /**
+     * 画像と、読み込む大きさからキーを作る。
+     *
+     * @param path 元の画像のファイルパス
+     * @param size 読み込む大きさ
+     * @return
+     */
+    public static String key(String path, int size) {
+        return path + "#" + size;
     }
 
     /**
@@ -34,24 +136,286 @@ public class ImageCache {
      * @param image
      */
     public void put(String key, Bitmap image) {
-        mCache.put(key, image);
+        putMemory(key, image);
     }
 
     /**
-     * 画像をキャッシュから取り出す。
+     * 画像をメモリのキャッシュから取り出す。ディスクは読まないので、UIスレッドから呼べる。
      *
      * @param key
      * @return
      */
     public Bitmap get(String key) {
-        return mCache.get(key);
+        Bitmap bitmap = mCache.get(key);
+        if (bitmap != null) {
+            mMemoryHits.incrementAndGet();
+        } else {
+            mMemoryMisses.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * 画像をメモリのキャッシュから取り出し、表示し始めたことを知らせる。
+     * 取り出してから知らせるまでの間に追い出されて、プールで書き換えられないようにまとめて行う。
+     *
+     * @param key
+     * @return 見つからない場合はnull
+     */
+    public synchronized Bitmap acquire(String key) {
+        Bitmap bitmap = get(key);
+        if (bitmap != null) {
+            retain(bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 画像をディスクのキャッシュか、元の画像から読み込み、メモリのキャッシュに入れる。
+     * 元の画像から読み込んだ場合は、ディスクにも保存する。ワーカースレッドから呼ぶ。
+     *
+     * @param key
+     * @param source 元の画像を読み込む処理
+     * @return 読み込めなかった場合はnull
+     */
+    public Bitmap load(String key, Source source) {
+        return load(key, source, false);
     }
 
     /**
-     * キャッシュを削除する。
+     * load()と同じように読み込み、表示し始めたことを知らせる。ワーカースレッドから呼ぶ。
+     * 表示するスレッドに渡すまでの間に追い出されて、プールで書き換えられないように、
+     * メモリのキャッシュに入れる前に参照を数える。
+     *
+     * @param key
+     * @param source 元の画像を読み込む処理
+     * @return 読み込めなかった場合はnull
+     */
+    public Bitmap acquire(String key, Source source) {
+        return load(key, source, true);
+    }
+
+    private Bitmap load(String key, Source source, boolean retain) {
+        Bitmap bitmap;
+        synchronized (this) {
+            bitmap = mCache.get(key);
+            if (bitmap != null) {
+                if (retain) {
+                    retain(bitmap);
+                }
+                return bitmap;
+            }
+        }
+
+        if (mDiskCache != null) {
+            bitmap = decodeDiskEntry(mDiskCache.get(key), mPool);
+            if (bitmap != null) {
+                mDiskHits.incrementAndGet();
+                if (retain) {
+                    retain(bitmap);
+                }
+                putMemory(key, bitmap);
+                return bitmap;
+            }
+            mDiskMisses.incrementAndGet();
+        }
+
+        bitmap = source.decode();
+        if (bitmap == null) {
+            return null;
+        }
+
+        if (retain) {
+            retain(bitmap);
+        }
+        putMemory(key, bitmap);
+        if (mDiskCache != null) {
+            byte[] entry = encodeDiskEntry(bitmap);
+            if (entry != null) {
+                mDiskCache.put(key, entry);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * メモリのキャッシュの上限のキロバイト数を返す。
+     *
+     * @return
+     */
+    public int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    /**
+     * メモリのキャッシュに入れる画像1枚の、おおよそのキロバイト数を返す。
+     *
+     * @return まだ1枚も入れていない場合は0
+     */
+    public int getEntrySizeEstimate() {
+        return mLastEntrySize.get();
+    }
+
+    /**
+     * Bitmapを表示し始めたことを知らせる。
+     *
+     * @param bitmap
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        Integer count = mRetained.get(bitmap);
+        mRetained.put(bitmap, count == null ? 1 : count + 1);
+    }
+
+    /**
+     * Bitmapの表示をやめたことを知らせる。
+     * メモリから追い出されたBitmapは、どこにも表示されなくなったらプールに戻す。
+     *
+     * @param bitmap
+     */
+    public synchronized void release(Bitmap bitmap) {
+        Integer count = mRetained.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mRetained.put(bitmap, count - 1);
+            return;
+        }
+
+        mRetained.remove(bitmap);
+        if (mEvicted.remove(bitmap) && mPool != null) {
+            mPool.put(bitmap);
+        }
+    }
+
+    /**
+     * メモリのキャッシュを削除する。ディスクのキャッシュは残す。
+     * 表示しているViewが全て破棄された後に呼ぶ。
      */
     public void clear() {
+        synchronized (this) {
+            mRetained.clear();
+            mEvicted.clear();
+        }
         mCache.evictAll();
     }
 
+    private void putMemory(String key, Bitmap bitmap) {
+        mLastEntrySize.set(bitmap.getAllocationByteCount() / 1024);
+        mCache.put(key, bitmap);
+    }
+
+    /**
+     * メモリから追い出したBitmapを、表示中でなければプールに戻す。
+     */
+    private synchronized void recycle(Bitmap bitmap) {
+        if (mRetained.containsKey(bitmap)) {
+            mEvicted.add(bitmap);
+        } else if (mPool != null) {
+            mPool.put(bitmap);
+        }
+    }
+
+    /**
+     * メモリのキャッシュで見つかった回数を返す。
+     *
+     * @return
+     */
+    public int getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    /**
+     * メモリのキャッシュで見つからなかった回数を返す。
+     *
+     * @return
+     */
+    public int getMemoryMissCount() {
+        return mMemoryMisses.get();
+    }
+
+    /**
+     * ディスクのキャッシュから読み込めた回数を返す。
+     *
+     * @return
+     */
+    public int getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    /**
+     * ディスクのキャッシュになく、元の画像から読み込んだ回数を返す。
+     *
+     * @return
+     */
+    public int getDiskMissCount() {
+        return mDiskMisses.get();
+    }
+
+    /**
+     * ログに出力する、段ごとのヒット数とミス数の文字列を返す。
+     *
+     * @return
+     */
+    public String getStats() {
+        String stats = String.format(Locale.US, "memory hit=%d miss=%d, disk hit=%d miss=%d",
+                mMemoryHits.get(), mMemoryMisses.get(), mDiskHits.get(), mDiskMisses.get());
+        return mPool != null ? stats + ", " + mPool.getStats() : stats;
+    }
+
+    /**
+     * 画像をJPEGにして、ヘッダの後に並べる。
+     */
+    private static byte[] encodeDiskEntry(Bitmap bitmap) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(DISK_HEADER_SIZE + bitmap.getByteCount() / 16);
+        byte[] header = ByteBuffer.allocate(DISK_HEADER_SIZE)
+                .putInt(DISK_MAGIC)
+                .putInt(bitmap.getWidth())
+                .putInt(bitmap.getHeight())
+                .array();
+        output.write(header, 0, header.length);
+
+        if (!bitmap.compress(Bitmap.CompressFormat.JPEG, DISK_JPEG_QUALITY, output)) {
+            return null;
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * ディスクに保存したJPEGから、画像を作る。形式が違う場合はnullを返す。
+     * プールに使えるBitmapがあれば、それに読み込む。
+     */
+    private static Bitmap decodeDiskEntry(byte[] entry, BitmapPool pool) {
+        if (entry == null || entry.length <= DISK_HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(entry);
+        if (buffer.getInt() != DISK_MAGIC) {
+            return null;
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = pool != null ? pool.get(width, height, Bitmap.Config.ARGB_8888) : null;
+        if (options.inBitmap != null) {
+            try {
+                Bitmap bitmap = BitmapFactory.decodeByteArray(entry, DISK_HEADER_SIZE,
+                        entry.length - DISK_HEADER_SIZE, options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+            } catch (IllegalArgumentException e) {
+                // 再利用できないBitmapだった
+            }
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+        }
+        return BitmapFactory.decodeByteArray(entry, DISK_HEADER_SIZE, entry.length - DISK_HEADER_SIZE, options);
+    }
 }
@@ -4,6 +4,8 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sample.myplaceapp.IdleWalCheckpointer;
+
 /**
  * 日付情報を保存するデータベース。
  */
@@ -11,7 +13,7 @@ public class PictureDBHelper extends SQLiteOpenHelper {
 
     private static final String DB_NAME = "Picture.db";
 
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 2;
 
     public static final String TABLE_NAME = "PICTURE";
 
@@ -23,17 +25,98 @@ public class PictureDBHelper extends SQLiteOpenHelper {
 
     public static final String COLUMN_REGISTER_TIME = "register_time";
 
+    /**
+     * サムネイルのファイルパス。サムネイルを作る前に保存した写真ではNULL。
+     */
+    public static final String COLUMN_THUMBNAIL_PATH = "thumbnail_path";
+
+    /**
+     * アプリ内で共有するインスタンス。
+     */
+    private static PictureDBHelper sInstance;
+
+    /**
+     * 書き込みが落ち着いた時にWALのチェックポイントを行う。
+     */
+    private final IdleWalCheckpointer mCheckpointer;
+
+    /**
+     * アプリ内で共有するインスタンスを返す。
+     * 接続プールを共有するため、データベースを開く場合は常にこのインスタンスを使う。
+     *
+     * @param context
+     * @return
+     */
+    public static synchronized PictureDBHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PictureDBHelper(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
     /**
      * コンストラクタ。
      *
      * @param context
      */
-    public PictureDBHelper(Context context) {
+    private PictureDBHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
+
+        // 保存中も、ギャラリーからの読み込みを並行して行えるようにする
+        setWriteAheadLoggingEnabled(true);
+
+        mCheckpointer = new IdleWalCheckpointer(this);
+    }
+
+    /**
+     * 書き込みを行ったことを知らせる。
+     */
+    public void onWrite() {
+        mCheckpointer.onWrite();
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        IdleWalCheckpointer.configure(db);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // バージョン1のテーブルを作り、以降はマイグレーションと同じ手順で最新にする
+        createVersion1(db);
+        onUpgrade(db, 1, DB_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 1バージョンずつ順番に適用する
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            upgradeTo(db, version);
+        }
+    }
+
+    /**
+     * 指定したバージョンへのマイグレーションを行う。
+     *
+     * @param db
+     * @param version
+     */
+    private void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                upgradeToVersion2(db);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown version: " + version);
+        }
+    }
+
+    /**
+     * バージョン1のテーブルを作る。
+     *
+     * @param db
+     */
+    private void createVersion1(SQLiteDatabase db) {
         String createTable = "CREATE TABLE " + TABLE_NAME + " ("
                 + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + COLUMN_FILE_PATH + " TEXT NOT NULL,"
@@ -42,8 +125,13 @@ public class PictureDBHelper extends SQLiteOpenHelper {
         db.execSQL(createTable);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // do nothing.
+    /**
+     * バージョン2：写真ごとにサムネイルのファイルパスを持たせる。
+     * 既存の写真はNULLとし、ThumbnailBackfillが後から作る。
+     *
+     * @param db
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + COLUMN_THUMBNAIL_PATH + " TEXT");
     }
 }
@@ -8,13 +8,14 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Picture;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.support.annotation.Nullable;
 import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,12 +31,33 @@ import java.util.List;
  * 画像をリスト表示するフラグメント。
  */
 public class PictureFragment extends Fragment {
+    private static final String TAG = "PictureFragment";
     private static final int DB_LOADER = 1;
     private static final String ARGS_DATE = "date";
     private GalleryAdapter mAdapter;
     private RecyclerView mRecyclerView;
 
-    private ImageCache mCache = new ImageCache();
+    private ImageCache mCache;
+
+    /**
+     * キャッシュから追い出したBitmapを、次の読み込みに再利用するプール。
+     */
+    private BitmapPool mPool;
+
+    /**
+     * キャッシュにない画像を読み込む。
+     */
+    private DecodeScheduler mScheduler;
+
+    /**
+     * スクロールの先の画像を先読みする。
+     */
+    private GalleryPrefetcher mPrefetcher;
+
+    /**
+     * サムネイルのない写真のサムネイルを作る処理の、キャンセル用。
+     */
+    private CancellationSignal mBackfillSignal;
 
     /**
      * インスタンスを生成する。
@@ -64,6 +86,17 @@ public class PictureFragment extends Fragment {
     public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
         mRecyclerView = (RecyclerView) view.findViewById(R.id.Gallery);
         mRecyclerView.setLayoutManager(new GridLayoutManager(view.getContext(),2));
+
+        if(mCache == null){
+            // メモリの次に、アプリで共有するディスクのキャッシュを探す
+            mPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+            mCache = new ImageCache(DiskImageCache.getInstance(view.getContext()),mPool);
+            mScheduler = new DecodeScheduler(mCache);
+        }
+
+        // スクロールの向きと速さに合わせて、これから表示される行を先読みする
+        mPrefetcher = new GalleryPrefetcher(mScheduler,mCache);
+        mRecyclerView.addOnScrollListener(mPrefetcher);
     }
 
     public void setDate(String dateStr) {
@@ -77,15 +110,30 @@ public class PictureFragment extends Fragment {
         super.onActivityCreated(savedInstanceState);
 
         getLoaderManager().restartLoader(DB_LOADER,getArguments(),mDBLoaderCallback);
+
+        // サムネイルのない写真のサムネイルを、裏で作っておく
+        mBackfillSignal = new CancellationSignal();
+        new BackfillTask(PictureDBHelper.getInstance(getActivity()),mBackfillSignal)
+                .executeOnExecutor(AsyncTask.SERIAL_EXECUTOR,(Void[])null);
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
 
-        // キャッシュをクリア
+        // 表示しなくなった画像の読み込みを取り消す
+        mScheduler.cancelAll();
+
+        // メモリのキャッシュをクリア。ディスクのキャッシュは、次に表示する時に使う
+        Log.d(TAG,mCache.getStats());
         mCache.clear();
 
+        // サムネイルの作成を中断する。作り終えた分は次回に引き継がれる
+        if(mBackfillSignal != null){
+            mBackfillSignal.cancel();
+            mBackfillSignal = null;
+        }
+
         // Loaderを破棄
         getLoaderManager().destroyLoader(DB_LOADER);
     }
@@ -93,28 +141,29 @@ public class PictureFragment extends Fragment {
     /**
      * DBを検索するLoaderのコールバック。
      */
-    private LoaderManager.LoaderCallbacks<List<String>> mDBLoaderCallback = new LoaderManager.LoaderCallbacks<List<String>>() {
+    private LoaderManager.LoaderCallbacks<List<PictureItem>> mDBLoaderCallback = new LoaderManager.LoaderCallbacks<List<PictureItem>>() {
 
         @Override
-        public Loader<List<String>> onCreateLoader(int id, Bundle args) {
+        public Loader<List<PictureItem>> onCreateLoader(int id, Bundle args) {
             DatabaseLoader loader = new DatabaseLoader(getActivity(),args.getString(ARGS_DATE));
             loader.forceLoad();
             return loader;
         }
 
         @Override
-        public void onLoadFinished(Loader<List<String>> loader, List<String> data) {
+        public void onLoadFinished(Loader<List<PictureItem>> loader, List<PictureItem> data) {
             mAdapter = new GalleryAdapter(getActivity(),data);
             mRecyclerView.setAdapter(mAdapter);
+            mPrefetcher.reset();
         }
 
         @Override
-        public void onLoaderReset(Loader<List<String>> loader) {
+        public void onLoaderReset(Loader<List<PictureItem>> loader) {
             mAdapter.clear();
         }
     };
 
-    private static class DatabaseLoader extends AsyncTaskLoader<List<String>>{
+    private static class DatabaseLoader extends AsyncTaskLoader<List<PictureItem>>{
 
         String dateStr;
 
@@ -130,12 +179,12 @@ public class PictureFragment extends Fragment {
         }
 
         @Override
-        public List<String> loadInBackground() {
+        public List<PictureItem> loadInBackground() {
             // 画像ファイル用のデータベース
-            PictureDBHelper helper = new PictureDBHelper(getContext());
+            PictureDBHelper helper = PictureDBHelper.getInstance(getContext());
             SQLiteDatabase database = helper.getReadableDatabase();
 
-            List<String> filePaths = new ArrayList<String>();
+            List<PictureItem> pictures = new ArrayList<PictureItem>();
 
             // 指定した日付の画像を検索する
             Cursor cursor = database.query(PictureDBHelper.TABLE_NAME,
@@ -146,18 +195,19 @@ public class PictureFragment extends Fragment {
                     null,
                     PictureDBHelper.COLUMN_REGISTER_TIME + " DESC");
 
-            if(cursor == null) return filePaths;
+            if(cursor == null) return pictures;
 
             // Cursorからファイルパスをリストに詰める
+            int filePathIndex = cursor.getColumnIndex(PictureDBHelper.COLUMN_FILE_PATH);
+            int thumbnailPathIndex = cursor.getColumnIndex(PictureDBHelper.COLUMN_THUMBNAIL_PATH);
             while(cursor.moveToNext()){
-                String path = cursor.getString(cursor.getColumnIndex(PictureDBHelper.COLUMN_FILE_PATH));
-                filePaths.add(path);
+                pictures.add(new PictureItem(cursor.getString(filePathIndex),cursor.getString(thumbnailPathIndex)));
             }
 
+            // データベースは共有しているので、閉じない
             cursor.close();
-            database.close();
 
-            return filePaths;
+            return pictures;
 
         }
     }
@@ -165,9 +215,9 @@ public class PictureFragment extends Fragment {
     /**
      * 画像を表示するためのアダプタ。
      */
-    private class GalleryAdapter extends RecyclerView.Adapter<GalleryVH> {
+    private class GalleryAdapter extends RecyclerView.Adapter<GalleryVH> implements GalleryPrefetcher.Provider {
 
-        private List<String> files = new ArrayList<String>();
+        private List<PictureItem> files = new ArrayList<PictureItem>();
         private LayoutInflater inflater;
         private int viewHeight;
 
@@ -177,7 +227,7 @@ public class PictureFragment extends Fragment {
          * @param context
          * @param files
          */
-        public GalleryAdapter(Context context,List<String> files) {
+        public GalleryAdapter(Context context,List<PictureItem> files) {
             this.inflater = LayoutInflater.from(context);
             this.files = files;
             this.viewHeight = (int) context.getResources().getDimension(R.dimen.grid_item_height);
@@ -196,109 +246,190 @@ public class PictureFragment extends Fragment {
             notifyDataSetChanged();
         }
 
+        @Override
+        public String getKey(int position) {
+            return ImageCache.key(files.get(position).filePath,viewHeight);
+        }
+
+        @Override
+        public ImageCache.Source getSource(int position) {
+            return new PictureSource(files.get(position),viewHeight);
+        }
+
         @Override
         public GalleryVH onCreateViewHolder(ViewGroup parent, int viewType) {
             View view = inflater.inflate(R.layout.grid_item_picture,parent,false);
-            return new GalleryVH(view);
+            return new GalleryVH(view,mCache);
         }
 
         @Override
         public void onBindViewHolder(GalleryVH holder, int position) {
-            String file = files.get(position);
+            // 前に表示していたBitmapは、追い出されていればプールに戻せるようになる
+            holder.release(mCache);
 
             // キャッシュからBitmapを探す
-            Bitmap bitmap = mCache.get(file);
+            String key = getKey(position);
+            holder.key = key;
+            Bitmap bitmap = mCache.acquire(key);
 
             if(bitmap == null){
-                // 見つからない場合は、非同期的に取得する
-                new ImageLoadTask(position,file,viewHeight)
-                        .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,(Void[])null);
-                holder.imageView.setImageDrawable(null);
+                // 見つからない場合は、非同期的に取得する。前に依頼していた読み込みは取り消される
+                mScheduler.request(key,getSource(position),holder);
             } else{
+                mScheduler.cancel(holder);
+
                 // 見つかった場合は、表示する
+                holder.bitmap = bitmap;
                 holder.imageView.setImageBitmap(bitmap);
             }
         }
+
+        @Override
+        public void onViewRecycled(GalleryVH holder) {
+            // 画面から外れたので、読み込みを待つのをやめる
+            mScheduler.cancel(holder);
+            holder.key = null;
+            holder.release(mCache);
+        }
     }
 
     /**
-     * 画像を非同期にロードするためのAsyncTask。
+     * 一覧に表示する画像を、元の画像から読み込む処理。
      */
-    private class ImageLoadTask extends AsyncTask<Void,Void,Boolean>{
-        private int position;
+    private class PictureSource implements ImageCache.Source{
         private int viewHeight;
         private String filePath;
+        private String thumbnailPath;
 
         /**
          * コンストラクタ。
          *
-         * @param position
-         * @param url
+         * @param picture
          * @param viewHeight
          */
-        public ImageLoadTask(int position, String url,int viewHeight) {
-            this.position = position;
-            this.filePath = url;
+        public PictureSource(PictureItem picture,int viewHeight) {
+            this.filePath = picture.filePath;
+            this.thumbnailPath = picture.thumbnailPath;
             this.viewHeight = viewHeight;
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
-            File file = new File(filePath);
-
-            if(!file.exists()) return false;
-
-            // ファイル読み込み時のオプション
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            // 画像サイズだけを読み込む設定
-            options.inJustDecodeBounds = true;
-
-            // 指定されたファイルから、画像サイズだけを読み込む
-            BitmapFactory.decodeFile(filePath,options);
-            // 画像の高さ
-            int imageHeight = options.outHeight;
-
-            // 縮小率を計算する。1:等倍、2:1辺が1/2になる
-            // 2の累乗以外の数字を指定した場合には、その値以下の2の累乗にまとめられる
-            // 3の場合には2、6の場合には4など
-            int inSampleSize = 1;
-            if (imageHeight > viewHeight){
-                inSampleSize = Math.round(imageHeight / viewHeight);
+        public Bitmap decode() {
+            // サムネイルがあれば、セルの高さに縮小して読み込む
+            Bitmap bitmap = null;
+            if(thumbnailPath != null){
+                bitmap = Thumbnails.decode(thumbnailPath,viewHeight,mPool);
             }
 
-            // 画像サイズだけを読み込む設定を解除
-            options.inJustDecodeBounds = false;
-            // 縮小率を設定
-            options.inSampleSize = inSampleSize;
+            if(bitmap == null){
+                // サムネイルを作る前に保存した写真は、縮小して読み込む
+                if(!new File(filePath).exists()) return null;
 
-            // 画像を読み込む
-            Bitmap bitmap = BitmapFactory.decodeFile(filePath,options);
-            // キャッシュに入れる
-            mCache.put(filePath,bitmap);
+                bitmap = Thumbnails.decodeSampled(filePath,viewHeight,mPool);
+            }
 
-            return true;
+            return bitmap;
+        }
+    }
+
+    /**
+     * サムネイルのない写真のサムネイルを作るAsyncTask。
+     */
+    private static class BackfillTask extends AsyncTask<Void,Void,Integer>{
+        private ThumbnailBackfill backfill;
+        private CancellationSignal signal;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param helper
+         * @param signal
+         */
+        public BackfillTask(PictureDBHelper helper,CancellationSignal signal) {
+            this.backfill = new ThumbnailBackfill(helper);
+            this.signal = signal;
         }
 
         @Override
-        protected void onPostExecute(Boolean result) {
-            if(result && mAdapter != null) {
-                // 指定された位置の画像が変化したことを知らせて、再描画させる
-                mAdapter.notifyItemChanged(position);
-            }
+        protected Integer doInBackground(Void... params) {
+            return backfill.run(signal);
+        }
+    }
+
+    /**
+     * 一覧に表示する写真。
+     */
+    private static class PictureItem{
+
+        /**
+         * 写真のファイルパス。キャッシュのキーにも使う。
+         */
+        private final String filePath;
+
+        /**
+         * サムネイルのファイルパス。サムネイルを作る前に保存した写真ではnull。
+         */
+        private final String thumbnailPath;
+
+        public PictureItem(String filePath, String thumbnailPath) {
+            this.filePath = filePath;
+            this.thumbnailPath = thumbnailPath;
         }
     }
 
     /**
      * 画像を表示するためのViewHolder。
      */
-    private static class GalleryVH extends RecyclerView.ViewHolder{
+    private static class GalleryVH extends RecyclerView.ViewHolder implements DecodeScheduler.Callback{
 
         private ImageView imageView;
 
-        public GalleryVH(View itemView) {
+        /**
+         * 表示しているBitmapを数えているキャッシュ。
+         */
+        private final ImageCache cache;
+
+        /**
+         * 表示しようとしている画像のキー。
+         */
+        private String key;
+
+        /**
+         * 表示しているBitmap。
+         */
+        private Bitmap bitmap;
+
+        public GalleryVH(View itemView,ImageCache cache) {
             super(itemView);
 
             imageView = (ImageView) itemView.findViewById(R.id.Picture);
+            this.cache = cache;
+        }
+
+        @Override
+        public void onDecoded(String key, Bitmap bitmap) {
+            // 位置ではなくキーで照合するので、並びが変わっても別の画像を表示しない
+            if(!key.equals(this.key)){
+                // 表示しないので、表示中として数えられた分を戻す
+                cache.release(bitmap);
+                return;
+            }
+            release(cache);
+            this.bitmap = bitmap;
+            imageView.setImageBitmap(bitmap);
+        }
+
+        /**
+         * 表示しているBitmapを外し、表示をやめたことをキャッシュに知らせる。
+         *
+         * @param cache
+         */
+        private void release(ImageCache cache) {
+            if(bitmap != null){
+                imageView.setImageDrawable(null);
+                cache.release(bitmap);
+                bitmap = null;
+            }
         }
     }
 }
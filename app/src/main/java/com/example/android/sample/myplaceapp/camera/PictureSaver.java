@@ -78,15 +78,23 @@ public class PictureSaver implements Runnable {
             }
         }
 
+        // 一覧に表示するサムネイルを、写真の隣に保存する
+        File thumbnailFile = Thumbnails.getThumbnailFile(outputFile);
+        boolean hasThumbnail = Thumbnails.create(mData, thumbnailFile);
+
         // 画像保存用のDB
-        PictureDBHelper helper = new PictureDBHelper(mContext);
+        PictureDBHelper helper = PictureDBHelper.getInstance(mContext);
         SQLiteDatabase database = helper.getWritableDatabase();
 
         // ファイルパスと、今日の日付の文字列(yyyy-MM-dd)を保存する
         ContentValues values = new ContentValues();
         values.put(PictureDBHelper.COLUMN_FILE_PATH,outputFile.getAbsolutePath());
         values.put(PictureDBHelper.COLUMN_DATE_STR,String.format(DATE_STR_FORMAT,System.currentTimeMillis()));
+        if(hasThumbnail){
+            values.put(PictureDBHelper.COLUMN_THUMBNAIL_PATH,thumbnailFile.getAbsolutePath());
+        }
 
         database.insert(PictureDBHelper.TABLE_NAME,null,values);
+        helper.onWrite();
     }
 }
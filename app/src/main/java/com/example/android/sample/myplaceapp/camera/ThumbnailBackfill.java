@@ -0,0 +1,102 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import java.io.File;
+
+/**
+ * サムネイルを作る前に保存した写真の、サムネイルを作る。
+ * <p>
+ * 1枚ごとにサムネイルを作ってから行を更新するので、途中でキャンセルしても、
+ * 作り終えた写真はそのまま使え、次回は残りの写真から続ける。
+ * 写真のファイルがないか、読み込めない行は、次回も対象になるが、一覧ではもともと表示できない。
+ */
+public class ThumbnailBackfill {
+
+    /**
+     * 1回の検索で取り出す行の数。
+     */
+    private static final int BATCH_SIZE = 32;
+
+    private final PictureDBHelper mHelper;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param helper
+     */
+    public ThumbnailBackfill(PictureDBHelper helper) {
+        this.mHelper = helper;
+    }
+
+    /**
+     * サムネイルのない写真の、サムネイルを作る。
+     * キャンセルは1枚ごとに確認する。
+     *
+     * @param signal キャンセルを受け取る
+     * @return サムネイルを作った写真の数
+     */
+    public int run(CancellationSignal signal) {
+        SQLiteDatabase database = mHelper.getWritableDatabase();
+
+        int created = 0;
+        long lastId = 0;
+        while (!signal.isCanceled()) {
+            // 読み込めなかった行で止まらないように、_idの順に進める
+            Cursor cursor = database.query(PictureDBHelper.TABLE_NAME,
+                    new String[]{PictureDBHelper.COLUMN_ID, PictureDBHelper.COLUMN_FILE_PATH},
+                    PictureDBHelper.COLUMN_THUMBNAIL_PATH + " IS NULL AND " + PictureDBHelper.COLUMN_ID + " > ?",
+                    new String[]{String.valueOf(lastId)},
+                    null,
+                    null,
+                    PictureDBHelper.COLUMN_ID,
+                    String.valueOf(BATCH_SIZE));
+
+            int count = 0;
+            try {
+                while (cursor.moveToNext() && !signal.isCanceled()) {
+                    count++;
+                    lastId = cursor.getLong(0);
+                    if (createThumbnail(database, lastId, cursor.getString(1))) {
+                        created++;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (count < BATCH_SIZE) {
+                break;
+            }
+        }
+
+        if (created > 0) {
+            mHelper.onWrite();
+        }
+        return created;
+    }
+
+    /**
+     * 1枚のサムネイルを作り、行を更新する。
+     */
+    private static boolean createThumbnail(SQLiteDatabase database, long id, String filePath) {
+        File picture = new File(filePath);
+        if (!picture.exists()) {
+            return false;
+        }
+
+        File thumbnail = Thumbnails.getThumbnailFile(picture);
+        if (!thumbnail.exists() && !Thumbnails.create(picture, thumbnail)) {
+            return false;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(PictureDBHelper.COLUMN_THUMBNAIL_PATH, thumbnail.getAbsolutePath());
+        database.update(PictureDBHelper.TABLE_NAME, values,
+                PictureDBHelper.COLUMN_ID + " = ?", new String[]{String.valueOf(id)});
+        return true;
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 一覧に表示するサムネイルを作るユーティリティ。
+ * <p>
+ * サムネイルは、写真と同じディレクトリに、拡張子の前にTHUMBNAIL_SUFFIXを付けた名前で保存する。
+ * 長辺THUMBNAIL_SIZEピクセル(4:3の写真で短辺480ピクセル)のJPEGにして、
+ * xxhdpiまでの端末で一覧のセルの高さ(160dp)を満たしつつ、元の写真より小さく読み込めるようにする。
+ * 表示する時は、セルの高さに合わせてさらに縮小して読み込む。
+ */
+public class Thumbnails {
+
+    /**
+     * サムネイルの長辺のピクセル数。
+     */
+    public static final int THUMBNAIL_SIZE = 640;
+
+    /**
+     * サムネイルのファイル名に付ける文字列。
+     */
+    private static final String THUMBNAIL_SUFFIX = ".thumb";
+
+    /**
+     * サムネイルのJPEGの品質。
+     */
+    private static final int JPEG_QUALITY = 85;
+
+    /**
+     * コンストラクタ。
+     */
+    private Thumbnails() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 写真のサムネイルのファイルを返す。
+     *
+     * @param picture
+     * @return
+     */
+    public static File getThumbnailFile(File picture) {
+        String name = picture.getName();
+        int dot = name.lastIndexOf('.');
+        String thumbnailName = dot < 0
+                ? name + THUMBNAIL_SUFFIX
+                : name.substring(0, dot) + THUMBNAIL_SUFFIX + name.substring(dot);
+        return new File(picture.getParentFile(), thumbnailName);
+    }
+
+    /**
+     * 撮影した画像データから、サムネイルを作る。
+     * 保存したファイルを読み直さずに、メモリ上のデータを縮小して読み込む。
+     *
+     * @param data JPEGの画像データ
+     * @param thumbnail 保存先
+     * @return 作れなかった場合はfalse
+     */
+    public static boolean create(byte[] data, File thumbnail) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, THUMBNAIL_SIZE);
+        return write(BitmapFactory.decodeByteArray(data, 0, data.length, options), thumbnail);
+    }
+
+    /**
+     * 保存済みの写真から、サムネイルを作る。
+     *
+     * @param picture
+     * @param thumbnail 保存先
+     * @return 作れなかった場合はfalse
+     */
+    public static boolean create(File picture, File thumbnail) {
+        return write(decodeSampled(picture.getPath(), THUMBNAIL_SIZE), thumbnail);
+    }
+
+    /**
+     * 画像を、短辺が指定したピクセル数を下回らない範囲で縮小して読み込む。
+     * サムネイルのない写真を表示する場合に使う。
+     *
+     * @param path
+     * @param size 必要な短辺のピクセル数
+     * @return 読み込めなかった場合はnull
+     */
+    public static Bitmap decodeSampled(String path, int size) {
+        return decodeSampled(path, size, null);
+    }
+
+    /**
+     * 画像を、短辺が指定したピクセル数を下回らない範囲で縮小して読み込む。
+     * プールに使えるBitmapがあれば、それに読み込む。
+     *
+     * @param path
+     * @param size 必要な短辺のピクセル数
+     * @param pool 再利用するBitmapのプール。使わない場合はnull
+     * @return 読み込めなかった場合はnull
+     */
+    public static Bitmap decodeSampled(String path, int size, BitmapPool pool) {
+        // 画像サイズだけを読み込む
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, size);
+        return decodeFile(path, options, pool);
+    }
+
+    /**
+     * 画像を、短辺が指定したピクセル数になるように縮小して読み込む。サムネイルを表示する場合に使う。
+     * 2の累乗の縮小率で読み込みながら、残りの縮小も読み込む時に行うので、縮小前の大きさのBitmapを作らない。
+     * プールに使えるBitmapがあれば、それに読み込む。
+     *
+     * @param path
+     * @param size 短辺のピクセル数。これより小さい画像は拡大しない
+     * @param pool 再利用するBitmapのプール。使わない場合はnull
+     * @return 読み込めなかった場合はnull
+     */
+    public static Bitmap decode(String path, int size, BitmapPool pool) {
+        // 画像サイズだけを読み込む。JPEGのヘッダだけを読むので軽い
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        options.inJustDecodeBounds = false;
+
+        if (size > 0 && options.outWidth > 0 && options.outHeight > 0) {
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, size);
+
+            int sample = options.inSampleSize;
+            int shortSide = (Math.min(options.outWidth, options.outHeight) + sample - 1) / sample;
+            if (shortSide > size) {
+                // 密度の比で拡大縮小させる
+                options.inScaled = true;
+                options.inDensity = shortSide;
+                options.inTargetDensity = size;
+            }
+        }
+
+        Bitmap bitmap = decodeFile(path, options, pool);
+        if (bitmap != null && options.inTargetDensity != 0) {
+            // 拡大縮小に使った密度が残るので、他の画像と同じ画面の密度に戻す
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 画像サイズを読み込んだoptionsで、画像を読み込む。
+     * プールのBitmapが使えなかった場合は、プールに戻してから新しいBitmapに読み込み直す。
+     */
+    private static Bitmap decodeFile(String path, BitmapFactory.Options options, BitmapPool pool) {
+        if (pool == null || options.outWidth <= 0 || options.outHeight <= 0) {
+            return BitmapFactory.decodeFile(path, options);
+        }
+
+        // 縮小後の大きさは切り上げになる場合がある
+        int sample = Math.max(1, options.inSampleSize);
+        int width = (options.outWidth + sample - 1) / sample;
+        int height = (options.outHeight + sample - 1) / sample;
+        if (options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0) {
+            // 読み込む時の拡大縮小は、四捨五入した大きさになる
+            float scale = (float) options.inTargetDensity / options.inDensity;
+            width = (int) (width * scale + 0.5f);
+            height = (int) (height * scale + 0.5f);
+        }
+
+        options.inMutable = true;
+        options.inBitmap = pool.get(width, height, Bitmap.Config.ARGB_8888);
+        if (options.inBitmap == null) {
+            return BitmapFactory.decodeFile(path, options);
+        }
+
+        try {
+            Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+            if (bitmap != null) {
+                return bitmap;
+            }
+        } catch (IllegalArgumentException e) {
+            // 再利用できないBitmapだった
+        }
+
+        pool.put(options.inBitmap);
+        options.inBitmap = null;
+        return BitmapFactory.decodeFile(path, options);
+    }
+
+    /**
+     * 短辺が指定したピクセル数を下回らない、最大の2の累乗の縮小率を求める。
+     *
+     * @param width
+     * @param height
+     * @param size 必要な短辺のピクセル数
+     * @return 1:等倍、2:1辺が1/2になる
+     */
+    static int calculateInSampleSize(int width, int height, int size) {
+        int shortSide = Math.min(width, height);
+        int inSampleSize = 1;
+        while (shortSide / (inSampleSize * 2) >= size) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 長辺がTHUMBNAIL_SIZEになるように縮小して、JPEGで保存する。
+     * 書き込み途中のファイルを読まれないように、一時ファイルに書いてから名前を変える。
+     */
+    private static boolean write(Bitmap bitmap, File thumbnail) {
+        if (bitmap == null) {
+            return false;
+        }
+
+        Bitmap scaled = bitmap;
+        int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longSide > THUMBNAIL_SIZE) {
+            float scale = (float) THUMBNAIL_SIZE / longSide;
+            scaled = Bitmap.createScaledBitmap(bitmap,
+                    Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                    Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                    true);
+            if (scaled != bitmap) {
+                bitmap.recycle();
+            }
+        }
+
+        File temp = new File(thumbnail.getPath() + ".tmp");
+        FileOutputStream output = null;
+        boolean written = false;
+        try {
+            output = new FileOutputStream(temp);
+            written = scaled.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            scaled.recycle();
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    written = false;
+                }
+            }
+        }
+
+        if (!written) {
+            temp.delete();
+            return false;
+        }
+        return temp.renameTo(thumbnail);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * 精度の悪い位置情報を除くフィルタ。
+ * 基地局やWi-Fiから求めた位置情報は、誤差が数百mから数kmになることがある。
+ * 精度が不明な位置情報は、判定できないので保存する。
+ */
+class AccuracyFilter implements PlaceFilter {
+
+    /**
+     * 保存する精度の上限mの初期値。
+     */
+    static final float DEFAULT_MAX_ACCURACY = 100f;
+
+    private final float mMaxAccuracy;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param maxAccuracy 保存する精度の上限m
+     */
+    AccuracyFilter(float maxAccuracy) {
+        this.mMaxAccuracy = maxAccuracy;
+    }
+
+    @Override
+    public String getName() {
+        return "accuracy";
+    }
+
+    @Override
+    public boolean accept(Place candidate, Place lastAccepted) {
+        float accuracy = candidate.getAccuracy();
+        return Float.isNaN(accuracy) || accuracy <= mMaxAccuracy;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * 直前に保存した位置情報から、あまり離れていない位置情報を除くフィルタ。
+ * <p>
+ * 閾値は速さに応じて変える。歩いている間はMIN_DISTANCEごとに保存し、
+ * 乗り物で移動している間はSPEED_WINDOWの間に進む距離ごと(最大MAX_DISTANCE)に保存して、件数を抑える。
+ * 速さは位置情報に含まれていればそれを使い、含まれていなければ直前の位置情報からの移動距離と時間から求める。
+ */
+class AdaptiveDistanceFilter implements PlaceFilter {
+
+    /**
+     * 閾値の下限m。これまでの固定の閾値と同じ。
+     */
+    static final double MIN_DISTANCE = 100;
+
+    /**
+     * 閾値の上限m。
+     */
+    static final double MAX_DISTANCE = 500;
+
+    /**
+     * 速さから閾値を求める時間s。
+     */
+    static final double SPEED_WINDOW = 20;
+
+    @Override
+    public String getName() {
+        return "distance";
+    }
+
+    @Override
+    public boolean accept(Place candidate, Place lastAccepted) {
+        if (lastAccepted == null) {
+            return true;
+        }
+
+        double threshold = threshold(candidate, lastAccepted);
+        return !GeoMath.isCloserThan(
+                lastAccepted.getLatitude(), lastAccepted.getLongitude(),
+                candidate.getLatitude(), candidate.getLongitude(),
+                threshold);
+    }
+
+    /**
+     * 速さに応じた閾値mを返す。
+     */
+    static double threshold(Place candidate, Place lastAccepted) {
+        double speed = candidate.getSpeed();
+        if (Double.isNaN(speed)) {
+            long elapsed = candidate.getTime() - lastAccepted.getTime();
+            if (elapsed <= 0) {
+                return MIN_DISTANCE;
+            }
+            speed = GeoMath.equirectangular(
+                    lastAccepted.getLatitude(), lastAccepted.getLongitude(),
+                    candidate.getLatitude(), candidate.getLongitude()) * 1000.0 / elapsed;
+        }
+
+        return Math.min(MAX_DISTANCE, Math.max(MIN_DISTANCE, speed * SPEED_WINDOW));
+    }
+}
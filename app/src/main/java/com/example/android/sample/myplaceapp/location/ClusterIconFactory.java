@@ -0,0 +1,117 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.SparseArray;
+
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+
+/**
+ * クラスタのマーカに使う、地点の数を描いたアイコンを作るクラス。
+ * <p>
+ * 10件以上は「10+」「20+」のような区切りにまとめ、作ったアイコンは使い回す。
+ */
+class ClusterIconFactory {
+
+    /**
+     * 数を区切る境界。
+     */
+    private static final int[] BUCKETS = {10, 20, 50, 100, 200, 500, 1000};
+
+    /**
+     * アイコンの直径(dp)。
+     */
+    private static final int ICON_SIZE = 40;
+
+    private final float mDensity;
+
+    /**
+     * 区切った数から、アイコンへの対応。
+     */
+    private final SparseArray<BitmapDescriptor> mIcons = new SparseArray<BitmapDescriptor>();
+
+    /**
+     * 1件のクラスタに使うアイコン。
+     */
+    private final BitmapDescriptor mSingleIcon;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param context
+     */
+    ClusterIconFactory(Context context) {
+        this.mDensity = context.getResources().getDisplayMetrics().density;
+        this.mSingleIcon = BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE);
+    }
+
+    /**
+     * 指定した数の地点を含むクラスタのアイコンを返す。
+     *
+     * @param count 地点の数
+     * @return
+     */
+    BitmapDescriptor getIcon(int count) {
+        if (count <= 1) {
+            return mSingleIcon;
+        }
+
+        int bucket = bucket(count);
+        BitmapDescriptor icon = mIcons.get(bucket);
+        if (icon == null) {
+            String label = bucket < BUCKETS[0] ? String.valueOf(bucket) : bucket + "+";
+            icon = BitmapDescriptorFactory.fromBitmap(drawIcon(label));
+            mIcons.put(bucket, icon);
+        }
+        return icon;
+    }
+
+    /**
+     * 1件のクラスタのアイコンかどうか。
+     * 1件のクラスタは、通常のマーカと同じく下端を地点に合わせる。
+     *
+     * @param count
+     * @return
+     */
+    static boolean isSingle(int count) {
+        return count <= 1;
+    }
+
+    /**
+     * 数を、アイコンを共有する区切りに丸める。
+     */
+    static int bucket(int count) {
+        int bucket = count;
+        for (int boundary : BUCKETS) {
+            if (count >= boundary) {
+                bucket = boundary;
+            }
+        }
+        return bucket;
+    }
+
+    private Bitmap drawIcon(String label) {
+        int size = (int) (ICON_SIZE * mDensity);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        Paint circle = new Paint(Paint.ANTI_ALIAS_FLAG);
+        circle.setColor(Color.WHITE);
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f, circle);
+        circle.setColor(Color.rgb(0x33, 0x66, 0xcc));
+        canvas.drawCircle(size / 2f, size / 2f, size / 2f - 2 * mDensity, circle);
+
+        Paint text = new Paint(Paint.ANTI_ALIAS_FLAG);
+        text.setColor(Color.WHITE);
+        text.setTextAlign(Paint.Align.CENTER);
+        text.setTextSize(14 * mDensity);
+        float baseline = size / 2f - (text.descent() + text.ascent()) / 2;
+        canvas.drawText(label, size / 2f, baseline, text);
+
+        return bitmap;
+    }
+}
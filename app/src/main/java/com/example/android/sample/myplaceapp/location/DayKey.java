@@ -0,0 +1,117 @@
+package com.example.android.sample.myplaceapp.location;
+
+import java.util.Calendar;
+
+/**
+ * 日付を表す整数キー(yyyymmdd)を扱うユーティリティ。
+ * 日付は、端末のタイムゾーンでの日付とする。
+ */
+public class DayKey {
+
+    /**
+     * コンストラクタ。
+     */
+    private DayKey() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 時刻から、その時刻が属する日のキーを返す。
+     *
+     * @param time エポックからのms
+     * @return yyyymmdd
+     */
+    public static int of(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+
+        return calendar.get(Calendar.YEAR) * 10000
+                + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    /**
+     * 日の始まりの時刻を返す。
+     *
+     * @param dayKey yyyymmdd
+     * @return エポックからのms
+     */
+    public static long startOf(int dayKey) {
+        return toCalendar(dayKey).getTimeInMillis();
+    }
+
+    /**
+     * 日の終わりの時刻(翌日の始まりの1ms前)を返す。
+     *
+     * @param dayKey yyyymmdd
+     * @return エポックからのms
+     */
+    public static long endOf(int dayKey) {
+        Calendar calendar = toCalendar(dayKey);
+        calendar.add(Calendar.DAY_OF_MONTH, 1);
+        return calendar.getTimeInMillis() - 1;
+    }
+
+    /**
+     * 日付文字列(yyyy-MM-dd)を日のキーに変換する。
+     *
+     * @param dateString yyyy-MM-dd
+     * @return yyyymmdd
+     */
+    public static int parse(String dateString) {
+        if (dateString == null || dateString.length() != 10
+                || dateString.charAt(4) != '-' || dateString.charAt(7) != '-') {
+            throw new IllegalArgumentException("invalid date: " + dateString);
+        }
+
+        return parseDigits(dateString, 0, 4) * 10000
+                + parseDigits(dateString, 5, 7) * 100
+                + parseDigits(dateString, 8, 10);
+    }
+
+    /**
+     * 日のキーを日付文字列(yyyy-MM-dd)に変換する。
+     *
+     * @param dayKey yyyymmdd
+     * @return yyyy-MM-dd
+     */
+    public static String toDateString(int dayKey) {
+        char[] chars = new char[10];
+
+        int year = dayKey / 10000;
+        int month = (dayKey / 100) % 100;
+        int day = dayKey % 100;
+
+        chars[0] = (char) ('0' + year / 1000 % 10);
+        chars[1] = (char) ('0' + year / 100 % 10);
+        chars[2] = (char) ('0' + year / 10 % 10);
+        chars[3] = (char) ('0' + year % 10);
+        chars[4] = '-';
+        chars[5] = (char) ('0' + month / 10);
+        chars[6] = (char) ('0' + month % 10);
+        chars[7] = '-';
+        chars[8] = (char) ('0' + day / 10);
+        chars[9] = (char) ('0' + day % 10);
+
+        return new String(chars);
+    }
+
+    private static Calendar toCalendar(int dayKey) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(dayKey / 10000, (dayKey / 100) % 100 - 1, dayKey % 100);
+        return calendar;
+    }
+
+    private static int parseDigits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("invalid date: " + s);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
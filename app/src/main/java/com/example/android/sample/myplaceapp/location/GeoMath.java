@@ -0,0 +1,157 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * 緯度・経度の距離と矩形を計算するユーティリティ。
+ * <p>
+ * 地球を半径EARTH_RADIUSの球として扱い、全てのメソッドはプリミティブだけを使い、オブジェクトを作らない。
+ * 楕円体で計算するLocation.distanceBetween()との差は、ハバーサインで最大0.5%程度。
+ * 数百m以内の距離であれば、正距円筒図法で近似しても、ハバーサインとの差は1mm未満に収まる。
+ */
+public class GeoMath {
+
+    /**
+     * 地球の平均半径m。
+     */
+    public static final double EARTH_RADIUS = 6371008.8;
+
+    /**
+     * 緯度1度あたりのm。
+     */
+    public static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+
+    /**
+     * コンストラクタ。
+     */
+    private GeoMath() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 2地点間の大円距離を、ハバーサインの公式で求める。
+     * 距離によらず誤差が一定なので、長い距離や精度が必要な場合に使う。
+     *
+     * @param latitude1
+     * @param longitude1
+     * @param latitude2
+     * @param longitude2
+     * @return 距離m
+     */
+    public static double haversine(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double phi1 = Math.toRadians(latitude1);
+        double phi2 = Math.toRadians(latitude2);
+        double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        double sinHalfDeltaLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+
+        double a = sinHalfDeltaPhi * sinHalfDeltaPhi
+                + Math.cos(phi1) * Math.cos(phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * 2地点間の距離を、2地点の中間の緯度を基準にした正距円筒図法で近似して求める。
+     * 三角関数はcosの1回だけなので、ハバーサインより速い。誤差は距離の2乗に比例して大きくなるので、
+     * 数km以内の距離に使う。
+     *
+     * @param latitude1
+     * @param longitude1
+     * @param latitude2
+     * @param longitude2
+     * @return 距離m
+     */
+    public static double equirectangular(double latitude1, double longitude1, double latitude2, double longitude2) {
+        return Math.sqrt(equirectangularSquared(latitude1, longitude1, latitude2, longitude2));
+    }
+
+    /**
+     * 2地点間の距離が、指定した距離より短いかどうかを返す。
+     * 正距円筒図法で近似し、平方根も求めずに比較する。記録時の間引きのように、数百mの閾値と比べる場合に使う。
+     *
+     * @param latitude1
+     * @param longitude1
+     * @param latitude2
+     * @param longitude2
+     * @param meters 閾値m
+     * @return
+     */
+    public static boolean isCloserThan(double latitude1, double longitude1,
+                                       double latitude2, double longitude2, double meters) {
+        return equirectangularSquared(latitude1, longitude1, latitude2, longitude2) < meters * meters;
+    }
+
+    /**
+     * 指定した緯度における、経度1度あたりのmを返す。
+     *
+     * @param latitude
+     * @return
+     */
+    public static double metersPerDegreeLongitude(double latitude) {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+    }
+
+    /**
+     * 指定した距離に相当する、緯度の幅(度)を返す。
+     *
+     * @param meters
+     * @return
+     */
+    public static double latitudeSpan(double meters) {
+        return meters / METERS_PER_DEGREE;
+    }
+
+    /**
+     * 指定した緯度で、指定した距離に相当する経度の幅(度)を返す。
+     * 極に近く、距離が緯線の長さを超える場合は180を返す。
+     *
+     * @param meters
+     * @param latitude 矩形の中で、最も極に近い緯度
+     * @return
+     */
+    public static double longitudeSpan(double meters, double latitude) {
+        double metersPerDegree = metersPerDegreeLongitude(Math.min(90, Math.abs(latitude)));
+        if (metersPerDegree * 180 <= meters) {
+            return 180;
+        }
+        return meters / metersPerDegree;
+    }
+
+    /**
+     * 地点が矩形に含まれるかどうかを返す。
+     * 経度の最小値が最大値より大きい場合は、180度の経線をまたぐ矩形として扱う。
+     *
+     * @param minLatitude
+     * @param minLongitude
+     * @param maxLatitude
+     * @param maxLongitude
+     * @param latitude
+     * @param longitude
+     * @return
+     */
+    public static boolean contains(double minLatitude, double minLongitude,
+                                   double maxLatitude, double maxLongitude,
+                                   double latitude, double longitude) {
+        if (latitude < minLatitude || latitude > maxLatitude) {
+            return false;
+        }
+        if (minLongitude <= maxLongitude) {
+            return longitude >= minLongitude && longitude <= maxLongitude;
+        }
+        return longitude >= minLongitude || longitude <= maxLongitude;
+    }
+
+    /**
+     * 正距円筒図法で近似した距離の2乗を求める。経度の差は、180度の経線をまたぐ場合も短い方を取る。
+     */
+    private static double equirectangularSquared(double latitude1, double longitude1,
+                                                 double latitude2, double longitude2) {
+        double deltaLongitude = longitude2 - longitude1;
+        if (deltaLongitude > 180) {
+            deltaLongitude -= 360;
+        } else if (deltaLongitude < -180) {
+            deltaLongitude += 360;
+        }
+
+        double x = deltaLongitude * metersPerDegreeLongitude((latitude1 + latitude2) / 2);
+        double y = (latitude2 - latitude1) * METERS_PER_DEGREE;
+        return x * x + y * y;
+    }
+}
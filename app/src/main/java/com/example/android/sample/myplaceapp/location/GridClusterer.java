@@ -0,0 +1,235 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 地点を、画面上の格子でまとめるクラス。
+ * <p>
+ * 地点をWebメルカトル図法のワールド座標(ズーム0で256x256)に投影し、ズームに応じた大きさの格子に振り分ける。
+ * 格子1つにつき、1つのクラスタを作る。地図のAPIには依存しない。
+ * <p>
+ * cluster()で作った結果には、後から追加された地点だけを、既存の格子に振り分けて加えられる。
+ */
+public class GridClusterer {
+
+    /**
+     * ズーム0における、世界全体の幅。
+     */
+    private static final double WORLD_SIZE = 256;
+
+    /**
+     * メルカトル図法で表せる緯度の上限。
+     */
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    /**
+     * 地点がない結果。
+     */
+    public static final Clusters EMPTY = new Clusters(0, Double.NaN);
+
+    /**
+     * コンストラクタ。
+     */
+    private GridClusterer() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 位置情報の列の先頭からcount件を、格子でまとめる。
+     *
+     * @param track
+     * @param count まとめる地点の数
+     * @param zoom 地図のズーム
+     * @param cellSize 格子の一辺の長さ(dp)
+     * @return
+     */
+    public static Clusters cluster(PlaceTrack track, int count, float zoom, double cellSize) {
+        double scale = WORLD_SIZE * Math.pow(2, zoom) / cellSize;
+
+        Clusters clusters = new Clusters(Math.min(count, 64), scale);
+        clusters.append(track, 0, count);
+        return clusters;
+    }
+
+    /**
+     * 格子ごとにまとめた検索結果(PlaceBoundsQuery#withGrid())から、クラスタを作る。
+     *
+     * @param cursor
+     * @return
+     */
+    public static Clusters fromCursor(Cursor cursor) {
+        int keyIndex = cursor.getColumnIndexOrThrow(PlaceBoundsQuery.COLUMN_CELL_KEY);
+        int latitudeIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_LATITUDE);
+        int longitudeIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_LONGITUDE);
+        int countIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_POINT_COUNT);
+
+        Clusters clusters = new Clusters(cursor.getCount(), Double.NaN);
+        while (cursor.moveToNext()) {
+            int count = cursor.getInt(countIndex);
+            clusters.add(cursor.getLong(keyIndex),
+                    cursor.getDouble(latitudeIndex) * count,
+                    cursor.getDouble(longitudeIndex) * count,
+                    count);
+        }
+
+        return clusters;
+    }
+
+    /**
+     * 経度を、0～1のワールド座標に変換する。
+     */
+    static double worldX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    /**
+     * 緯度を、0～1のワールド座標に変換する。北が0になる。
+     */
+    static double worldY(double latitude) {
+        double clipped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        double sin = Math.sin(Math.toRadians(clipped));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    /**
+     * 格子でまとめた結果。
+     * 各クラスタの位置は、含まれる地点の重心とする。
+     */
+    public static class Clusters {
+
+        /**
+         * ワールド座標を格子の番号に変換する倍率。地点から作った結果でない場合はNaN。
+         */
+        private final double mScale;
+
+        /**
+         * 格子のキーから、クラスタの番号への対応。地点から作った結果だけが持つ。
+         */
+        private final Map<Long, Integer> mCells;
+
+        private long[] mKeys;
+        private double[] mLatitudeSums;
+        private double[] mLongitudeSums;
+        private int[] mCounts;
+        private int mSize;
+
+        private Clusters(int capacity, double scale) {
+            this.mScale = scale;
+            this.mCells = Double.isNaN(scale) ? null : new HashMap<Long, Integer>();
+            this.mKeys = new long[capacity];
+            this.mLatitudeSums = new double[capacity];
+            this.mLongitudeSums = new double[capacity];
+            this.mCounts = new int[capacity];
+        }
+
+        /**
+         * クラスタの数を返す。
+         *
+         * @return
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * クラスタの格子を表すキーを返す。
+         * 同じズームで計算した結果同士であれば、キーが同じクラスタは同じ格子にある。
+         *
+         * @param index
+         * @return
+         */
+        public long getKey(int index) {
+            return mKeys[index];
+        }
+
+        /**
+         * クラスタに含まれる地点の数を返す。
+         *
+         * @param index
+         * @return
+         */
+        public int getCount(int index) {
+            return mCounts[index];
+        }
+
+        public double getLatitude(int index) {
+            return mLatitudeSums[index] / mCounts[index];
+        }
+
+        public double getLongitude(int index) {
+            return mLongitudeSums[index] / mCounts[index];
+        }
+
+        /**
+         * 位置情報の列のfrom番目からto番目の手前までの地点を、同じ格子でまとめて加える。
+         * かかる時間は、加える地点の数に比例する。
+         *
+         * @param track
+         * @param from 加える最初の地点の位置
+         * @param to 加える最後の地点の次の位置
+         * @return 地点が加わったクラスタの番号。新しくできたクラスタも含む。昇順で、重複しない
+         */
+        public int[] append(PlaceTrack track, int from, int to) {
+            if (mCells == null) {
+                throw new IllegalStateException("clusters were not built from points");
+            }
+
+            int[] changed = new int[Math.max(0, to - from)];
+            int changedCount = 0;
+            for (int i = from; i < to; i++) {
+                double latitude = track.getLatitude(i);
+                double longitude = track.getLongitude(i);
+
+                long column = (long) Math.floor(worldX(longitude) * mScale);
+                long row = (long) Math.floor(worldY(latitude) * mScale);
+                Long key = (row << 32) ^ (column & 0xffffffffL);
+
+                Integer cluster = mCells.get(key);
+                if (cluster == null) {
+                    cluster = mSize;
+                    mCells.put(key, cluster);
+                    add(key, latitude, longitude, 1);
+                } else {
+                    merge(cluster, latitude, longitude);
+                }
+                changed[changedCount++] = cluster;
+            }
+
+            // 同じクラスタに複数の地点が加わった場合は、1つにまとめる
+            Arrays.sort(changed, 0, changedCount);
+            int distinct = 0;
+            for (int i = 0; i < changedCount; i++) {
+                if (distinct == 0 || changed[distinct - 1] != changed[i]) {
+                    changed[distinct++] = changed[i];
+                }
+            }
+            return Arrays.copyOf(changed, distinct);
+        }
+
+        private void add(long key, double latitudeSum, double longitudeSum, int count) {
+            if (mSize == mCounts.length) {
+                int capacity = Math.max(16, mSize * 2);
+                mKeys = Arrays.copyOf(mKeys, capacity);
+                mLatitudeSums = Arrays.copyOf(mLatitudeSums, capacity);
+                mLongitudeSums = Arrays.copyOf(mLongitudeSums, capacity);
+                mCounts = Arrays.copyOf(mCounts, capacity);
+            }
+
+            mKeys[mSize] = key;
+            mLatitudeSums[mSize] = latitudeSum;
+            mLongitudeSums[mSize] = longitudeSum;
+            mCounts[mSize] = count;
+            mSize++;
+        }
+
+        private void merge(int index, double latitude, double longitude) {
+            mLatitudeSums[index] += latitude;
+            mLongitudeSums[index] += longitude;
+            mCounts[index]++;
+        }
+    }
+}
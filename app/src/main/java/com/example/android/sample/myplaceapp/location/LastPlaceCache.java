@@ -0,0 +1,98 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+/**
+ * 最後に記録された位置情報を保持するキャッシュ。
+ * プロセスが終了しても失われないように、SharedPreferencesに保存する。
+ */
+public class LastPlaceCache {
+
+    /**
+     * SharedPreferencesのファイル名。
+     */
+    private static final String PREF_NAME = "last_place";
+
+    private static final String KEY_ID = "id";
+    private static final String KEY_LATITUDE = "latitude";
+    private static final String KEY_LONGITUDE = "longitude";
+    private static final String KEY_TIME = "time";
+
+    /**
+     * キャッシュが存在しないことを示す時刻。
+     */
+    private static final long NO_TIME = -1L;
+
+    /**
+     * コンストラクタ。
+     */
+    private LastPlaceCache() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 追加された位置情報をキャッシュに反映する。
+     * キャッシュしている位置情報より古いものは無視する。
+     *
+     * @param context
+     * @param id
+     * @param latitude
+     * @param longitude
+     * @param time
+     */
+    public static void offer(Context context, long id, double latitude, double longitude, long time) {
+        SharedPreferences prefs = getPreferences(context);
+
+        if (prefs.getLong(KEY_TIME, NO_TIME) > time) {
+            return;
+        }
+
+        // doubleは精度を落とさないように、ビット列のままlongで保存する
+        prefs.edit()
+                .putLong(KEY_ID, id)
+                .putLong(KEY_LATITUDE, Double.doubleToRawLongBits(latitude))
+                .putLong(KEY_LONGITUDE, Double.doubleToRawLongBits(longitude))
+                .putLong(KEY_TIME, time)
+                .apply();
+    }
+
+    /**
+     * キャッシュしている位置情報を返す。
+     *
+     * @param context
+     * @return キャッシュがない場合はnull
+     */
+    @Nullable
+    public static Place get(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+
+        long time = prefs.getLong(KEY_TIME, NO_TIME);
+        if (time == NO_TIME) {
+            return null;
+        }
+
+        Place place = new Place();
+        place.setId(prefs.getLong(KEY_ID, 0L));
+        place.setLatitude(Double.longBitsToDouble(prefs.getLong(KEY_LATITUDE, 0L)));
+        place.setLongitude(Double.longBitsToDouble(prefs.getLong(KEY_LONGITUDE, 0L)));
+        place.setTime(time);
+
+        return place;
+    }
+
+    /**
+     * キャッシュを破棄する。
+     * 更新・削除によって、キャッシュの内容がDBと一致しなくなった場合に呼ぶ。
+     *
+     * @param context
+     */
+    public static void clear(Context context) {
+        getPreferences(context).edit().clear().apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+}
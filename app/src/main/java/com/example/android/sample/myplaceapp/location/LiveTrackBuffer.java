@@ -0,0 +1,321 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 記録サービスが受け取った直近の位置情報を、地図にすぐ反映するための固定長のリングバッファ。
+ * <p>
+ * SQLiteへの書き込みと変更通知を待たずに、画面側がポーリングで読む。
+ * 書き込みは記録サービスの1スレッドだけが行い、読み込みはロックを取らずに行う。
+ * 各スロットはシーケンスロックで保護する。書き込み中はシーケンスが奇数になり、
+ * 読み込みの前後でシーケンスが変わっていれば、書き込みと重なったので読み直す。
+ * <p>
+ * スロットの値はAtomicLongArrayに持ち、同じ内容をメモリマップしたファイルにも書き写す。
+ * マップしたバッファには読み書きの順序を保証する手段がないので、読み込みはAtomicLongArrayから行い、
+ * ファイルはプロセスが再起動した時に直近の位置情報を復元するために使う。
+ */
+class LiveTrackBuffer {
+
+    private static final String TAG = "LiveTrackBuffer";
+
+    /**
+     * ファイルの名前。アプリのcacheディレクトリに作る。
+     */
+    private static final String FILE_NAME = "live_track.buf";
+
+    /**
+     * 保持する位置情報の数の初期値。5分間隔なら約21時間分。
+     */
+    static final int DEFAULT_CAPACITY = 256;
+
+    /**
+     * ファイルの先頭に置く識別子("LTRK")。
+     */
+    private static final int MAGIC = 0x4c54524b;
+
+    /**
+     * ヘッダのバイト数。識別子(4)、スロットの数(4)、書き込んだ数(8)。
+     */
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * 1スロットの値の数。シーケンス、書き込んだ順の番号、取得時刻、緯度E7、経度E7。
+     */
+    private static final int SLOT_FIELDS = 5;
+
+    private static final int FIELD_SEQUENCE = 0;
+    private static final int FIELD_INDEX = 1;
+    private static final int FIELD_TIME = 2;
+    private static final int FIELD_LATITUDE = 3;
+    private static final int FIELD_LONGITUDE = 4;
+
+    /**
+     * 何も書き込んでいないスロットの、書き込んだ順の番号。
+     */
+    private static final long NO_INDEX = -1L;
+
+    private static LiveTrackBuffer sInstance;
+
+    private final int mCapacity;
+
+    /**
+     * スロットの値。スロットiの値は、i * SLOT_FIELDSから並ぶ。
+     */
+    private final AtomicLongArray mSlots;
+
+    /**
+     * これまでに書き込んだ位置情報の数。次に書き込む位置情報の番号でもある。
+     */
+    private final AtomicLong mWriteCount = new AtomicLong();
+
+    /**
+     * スロットの値を書き写すファイルのバッファ。ファイルを使えない場合はnull。
+     */
+    private final MappedByteBuffer mMapped;
+
+    /**
+     * コンストラクタ。
+     * ファイルに前回の内容があれば、それを読み込む。
+     *
+     * @param file 書き写すファイル。メモリ上だけで使う場合はnull
+     * @param capacity 保持する位置情報の数
+     * @throws IOException
+     */
+    LiveTrackBuffer(File file, int capacity) throws IOException {
+        this.mCapacity = capacity;
+        this.mSlots = new AtomicLongArray(capacity * SLOT_FIELDS);
+        this.mMapped = file != null ? map(file, capacity) : null;
+
+        if (mMapped != null && mMapped.getInt(0) == MAGIC && mMapped.getInt(4) == capacity) {
+            restore();
+        } else {
+            for (int slot = 0; slot < capacity; slot++) {
+                mSlots.set(slot * SLOT_FIELDS + FIELD_INDEX, NO_INDEX);
+            }
+            if (mMapped != null) {
+                mMapped.putInt(0, MAGIC);
+                mMapped.putInt(4, capacity);
+                for (int slot = 0; slot < capacity; slot++) {
+                    copyToFile(slot * SLOT_FIELDS);
+                }
+                mMapped.putLong(8, 0L);
+            }
+        }
+    }
+
+    /**
+     * アプリのリングバッファを返す。
+     * ファイルを使えない場合は、メモリ上だけで保持する。
+     *
+     * @param context
+     * @return
+     */
+    static synchronized LiveTrackBuffer getInstance(Context context) {
+        if (sInstance == null) {
+            File file = new File(context.getCacheDir(), FILE_NAME);
+            try {
+                sInstance = new LiveTrackBuffer(file, DEFAULT_CAPACITY);
+            } catch (IOException e) {
+                Log.w(TAG, "failed to map " + file, e);
+                try {
+                    sInstance = new LiveTrackBuffer(null, DEFAULT_CAPACITY);
+                } catch (IOException never) {
+                    throw new IllegalStateException(never);
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 位置情報を書き込む。容量を超えた場合は、最も古いものを上書きする。
+     *
+     * @param places
+     */
+    synchronized void write(List<Place> places) {
+        for (Place place : places) {
+            write(place.getTime(), place.getLatitude(), place.getLongitude());
+        }
+    }
+
+    /**
+     * 位置情報を1件書き込む。
+     *
+     * @param time 取得時刻。エポックからのms
+     * @param latitude
+     * @param longitude
+     */
+    synchronized void write(long time, double latitude, double longitude) {
+        long index = mWriteCount.get();
+        int base = slotOf(index);
+
+        // シーケンスを奇数にしている間は、読み込み側は読み直す
+        long sequence = mSlots.get(base + FIELD_SEQUENCE);
+        mSlots.set(base + FIELD_SEQUENCE, sequence + 1);
+        mSlots.set(base + FIELD_INDEX, index);
+        mSlots.set(base + FIELD_TIME, time);
+        mSlots.set(base + FIELD_LATITUDE, PlaceDBHelper.toE7(latitude));
+        mSlots.set(base + FIELD_LONGITUDE, PlaceDBHelper.toE7(longitude));
+        mSlots.set(base + FIELD_SEQUENCE, sequence + 2);
+
+        mWriteCount.set(index + 1);
+
+        if (mMapped != null) {
+            copyToFile(base);
+            mMapped.putLong(8, index + 1);
+        }
+    }
+
+    /**
+     * これまでに書き込んだ位置情報の数を返す。
+     * 番号がこの値から容量を引いたもの以上で、この値未満の位置情報が読める。
+     *
+     * @return
+     */
+    long getWriteCount() {
+        return mWriteCount.get();
+    }
+
+    /**
+     * 保持する位置情報の数を返す。
+     *
+     * @return
+     */
+    int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * 指定した番号の位置情報を読み込む。ロックを取らず、オブジェクトも作らない。
+     *
+     * @param index 書き込んだ順の番号
+     * @param out 読み込んだ値を設定する
+     * @return 上書きされたか、まだ書き込まれていない場合はfalse
+     */
+    boolean read(long index, Fix out) {
+        if (index < 0) {
+            return false;
+        }
+
+        int base = slotOf(index);
+        while (true) {
+            long before = mSlots.get(base + FIELD_SEQUENCE);
+            if ((before & 1L) != 0) {
+                // 書き込み中
+                continue;
+            }
+
+            long slotIndex = mSlots.get(base + FIELD_INDEX);
+            long time = mSlots.get(base + FIELD_TIME);
+            long latitude = mSlots.get(base + FIELD_LATITUDE);
+            long longitude = mSlots.get(base + FIELD_LONGITUDE);
+
+            if (mSlots.get(base + FIELD_SEQUENCE) != before) {
+                // 読んでいる間に書き込まれた
+                continue;
+            }
+
+            if (slotIndex != index) {
+                return false;
+            }
+
+            out.index = index;
+            out.time = time;
+            out.latitudeE7 = latitude;
+            out.longitudeE7 = longitude;
+            return true;
+        }
+    }
+
+    private int slotOf(long index) {
+        return (int) (index % mCapacity) * SLOT_FIELDS;
+    }
+
+    /**
+     * ファイルの内容を読み込む。書き込みの途中で終了したスロットは、空として扱う。
+     */
+    private void restore() {
+        for (int slot = 0; slot < mCapacity; slot++) {
+            int base = slot * SLOT_FIELDS;
+            int offset = HEADER_SIZE + base * 8;
+
+            long sequence = mMapped.getLong(offset);
+            for (int field = 0; field < SLOT_FIELDS; field++) {
+                mSlots.set(base + field, mMapped.getLong(offset + field * 8));
+            }
+
+            if ((sequence & 1L) != 0) {
+                mSlots.set(base + FIELD_SEQUENCE, sequence + 1);
+                mSlots.set(base + FIELD_INDEX, NO_INDEX);
+            }
+        }
+
+        mWriteCount.set(mMapped.getLong(8));
+    }
+
+    private void copyToFile(int base) {
+        int offset = HEADER_SIZE + base * 8;
+
+        // シーケンスを最後に書いて、途中で終了したスロットは奇数のまま残るようにする
+        mMapped.putLong(offset, mSlots.get(base + FIELD_SEQUENCE) | 1L);
+        for (int field = 1; field < SLOT_FIELDS; field++) {
+            mMapped.putLong(offset + field * 8, mSlots.get(base + field));
+        }
+        mMapped.putLong(offset, mSlots.get(base + FIELD_SEQUENCE));
+    }
+
+    private static MappedByteBuffer map(File file, int capacity) throws IOException {
+        long size = HEADER_SIZE + (long) capacity * SLOT_FIELDS * 8;
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // 容量が変わった場合は、作り直す
+            if (raf.length() != size) {
+                raf.setLength(0);
+                raf.setLength(size);
+            }
+
+            // マップはチャネルを閉じた後も有効
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 読み込んだ位置情報を受け取るオブジェクト。ポーリングのたびに作らず、使い回す。
+     */
+    static class Fix {
+
+        private long index;
+        private long time;
+        private long latitudeE7;
+        private long longitudeE7;
+
+        long getIndex() {
+            return index;
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        double getLatitude() {
+            return PlaceDBHelper.fromE7(latitudeE7);
+        }
+
+        double getLongitude() {
+            return PlaceDBHelper.fromE7(longitudeE7);
+        }
+    }
+}
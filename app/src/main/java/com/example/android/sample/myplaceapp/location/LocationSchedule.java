@@ -0,0 +1,302 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * 端末が移動しているかどうかに応じて、位置情報を取得する間隔を決める。
+ * <p>
+ * 受け取った位置情報が、起点からSTATIONARY_RADIUSの範囲にSTATIONARY_AFTER以上とどまっていれば静止中とし、
+ * 間隔を延ばして低電力で取得する。範囲を出るか、MOVING_SPEED以上の速さを受け取ったら、
+ * その位置情報を新しい起点にして移動中とし、間隔を縮める。
+ * 範囲を出たかどうかは、位置情報の誤差を差し引いて判定する。
+ * 静止中の低電力の測位は誤差が大きいが、誤差を差し引いても範囲の外であれば移動中に戻す。
+ * <p>
+ * 判定は受け取った位置情報の取得時刻だけを使うので、記録済みの位置情報を渡せば同じ結果を再現できる。
+ * 状態はプロセスが終了しても失われないように、SharedPreferencesに保存する。
+ * 記録の停止と、記録サービスによる保存・リクエストし直しは、LOCKで排他する。
+ */
+class LocationSchedule {
+
+    /**
+     * 判定に必要な位置情報をまだ受け取っていない。記録開始時の間隔を使う。
+     */
+    static final int MODE_DEFAULT = 0;
+
+    /**
+     * 移動中。
+     */
+    static final int MODE_MOVING = 1;
+
+    /**
+     * 静止中。
+     */
+    static final int MODE_STATIONARY = 2;
+
+    private static final long MINUTE = 60 * 1000;
+
+    /**
+     * 静止中とみなす範囲の半径m。
+     */
+    static final double STATIONARY_RADIUS = 150;
+
+    /**
+     * この時間ms以上範囲にとどまったら、静止中とみなす。
+     */
+    static final long STATIONARY_AFTER = 20 * MINUTE;
+
+    /**
+     * この速さm/s以上の位置情報を受け取ったら、範囲の中でも移動中とみなす。早歩き程度。
+     */
+    static final float MOVING_SPEED = 2f;
+
+    /**
+     * SharedPreferencesのファイル名。
+     */
+    private static final String PREF_NAME = "location_schedule";
+
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_MODE = "mode";
+    private static final String KEY_ANCHOR_LATITUDE = "anchor_latitude";
+    private static final String KEY_ANCHOR_LONGITUDE = "anchor_longitude";
+    private static final String KEY_ANCHOR_TIME = "anchor_time";
+
+    /**
+     * 起点がないことを示す時刻。
+     */
+    private static final long NO_TIME = -1L;
+
+    /**
+     * 記録の開始・停止と、記録サービスが状態を保存してリクエストし直す処理を排他するロック。
+     * 止めた後に、記録サービスが記録中の状態を書き戻したり、リクエストし直したりしないようにする。
+     */
+    static final Object LOCK = new Object();
+
+    /**
+     * 記録中かどうか。記録を止めた後に届いた位置情報で、リクエストし直さないようにする。
+     */
+    private boolean mEnabled;
+
+    private int mMode = MODE_DEFAULT;
+
+    /**
+     * 静止中かどうかを判定する範囲の中心と、範囲に入った時刻。
+     */
+    private double mAnchorLatitude;
+    private double mAnchorLongitude;
+    private long mAnchorTime = NO_TIME;
+
+    /**
+     * 保存した状態を読み込む。
+     *
+     * @param context
+     * @return
+     */
+    static LocationSchedule load(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+
+        LocationSchedule schedule = new LocationSchedule();
+        schedule.mEnabled = prefs.getBoolean(KEY_ENABLED, false);
+        schedule.mMode = prefs.getInt(KEY_MODE, MODE_DEFAULT);
+        schedule.mAnchorLatitude = Double.longBitsToDouble(prefs.getLong(KEY_ANCHOR_LATITUDE, 0L));
+        schedule.mAnchorLongitude = Double.longBitsToDouble(prefs.getLong(KEY_ANCHOR_LONGITUDE, 0L));
+        schedule.mAnchorTime = prefs.getLong(KEY_ANCHOR_TIME, NO_TIME);
+        return schedule;
+    }
+
+    /**
+     * 状態を保存する。
+     *
+     * @param context
+     */
+    void save(Context context) {
+        // doubleは精度を落とさないように、ビット列のままlongで保存する
+        getPreferences(context).edit()
+                .putBoolean(KEY_ENABLED, mEnabled)
+                .putInt(KEY_MODE, mMode)
+                .putLong(KEY_ANCHOR_LATITUDE, Double.doubleToRawLongBits(mAnchorLatitude))
+                .putLong(KEY_ANCHOR_LONGITUDE, Double.doubleToRawLongBits(mAnchorLongitude))
+                .putLong(KEY_ANCHOR_TIME, mAnchorTime)
+                .apply();
+    }
+
+    /**
+     * 記録を開始する。判定は初めからやり直す。
+     *
+     * @param context
+     * @return 記録開始時の間隔を使うスケジュール
+     */
+    static LocationSchedule start(Context context) {
+        LocationSchedule schedule = new LocationSchedule();
+        schedule.mEnabled = true;
+        synchronized (LOCK) {
+            schedule.save(context);
+        }
+        return schedule;
+    }
+
+    /**
+     * 記録を止める。保存した状態は破棄する。
+     *
+     * @param context
+     */
+    static void stop(Context context) {
+        synchronized (LOCK) {
+            getPreferences(context).edit().clear().apply();
+        }
+    }
+
+    /**
+     * 記録中のままであれば、状態を保存する。
+     * 読み込んだ後に記録が止められていた場合は、止めた状態を上書きせずにfalseを返す。
+     * 保存した後にリクエストし直す場合は、呼び出し側でLOCKを取ったまま行う。
+     *
+     * @param context
+     * @return 保存した場合はtrue
+     */
+    boolean saveIfEnabled(Context context) {
+        synchronized (LOCK) {
+            if (!getPreferences(context).getBoolean(KEY_ENABLED, false)) {
+                mEnabled = false;
+                return false;
+            }
+            save(context);
+            return true;
+        }
+    }
+
+    /**
+     * 記録中かどうかを返す。
+     *
+     * @return
+     */
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 受け取った位置情報で、移動しているかどうかを判定し直す。
+     * 精度の悪い位置情報も含め、フィルタを通す前のものを取得した順に渡す。
+     * 誤差が範囲の半径より大きい位置情報の速さは、移動の判定に使わない。
+     *
+     * @param place
+     * @return 判定が変わった場合はtrue
+     */
+    boolean update(Place place) {
+        float accuracy = place.getAccuracy();
+        int mode = mMode;
+
+        // 誤差の分だけ範囲を広げて、誤差による揺れを移動とみなさない。
+        // 低電力の測位で数百mずれても、それ以上離れていれば移動したと分かる
+        double radius = STATIONARY_RADIUS + (Float.isNaN(accuracy) ? 0 : accuracy);
+        boolean leftAnchor = mAnchorTime == NO_TIME
+                || !GeoMath.isCloserThan(mAnchorLatitude, mAnchorLongitude,
+                        place.getLatitude(), place.getLongitude(), radius);
+        boolean fast = !(accuracy > STATIONARY_RADIUS)
+                && !Float.isNaN(place.getSpeed()) && place.getSpeed() >= MOVING_SPEED;
+
+        if (leftAnchor || fast) {
+            // 起点が初めてでなければ、起点から動いたので移動中
+            if (mAnchorTime != NO_TIME) {
+                mMode = MODE_MOVING;
+            }
+            mAnchorLatitude = place.getLatitude();
+            mAnchorLongitude = place.getLongitude();
+            mAnchorTime = place.getTime();
+        } else if (place.getTime() - mAnchorTime >= STATIONARY_AFTER) {
+            mMode = MODE_STATIONARY;
+        }
+
+        return mode != mMode;
+    }
+
+    /**
+     * 現在の判定を返す。
+     *
+     * @return MODE_DEFAULT、MODE_MOVING、MODE_STATIONARYのいずれか
+     */
+    int getMode() {
+        return mMode;
+    }
+
+    /**
+     * 位置情報取得の間隔msを返す。
+     *
+     * @return
+     */
+    long getInterval() {
+        switch (mMode) {
+            case MODE_MOVING:
+                return 2 * MINUTE;
+            case MODE_STATIONARY:
+                return 30 * MINUTE;
+            default:
+                return 10 * MINUTE;
+        }
+    }
+
+    /**
+     * 位置情報取得の最短間隔msを返す。
+     *
+     * @return
+     */
+    long getFastestInterval() {
+        switch (mMode) {
+            case MODE_MOVING:
+                return MINUTE;
+            case MODE_STATIONARY:
+                return 10 * MINUTE;
+            default:
+                return 5 * MINUTE;
+        }
+    }
+
+    /**
+     * 位置情報の更新を待つ最長間隔msを返す。
+     * 静止中は、まとめて受け取ってサービスを起動する回数を減らす。
+     *
+     * @return
+     */
+    long getMaxWaitTime() {
+        switch (mMode) {
+            case MODE_MOVING:
+                return 10 * MINUTE;
+            case MODE_STATIONARY:
+                return 120 * MINUTE;
+            default:
+                return 60 * MINUTE;
+        }
+    }
+
+    /**
+     * 位置情報取得の優先度を返す。
+     * 静止中は、基地局やWi-Fiによる低電力の測位で十分。
+     *
+     * @return
+     */
+    int getPriority() {
+        if (mMode == MODE_STATIONARY) {
+            return LocationRequest.PRIORITY_LOW_POWER;
+        }
+        return LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+    }
+
+    /**
+     * 現在の判定に応じた、位置情報のリクエストを作る。
+     *
+     * @return
+     */
+    LocationRequest createRequest() {
+        return new LocationRequest()
+                .setInterval(getInterval()) // 取得間隔
+                .setFastestInterval(getFastestInterval()) //最短の取得間隔
+                .setMaxWaitTime(getMaxWaitTime()) //最長の待ち時間
+                .setPriority(getPriority());
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+
+/**
+ * 記録サービスが位置情報を受け取って起動した回数と、保存した位置情報の数を、1時間ごとに数える。
+ * <p>
+ * 取得間隔の決め方を変えた時に、電池の消費に影響する起動回数と、記録の細かさを比べるために使う。
+ * 1時間が過ぎたら、その1時間の値を累計に加えてから数え直す。
+ * 値はプロセスが終了しても失われないように、SharedPreferencesに保存する。
+ */
+class LocationStats {
+
+    static final long HOUR = 60 * 60 * 1000L;
+
+    /**
+     * SharedPreferencesのファイル名。
+     */
+    private static final String PREF_NAME = "location_stats";
+
+    private static final String KEY_HOUR_START = "hour_start";
+    private static final String KEY_WAKEUPS = "wakeups";
+    private static final String KEY_ROWS = "rows";
+    private static final String KEY_TOTAL_HOURS = "total_hours";
+    private static final String KEY_TOTAL_WAKEUPS = "total_wakeups";
+    private static final String KEY_TOTAL_ROWS = "total_rows";
+
+    /**
+     * 数えている1時間の開始時刻。まだ数えていない場合は0。
+     */
+    private long mHourStart;
+    private int mWakeups;
+    private int mRows;
+
+    /**
+     * これまでに数え終えた時間の数と、その間の合計。
+     */
+    private long mTotalHours;
+    private long mTotalWakeups;
+    private long mTotalRows;
+
+    /**
+     * 保存した値を読み込む。
+     *
+     * @param context
+     * @return
+     */
+    static LocationStats load(Context context) {
+        SharedPreferences prefs = getPreferences(context);
+
+        LocationStats stats = new LocationStats();
+        stats.mHourStart = prefs.getLong(KEY_HOUR_START, 0L);
+        stats.mWakeups = prefs.getInt(KEY_WAKEUPS, 0);
+        stats.mRows = prefs.getInt(KEY_ROWS, 0);
+        stats.mTotalHours = prefs.getLong(KEY_TOTAL_HOURS, 0L);
+        stats.mTotalWakeups = prefs.getLong(KEY_TOTAL_WAKEUPS, 0L);
+        stats.mTotalRows = prefs.getLong(KEY_TOTAL_ROWS, 0L);
+        return stats;
+    }
+
+    /**
+     * 値を保存する。
+     *
+     * @param context
+     */
+    void save(Context context) {
+        getPreferences(context).edit()
+                .putLong(KEY_HOUR_START, mHourStart)
+                .putInt(KEY_WAKEUPS, mWakeups)
+                .putInt(KEY_ROWS, mRows)
+                .putLong(KEY_TOTAL_HOURS, mTotalHours)
+                .putLong(KEY_TOTAL_WAKEUPS, mTotalWakeups)
+                .putLong(KEY_TOTAL_ROWS, mTotalRows)
+                .apply();
+    }
+
+    /**
+     * 位置情報を受け取って1回起動したことを記録する。
+     *
+     * @param now 現在時刻。エポックからのms
+     * @param rows 保存した位置情報の数
+     * @return 1時間が過ぎて数え直した場合はtrue。過ぎた1時間の値はgetSummary()で確認できる
+     */
+    boolean recordWakeup(long now, int rows) {
+        boolean rolled = false;
+        if (mHourStart == 0L) {
+            mHourStart = now;
+        } else if (now - mHourStart >= HOUR) {
+            // 起動がなかった時間も、0回として累計に含める
+            mTotalHours += (now - mHourStart) / HOUR;
+            mTotalWakeups += mWakeups;
+            mTotalRows += mRows;
+            mHourStart += (now - mHourStart) / HOUR * HOUR;
+            mWakeups = 0;
+            mRows = 0;
+            rolled = true;
+        }
+
+        mWakeups++;
+        mRows += rows;
+        return rolled;
+    }
+
+    /**
+     * 数えている1時間の起動回数を返す。
+     *
+     * @return
+     */
+    int getWakeups() {
+        return mWakeups;
+    }
+
+    /**
+     * 数えている1時間に保存した位置情報の数を返す。
+     *
+     * @return
+     */
+    int getRows() {
+        return mRows;
+    }
+
+    /**
+     * 数え終えた時間の、1時間あたりの起動回数を返す。
+     *
+     * @return まだ1時間も数え終えていない場合は0
+     */
+    double getWakeupsPerHour() {
+        return mTotalHours == 0 ? 0 : (double) mTotalWakeups / mTotalHours;
+    }
+
+    /**
+     * 数え終えた時間の、1時間あたりに保存した位置情報の数を返す。
+     *
+     * @return まだ1時間も数え終えていない場合は0
+     */
+    double getRowsPerHour() {
+        return mTotalHours == 0 ? 0 : (double) mTotalRows / mTotalHours;
+    }
+
+    /**
+     * ログに出力する、集計の文字列を返す。
+     *
+     * @return
+     */
+    String getSummary() {
+        return String.format(Locale.US, "hours=%d wakeups/h=%.2f rows/h=%.2f (current hour: wakeups=%d rows=%d)",
+                mTotalHours, getWakeupsPerHour(), getRowsPerHour(), mWakeups, mRows);
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    }
+}
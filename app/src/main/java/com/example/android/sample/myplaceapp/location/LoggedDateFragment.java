@@ -15,6 +15,7 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.example.android.sample.myplaceapp.R;
@@ -38,6 +39,11 @@ public class LoggedDateFragment extends ListFragment {
          * @param date
          */
         void onDateSelected(String date);
+
+        /**
+         * 全期間を選択した時の処理。
+         */
+        void onAllHistorySelected();
     }
 
     /**
@@ -63,6 +69,11 @@ public class LoggedDateFragment extends ListFragment {
     public void onActivityCreated(@Nullable Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
+        // 先頭に全期間の項目を置く
+        View header = LayoutInflater.from(getActivity()).inflate(R.layout.list_item_date,getListView(),false);
+        ((TextView) header.findViewById(R.id.LoggedDate)).setText(R.string.list_all_history);
+        getListView().addHeaderView(header);
+
         // 空のアダプタをセットする
         mAdaper = new DateAdapter(getActivity());
         setListAdapter(mAdaper);
@@ -71,6 +82,19 @@ public class LoggedDateFragment extends ListFragment {
         getLoaderManager().restartLoader(DATE_LOADER,getArguments(),mLoaderCallback);
     }
 
+    @Override
+    public void onListItemClick(ListView l, View v, int position, long id) {
+        LoggedDateFragmentListener listener = (LoggedDateFragmentListener) getActivity();
+
+        // 先頭の項目は日付を持たない
+        String date = (String) l.getItemAtPosition(position);
+        if(date == null){
+            listener.onAllHistorySelected();
+        }else{
+            listener.onDateSelected(date);
+        }
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
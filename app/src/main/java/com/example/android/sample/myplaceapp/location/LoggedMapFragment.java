@@ -1,17 +1,16 @@
 package com.example.android.sample.myplaceapp.location;
 
 import android.app.LoaderManager;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.Loader;
 import android.database.ContentObserver;
-import android.database.Cursor;
-import android.icu.text.SimpleDateFormat;
-import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresApi;
+import android.util.LongSparseArray;
 import android.view.View;
 
 import com.google.android.gms.maps.CameraUpdate;
@@ -19,53 +18,253 @@ import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.MapFragment;
 import com.google.android.gms.maps.OnMapReadyCallback;
-import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
 
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * 地図の表示と操作を行うFragment。
  */
 @RequiresApi(api = Build.VERSION_CODES.N)
-public class LoggedMapFragment extends MapFragment implements OnMapReadyCallback {
+public class LoggedMapFragment extends MapFragment implements OnMapReadyCallback,
+        GoogleMap.OnCameraIdleListener, GoogleMap.OnCameraMoveStartedListener {
 
     /**
      * 位置情報を読み込むローダ。
      */
     private static final int PLACE_LOADER = 1;
 
+    /**
+     * 表示中の矩形の位置情報を読み込むローダ。
+     */
+    private static final int VIEWPORT_LOADER = 2;
+
     /**
      * プロットする日付をBundleに詰めるためのキー。
      */
     private static final String ARGS_DATE = "date";
 
+    /**
+     * 期間を表示するかどうかをBundleに詰めるためのキー。
+     */
+    private static final String ARGS_VIEWPORT = "viewport";
+
+    /**
+     * 表示する期間の最初と最後の日付をBundleに詰めるためのキー。全期間の場合は詰めない。
+     */
+    private static final String ARGS_FROM_DATE = "from_date";
+    private static final String ARGS_TO_DATE = "to_date";
+
     /**
      * デフォルトのズーム。
      */
     private static final float DEFAULT_ZOOM = 15f;
 
+    /**
+     * クラスタにまとめる格子の一辺の長さ(dp)。
+     */
+    private static final double CLUSTER_CELL_SIZE = 48;
+
+    /**
+     * 位置情報の変更を反映するまでの待ち時間ms。
+     * まとめて届いた変更の通知は、1回の反映にまとめる。
+     */
+    private static final long UPDATE_DELAY_MS = 1000;
+
+    /**
+     * 直近の位置情報のリングバッファを読む間隔ms。
+     */
+    private static final long LIVE_POLL_MS = 1000;
+
+    /**
+     * 追加された地点を結ぶ線分1本あたりの頂点の上限。
+     * 超えたら新しい線分に切り替え、setPoints()で送り直す頂点の数を一定に抑える。
+     */
+    private static final int TAIL_CHUNK_POINTS = 256;
+
     /**
      * 地図を操作するためのオブジェクト。
      */
     private GoogleMap mGoogleMap;
 
     /**
-     * DB検索結果のカーソル。
+     * 表示中の位置情報の列。
+     */
+    private TrackLevels mLevels;
+
+    /**
+     * 表示中の詳細度。
+     */
+    private int mLevel = -1;
+
+    /**
+     * 地点を結ぶ線分。
+     */
+    private Polyline mPolyline;
+
+    /**
+     * 詳細度を選んだ後に追加された地点を結ぶ線分のうち、頂点が上限に達したもの。
+     * 詳細度を選び直す時に、mPolylineに含めて作り直す。
+     */
+    private final List<Polyline> mFullTailPolylines = new ArrayList<Polyline>();
+
+    /**
+     * 詳細度を選んだ後に追加された地点を結ぶ線分のうち、まだ頂点を追加できるもの。
+     */
+    private Polyline mTailPolyline;
+
+    /**
+     * mTailPolylineの頂点。
+     */
+    private List<LatLng> mTailPoints;
+
+    /**
+     * 最新の場所を示す赤いマーカ。
+     */
+    private Marker mLatestMarker;
+
+    /**
+     * 最新の場所以外の地点をまとめたクラスタのマーカ。キーは格子のキー。
+     */
+    private final LongSparseArray<ClusterMarker> mClusterMarkers = new LongSparseArray<ClusterMarker>();
+
+    /**
+     * クラスタのマーカを作った時の格子の大きさ。
+     * 1日の表示ではズーム、期間の表示では格子の緯度方向の大きさ。
      */
-    private Cursor mCursor;
+    private double mMarkersGrid = Double.NaN;
 
     /**
-     * コンテントプロバイダへの変更を画面に反映するためのHandler。
+     * クラスタの計算を始めた時のズーム。
      */
-    private Handler mHandler = new Handler();
+    private float mClusterZoom = Float.NaN;
+
+    /**
+     * 表示中のクラスタ。追加された地点は、これに加えて変わったマーカだけを更新する。
+     */
+    private GridClusterer.Clusters mClusters;
+
+    /**
+     * mClustersにまとめた地点の数。
+     */
+    private int mClusteredCount;
+
+    /**
+     * 実行中のクラスタ計算。
+     */
+    private ClusterTask mClusterTask;
+
+    /**
+     * クラスタのアイコン。
+     */
+    private ClusterIconFactory mIconFactory;
+
+    /**
+     * 記録サービスが書き込む、直近の位置情報のリングバッファ。
+     */
+    private LiveTrackBuffer mLiveBuffer;
+
+    /**
+     * リングバッファから読み込んだ値を受け取るオブジェクト。ポーリングのたびに作らず、使い回す。
+     */
+    private final LiveTrackBuffer.Fix mLiveFix = new LiveTrackBuffer.Fix();
+
+    /**
+     * リングバッファから次に読む番号。
+     */
+    private long mLiveReadCount;
+
+    /**
+     * 地図に表示している最後の地点の取得時刻。これより後の地点だけを、リングバッファからつなげる。
+     */
+    private long mLiveLastTime;
+
+    /**
+     * 表示中の日の始まりと終わりの時刻。
+     */
+    private long mLiveDayStart;
+    private long mLiveDayEnd;
+
+    /**
+     * DBから読み込んだ位置情報の末尾から、リングバッファの地点を結ぶ線分。
+     * DBから読み込み直すたびに、まだDBにない地点だけで作り直す。
+     */
+    private Polyline mLivePolyline;
+
+    /**
+     * mLivePolylineの頂点。
+     */
+    private List<LatLng> mLivePoints;
+
+    /**
+     * リングバッファを定期的に読む処理。
+     */
+    private final Runnable mLivePollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            pollLiveTail();
+            mHandler.postDelayed(this, LIVE_POLL_MS);
+        }
+    };
+
+    /**
+     * 変更の通知を、メインスレッドで受け取るためのHandler。
+     */
+    private final Handler mHandler = new Handler();
+
+    /**
+     * 位置情報の変更を監視するオブザーバ。
+     */
+    private final ContentObserver mPlaceObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            // 続けて届く通知をまとめるため、少し待ってから反映する
+            mHandler.removeCallbacks(mUpdateRunnable);
+            mHandler.postDelayed(mUpdateRunnable, UPDATE_DELAY_MS);
+        }
+    };
+
+    /**
+     * 追加された位置情報を反映する処理。
+     */
+    private final Runnable mUpdateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mLevels == null) return;
+
+            // 差分の取得中は、終わってからもう一度取得する
+            if (mAppendTask != null) {
+                mUpdatePending = true;
+                return;
+            }
+
+            int dayKey = DayKey.parse(getArguments().getString(ARGS_DATE));
+            mAppendTask = new AppendTask(getActivity(), dayKey, mLevels);
+            mAppendTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, (Void[]) null);
+        }
+    };
+
+    /**
+     * 実行中の差分の取得。
+     */
+    private AppendTask mAppendTask;
+
+    /**
+     * 差分の取得中に、さらに変更の通知が届いたかどうか。
+     */
+    private boolean mUpdatePending;
+
+    /**
+     * 期間の表示で、読み込み中または表示中の検索条件。
+     */
+    private PlaceBoundsQuery mViewportQuery;
 
     /**
      * 位置情報をプロットする日付を指定してインスタンスを作る。
@@ -89,18 +288,32 @@ public class LoggedMapFragment extends MapFragment implements OnMapReadyCallback
         super.getMapAsync(this);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        // 画面に表示している間だけ、直近の位置情報をポーリングする
+        mLiveBuffer = LiveTrackBuffer.getInstance(getActivity());
+        mHandler.post(mLivePollRunnable);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mLivePollRunnable);
+    }
+
     @Override
     public void onDestroyView() {
         super.onDestroyView();
 
-        // コンテントプロバイダの監視を外す
-        if (mCursor != null){
-            mCursor.unregisterContentObserver(mObserver);
-            mCursor = null;
-        }
+        // コンテントプロバイダの監視をやめる
+        getActivity().getContentResolver().unregisterContentObserver(mPlaceObserver);
+        mHandler.removeCallbacks(mUpdateRunnable);
 
-        // Loaderを破棄
+        // Loaderを破棄する
         getLoaderManager().destroyLoader(PLACE_LOADER);
+        getLoaderManager().destroyLoader(VIEWPORT_LOADER);
     }
 
     /**
@@ -111,13 +324,61 @@ public class LoggedMapFragment extends MapFragment implements OnMapReadyCallback
     public void setDate(String dateString){
         getArguments().putString(ARGS_DATE,dateString);
 
+        if (isViewportMode()) {
+            // 期間の表示をやめる
+            getArguments().putBoolean(ARGS_VIEWPORT,false);
+            getLoaderManager().destroyLoader(VIEWPORT_LOADER);
+            mViewportQuery = null;
+            clearMarker();
+        }
+
         // Loaderを初期化する
         getLoaderManager().restartLoader(PLACE_LOADER,getArguments(),mCallback);
     }
 
+    /**
+     * 指定した期間の位置情報を表示する。
+     * 期間の表示では、地図に表示されている矩形の中の位置情報だけを、ズームに応じた格子ごとにまとめて読み込む。
+     *
+     * @param fromDateString 最初の日付(yyyy-MM-dd)
+     * @param toDateString 最後の日付(yyyy-MM-dd)
+     */
+    public void setDateRange(String fromDateString, String toDateString){
+        getArguments().putBoolean(ARGS_VIEWPORT,true);
+        getArguments().putString(ARGS_FROM_DATE,fromDateString);
+        getArguments().putString(ARGS_TO_DATE,toDateString);
+
+        // 1日の表示をやめる
+        getLoaderManager().destroyLoader(PLACE_LOADER);
+        clearMarker();
+
+        if (mGoogleMap != null) {
+            loadViewport();
+        }
+    }
+
+    /**
+     * 記録した全期間の位置情報を表示する。
+     */
+    public void showAllHistory(){
+        setDateRange(null,null);
+    }
+
+    private boolean isViewportMode() {
+        return getArguments().getBoolean(ARGS_VIEWPORT);
+    }
+
     @Override
     public void onMapReady(GoogleMap googleMap) {
         mGoogleMap = googleMap;
+        mIconFactory = new ClusterIconFactory(getActivity());
+
+        // カメラの移動が止まったら、ズームに応じて詳細度とクラスタを選び直す
+        mGoogleMap.setOnCameraIdleListener(this);
+        mGoogleMap.setOnCameraMoveStartedListener(this);
+
+        // 追加された位置情報は、表示中の地図に差分だけを反映する
+        getActivity().getContentResolver().registerContentObserver(PlaceProvider.CONTENT_URI, true, mPlaceObserver);
 
         // カメラの操作は、Viewがレイアウトされた後に行う必要がある
         View view = getView();
@@ -125,111 +386,152 @@ public class LoggedMapFragment extends MapFragment implements OnMapReadyCallback
             view.post(new Runnable() {
                 @Override
                 public void run() {
-                    // Loaderを初期化する
-                    getLoaderManager().restartLoader(PLACE_LOADER,getArguments(),mCallback);
+                    if (isViewportMode()) {
+                        loadViewport();
+                    } else {
+                        // Loaderを初期化する
+                        getLoaderManager().restartLoader(PLACE_LOADER,getArguments(),mCallback);
+                    }
                 }
             });
         }
     }
 
+    @Override
+    public void onCameraIdle() {
+        if (isViewportMode()) {
+            // 移動後の矩形の位置情報を読み込む
+            loadViewport();
+            return;
+        }
+
+        if (mLevels == null) return;
+
+        drawMarker(mGoogleMap.getCameraPosition().zoom);
+    }
+
+    @Override
+    public void onCameraMoveStarted(int reason) {
+        if (!isViewportMode()) return;
+
+        // 移動前の矩形の読み込みは不要になるので、実行中の検索を中断する
+        Loader<GridClusterer.Clusters> loader = getLoaderManager().getLoader(VIEWPORT_LOADER);
+        if (loader != null) {
+            loader.cancelLoad();
+        }
+    }
+
     /**
-     * コールバック。
+     * 地図に表示されている矩形の位置情報を、ズームに応じた格子ごとにまとめて読み込む。
+     * 読み込み中の検索は、restartLoader()によって中断される。
+     */
+    private void loadViewport() {
+        LatLngBounds bounds = mGoogleMap.getProjection().getVisibleRegion().latLngBounds;
+        float zoom = mGoogleMap.getCameraPosition().zoom;
+
+        long fromTime = Long.MIN_VALUE;
+        long toTime = Long.MAX_VALUE;
+        String fromDate = getArguments().getString(ARGS_FROM_DATE);
+        String toDate = getArguments().getString(ARGS_TO_DATE);
+        if (fromDate != null) {
+            fromTime = DayKey.startOf(DayKey.parse(fromDate));
+        }
+        if (toDate != null) {
+            toTime = DayKey.endOf(DayKey.parse(toDate));
+        }
+
+        // クラスタのマーカ1つ分の大きさを、経度に換算したものを格子の大きさにする
+        double gridSize = CLUSTER_CELL_SIZE * 360 / (256 * Math.pow(2, zoom));
+
+        mViewportQuery = new PlaceBoundsQuery(
+                bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude,
+                fromTime, toTime).withGrid(gridSize);
+
+        getLoaderManager().restartLoader(VIEWPORT_LOADER,null,mViewportCallback);
+    }
+
+    /**
+     * 期間の表示のコールバック。
      */
-    private LoaderManager.LoaderCallbacks<Cursor> mCallback = new LoaderManager.LoaderCallbacks<Cursor>() {
+    private LoaderManager.LoaderCallbacks<GridClusterer.Clusters> mViewportCallback = new LoaderManager.LoaderCallbacks<GridClusterer.Clusters>() {
 
         @Override
-        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-            if(id == PLACE_LOADER){
-                // Bundleから日付文字列を取り出す
-                String arg_date = args.getString(ARGS_DATE);
-                SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd", Locale.getDefault());
-
-                try{
-                    // 日付文字列が示す日時(00:00:00)
-                    long dayStart = sdf.parse(arg_date).getTime();
-                    // 同日の23:59:59
-                    long dayEnd = dayStart + PlaceRepository.DAY - 1;
-
-                    return new CursorLoader(getActivity(),
-                            PlaceProvider.CONTENT_URI,
-                            null,
-                            PlaceDBHelper.COLUMN_TIME + " BETWEEN ? AND ?",
-                            new String[]{String.valueOf(dayStart), String.valueOf(dayEnd)},
-                            PlaceDBHelper.COLUMN_REGISTER_TIME);
-                }catch(ParseException e){
-                    e.printStackTrace();
-                }
-            }
-            return null;
+        public Loader<GridClusterer.Clusters> onCreateLoader(int id, Bundle args) {
+            return new PlaceViewportLoader(getActivity(),mViewportQuery);
         }
 
         @Override
-        public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-            mCursor = data;
-            // コンテントプロバイダに変更が加えられた場合に再検索するためのオブザーバを登録する
-            mCursor.registerContentObserver(mObserver);
-            // 地図のカメラを操作する
-            handleCamera(mCursor);
+        public void onLoadFinished(Loader<GridClusterer.Clusters> loader, GridClusterer.Clusters data) {
+            // 格子のキーは、同じ格子の大きさで検索した結果同士でだけ比べられる
+            drawClusters(data,mViewportQuery.getLatitudeGridSize());
         }
 
         @Override
-        public void onLoaderReset(Loader<Cursor> loader) {
-            if(mCursor != null){
-                mCursor.unregisterContentObserver(mObserver);
-                mCursor = null;
-            }
+        public void onLoaderReset(Loader<GridClusterer.Clusters> loader) {
+            // 保持しているデータはない
         }
     };
 
     /**
-     * コンテントプロバイダの変更を監視するオブザーバ。
+     * コールバック。
      */
-    private ContentObserver mObserver = new ContentObserver(mHandler) {
+    private LoaderManager.LoaderCallbacks<TrackLevels> mCallback = new LoaderManager.LoaderCallbacks<TrackLevels>() {
 
         @Override
-        public void onChange(boolean selfChange) {
-            super.onChange(selfChange);
-            // Loaderを初期化する
-            getLoaderManager().restartLoader(PLACE_LOADER,getArguments(),mCallback);
+        public Loader<TrackLevels> onCreateLoader(int id, Bundle args) {
+            if(id == PLACE_LOADER){
+                // Bundleから日付文字列を取り出し、日のキーに変換する
+                int dayKey = DayKey.parse(args.getString(ARGS_DATE));
+
+                return new PlaceTrackLoader(getActivity(),dayKey);
+            }
+            return null;
+        }
+
+        @Override
+        public void onLoadFinished(Loader<TrackLevels> loader, TrackLevels data) {
+            // 前の読み込み結果のプロットを消す
+            clearMarker();
+            mLevels = data;
+
+            // 地図のカメラを操作する
+            handleCamera(data.getTrack());
+
+            // まだDBにない直近の地点をつなげる
+            resetLiveTail();
+        }
+
+        @Override
+        public void onLoaderReset(Loader<TrackLevels> loader) {
+            // 地図は破棄されている場合があるため、参照を手放すだけにする
+            resetMarker();
+            mLevels = null;
         }
     };
 
     /**
      * 地図を表示する視点を操作する
      *
-     * @param cursor
+     * @param track
      */
-    private void handleCamera(Cursor cursor) {
+    private void handleCamera(PlaceTrack track) {
         // 位置情報がない場合には、何もしない
-        if(cursor.getCount() == 0) return;
+        if(track.isEmpty()) return;
 
-        // カーソルから情報を集めて、Placeのリストにする
-        List<Place> places = new ArrayList<Place>();
-        while (cursor.moveToNext()){
-            places.add(PlaceRepository.cursorToPlace(cursor));
-        }
-
-        if(places.size() == 1){
+        if(track.size() == 1){
             // 1地点しかない場合
-            Place place = places.get(0);
-            LatLng latLng = new LatLng(place.getLatitude(),place.getLongitude());
-            // その地点を中心にし、デオfルト倍率にズームする
+            LatLng latLng = new LatLng(track.getLatitude(0),track.getLongitude(0));
+            // その地点を中心にし、デフォルト倍率にズームする
             CameraUpdate move = CameraUpdateFactory.newLatLng(latLng);
             CameraUpdate zoom = CameraUpdateFactory.zoomTo(DEFAULT_ZOOM);
             mGoogleMap.moveCamera(move);
             mGoogleMap.moveCamera(zoom);
         } else {
-            // 複数地点の場合、複数地点を結ぶ領域を作成するBuilder
-            LatLngBounds.Builder builder = new LatLngBounds.Builder();
-
-            // 各地点をBuilderに含めていく
-            for (Place place: places){
-                LatLng point = new LatLng(place.getLatitude(),place.getLongitude());
-                builder.include(point);
-            }
-
-            // 表示すべき領域を生成する
-            LatLngBounds displayBounds = builder.build();
+            // 複数地点の場合、全地点を囲む領域は読み込み時に計算済み
+            LatLngBounds displayBounds = new LatLngBounds(
+                    new LatLng(track.getMinLatitude(),track.getMinLongitude()),
+                    new LatLng(track.getMaxLatitude(),track.getMaxLongitude()));
 
             // 30dp
             final float scale = getActivity().getResources().getDisplayMetrics().density;
@@ -240,51 +542,486 @@ public class LoggedMapFragment extends MapFragment implements OnMapReadyCallback
             mGoogleMap.moveCamera(update);
         }
 
-        // 地図上にプロットする
-        drawMarker(places);
+        // 移動後のズームに応じて、地図上にプロットする
+        drawMarker(mGoogleMap.getCameraPosition().zoom);
+    }
+
+    /**
+     * プロットしたものを全て消す。
+     */
+    private void clearMarker() {
+        if (mGoogleMap != null) {
+            mGoogleMap.clear();
+        }
+        resetMarker();
+    }
+
+    /**
+     * プロットしたものへの参照を手放す。
+     */
+    private void resetMarker() {
+        if (mClusterTask != null) {
+            mClusterTask.cancel(false);
+            mClusterTask = null;
+        }
+        if (mAppendTask != null) {
+            mAppendTask.cancel(false);
+            mAppendTask = null;
+        }
+        mUpdatePending = false;
+
+        mPolyline = null;
+        mFullTailPolylines.clear();
+        mTailPolyline = null;
+        mTailPoints = null;
+        mLivePolyline = null;
+        mLivePoints = null;
+        mLatestMarker = null;
+        mClusterMarkers.clear();
+        mLevel = -1;
+        mMarkersGrid = Double.NaN;
+        mClusterZoom = Float.NaN;
+        mClusters = null;
+        mClusteredCount = 0;
     }
 
     /**
-     * 地図上に地点をプロットする。
+     * 地図上に、指定したズームに合わせて地点をプロットする。
+     * 線分は詳細度が変わった時だけ作り直し、クラスタはズームが変わった時だけバックグラウンドで計算し直す。
      *
-     * @param places
+     * @param zoom
      */
-    private void drawMarker(List<Place> places) {
-        // 現在プロットされているものを消す
-        mGoogleMap.clear();
+    private void drawMarker(float zoom) {
+        PlaceTrack track = mLevels.getTrack();
+        if (track.isEmpty()) return;
 
-        // 複数の線分を表示するオプション
-        PolylineOptions lineOptions = new PolylineOptions();
+        int level = mLevels.levelForZoom(zoom);
+        if (level != mLevel) {
+            drawLine(level);
+        }
 
-        int size = places.size();
-        for (int i = 0; i < size; i++){
-            Place place = places.get(i);
+        drawLatestMarker(track);
 
-            //線分表示オプションに地点を含める
-            LatLng latLng = new LatLng(place.getLatitude(),place.getLongitude());
-            lineOptions.add(latLng);
+        if (zoom != mClusterZoom) {
+            startClustering(track,zoom);
+        }
+    }
 
-            // 各地点にマーカを置く
+    /**
+     * 「最新の場所」を、クラスタに含めず赤いマーカで表示する。
+     *
+     * @param track
+     */
+    private void drawLatestMarker(PlaceTrack track) {
+        int last = track.size() - 1;
+        moveLatestMarker(new LatLng(track.getLatitude(last),track.getLongitude(last)));
+    }
+
+    /**
+     * 「最新の場所」のマーカを、指定した地点に移動する。
+     *
+     * @param latest
+     */
+    private void moveLatestMarker(LatLng latest) {
+        if (mLatestMarker == null) {
             MarkerOptions options = new MarkerOptions();
-            options.position(latLng);
+            options.position(latest);
             options.draggable(false);
+            options.icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED));
+            options.zIndex(1);
+            mLatestMarker = mGoogleMap.addMarker(options);
+        } else {
+            mLatestMarker.setPosition(latest);
+        }
+    }
+
+    /**
+     * 最新の場所以外の地点を、バックグラウンドでクラスタにまとめ始める。
+     *
+     * @param track
+     * @param zoom
+     */
+    private void startClustering(PlaceTrack track, float zoom) {
+        mClusterZoom = zoom;
+        mClusters = null;
+
+        if (mClusterTask != null) {
+            mClusterTask.cancel(false);
+        }
+        mClusterTask = new ClusterTask(track,zoom);
+        mClusterTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,(Void[])null);
+    }
+
+    /**
+     * 追加された地点を、表示中の線分とマーカに反映する。
+     * 地図に送るのは追加された地点と、数が変わったクラスタのマーカだけにする。
+     *
+     * @param levels 追加後の位置情報の列
+     */
+    private void appendMarker(TrackLevels levels) {
+        int oldSize = mLevels.getTrack().size();
+        mLevels = levels;
+
+        PlaceTrack track = levels.getTrack();
+        if (mPolyline != null) {
+            // 追加された地点は全ての詳細度に含まれるので、線分の末尾につなげるだけでよい
+            appendLine(track,oldSize);
+        }
+
+        drawLatestMarker(track);
+
+        // 計算中のクラスタは、計算が終わった時に追加された地点を加える
+        if (mClusterTask == null && mClusters != null) {
+            int[] changed = mClusters.append(track,mClusteredCount,track.size() - 1);
+            mClusteredCount = track.size() - 1;
+            drawChangedClusters(mClusters,changed);
+        }
+
+        // DBに追加された地点は、リングバッファの線分から外す
+        resetLiveTail();
+    }
+
+    /**
+     * 追加された地点を、表示中の線分の末尾から結ぶ。
+     * 線分1本の頂点が上限に達したら新しい線分に切り替えるので、地図に送り直す頂点の数は一日の地点の数によらない。
+     *
+     * @param track 追加後の位置情報の列
+     * @param oldSize 追加前の地点の数
+     */
+    private void appendLine(PlaceTrack track, int oldSize) {
+        if (mTailPoints == null || mTailPoints.size() >= TAIL_CHUNK_POINTS) {
+            if (mTailPolyline != null) {
+                mFullTailPolylines.add(mTailPolyline);
+                mTailPolyline = null;
+            }
+
+            // 前の線分の最後の地点から線をつなげる
+            mTailPoints = new ArrayList<LatLng>();
+            mTailPoints.add(new LatLng(track.getLatitude(oldSize - 1),track.getLongitude(oldSize - 1)));
+        }
+
+        for (int i = oldSize; i < track.size(); i++) {
+            mTailPoints.add(new LatLng(track.getLatitude(i),track.getLongitude(i)));
+        }
+
+        if (mTailPolyline == null) {
+            mTailPolyline = mGoogleMap.addPolyline(new PolylineOptions().addAll(mTailPoints));
+        } else {
+            mTailPolyline.setPoints(mTailPoints);
+        }
+    }
+
+    /**
+     * リングバッファの線分を、DBから読み込んだ位置情報の末尾から作り直す。
+     */
+    private void resetLiveTail() {
+        if (mLivePolyline != null) {
+            mLivePolyline.remove();
+            mLivePolyline = null;
+        }
+        mLivePoints = null;
+
+        if (mLevels == null || isViewportMode()) return;
+
+        int dayKey = DayKey.parse(getArguments().getString(ARGS_DATE));
+        mLiveDayStart = DayKey.startOf(dayKey);
+        mLiveDayEnd = DayKey.endOf(dayKey);
+
+        PlaceTrack track = mLevels.getTrack();
+        mLiveLastTime = track.isEmpty() ? Long.MIN_VALUE : track.getTime(track.size() - 1);
+
+        // リングバッファに残っている地点を、全て読み直す
+        mLiveReadCount = 0;
+        pollLiveTail();
+    }
+
+    /**
+     * リングバッファに書き込まれた地点のうち、表示中の日の末尾より後のものを線分につなげる。
+     * 新しい地点がなければ、ロックもオブジェクトの生成も行わずに戻る。
+     */
+    private void pollLiveTail() {
+        if (mLiveBuffer == null || mGoogleMap == null || mLevels == null || isViewportMode()) return;
+
+        long writeCount = mLiveBuffer.getWriteCount();
+        if (writeCount == mLiveReadCount) return;
+
+        // 上書きされた地点は読めないので、残っている最も古い地点から読む
+        long from = Math.max(mLiveReadCount, writeCount - mLiveBuffer.getCapacity());
+        int oldSize = mLivePoints == null ? 0 : mLivePoints.size();
+        for (long i = from; i < writeCount; i++) {
+            if (!mLiveBuffer.read(i, mLiveFix)) continue;
+
+            long time = mLiveFix.getTime();
+            if (time <= mLiveLastTime || time < mLiveDayStart || time > mLiveDayEnd) continue;
+
+            if (mLivePoints == null) {
+                // DBから読み込んだ最後の地点から線をつなげる
+                mLivePoints = new ArrayList<LatLng>();
+                PlaceTrack track = mLevels.getTrack();
+                if (!track.isEmpty()) {
+                    int last = track.size() - 1;
+                    mLivePoints.add(new LatLng(track.getLatitude(last),track.getLongitude(last)));
+                }
+                oldSize = mLivePoints.size();
+            }
+            mLivePoints.add(new LatLng(mLiveFix.getLatitude(),mLiveFix.getLongitude()));
+            mLiveLastTime = time;
+        }
+        mLiveReadCount = writeCount;
+
+        if (mLivePoints == null || mLivePoints.size() == oldSize) return;
+
+        if (mLivePolyline == null) {
+            mLivePolyline = mGoogleMap.addPolyline(new PolylineOptions().addAll(mLivePoints));
+        } else {
+            mLivePolyline.setPoints(mLivePoints);
+        }
+        moveLatestMarker(mLivePoints.get(mLivePoints.size() - 1));
+    }
+
+    /**
+     * 指定した詳細度で間引いた地点を、線分で結ぶ。
+     *
+     * @param level 詳細度
+     */
+    private void drawLine(int level) {
+        mLevel = level;
+
+        PlaceTrack track = mLevels.getTrack();
+        int count = mLevels.getIndexCount(level);
+
+        List<LatLng> points = new ArrayList<LatLng>(count);
+        for (int i = 0; i < count; i++) {
+            int index = mLevels.getIndex(level,i);
+            points.add(new LatLng(track.getLatitude(index),track.getLongitude(index)));
+        }
+
+        if (mPolyline == null) {
+            // 線分追加
+            mPolyline = mGoogleMap.addPolyline(new PolylineOptions().addAll(points));
+        } else {
+            mPolyline.setPoints(points);
+        }
+
+        // 追加された地点を結んでいた線分は、作り直した線分に含まれる
+        for (Polyline polyline : mFullTailPolylines) {
+            polyline.remove();
+        }
+        mFullTailPolylines.clear();
+        if (mTailPolyline != null) {
+            mTailPolyline.remove();
+            mTailPolyline = null;
+        }
+        mTailPoints = null;
+    }
+
+    /**
+     * クラスタのマーカを置き換える。
+     * 同じ格子で計算した結果であれば、数が変わったクラスタのマーカだけを更新する。
+     *
+     * @param clusters
+     * @param grid 格子の大きさを表す値
+     */
+    private void drawClusters(GridClusterer.Clusters clusters, double grid) {
+        if (grid != mMarkersGrid) {
+            // 格子の大きさが変わった場合、格子が全て変わる
+            for (int i = 0; i < mClusterMarkers.size(); i++) {
+                mClusterMarkers.valueAt(i).marker.remove();
+            }
+            mClusterMarkers.clear();
+            mMarkersGrid = grid;
+        }
+
+        LongSparseArray<ClusterMarker> markers = new LongSparseArray<ClusterMarker>(clusters.size());
+        for (int i = 0; i < clusters.size(); i++) {
+            long key = clusters.getKey(i);
+            int count = clusters.getCount(i);
+
+            ClusterMarker current = mClusterMarkers.get(key);
+            if (current != null) {
+                mClusterMarkers.remove(key);
+
+                if (current.count == count) {
+                    // 変わっていないマーカは、そのまま使う
+                    markers.put(key, current);
+                    continue;
+                }
+                current.marker.remove();
+            }
+
+            markers.put(key, addClusterMarker(clusters,i));
+        }
+
+        // なくなったクラスタのマーカを消す
+        for (int i = 0; i < mClusterMarkers.size(); i++) {
+            mClusterMarkers.valueAt(i).marker.remove();
+        }
+        mClusterMarkers.clear();
+        for (int i = 0; i < markers.size(); i++) {
+            mClusterMarkers.put(markers.keyAt(i), markers.valueAt(i));
+        }
+    }
+
+    /**
+     * 地点が加わったクラスタのマーカだけを置き換える。
+     *
+     * @param clusters 表示中のクラスタ
+     * @param changed 地点が加わったクラスタの番号
+     */
+    private void drawChangedClusters(GridClusterer.Clusters clusters, int[] changed) {
+        for (int i : changed) {
+            long key = clusters.getKey(i);
+
+            ClusterMarker current = mClusterMarkers.get(key);
+            if (current != null) {
+                if (current.count == clusters.getCount(i)) continue;
+                current.marker.remove();
+            }
+            mClusterMarkers.put(key, addClusterMarker(clusters,i));
+        }
+    }
+
+    /**
+     * クラスタのマーカを地図に追加する。
+     *
+     * @param clusters
+     * @param index クラスタの番号
+     * @return
+     */
+    private ClusterMarker addClusterMarker(GridClusterer.Clusters clusters, int index) {
+        int count = clusters.getCount(index);
+
+        MarkerOptions options = new MarkerOptions();
+        options.position(new LatLng(clusters.getLatitude(index),clusters.getLongitude(index)));
+        options.draggable(false);
+        options.icon(mIconFactory.getIcon(count));
+        if (!ClusterIconFactory.isSingle(count)) {
+            // 数を描いた円は、中心を地点に合わせる
+            options.anchor(0.5f,0.5f);
+        }
+
+        return new ClusterMarker(mGoogleMap.addMarker(options), count);
+    }
+
+    /**
+     * 地図上のクラスタのマーカと、それが表す地点の数。
+     */
+    private static class ClusterMarker {
+        private final Marker marker;
+        private final int count;
+
+        ClusterMarker(Marker marker, int count) {
+            this.marker = marker;
+            this.count = count;
+        }
+    }
+
+    /**
+     * 最新の場所以外の地点を、バックグラウンドでクラスタにまとめるAsyncTask。
+     */
+    private class ClusterTask extends AsyncTask<Void,Void,GridClusterer.Clusters>{
+        private PlaceTrack track;
+        private float zoom;
+        private int count;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param track
+         * @param zoom
+         */
+        public ClusterTask(PlaceTrack track, float zoom) {
+            this.track = track;
+            this.zoom = zoom;
+            this.count = track.size() - 1;
+        }
+
+        @Override
+        protected GridClusterer.Clusters doInBackground(Void... params) {
+            return GridClusterer.cluster(track,count,zoom,CLUSTER_CELL_SIZE);
+        }
+
+        @Override
+        protected void onPostExecute(GridClusterer.Clusters clusters) {
+            // 新しい計算が始まっている場合は、結果を捨てる
+            if (mClusterTask != this) return;
+            mClusterTask = null;
+
+            // 計算中に追加された地点を加える
+            PlaceTrack current = mLevels.getTrack();
+            clusters.append(current,count,current.size() - 1);
+            mClusters = clusters;
+            mClusteredCount = current.size() - 1;
+
+            drawClusters(clusters,zoom);
+        }
+    }
+
+    /**
+     * 表示中の位置情報より後に追加されたものを、バックグラウンドで取得するAsyncTask。
+     * 差分だけでは反映できない変更があった場合は、nullを返す。
+     */
+    private class AppendTask extends AsyncTask<Void,Void,TrackLevels>{
+        private Context context;
+        private int dayKey;
+        private TrackLevels base;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param context
+         * @param dayKey 表示中の日のキー
+         * @param base 表示中の位置情報の列
+         */
+        public AppendTask(Context context, int dayKey, TrackLevels base) {
+            this.context = context.getApplicationContext();
+            this.dayKey = dayKey;
+            this.base = base;
+        }
+
+        @Override
+        protected TrackLevels doInBackground(Void... params) {
+            PlaceTrack track = base.getTrack();
+            PlaceTrack tail = PlaceRepository.getTrackInDay(context,dayKey,track.getMaxId());
 
-            // 「最新の場所」を赤いマーカ、それ以外を青いマーカで表示する
-            BitmapDescriptor descriptor;
-            if(i == size - 1){
-                descriptor = BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED);
-            }else{
-                descriptor = BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE);
+            // 表示中の行が削除・変更された場合は、日の件数が合わなくなる
+            PlaceDay day = PlaceRepository.getPlaceDay(context,dayKey);
+            int expected = track.size() + tail.size();
+            if (expected > 0 && (day == null || day.getPointCount() != expected)) {
+                return null;
             }
 
-            options.icon(descriptor);
+            if (!tail.isEmpty()) {
+                // 最初の地点や、表示中の末尾より前の時刻の地点は、末尾につなげられない
+                if (track.isEmpty() || tail.getTime(0) < track.getTime(track.size() - 1)) {
+                    return null;
+                }
+            }
 
-            // マーカ追加
-            mGoogleMap.addMarker(options);
+            return base.append(tail);
         }
 
-        // 線分追加
-        mGoogleMap.addPolyline(lineOptions);
+        @Override
+        protected void onPostExecute(TrackLevels result) {
+            // 表示する日が変わった場合などは、結果を捨てる
+            if (mAppendTask != this) return;
+            mAppendTask = null;
+
+            if (result == null) {
+                // 全体を読み込み直す
+                getLoaderManager().restartLoader(PLACE_LOADER,getArguments(),mCallback);
+                return;
+            }
+
+            if (result != base) {
+                appendMarker(result);
+            }
+
+            if (mUpdatePending) {
+                mUpdatePending = false;
+                mUpdateRunnable.run();
+            }
+        }
     }
 
 }
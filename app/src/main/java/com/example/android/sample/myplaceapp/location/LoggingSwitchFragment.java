@@ -57,28 +57,6 @@ public class LoggingSwitchFragment extends Fragment implements CompoundButton.On
      */
     private static final int REQUEST_PERMISSION = 4;
 
-    /**
-     * 位置情報記録サービスのPendingIntentのID。
-     */
-    private static final int PENDING_INTENT_LOCATION = 1;
-
-    private static final long MINUTE = 60 * 1000;
-
-    /**
-     * 位置情報取得の間隔ms。
-     */
-    private static final long INTERVAL_MS = 10 * MINUTE;
-
-    /**
-     * 位置情報取得の最短間隔ms。
-     */
-    private static final long FASTEST_INTERVAL_MS = 5 * MINUTE;
-
-    /**
-     * 位置情報の更新を待つ最長間隔ms。
-     */
-    private static final long MAX_WAIT_TIME_MS = 60 * MINUTE;
-
     /**
      * Google APIを使用するためのクライアント。
      */
@@ -112,6 +90,10 @@ public class LoggingSwitchFragment extends Fragment implements CompoundButton.On
             // スイッチをONにした場合、位置情報取得のシーケンスを開始
             checkServiceAvailability();
         } else if(mGoogleApiClient != null && mGoogleApiClient.isConnected()){
+            // 記録サービスが取得間隔を変えないようにする。
+            // リクエストを取り消す前に止めておくと、記録サービスが後からリクエストし直すことはない
+            LocationSchedule.stop(getActivity());
+
             // すでにGoogleApiClientに接続済みで、スイッチをOFFにした場合、位置情報のリクエストをキャンセル
             LocationServices.FusedLocationApi.removeLocationUpdates(mGoogleApiClient,getLocationPendingIntent(PendingIntent.FLAG_UPDATE_CURRENT));
 
@@ -215,11 +197,8 @@ public class LoggingSwitchFragment extends Fragment implements CompoundButton.On
      */
     private void checkUserLocationAvailability(){
         // 位置情報のリクエスト用オブジェクトを生成する
-        mLocationRequest = new LocationRequest()
-                .setInterval(INTERVAL_MS) // 取得間隔
-                .setFastestInterval(FASTEST_INTERVAL_MS) //最短の取得間隔
-                .setMaxWaitTime(MAX_WAIT_TIME_MS) //最長の待ち時間
-                .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY); // 省電力性と制度のバランス
+        // 記録開始時は省電力性と精度のバランスを取り、以降は移動しているかどうかに応じて記録サービスが変える
+        mLocationRequest = LocationSchedule.start(getActivity()).createRequest();
 
         // この位置情報のリクエストは可能かを確認するためのオブジェクトを生成する
         LocationSettingsRequest checkRequest = new LocationSettingsRequest.Builder()
@@ -296,8 +275,7 @@ public class LoggingSwitchFragment extends Fragment implements CompoundButton.On
      * @return
      */
     private PendingIntent getLocationPendingIntent(int flag){
-        Intent intent = new Intent(getActivity(),PlaceStoreService.class);
-        return PendingIntent.getService(getActivity(),PENDING_INTENT_LOCATION,intent,flag);
+        return PlaceStoreService.getPendingIntent(getActivity(),flag);
     }
 
     @Override
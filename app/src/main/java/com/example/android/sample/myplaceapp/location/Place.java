@@ -27,6 +27,21 @@ public class Place {
      */
     private long time;
 
+    /**
+     * 水平方向の精度m(68%の確率で、この半径内に実際の位置がある)。不明な場合はNaN。
+     */
+    private float accuracy = Float.NaN;
+
+    /**
+     * 速度m/s。不明な場合はNaN。
+     */
+    private float speed = Float.NaN;
+
+    /**
+     * 進行方向(北から時計回りの度)。不明な場合はNaN。
+     */
+    private float bearing = Float.NaN;
+
     public long getId() {
         return id;
     }
@@ -58,4 +73,28 @@ public class Place {
     public void setTime(long time) {
         this.time = time;
     }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public void setAccuracy(float accuracy) {
+        this.accuracy = accuracy;
+    }
+
+    public float getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(float speed) {
+        this.speed = speed;
+    }
+
+    public float getBearing() {
+        return bearing;
+    }
+
+    public void setBearing(float bearing) {
+        this.bearing = bearing;
+    }
 }
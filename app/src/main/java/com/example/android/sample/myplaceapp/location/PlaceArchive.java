@@ -0,0 +1,153 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 古い日の位置情報を保存する、追記専用のセグメントファイル。
+ * <p>
+ * 1日分の位置情報を、TrackSegmentCodecで変換したブロックとして末尾に追記する。
+ * ブロックの位置はPLACE_ARCHIVEテーブルに記録し、ファイル自体には索引を持たない。
+ * 書き込んだ部分は二度と変更しないので、読み込みはファイル全体をメモリマップして行う。
+ * <p>
+ * 追記の途中で終了した場合、PLACE_ARCHIVEに記録されないブロックが末尾に残るが、読まれることはない。
+ */
+class PlaceArchive {
+
+    /**
+     * セグメントファイルの名前。アプリのfilesディレクトリに作る。
+     */
+    private static final String FILE_NAME = "place_archive.seg";
+
+    private static PlaceArchive sInstance;
+
+    private final File mFile;
+
+    /**
+     * 追記を直列化するためのロック。
+     */
+    private final Object mWriteLock = new Object();
+
+    /**
+     * ファイルをマップしたバッファ。追記されたブロックが範囲外になった場合は、マップし直す。
+     */
+    private MappedByteBuffer mBuffer;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param file セグメントファイル
+     */
+    PlaceArchive(File file) {
+        this.mFile = file;
+    }
+
+    /**
+     * アプリのセグメントファイルを返す。
+     *
+     * @param context
+     * @return
+     */
+    static synchronized PlaceArchive getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PlaceArchive(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * ブロックを末尾に追記し、ストレージに書き込まれるまで待つ。
+     *
+     * @param block
+     * @return 追記したブロックの開始位置
+     * @throws IOException
+     */
+    long append(byte[] block) throws IOException {
+        synchronized (mWriteLock) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                FileChannel channel = file.getChannel();
+                long offset = channel.size();
+
+                ByteBuffer source = ByteBuffer.wrap(block);
+                channel.position(offset);
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+
+                // PLACE_ARCHIVEに記録する前に、ブロックを確実に書き込んでおく
+                channel.force(false);
+                return offset;
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * ブロックを読み込む。
+     *
+     * @param offset ブロックの開始位置
+     * @param length ブロックのバイト数
+     * @return
+     * @throws IOException ファイルが読めない、またはブロックが壊れている場合
+     */
+    PlaceTrack read(long offset, int length) throws IOException {
+        ByteBuffer buffer = map(offset + length);
+
+        try {
+            return TrackSegmentCodec.decode(buffer, (int) offset, length);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt block at " + offset + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * ブロックから、各地点の精度・速さ・向きを読み込む。
+     * 地点の順は、同じブロックをread()で読んだ列と同じ。
+     *
+     * @param offset ブロックの開始位置
+     * @param length ブロックのバイト数
+     * @return
+     * @throws IOException ファイルが読めない、またはブロックが壊れている場合
+     */
+    TrackDetails readDetails(long offset, int length) throws IOException {
+        ByteBuffer buffer = map(offset + length);
+
+        try {
+            return TrackSegmentCodec.decodeDetails(buffer, (int) offset, length);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt block at " + offset + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 指定した位置までを含むように、ファイルをマップしたバッファを返す。
+     * マップは2GBまでなので、ファイルもそれ以下であること。
+     */
+    private synchronized ByteBuffer map(long end) throws IOException {
+        if (mBuffer == null || mBuffer.capacity() < end) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                long size = channel.size();
+                if (size < end) {
+                    throw new IOException("segment is truncated: " + size + " < " + end);
+                }
+
+                // マップはチャネルを閉じた後も有効
+                mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } finally {
+                file.close();
+            }
+        }
+
+        return mBuffer.duplicate();
+    }
+}
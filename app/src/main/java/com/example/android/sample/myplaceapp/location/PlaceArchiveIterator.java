@@ -0,0 +1,154 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * セグメントファイル(PlaceArchive)に移した位置情報を、ブロックごとに読み込んで返すイテレータ。
+ * <p>
+ * ブロックは必要になった時に1つずつ読むので、保持するのは読み込み中の1ブロック(1日分)だけになる。
+ * 取得時刻の範囲を指定した場合は、範囲の外の地点を除いて返す。
+ * 読めないブロックは、ログに残して読み飛ばす。
+ */
+class PlaceArchiveIterator implements Iterator<PlaceTrack> {
+
+    private static final String TAG = "PlaceArchiveIterator";
+
+    /**
+     * ブロックの位置を読むためのカラム。ブロックを読む順に並べて問い合わせる。
+     */
+    static final String[] BLOCK_PROJECTION = {
+            PlaceDBHelper.COLUMN_SEGMENT_OFFSET,
+            PlaceDBHelper.COLUMN_SEGMENT_LENGTH
+    };
+
+    /**
+     * ブロックを取得時刻順に読むための並び順。日ごとのブロックは取得時刻が重ならない。
+     */
+    static final String BLOCK_SORT_ORDER = PlaceDBHelper.COLUMN_FIRST_TIME + ", " + PlaceDBHelper.COLUMN_SEGMENT_OFFSET;
+
+    private final PlaceArchive mArchive;
+    private final long[] mOffsets;
+    private final int[] mLengths;
+    private final long mFromTime;
+    private final long mToTime;
+
+    /**
+     * 次に読むブロックの番号。
+     */
+    private int mIndex;
+
+    /**
+     * 読み込み済みで、まだ返していないブロック。
+     */
+    private PlaceTrack mNext;
+
+    /**
+     * コンストラクタ。ブロックの位置を読み込んで、カーソルは閉じる。
+     *
+     * @param archive
+     * @param blocks BLOCK_PROJECTIONのカラムを、BLOCK_SORT_ORDERの順に持つカーソル。nullの場合は空
+     * @param fromTime この時刻以降に取得した位置情報に限る。エポックからのms
+     * @param toTime この時刻以前に取得した位置情報に限る。エポックからのms
+     */
+    PlaceArchiveIterator(PlaceArchive archive, Cursor blocks, long fromTime, long toTime) {
+        this.mArchive = archive;
+        this.mFromTime = fromTime;
+        this.mToTime = toTime;
+
+        int count = blocks == null ? 0 : blocks.getCount();
+        mOffsets = new long[count];
+        mLengths = new int[count];
+        if (blocks != null) {
+            try {
+                for (int i = 0; i < count && blocks.moveToNext(); i++) {
+                    mOffsets[i] = blocks.getLong(0);
+                    mLengths[i] = blocks.getInt(1);
+                }
+            } finally {
+                blocks.close();
+            }
+        }
+    }
+
+    /**
+     * 取得時刻の範囲と重なるブロックを選ぶ、PLACE_ARCHIVEの条件を返す。
+     *
+     * @param fromTime Long.MIN_VALUEの場合は制限しない
+     * @param toTime Long.MAX_VALUEの場合は制限しない
+     * @return 制限しない場合はnull
+     */
+    static String timeSelection(long fromTime, long toTime) {
+        StringBuilder where = new StringBuilder();
+        if (fromTime != Long.MIN_VALUE) {
+            where.append(PlaceDBHelper.COLUMN_LAST_TIME).append(" >= ").append(fromTime);
+        }
+        if (toTime != Long.MAX_VALUE) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+            where.append(PlaceDBHelper.COLUMN_FIRST_TIME).append(" <= ").append(toTime);
+        }
+        return where.length() > 0 ? where.toString() : null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (mNext == null && mIndex < mOffsets.length) {
+            PlaceTrack block = readBlock(mIndex++);
+            if (!block.isEmpty()) {
+                mNext = block;
+            }
+        }
+        return mNext != null;
+    }
+
+    /**
+     * 次のブロックを返す。ブロックの中は(取得時刻, _id)の順に並んでいる。
+     *
+     * @return 空でない位置情報の列
+     */
+    @Override
+    public PlaceTrack next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        PlaceTrack block = mNext;
+        mNext = null;
+        return block;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    private PlaceTrack readBlock(int index) {
+        PlaceTrack block;
+        try {
+            block = mArchive.read(mOffsets[index], mLengths[index]);
+        } catch (IOException e) {
+            Log.e(TAG, "failed to read archived block at " + mOffsets[index], e);
+            return PlaceTrack.EMPTY;
+        }
+
+        if (block.isEmpty() || (block.getTime(0) >= mFromTime && block.getTime(block.size() - 1) <= mToTime)) {
+            return block;
+        }
+
+        // 範囲の端の日は、範囲の中の地点だけを残す
+        PlaceTrack.Builder builder = new PlaceTrack.Builder(block.size());
+        for (int i = 0; i < block.size(); i++) {
+            long time = block.getTime(i);
+            if (time >= mFromTime && time <= mToTime) {
+                builder.add(block.getId(i), block.getLatitude(i), block.getLongitude(i), time);
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 古い日の位置情報を、SQLiteからセグメントファイル(PlaceArchive)に移すクラス。
+ * <p>
+ * 1日ずつ、位置情報をブロックとして追記してから、同じトランザクションで索引の登録とPLACEからの削除を行う。
+ * 日ごとの集計はアーカイブ済みのブロックも含めて数えるので、移しても変わらない。
+ * <p>
+ * 移した日の位置情報を更新・削除する場合は、restoreMatching()でその日をSQLiteに戻してから行う。
+ * 戻した日のブロックはセグメントファイルに残るが、索引から外れるので読まれることはない。
+ */
+class PlaceArchiver {
+
+    /**
+     * restoreMatching()で、条件を判定するためにブロックを展開する一時テーブル。
+     */
+    private static final String TABLE_MATCHING = "ARCHIVED_PLACE";
+
+    private final SQLiteDatabase mDb;
+    private final PlaceArchive mArchive;
+    private final PlaceRTreeUpdater mRTreeUpdater;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param db
+     * @param archive 追記先のセグメントファイル
+     * @param rTreeUpdater 削除した位置情報を、空間インデックスからも削除する
+     */
+    PlaceArchiver(SQLiteDatabase db, PlaceArchive archive, PlaceRTreeUpdater rTreeUpdater) {
+        this.mDb = db;
+        this.mArchive = archive;
+        this.mRTreeUpdater = rTreeUpdater;
+    }
+
+    /**
+     * 指定した日より前の位置情報を、全てセグメントファイルに移す。
+     *
+     * @param beforeDayKey この日のキーより前の日を移す
+     * @return 移した日の数
+     * @throws IOException セグメントファイルに書き込めなかった場合。それまでに移した日は残る
+     */
+    int archiveBefore(int beforeDayKey) throws IOException {
+        List<Integer> dayKeys = new ArrayList<Integer>();
+
+        Cursor cursor = mDb.query(true, PlaceDBHelper.TABLE_E7,
+                new String[]{PlaceDBHelper.COLUMN_DAY_KEY},
+                PlaceDBHelper.COLUMN_DAY_KEY + " < ?",
+                new String[]{String.valueOf(beforeDayKey)},
+                null, null, PlaceDBHelper.COLUMN_DAY_KEY, null);
+        try {
+            while (cursor.moveToNext()) {
+                dayKeys.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (int dayKey : dayKeys) {
+            archiveDay(dayKey);
+        }
+
+        return dayKeys.size();
+    }
+
+    /**
+     * 1日分の位置情報を、セグメントファイルに移す。
+     *
+     * @param dayKey
+     * @throws IOException
+     */
+    void archiveDay(int dayKey) throws IOException {
+        String selection = PlaceDBHelper.COLUMN_DAY_KEY + " = ?";
+        String[] selectionArgs = {String.valueOf(dayKey)};
+
+        mDb.beginTransaction();
+        try {
+            // E7の整数のまま読んで、SQLiteの値と完全に一致させる。精度・速さ・向きも失わないように移す
+            Cursor cursor = mDb.query(PlaceDBHelper.TABLE_E7,
+                    new String[]{PlaceDBHelper.COLUMN_ID, PlaceDBHelper.COLUMN_TIME,
+                            PlaceDBHelper.COLUMN_LATITUDE_E7, PlaceDBHelper.COLUMN_LONGITUDE_E7,
+                            PlaceDBHelper.COLUMN_ACCURACY, PlaceDBHelper.COLUMN_SPEED, PlaceDBHelper.COLUMN_BEARING},
+                    selection, selectionArgs, null, null, PlacePageQuery.SORT_ORDER);
+
+            int count = cursor.getCount();
+            long[] ids = new long[count];
+            long[] times = new long[count];
+            long[] latitudes = new long[count];
+            long[] longitudes = new long[count];
+            float[] accuracies = new float[count];
+            float[] speeds = new float[count];
+            float[] bearings = new float[count];
+            try {
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    ids[i] = cursor.getLong(0);
+                    times[i] = cursor.getLong(1);
+                    latitudes[i] = cursor.getLong(2);
+                    longitudes[i] = cursor.getLong(3);
+                    accuracies[i] = getFloatOrNaN(cursor, 4);
+                    speeds[i] = getFloatOrNaN(cursor, 5);
+                    bearings[i] = getFloatOrNaN(cursor, 6);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (count == 0) {
+                return;
+            }
+
+            byte[] block = TrackSegmentCodec.encode(ids, times, latitudes, longitudes,
+                    accuracies, speeds, bearings, count);
+            long offset = mArchive.append(block);
+
+            mDb.insertOrThrow(PlaceDBHelper.TABLE_ARCHIVE, null,
+                    toIndexValues(dayKey, offset, block.length, times, latitudes, longitudes, count));
+
+            List<Long> rTreeIds = mRTreeUpdater.collectIds(selection, selectionArgs);
+            mDb.delete(PlaceDBHelper.TABLE_E7, selection, selectionArgs);
+            mRTreeUpdater.refresh(rTreeIds);
+
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private static float getFloatOrNaN(Cursor cursor, int index) {
+        return cursor.isNull(index) ? Float.NaN : cursor.getFloat(index);
+    }
+
+    /**
+     * 条件に一致する位置情報を含む日を、セグメントファイルからSQLiteに戻す。
+     * 更新・削除の前に呼び、SQLiteへの更新・削除が移した日の位置情報にも及ぶようにする。
+     * 条件はPLACEのカラム名で書き、ブロックを展開した一時テーブルで判定するので、全てのブロックを読む。
+     * 呼び出し側のトランザクションの中で呼ぶこと。
+     *
+     * @param selection 条件。全件の場合はnull
+     * @param selectionArgs
+     * @return 戻した日のキー
+     * @throws IOException ブロックが読めなかった場合
+     */
+    Set<Integer> restoreMatching(String selection, String[] selectionArgs) throws IOException {
+        Set<Integer> dayKeys = new TreeSet<Integer>();
+        if (DatabaseUtils.queryNumEntries(mDb, PlaceDBHelper.TABLE_ARCHIVE) == 0) {
+            return dayKeys;
+        }
+
+        Cursor cursor;
+        if (selection == null || selection.isEmpty()) {
+            // 全件が対象なら、展開せずに全ての日を戻す
+            cursor = mDb.query(true, PlaceDBHelper.TABLE_ARCHIVE, new String[]{PlaceDBHelper.COLUMN_DAY_KEY},
+                    null, null, null, null, null, null);
+        } else {
+            expandBlocks();
+            cursor = mDb.query(true, TABLE_MATCHING, new String[]{PlaceDBHelper.COLUMN_DAY_KEY},
+                    selection, selectionArgs, null, null, null, null);
+        }
+        try {
+            while (cursor.moveToNext()) {
+                dayKeys.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+            mDb.execSQL("DROP TABLE IF EXISTS temp." + TABLE_MATCHING);
+        }
+
+        for (int dayKey : dayKeys) {
+            restoreDay(dayKey);
+        }
+        return dayKeys;
+    }
+
+    /**
+     * 全てのブロックを、PLACEと同じカラムを持つ一時テーブルに展開する。
+     */
+    private void expandBlocks() throws IOException {
+        mDb.execSQL("DROP TABLE IF EXISTS temp." + TABLE_MATCHING);
+        mDb.execSQL("CREATE TEMP TABLE " + TABLE_MATCHING + " ("
+                + PlaceDBHelper.COLUMN_ID + " INTEGER, "
+                + PlaceDBHelper.COLUMN_LATITUDE + " REAL, "
+                + PlaceDBHelper.COLUMN_LONGITUDE + " REAL, "
+                + PlaceDBHelper.COLUMN_TIME + " INTEGER, "
+                + PlaceDBHelper.COLUMN_REGISTER_TIME + " TEXT, "
+                + PlaceDBHelper.COLUMN_DAY_KEY + " INTEGER, "
+                + PlaceDBHelper.COLUMN_LATITUDE_E7 + " INTEGER, "
+                + PlaceDBHelper.COLUMN_LONGITUDE_E7 + " INTEGER, "
+                + PlaceDBHelper.COLUMN_ACCURACY + " REAL, "
+                + PlaceDBHelper.COLUMN_SPEED + " REAL, "
+                + PlaceDBHelper.COLUMN_BEARING + " REAL)");
+
+        // 登録日時はブロックに残していないので、NULLにする
+        SQLiteStatement insert = mDb.compileStatement("INSERT INTO " + TABLE_MATCHING + " ("
+                + PlaceDBHelper.COLUMN_ID + ", "
+                + PlaceDBHelper.COLUMN_LATITUDE + ", "
+                + PlaceDBHelper.COLUMN_LONGITUDE + ", "
+                + PlaceDBHelper.COLUMN_TIME + ", "
+                + PlaceDBHelper.COLUMN_DAY_KEY + ", "
+                + PlaceDBHelper.COLUMN_LATITUDE_E7 + ", "
+                + PlaceDBHelper.COLUMN_LONGITUDE_E7 + ", "
+                + PlaceDBHelper.COLUMN_ACCURACY + ", "
+                + PlaceDBHelper.COLUMN_SPEED + ", "
+                + PlaceDBHelper.COLUMN_BEARING + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+        Cursor cursor = mDb.query(PlaceDBHelper.TABLE_ARCHIVE,
+                new String[]{PlaceDBHelper.COLUMN_DAY_KEY,
+                        PlaceDBHelper.COLUMN_SEGMENT_OFFSET, PlaceDBHelper.COLUMN_SEGMENT_LENGTH},
+                null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                int dayKey = cursor.getInt(0);
+                PlaceTrack track = mArchive.read(cursor.getLong(1), cursor.getInt(2));
+                TrackDetails details = mArchive.readDetails(cursor.getLong(1), cursor.getInt(2));
+
+                for (int i = 0; i < track.size(); i++) {
+                    insert.clearBindings();
+                    insert.bindLong(1, track.getId(i));
+                    insert.bindDouble(2, track.getLatitude(i));
+                    insert.bindDouble(3, track.getLongitude(i));
+                    insert.bindLong(4, track.getTime(i));
+                    insert.bindLong(5, dayKey);
+                    insert.bindLong(6, PlaceDBHelper.toE7(track.getLatitude(i)));
+                    insert.bindLong(7, PlaceDBHelper.toE7(track.getLongitude(i)));
+                    bindFloatOrNull(insert, 8, details.getAccuracy(i));
+                    bindFloatOrNull(insert, 9, details.getSpeed(i));
+                    bindFloatOrNull(insert, 10, details.getBearing(i));
+                    insert.executeInsert();
+                }
+            }
+        } finally {
+            cursor.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * 1日分の位置情報を、セグメントファイルからSQLiteに戻し、索引から外す。
+     * _idと取得時刻・位置・精度・速さ・向きは、移す前の値に戻る。
+     */
+    private void restoreDay(int dayKey) throws IOException {
+        String selection = PlaceDBHelper.COLUMN_DAY_KEY + " = ?";
+        String[] selectionArgs = {String.valueOf(dayKey)};
+
+        Cursor cursor = mDb.query(PlaceDBHelper.TABLE_ARCHIVE,
+                new String[]{PlaceDBHelper.COLUMN_SEGMENT_OFFSET, PlaceDBHelper.COLUMN_SEGMENT_LENGTH},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                PlaceTrack track = mArchive.read(cursor.getLong(0), cursor.getInt(1));
+                TrackDetails details = mArchive.readDetails(cursor.getLong(0), cursor.getInt(1));
+
+                for (int i = 0; i < track.size(); i++) {
+                    ContentValues values = new ContentValues();
+                    values.put(PlaceDBHelper.COLUMN_ID, track.getId(i));
+                    values.put(PlaceDBHelper.COLUMN_LATITUDE_E7, PlaceDBHelper.toE7(track.getLatitude(i)));
+                    values.put(PlaceDBHelper.COLUMN_LONGITUDE_E7, PlaceDBHelper.toE7(track.getLongitude(i)));
+                    values.put(PlaceDBHelper.COLUMN_TIME, track.getTime(i));
+                    values.putNull(PlaceDBHelper.COLUMN_REGISTER_TIME);
+                    values.put(PlaceDBHelper.COLUMN_DAY_KEY, dayKey);
+                    putIfKnown(values, PlaceDBHelper.COLUMN_ACCURACY, details.getAccuracy(i));
+                    putIfKnown(values, PlaceDBHelper.COLUMN_SPEED, details.getSpeed(i));
+                    putIfKnown(values, PlaceDBHelper.COLUMN_BEARING, details.getBearing(i));
+                    mDb.insertOrThrow(PlaceDBHelper.TABLE_E7, null, values);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        mDb.delete(PlaceDBHelper.TABLE_ARCHIVE, selection, selectionArgs);
+        mRTreeUpdater.refresh(mRTreeUpdater.collectIds(selection, selectionArgs));
+    }
+
+    private static void bindFloatOrNull(SQLiteStatement statement, int index, float value) {
+        if (Float.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    private static void putIfKnown(ContentValues values, String column, float value) {
+        if (!Float.isNaN(value)) {
+            values.put(column, value);
+        }
+    }
+
+    /**
+     * ブロックの索引と集計を作る。
+     */
+    private static ContentValues toIndexValues(int dayKey, long offset, int length,
+                                               long[] times, long[] latitudes, long[] longitudes, int count) {
+        long minLatitude = Long.MAX_VALUE;
+        long maxLatitude = Long.MIN_VALUE;
+        long minLongitude = Long.MAX_VALUE;
+        long maxLongitude = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            minLatitude = Math.min(minLatitude, latitudes[i]);
+            maxLatitude = Math.max(maxLatitude, latitudes[i]);
+            minLongitude = Math.min(minLongitude, longitudes[i]);
+            maxLongitude = Math.max(maxLongitude, longitudes[i]);
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(PlaceDBHelper.COLUMN_DAY_KEY, dayKey);
+        values.put(PlaceDBHelper.COLUMN_SEGMENT_OFFSET, offset);
+        values.put(PlaceDBHelper.COLUMN_SEGMENT_LENGTH, length);
+        values.put(PlaceDBHelper.COLUMN_POINT_COUNT, count);
+        // 取得時刻順に並んでいる
+        values.put(PlaceDBHelper.COLUMN_FIRST_TIME, times[0]);
+        values.put(PlaceDBHelper.COLUMN_LAST_TIME, times[count - 1]);
+        values.put(PlaceDBHelper.COLUMN_MIN_LATITUDE, PlaceDBHelper.fromE7(minLatitude));
+        values.put(PlaceDBHelper.COLUMN_MAX_LATITUDE, PlaceDBHelper.fromE7(maxLatitude));
+        values.put(PlaceDBHelper.COLUMN_MIN_LONGITUDE, PlaceDBHelper.fromE7(minLongitude));
+        values.put(PlaceDBHelper.COLUMN_MAX_LONGITUDE, PlaceDBHelper.fromE7(maxLongitude));
+
+        return values;
+    }
+}
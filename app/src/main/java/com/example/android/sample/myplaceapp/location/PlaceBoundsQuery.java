@@ -0,0 +1,540 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 緯度・経度の矩形と、取得時刻の範囲で位置情報を検索する条件。
+ * <p>
+ * PlaceProvider#BOUNDS_CONTENT_URIのクエリパラメータとして渡す。
+ * 空間インデックス(R*Tree)で候補を絞り込んだ後、PLACEの値で正確に判定する。
+ * 矩形の境界は、格納値と同じE7(1e-7度)に丸めて判定する。
+ * 境界の値はSQLに埋め込むので、作成時に有限の範囲に収める。NaNは受け付けない。
+ * <p>
+ * 格子の大きさを指定した場合は、格子ごとに1行にまとめて返す。
+ * 返す行数は矩形の中の格子の数で抑えられるので、記録の期間がどれだけ長くても一定になる。
+ * <p>
+ * セグメントファイル(PlaceArchive)に移した古い日は、PLACE_ARCHIVEの集計で矩形と期間に重なるブロックだけを読み込んで加える。
+ */
+public class PlaceBoundsQuery {
+
+    public static final String PARAM_MIN_LATITUDE = "min_lat";
+    public static final String PARAM_MAX_LATITUDE = "max_lat";
+    public static final String PARAM_MIN_LONGITUDE = "min_lon";
+    public static final String PARAM_MAX_LONGITUDE = "max_lon";
+    public static final String PARAM_FROM_TIME = "from_time";
+    public static final String PARAM_TO_TIME = "to_time";
+    public static final String PARAM_GRID_SIZE = "grid";
+
+    /**
+     * 格子ごとにまとめた場合の、格子のキーのカラム。
+     * 格子ごとにまとめた場合、他に_id(最小)、latitude・longitude(平均)、time(最大)、point_count(件数)を返す。
+     */
+    public static final String COLUMN_CELL_KEY = "cell_key";
+
+    private static final String PLACE = PlaceDBHelper.TABLE_NAME;
+    private static final String RTREE = PlaceDBHelper.TABLE_RTREE;
+
+    /**
+     * 格子ごとにまとめた場合のカラム。
+     */
+    private static final String[] GRID_COLUMNS = {
+            COLUMN_CELL_KEY,
+            PlaceDBHelper.COLUMN_ID,
+            PlaceDBHelper.COLUMN_LATITUDE,
+            PlaceDBHelper.COLUMN_LONGITUDE,
+            PlaceDBHelper.COLUMN_TIME,
+            PlaceDBHelper.COLUMN_POINT_COUNT
+    };
+
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+    private final long mFromTime;
+    private final long mToTime;
+
+    /**
+     * 格子の経度方向の大きさ(度)。0の場合はまとめない。
+     */
+    private final double mGridSize;
+
+    /**
+     * コンストラクタ。
+     * 日付変更線をまたぐ矩形は、minLongitude > maxLongitudeで表す。
+     * 緯度は-90～90度、経度は-180～180度に丸める。
+     *
+     * @param minLatitude
+     * @param minLongitude
+     * @param maxLatitude
+     * @param maxLongitude
+     * @param fromTime この時刻以降に取得した位置情報に限る。エポックからのms
+     * @param toTime この時刻以前に取得した位置情報に限る。エポックからのms
+     * @throws IllegalArgumentException 緯度・経度にNaNを指定した場合
+     */
+    public PlaceBoundsQuery(double minLatitude, double minLongitude,
+                            double maxLatitude, double maxLongitude,
+                            long fromTime, long toTime) {
+        this(minLatitude, minLongitude, maxLatitude, maxLongitude, fromTime, toTime, 0);
+    }
+
+    private PlaceBoundsQuery(double minLatitude, double minLongitude,
+                             double maxLatitude, double maxLongitude,
+                             long fromTime, long toTime, double gridSize) {
+        if (Double.isNaN(gridSize) || Double.isInfinite(gridSize) || gridSize < 0) {
+            throw new IllegalArgumentException("invalid grid size: " + gridSize);
+        }
+
+        this.mGridSize = gridSize;
+        this.mMinLatitude = clamp(minLatitude, 90);
+        this.mMaxLatitude = clamp(maxLatitude, 90);
+        this.mMinLongitude = clamp(minLongitude, 180);
+        this.mMaxLongitude = clamp(maxLongitude, 180);
+        this.mFromTime = fromTime;
+        this.mToTime = toTime;
+    }
+
+    /**
+     * 取得時刻を限定せずに、矩形だけで検索する条件を作る。
+     */
+    public PlaceBoundsQuery(double minLatitude, double minLongitude,
+                            double maxLatitude, double maxLongitude) {
+        this(minLatitude, minLongitude, maxLatitude, maxLongitude, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * 同じ条件で、位置情報を格子ごとにまとめて返すようにした条件を作る。
+     * 緯度方向の大きさは、画面上で正方形に近くなるように矩形の中央の緯度で補正する。
+     *
+     * @param gridSize 格子の経度方向の大きさ(度)。0以上の有限の値
+     * @return
+     * @throws IllegalArgumentException 格子の大きさが0以上の有限の値でない場合
+     */
+    public PlaceBoundsQuery withGrid(double gridSize) {
+        return new PlaceBoundsQuery(mMinLatitude, mMinLongitude, mMaxLatitude, mMaxLongitude,
+                mFromTime, mToTime, gridSize);
+    }
+
+    /**
+     * 格子の緯度方向の大きさ(度)を返す。
+     * 地図を少し動かしただけで格子が変わらないように、補正に使う緯度は1度単位に丸める。
+     *
+     * @return 格子ごとにまとめない場合は0
+     */
+    public double getLatitudeGridSize() {
+        double centerLatitude = Math.rint((mMinLatitude + mMaxLatitude) / 2);
+        return mGridSize * Math.max(0.01, Math.cos(Math.toRadians(centerLatitude)));
+    }
+
+    /**
+     * この条件で検索するためのURIを返す。
+     *
+     * @return
+     */
+    public Uri toUri() {
+        Uri.Builder builder = PlaceProvider.BOUNDS_CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_MIN_LATITUDE, String.valueOf(mMinLatitude))
+                .appendQueryParameter(PARAM_MAX_LATITUDE, String.valueOf(mMaxLatitude))
+                .appendQueryParameter(PARAM_MIN_LONGITUDE, String.valueOf(mMinLongitude))
+                .appendQueryParameter(PARAM_MAX_LONGITUDE, String.valueOf(mMaxLongitude));
+
+        if (mFromTime != Long.MIN_VALUE) {
+            builder.appendQueryParameter(PARAM_FROM_TIME, String.valueOf(mFromTime));
+        }
+        if (mToTime != Long.MAX_VALUE) {
+            builder.appendQueryParameter(PARAM_TO_TIME, String.valueOf(mToTime));
+        }
+        if (mGridSize > 0) {
+            builder.appendQueryParameter(PARAM_GRID_SIZE, String.valueOf(mGridSize));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * URIのクエリパラメータから、検索条件を作る。
+     *
+     * @param uri
+     * @return
+     * @throws IllegalArgumentException 矩形の指定がないか、値が正しくない場合
+     */
+    static PlaceBoundsQuery fromUri(Uri uri) {
+        try {
+            String fromTime = uri.getQueryParameter(PARAM_FROM_TIME);
+            String toTime = uri.getQueryParameter(PARAM_TO_TIME);
+            String gridSize = uri.getQueryParameter(PARAM_GRID_SIZE);
+
+            return new PlaceBoundsQuery(
+                    Double.parseDouble(requireParameter(uri, PARAM_MIN_LATITUDE)),
+                    Double.parseDouble(requireParameter(uri, PARAM_MIN_LONGITUDE)),
+                    Double.parseDouble(requireParameter(uri, PARAM_MAX_LATITUDE)),
+                    Double.parseDouble(requireParameter(uri, PARAM_MAX_LONGITUDE)),
+                    fromTime == null ? Long.MIN_VALUE : Long.parseLong(fromTime),
+                    toTime == null ? Long.MAX_VALUE : Long.parseLong(toTime),
+                    gridSize == null ? 0 : Double.parseDouble(gridSize));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid uri: " + uri, e);
+        }
+    }
+
+    /**
+     * 検索する。
+     * projection・selection・sortOrderでは、PLACEのカラム名をそのまま使える。
+     * R*Treeのカラム名は、PLACEのカラム名と重ならない。
+     * 格子ごとにまとめる場合、projectionは無視する。
+     *
+     * @param db
+     * @param useRTree R*Treeを使うかどうか。使わない場合は、緯度・経度のインデックスで検索する
+     * @param projection
+     * @param selection 追加の条件
+     * @param selectionArgs
+     * @param sortOrder
+     * @param limit
+     * @param cancellationSignal 検索を中断するためのシグナル。不要な場合はnull
+     * @return
+     */
+    Cursor query(SQLiteDatabase db, boolean useRTree, String[] projection,
+                 String selection, String[] selectionArgs, String sortOrder, String limit,
+                 CancellationSignal cancellationSignal) {
+        SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+
+        if (useRTree) {
+            builder.setTables(PLACE + " INNER JOIN " + RTREE
+                    + " ON " + PLACE + "." + PlaceDBHelper.COLUMN_ID + " = " + RTREE + "." + PlaceDBHelper.COLUMN_RTREE_ID);
+
+            // R*Treeは値を32bitの浮動小数点数で丸めて持つので、候補の絞り込みにだけ使う
+            builder.appendWhere(RTREE + "." + PlaceDBHelper.COLUMN_MAX_LATITUDE + " >= " + mMinLatitude
+                    + " AND " + RTREE + "." + PlaceDBHelper.COLUMN_MIN_LATITUDE + " <= " + mMaxLatitude);
+            if (mMinLongitude <= mMaxLongitude) {
+                builder.appendWhere(" AND " + RTREE + "." + PlaceDBHelper.COLUMN_MAX_LONGITUDE + " >= " + mMinLongitude
+                        + " AND " + RTREE + "." + PlaceDBHelper.COLUMN_MIN_LONGITUDE + " <= " + mMaxLongitude);
+            }
+            if (mFromTime != Long.MIN_VALUE) {
+                builder.appendWhere(" AND " + RTREE + "." + PlaceDBHelper.COLUMN_RTREE_MAX_TIME + " >= " + mFromTime);
+            }
+            if (mToTime != Long.MAX_VALUE) {
+                builder.appendWhere(" AND " + RTREE + "." + PlaceDBHelper.COLUMN_RTREE_MIN_TIME + " <= " + mToTime);
+            }
+            builder.appendWhere(" AND ");
+        } else {
+            // INDEX_LAT_LONによる緯度の範囲検索になる
+            builder.setTables(PLACE);
+        }
+
+        // PLACEの値による正確な判定。格納されているE7の整数のまま比べる
+        long minLatitude = PlaceDBHelper.toE7(mMinLatitude);
+        long maxLatitude = PlaceDBHelper.toE7(mMaxLatitude);
+        long minLongitude = PlaceDBHelper.toE7(mMinLongitude);
+        long maxLongitude = PlaceDBHelper.toE7(mMaxLongitude);
+
+        builder.appendWhere(PLACE + "." + PlaceDBHelper.COLUMN_LATITUDE_E7
+                + " BETWEEN " + minLatitude + " AND " + maxLatitude);
+        if (mMinLongitude <= mMaxLongitude) {
+            builder.appendWhere(" AND " + PLACE + "." + PlaceDBHelper.COLUMN_LONGITUDE_E7
+                    + " BETWEEN " + minLongitude + " AND " + maxLongitude);
+        } else {
+            builder.appendWhere(" AND (" + PLACE + "." + PlaceDBHelper.COLUMN_LONGITUDE_E7 + " >= " + minLongitude
+                    + " OR " + PLACE + "." + PlaceDBHelper.COLUMN_LONGITUDE_E7 + " <= " + maxLongitude + ")");
+        }
+        if (mFromTime != Long.MIN_VALUE) {
+            builder.appendWhere(" AND " + PLACE + "." + PlaceDBHelper.COLUMN_TIME + " >= " + mFromTime);
+        }
+        if (mToTime != Long.MAX_VALUE) {
+            builder.appendWhere(" AND " + PLACE + "." + PlaceDBHelper.COLUMN_TIME + " <= " + mToTime);
+        }
+
+        String groupBy = null;
+        if (mGridSize > 0) {
+            projection = gridProjection();
+            groupBy = COLUMN_CELL_KEY;
+        } else if (projection == null) {
+            // 結合したR*Treeのカラムは返さない
+            projection = new String[]{PLACE + ".*"};
+        }
+
+        return builder.query(db, projection, selection, selectionArgs, groupBy, null, sortOrder, limit,
+                cancellationSignal);
+    }
+
+    /**
+     * SQLiteに残っている位置情報と、セグメントファイルに移した位置情報を合わせて検索する。
+     * 格子ごとにまとめる場合は、同じ格子の行を1行にまとめ直す。
+     * まとめない場合、セグメントファイルの地点はSQLiteの行の後に続けて返し、sortOrderとlimitはSQLiteの行にだけ適用する。
+     * セグメントファイルには緯度・経度・取得時刻しか残していないので、それ以外のカラムはnullになる。
+     * selectionはセグメントファイルの地点には判定できないので、指定した場合はSQLiteの行だけを返す。
+     *
+     * @param db
+     * @param archive セグメントファイル
+     * @param useRTree R*Treeを使うかどうか
+     * @param projection
+     * @param selection 追加の条件
+     * @param selectionArgs
+     * @param sortOrder
+     * @param limit
+     * @param cancellationSignal 検索を中断するためのシグナル。不要な場合はnull
+     * @return
+     */
+    Cursor queryWithArchive(SQLiteDatabase db, PlaceArchive archive, boolean useRTree, String[] projection,
+                            String selection, String[] selectionArgs, String sortOrder, String limit,
+                            CancellationSignal cancellationSignal) {
+        Cursor stored = query(db, useRTree, projection, selection, selectionArgs, sortOrder, limit,
+                cancellationSignal);
+        if (selection != null) {
+            return stored;
+        }
+
+        Cursor blocks;
+        try {
+            blocks = db.query(false, PlaceDBHelper.TABLE_ARCHIVE, PlaceArchiveIterator.BLOCK_PROJECTION,
+                    archiveSelection(), null, null, null, PlaceArchiveIterator.BLOCK_SORT_ORDER, null,
+                    cancellationSignal);
+        } catch (RuntimeException e) {
+            stored.close();
+            throw e;
+        }
+        if (blocks.getCount() == 0) {
+            // 古い日を表示していなければ、SQLiteの結果をそのまま返す
+            blocks.close();
+            return stored;
+        }
+
+        PlaceArchiveIterator archived = new PlaceArchiveIterator(archive, blocks, mFromTime, mToTime);
+        try {
+            return mGridSize > 0
+                    ? mergeGrid(stored, archived, cancellationSignal)
+                    : appendPoints(stored, archived, cancellationSignal);
+        } catch (RuntimeException e) {
+            stored.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 矩形と期間に重なるブロックを選ぶ、PLACE_ARCHIVEの条件を返す。
+     * 矩形の境界は、地点の判定と同じくE7に丸めて比べる。
+     */
+    private String archiveSelection() {
+        double minLatitude = PlaceDBHelper.fromE7(PlaceDBHelper.toE7(mMinLatitude));
+        double maxLatitude = PlaceDBHelper.fromE7(PlaceDBHelper.toE7(mMaxLatitude));
+        double minLongitude = PlaceDBHelper.fromE7(PlaceDBHelper.toE7(mMinLongitude));
+        double maxLongitude = PlaceDBHelper.fromE7(PlaceDBHelper.toE7(mMaxLongitude));
+
+        StringBuilder where = new StringBuilder()
+                .append(PlaceDBHelper.COLUMN_MAX_LATITUDE).append(" >= ").append(minLatitude)
+                .append(" AND ").append(PlaceDBHelper.COLUMN_MIN_LATITUDE).append(" <= ").append(maxLatitude);
+        if (mMinLongitude <= mMaxLongitude) {
+            where.append(" AND ").append(PlaceDBHelper.COLUMN_MAX_LONGITUDE).append(" >= ").append(minLongitude)
+                    .append(" AND ").append(PlaceDBHelper.COLUMN_MIN_LONGITUDE).append(" <= ").append(maxLongitude);
+        } else {
+            where.append(" AND (").append(PlaceDBHelper.COLUMN_MAX_LONGITUDE).append(" >= ").append(minLongitude)
+                    .append(" OR ").append(PlaceDBHelper.COLUMN_MIN_LONGITUDE).append(" <= ").append(maxLongitude)
+                    .append(')');
+        }
+
+        String time = PlaceArchiveIterator.timeSelection(mFromTime, mToTime);
+        if (time != null) {
+            where.append(" AND ").append(time);
+        }
+        return where.toString();
+    }
+
+    /**
+     * 格子ごとにまとめたSQLiteの結果に、セグメントファイルの地点を加えてまとめ直す。
+     * SQLiteの結果のカーソルは閉じる。
+     */
+    private Cursor mergeGrid(Cursor stored, Iterator<PlaceTrack> archived, CancellationSignal cancellationSignal) {
+        Map<Long, Cell> cells = new LinkedHashMap<Long, Cell>();
+        try {
+            int keyIndex = stored.getColumnIndexOrThrow(COLUMN_CELL_KEY);
+            int idIndex = stored.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_ID);
+            int latitudeIndex = stored.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_LATITUDE);
+            int longitudeIndex = stored.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_LONGITUDE);
+            int timeIndex = stored.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_TIME);
+            int countIndex = stored.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_POINT_COUNT);
+
+            while (stored.moveToNext()) {
+                int count = stored.getInt(countIndex);
+                Cell cell = new Cell();
+                cell.add(stored.getLong(idIndex),
+                        stored.getDouble(latitudeIndex) * count,
+                        stored.getDouble(longitudeIndex) * count,
+                        stored.getLong(timeIndex), count);
+                cells.put(stored.getLong(keyIndex), cell);
+            }
+        } finally {
+            stored.close();
+        }
+
+        double latitudeGrid = getLatitudeGridSize();
+        while (archived.hasNext()) {
+            if (cancellationSignal != null) {
+                cancellationSignal.throwIfCanceled();
+            }
+
+            PlaceTrack block = archived.next();
+            for (int i = 0; i < block.size(); i++) {
+                double latitude = block.getLatitude(i);
+                double longitude = block.getLongitude(i);
+                if (!contains(latitude, longitude)) {
+                    continue;
+                }
+
+                // gridProjection()と同じ式で格子のキーを求める
+                long row = (long) ((latitude + 90) / latitudeGrid);
+                long column = (long) ((longitude + 180) / mGridSize);
+                long key = (row << 32) | column;
+
+                Cell cell = cells.get(key);
+                if (cell == null) {
+                    cell = new Cell();
+                    cells.put(key, cell);
+                }
+                cell.add(block.getId(i), latitude, longitude, block.getTime(i), 1);
+            }
+        }
+
+        MatrixCursor cursor = new MatrixCursor(GRID_COLUMNS, cells.size());
+        for (Map.Entry<Long, Cell> entry : cells.entrySet()) {
+            Cell cell = entry.getValue();
+            cursor.addRow(new Object[]{entry.getKey(), cell.id,
+                    cell.latitudeSum / cell.count, cell.longitudeSum / cell.count,
+                    cell.time, cell.count});
+        }
+        return cursor;
+    }
+
+    /**
+     * SQLiteの結果の後に、セグメントファイルの地点を続ける。
+     */
+    private Cursor appendPoints(Cursor stored, Iterator<PlaceTrack> archived, CancellationSignal cancellationSignal) {
+        String[] columns = stored.getColumnNames();
+        MatrixCursor points = new MatrixCursor(columns);
+        Object[] row = new Object[columns.length];
+
+        while (archived.hasNext()) {
+            if (cancellationSignal != null) {
+                cancellationSignal.throwIfCanceled();
+            }
+
+            PlaceTrack block = archived.next();
+            for (int i = 0; i < block.size(); i++) {
+                if (!contains(block.getLatitude(i), block.getLongitude(i))) {
+                    continue;
+                }
+                for (int c = 0; c < columns.length; c++) {
+                    row[c] = archivedValue(columns[c], block, i);
+                }
+                points.addRow(row);
+            }
+        }
+
+        if (points.getCount() == 0) {
+            return stored;
+        }
+        return new MergeCursor(new Cursor[]{stored, points});
+    }
+
+    /**
+     * セグメントファイルの地点の、指定したカラムの値を返す。セグメントファイルにないカラムはnull。
+     */
+    private static Object archivedValue(String column, PlaceTrack track, int index) {
+        if (PlaceDBHelper.COLUMN_ID.equals(column)) {
+            return track.getId(index);
+        } else if (PlaceDBHelper.COLUMN_LATITUDE.equals(column)) {
+            return track.getLatitude(index);
+        } else if (PlaceDBHelper.COLUMN_LONGITUDE.equals(column)) {
+            return track.getLongitude(index);
+        } else if (PlaceDBHelper.COLUMN_TIME.equals(column)) {
+            return track.getTime(index);
+        } else if (PlaceDBHelper.COLUMN_DAY_KEY.equals(column)) {
+            return DayKey.of(track.getTime(index));
+        }
+        return null;
+    }
+
+    /**
+     * 地点が矩形の中にあるかどうかを、query()と同じくE7の整数で判定する。
+     */
+    private boolean contains(double latitude, double longitude) {
+        long latitudeE7 = PlaceDBHelper.toE7(latitude);
+        if (latitudeE7 < PlaceDBHelper.toE7(mMinLatitude) || latitudeE7 > PlaceDBHelper.toE7(mMaxLatitude)) {
+            return false;
+        }
+
+        long longitudeE7 = PlaceDBHelper.toE7(longitude);
+        long minLongitude = PlaceDBHelper.toE7(mMinLongitude);
+        long maxLongitude = PlaceDBHelper.toE7(mMaxLongitude);
+        if (mMinLongitude <= mMaxLongitude) {
+            return longitudeE7 >= minLongitude && longitudeE7 <= maxLongitude;
+        }
+        return longitudeE7 >= minLongitude || longitudeE7 <= maxLongitude;
+    }
+
+    /**
+     * 格子ごとにまとめる場合のカラム。
+     * 格子の位置は、緯度・経度を正の値にずらしてから格子の大きさで割って求める。
+     */
+    private String[] gridProjection() {
+        double latitudeGrid = getLatitudeGridSize();
+
+        String row = "CAST((" + PLACE + "." + PlaceDBHelper.COLUMN_LATITUDE + " + 90) / " + latitudeGrid + " AS INTEGER)";
+        String column = "CAST((" + PLACE + "." + PlaceDBHelper.COLUMN_LONGITUDE + " + 180) / " + mGridSize + " AS INTEGER)";
+
+        return new String[]{
+                "((" + row + ") << 32) | (" + column + ") AS " + COLUMN_CELL_KEY,
+                "MIN(" + PLACE + "." + PlaceDBHelper.COLUMN_ID + ") AS " + PlaceDBHelper.COLUMN_ID,
+                "AVG(" + PLACE + "." + PlaceDBHelper.COLUMN_LATITUDE + ") AS " + PlaceDBHelper.COLUMN_LATITUDE,
+                "AVG(" + PLACE + "." + PlaceDBHelper.COLUMN_LONGITUDE + ") AS " + PlaceDBHelper.COLUMN_LONGITUDE,
+                "MAX(" + PLACE + "." + PlaceDBHelper.COLUMN_TIME + ") AS " + PlaceDBHelper.COLUMN_TIME,
+                "COUNT(*) AS " + PlaceDBHelper.COLUMN_POINT_COUNT
+        };
+    }
+
+    /**
+     * 緯度・経度を、-limit～limitの範囲に収める。無限大も範囲の端にする。
+     *
+     * @throws IllegalArgumentException NaNの場合
+     */
+    private static double clamp(double degrees, double limit) {
+        if (Double.isNaN(degrees)) {
+            throw new IllegalArgumentException("invalid coordinate: " + degrees);
+        }
+        return Math.max(-limit, Math.min(limit, degrees));
+    }
+
+    private static String requireParameter(Uri uri, String name) {
+        String value = uri.getQueryParameter(name);
+        if (value == null) {
+            throw new IllegalArgumentException("missing parameter " + name + ": " + uri);
+        }
+        return value;
+    }
+
+    /**
+     * まとめ直している格子の集計。
+     */
+    private static class Cell {
+        private long id = Long.MAX_VALUE;
+        private double latitudeSum;
+        private double longitudeSum;
+        private long time = Long.MIN_VALUE;
+        private int count;
+
+        void add(long id, double latitudeSum, double longitudeSum, long time, int count) {
+            this.id = Math.min(this.id, id);
+            this.latitudeSum += latitudeSum;
+            this.longitudeSum += longitudeSum;
+            this.time = Math.max(this.time, time);
+            this.count += count;
+        }
+    }
+}
@@ -1,33 +1,194 @@
 package com.example.android.sample.myplaceapp.location;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+
+import com.example.android.sample.myplaceapp.IdleWalCheckpointer;
 
 /**
  * 位置情報を保存するデータベース。
  */
 public class PlaceDBHelper extends SQLiteOpenHelper {
 
+    private static final String TAG = "PlaceDBHelper";
+
     private static final String DB_NAME = "Place.db";
 
-    private static final int DB_VERSION = 1;
+    private static final int DB_VERSION = 10;
 
+    /**
+     * 位置情報のビュー。緯度・経度を度単位のREALで、登録日時を端末のタイムゾーンの日時文字列で返す。
+     * 読み取り専用なので、書き込みはTABLE_E7に対して行う。
+     */
     public static final String TABLE_NAME = "PLACE";
 
+    /**
+     * 位置情報のテーブル。緯度・経度を1e-7度単位の整数(E7)で、登録日時をエポックからの秒で持つ。
+     * 整数はSQLiteの可変長整数で格納されるので、REALやTEXTより1行あたりのバイト数が小さくなる。
+     */
+    public static final String TABLE_E7 = "PLACE_E7";
+
+    public static final String COLUMN_LATITUDE_E7 = "latitude_e7";
+    public static final String COLUMN_LONGITUDE_E7 = "longitude_e7";
+
+    /**
+     * 度をE7に変換する倍率。
+     */
+    private static final double E7 = 1e7;
+
     public static final String COLUMN_ID = "_id";
     public static final String COLUMN_LATITUDE = "latitude";
     public static final String COLUMN_LONGITUDE = "longitude";
     public static final String COLUMN_TIME = "time";
     public static final String COLUMN_REGISTER_TIME = "register_time";
+    public static final String COLUMN_DAY_KEY = "day_key";
+    // 取得時の精度m・速度m/s・進行方向(度)。不明な場合はNULL
+    public static final String COLUMN_ACCURACY = "accuracy";
+    public static final String COLUMN_SPEED = "speed";
+    public static final String COLUMN_BEARING = "bearing";
+
+    /**
+     * 日ごとの集計テーブル。PLACEの変更に合わせてPlaceProviderが更新する。
+     */
+    public static final String TABLE_DAY = "PLACE_DAY";
+
+    public static final String COLUMN_POINT_COUNT = "point_count";
+    public static final String COLUMN_FIRST_TIME = "first_time";
+    public static final String COLUMN_LAST_TIME = "last_time";
+    public static final String COLUMN_MIN_LATITUDE = "min_latitude";
+    public static final String COLUMN_MAX_LATITUDE = "max_latitude";
+    public static final String COLUMN_MIN_LONGITUDE = "min_longitude";
+    public static final String COLUMN_MAX_LONGITUDE = "max_longitude";
+
+    /**
+     * 取得時刻のインデックス(TABLE_E7)。日単位の検索と、取得時刻順の並び替えに使う。
+     * 取得時刻の次に_idを並べて、(取得時刻, _id)順のページ読み込みでも並び替えを不要にする。
+     * 緯度・経度も含めて、テーブル本体を読まずに済むようにする。
+     */
+    public static final String INDEX_TIME = "PLACE_TIME_IDX";
+
+    /**
+     * 日のキーのインデックス(TABLE_E7)。日単位の検索を、等価検索で行うために使う。
+     * 同じ日の中は(取得時刻, _id)順に並ぶので、並び替えも不要になる。
+     */
+    public static final String INDEX_DAY_KEY = "PLACE_DAY_KEY_IDX";
+
+    /**
+     * 位置情報の空間インデックス(R*Tree)。PLACEの変更に合わせてPlaceProviderが更新する。
+     * 1地点を、緯度・経度・取得時刻の幅0の箱として持つ。
+     */
+    public static final String TABLE_RTREE = "PLACE_RTREE";
+
+    public static final String COLUMN_RTREE_ID = "id";
+    public static final String COLUMN_RTREE_MIN_TIME = "min_time";
+    public static final String COLUMN_RTREE_MAX_TIME = "max_time";
+
+    /**
+     * R*Treeを使えない端末で、空間インデックスの代わりに使う緯度・経度のインデックス。
+     */
+    public static final String INDEX_LAT_LON = "PLACE_LAT_LON_IDX";
+
+    /**
+     * セグメントファイル(PlaceArchive)に移した位置情報の索引。
+     * 1行が1つのブロックで、ブロックに含まれる位置情報の集計も持つ。集計のカラムはTABLE_DAYと同じ。
+     */
+    public static final String TABLE_ARCHIVE = "PLACE_ARCHIVE";
+
+    public static final String COLUMN_SEGMENT_OFFSET = "segment_offset";
+    public static final String COLUMN_SEGMENT_LENGTH = "segment_length";
+
+    /**
+     * ジャーナル(PlaceJournal)からPLACEに移し終えた位置を記録するテーブル。常に1行だけを持つ。
+     * 位置情報の追加と同じトランザクションで更新するので、ジャーナルを二重に移すことはない。
+     */
+    public static final String TABLE_JOURNAL_STATE = "JOURNAL_STATE";
+
+    public static final String COLUMN_FLUSHED_SEQUENCE = "flushed_sequence";
 
     public PlaceDBHelper(Context context) {
-        super(context, DB_NAME, null, DB_VERSION);
+        this(context, DB_NAME);
+    }
+
+    @VisibleForTesting
+    PlaceDBHelper(Context context, String name) {
+        super(context, name, null, DB_VERSION);
+
+        // 記録サービスの書き込み中も、画面からの読み込みを並行して行えるようにする
+        setWriteAheadLoggingEnabled(true);
     }
 
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        IdleWalCheckpointer.configure(db);
+    }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        // バージョン1のテーブルを作り、以降はマイグレーションと同じ手順で最新にする
+        createVersion1(db);
+        onUpgrade(db, 1, DB_VERSION);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // 1バージョンずつ順番に適用する
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            upgradeTo(db, version);
+        }
+    }
+
+    /**
+     * 指定したバージョンへのマイグレーションを行う。
+     *
+     * @param db
+     * @param version
+     */
+    private void upgradeTo(SQLiteDatabase db, int version) {
+        switch (version) {
+            case 2:
+                upgradeToVersion2(db);
+                break;
+            case 3:
+                upgradeToVersion3(db);
+                break;
+            case 4:
+                upgradeToVersion4(db);
+                break;
+            case 5:
+                upgradeToVersion5(db);
+                break;
+            case 6:
+                upgradeToVersion6(db);
+                break;
+            case 7:
+                upgradeToVersion7(db);
+                break;
+            case 8:
+                upgradeToVersion8(db);
+                break;
+            case 9:
+                upgradeToVersion9(db);
+                break;
+            case 10:
+                upgradeToVersion10(db);
+                break;
+            default:
+                throw new IllegalStateException("unknown version: " + version);
+        }
+    }
+
+    /**
+     * バージョン1：位置情報のテーブルを作成する。
+     *
+     * @param db
+     */
+    private void createVersion1(SQLiteDatabase db) {
         String createTable = "CREATE TABLE " + TABLE_NAME + " ("
                 + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + COLUMN_LATITUDE + " REAL NOT NULL, "
@@ -39,8 +200,313 @@ public class PlaceDBHelper extends SQLiteOpenHelper {
         db.execSQL(createTable);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    /**
+     * バージョン2：取得時刻のインデックスを作成する。
+     *
+     * @param db
+     */
+    private void upgradeToVersion2(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + INDEX_TIME + " ON " + TABLE_NAME + " ("
+                + COLUMN_TIME + ", "
+                + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE
+                + ")");
+    }
+
+    /**
+     * バージョン3：日ごとの集計テーブルを作成し、既存の位置情報から集計する。
+     *
+     * @param db
+     */
+    private void upgradeToVersion3(SQLiteDatabase db) {
+        // 日のキーが主キーなので、日付の一覧はこのテーブルを読むだけで済む
+        db.execSQL("CREATE TABLE " + TABLE_DAY + " ("
+                + COLUMN_DAY_KEY + " INTEGER PRIMARY KEY, "
+                + COLUMN_POINT_COUNT + " INTEGER NOT NULL, "
+                + COLUMN_FIRST_TIME + " INTEGER NOT NULL, "
+                + COLUMN_LAST_TIME + " INTEGER NOT NULL, "
+                + COLUMN_MIN_LATITUDE + " REAL NOT NULL, "
+                + COLUMN_MAX_LATITUDE + " REAL NOT NULL, "
+                + COLUMN_MIN_LONGITUDE + " REAL NOT NULL, "
+                + COLUMN_MAX_LONGITUDE + " REAL NOT NULL"
+                + ")");
+
+        // 既存の位置情報を、端末のタイムゾーンでの日付ごとに集計する
+        db.execSQL("INSERT INTO " + TABLE_DAY + " "
+                + "SELECT CAST(strftime('%Y%m%d', " + COLUMN_TIME + " / 1000, 'unixepoch', 'localtime') AS INTEGER), "
+                + "COUNT(*), "
+                + "MIN(" + COLUMN_TIME + "), MAX(" + COLUMN_TIME + "), "
+                + "MIN(" + COLUMN_LATITUDE + "), MAX(" + COLUMN_LATITUDE + "), "
+                + "MIN(" + COLUMN_LONGITUDE + "), MAX(" + COLUMN_LONGITUDE + ") "
+                + "FROM " + TABLE_NAME + " GROUP BY 1");
+    }
+
+    /**
+     * バージョン4：位置情報に、端末のタイムゾーンでの日のキー(yyyymmdd)を持たせる。
+     *
+     * @param db
+     */
+    private void upgradeToVersion4(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN "
+                + COLUMN_DAY_KEY + " INTEGER NOT NULL DEFAULT 0");
+
+        // 既存の位置情報は、日ごとの集計と同じ方法で日のキーを求める
+        db.execSQL("UPDATE " + TABLE_NAME + " SET " + COLUMN_DAY_KEY + " = "
+                + "CAST(strftime('%Y%m%d', " + COLUMN_TIME + " / 1000, 'unixepoch', 'localtime') AS INTEGER)");
+
+        db.execSQL("CREATE INDEX " + INDEX_DAY_KEY + " ON " + TABLE_NAME + " ("
+                + COLUMN_DAY_KEY + ", "
+                + COLUMN_TIME + ", "
+                + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE
+                + ")");
+    }
+
+    /**
+     * バージョン5：緯度・経度・取得時刻の空間インデックスを作成し、既存の位置情報を登録する。
+     * R*Treeモジュールが組み込まれていない端末では、緯度・経度のインデックスで代用する。
+     *
+     * @param db
+     */
+    private void upgradeToVersion5(SQLiteDatabase db) {
+        try {
+            db.execSQL("CREATE VIRTUAL TABLE " + TABLE_RTREE + " USING rtree("
+                    + COLUMN_RTREE_ID + ", "
+                    + COLUMN_MIN_LATITUDE + ", " + COLUMN_MAX_LATITUDE + ", "
+                    + COLUMN_MIN_LONGITUDE + ", " + COLUMN_MAX_LONGITUDE + ", "
+                    + COLUMN_RTREE_MIN_TIME + ", " + COLUMN_RTREE_MAX_TIME
+                    + ")");
+        } catch (SQLiteException e) {
+            Log.w(TAG, "rtree is not available", e);
+
+            db.execSQL("CREATE INDEX " + INDEX_LAT_LON + " ON " + TABLE_NAME + " ("
+                    + COLUMN_LATITUDE + ", "
+                    + COLUMN_LONGITUDE + ", "
+                    + COLUMN_TIME
+                    + ")");
+            return;
+        }
+
+        db.execSQL("INSERT INTO " + TABLE_RTREE + " SELECT "
+                + COLUMN_ID + ", "
+                + COLUMN_LATITUDE + ", " + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE + ", " + COLUMN_LONGITUDE + ", "
+                + COLUMN_TIME + ", " + COLUMN_TIME + " "
+                + "FROM " + TABLE_NAME);
+    }
+
+    /**
+     * バージョン6：取得時刻と日のキーのインデックスに、取得時刻の次の並び順として_idを加える。
+     * 同じ取得時刻の行があっても、(取得時刻, _id)をキーにしたページ読み込みがインデックスの順に読める。
+     *
+     * @param db
+     */
+    private void upgradeToVersion6(SQLiteDatabase db) {
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_TIME);
+        db.execSQL("CREATE INDEX " + INDEX_TIME + " ON " + TABLE_NAME + " ("
+                + COLUMN_TIME + ", "
+                + COLUMN_ID + ", "
+                + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE
+                + ")");
+
+        db.execSQL("DROP INDEX IF EXISTS " + INDEX_DAY_KEY);
+        db.execSQL("CREATE INDEX " + INDEX_DAY_KEY + " ON " + TABLE_NAME + " ("
+                + COLUMN_DAY_KEY + ", "
+                + COLUMN_TIME + ", "
+                + COLUMN_ID + ", "
+                + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE
+                + ")");
+    }
+
+    /**
+     * バージョン7：位置情報を、緯度・経度がE7の整数で登録日時がエポック秒のTABLE_E7に移す。
+     * 元のテーブルは、同じ名前とカラムを持つビューに置き換えて、読み込み側の互換性を保つ。
+     *
+     * @param db
+     */
+    private void upgradeToVersion7(SQLiteDatabase db) {
+        boolean rtree = hasRTree(db);
+
+        db.execSQL("CREATE TABLE " + TABLE_E7 + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_LATITUDE_E7 + " INTEGER NOT NULL, "
+                + COLUMN_LONGITUDE_E7 + " INTEGER NOT NULL, "
+                + COLUMN_TIME + " INTEGER NOT NULL, "
+                + COLUMN_REGISTER_TIME + " INTEGER DEFAULT (CAST(strftime('%s', 'now') AS INTEGER)), "
+                + COLUMN_DAY_KEY + " INTEGER NOT NULL DEFAULT 0"
+                + ")");
+
+        // _idはそのまま引き継ぐ。登録日時は端末のタイムゾーンの日時文字列だったので、UTCに戻してから秒にする
+        db.execSQL("INSERT INTO " + TABLE_E7 + " SELECT "
+                + COLUMN_ID + ", "
+                + "CAST(ROUND(" + COLUMN_LATITUDE + " * " + E7 + ") AS INTEGER), "
+                + "CAST(ROUND(" + COLUMN_LONGITUDE + " * " + E7 + ") AS INTEGER), "
+                + COLUMN_TIME + ", "
+                + "CAST(strftime('%s', " + COLUMN_REGISTER_TIME + ", 'utc') AS INTEGER), "
+                + COLUMN_DAY_KEY + " "
+                + "FROM " + TABLE_NAME);
+
+        // 削除済みの_idを使い回さないように、採番の状態も引き継ぐ
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + TABLE_E7 + "'");
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) "
+                + "SELECT '" + TABLE_E7 + "', seq FROM sqlite_sequence WHERE name = '" + TABLE_NAME + "'");
+
+        // 元のテーブルのインデックスも、テーブルと一緒に削除される
+        db.execSQL("DROP TABLE " + TABLE_NAME);
+
+        db.execSQL("CREATE VIEW " + TABLE_NAME + " AS SELECT "
+                + COLUMN_ID + ", "
+                + COLUMN_LATITUDE_E7 + " / " + E7 + " AS " + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE_E7 + " / " + E7 + " AS " + COLUMN_LONGITUDE + ", "
+                + COLUMN_TIME + ", "
+                + "datetime(" + COLUMN_REGISTER_TIME + ", 'unixepoch', 'localtime') AS " + COLUMN_REGISTER_TIME + ", "
+                + COLUMN_DAY_KEY + ", "
+                + COLUMN_LATITUDE_E7 + ", "
+                + COLUMN_LONGITUDE_E7 + " "
+                + "FROM " + TABLE_E7);
+
+        db.execSQL("CREATE INDEX " + INDEX_TIME + " ON " + TABLE_E7 + " ("
+                + COLUMN_TIME + ", "
+                + COLUMN_ID + ", "
+                + COLUMN_LATITUDE_E7 + ", "
+                + COLUMN_LONGITUDE_E7
+                + ")");
+
+        db.execSQL("CREATE INDEX " + INDEX_DAY_KEY + " ON " + TABLE_E7 + " ("
+                + COLUMN_DAY_KEY + ", "
+                + COLUMN_TIME + ", "
+                + COLUMN_ID + ", "
+                + COLUMN_LATITUDE_E7 + ", "
+                + COLUMN_LONGITUDE_E7
+                + ")");
+
+        if (!rtree) {
+            db.execSQL("CREATE INDEX " + INDEX_LAT_LON + " ON " + TABLE_E7 + " ("
+                    + COLUMN_LATITUDE_E7 + ", "
+                    + COLUMN_LONGITUDE_E7 + ", "
+                    + COLUMN_TIME
+                    + ")");
+        }
+    }
+
+    /**
+     * バージョン8：セグメントファイルに移した位置情報の索引を作成する。
+     *
+     * @param db
+     */
+    private void upgradeToVersion8(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ARCHIVE + " ("
+                + COLUMN_DAY_KEY + " INTEGER NOT NULL, "
+                + COLUMN_SEGMENT_OFFSET + " INTEGER NOT NULL, "
+                + COLUMN_SEGMENT_LENGTH + " INTEGER NOT NULL, "
+                + COLUMN_POINT_COUNT + " INTEGER NOT NULL, "
+                + COLUMN_FIRST_TIME + " INTEGER NOT NULL, "
+                + COLUMN_LAST_TIME + " INTEGER NOT NULL, "
+                + COLUMN_MIN_LATITUDE + " REAL NOT NULL, "
+                + COLUMN_MAX_LATITUDE + " REAL NOT NULL, "
+                + COLUMN_MIN_LONGITUDE + " REAL NOT NULL, "
+                + COLUMN_MAX_LONGITUDE + " REAL NOT NULL, "
+                + "PRIMARY KEY (" + COLUMN_DAY_KEY + ", " + COLUMN_SEGMENT_OFFSET + ")"
+                + ")");
+    }
+
+    /**
+     * バージョン9：ジャーナルから移し終えた位置を記録するテーブルを作成する。
+     *
+     * @param db
+     */
+    private void upgradeToVersion9(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_JOURNAL_STATE + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY CHECK (" + COLUMN_ID + " = 1), "
+                + COLUMN_FLUSHED_SEQUENCE + " INTEGER NOT NULL"
+                + ")");
+
+        db.execSQL("INSERT INTO " + TABLE_JOURNAL_STATE + " VALUES (1, 0)");
+    }
+
+    /**
+     * バージョン10：位置情報に、取得時の精度・速度・進行方向を持たせる。
+     * 既存の位置情報は不明(NULL)とする。ビューも、これらのカラムを含めて作り直す。
+     *
+     * @param db
+     */
+    private void upgradeToVersion10(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + TABLE_E7 + " ADD COLUMN " + COLUMN_ACCURACY + " REAL");
+        db.execSQL("ALTER TABLE " + TABLE_E7 + " ADD COLUMN " + COLUMN_SPEED + " REAL");
+        db.execSQL("ALTER TABLE " + TABLE_E7 + " ADD COLUMN " + COLUMN_BEARING + " REAL");
+
+        db.execSQL("DROP VIEW " + TABLE_NAME);
+        db.execSQL("CREATE VIEW " + TABLE_NAME + " AS SELECT "
+                + COLUMN_ID + ", "
+                + COLUMN_LATITUDE_E7 + " / " + E7 + " AS " + COLUMN_LATITUDE + ", "
+                + COLUMN_LONGITUDE_E7 + " / " + E7 + " AS " + COLUMN_LONGITUDE + ", "
+                + COLUMN_TIME + ", "
+                + "datetime(" + COLUMN_REGISTER_TIME + ", 'unixepoch', 'localtime') AS " + COLUMN_REGISTER_TIME + ", "
+                + COLUMN_DAY_KEY + ", "
+                + COLUMN_LATITUDE_E7 + ", "
+                + COLUMN_LONGITUDE_E7 + ", "
+                + COLUMN_ACCURACY + ", "
+                + COLUMN_SPEED + ", "
+                + COLUMN_BEARING + " "
+                + "FROM " + TABLE_E7);
+    }
+
+    /**
+     * 度単位の緯度・経度を、E7の整数に変換する。
+     *
+     * @param degrees
+     * @return
+     */
+    public static long toE7(double degrees) {
+        return Math.round(degrees * E7);
+    }
+
+    /**
+     * E7の整数を、度単位の緯度・経度に変換する。
+     *
+     * @param e7
+     * @return
+     */
+    public static double fromE7(long e7) {
+        return e7 / E7;
+    }
+
+    /**
+     * TABLE_NAMEのカラムで表した値を、TABLE_E7に書き込む値に変換する。
+     * 緯度・経度はE7の整数に置き換え、それ以外のカラムはそのまま残す。
+     *
+     * @param values
+     * @return 新しいContentValues。引数は変更しない
+     */
+    static ContentValues toE7Values(ContentValues values) {
+        ContentValues e7Values = new ContentValues(values);
+
+        Double latitude = values.getAsDouble(COLUMN_LATITUDE);
+        if (latitude != null) {
+            e7Values.remove(COLUMN_LATITUDE);
+            e7Values.put(COLUMN_LATITUDE_E7, toE7(latitude));
+        }
+
+        Double longitude = values.getAsDouble(COLUMN_LONGITUDE);
+        if (longitude != null) {
+            e7Values.remove(COLUMN_LONGITUDE);
+            e7Values.put(COLUMN_LONGITUDE_E7, toE7(longitude));
+        }
+
+        return e7Values;
+    }
 
+    /**
+     * 空間インデックスにR*Treeを使っているかどうかを返す。
+     *
+     * @param db
+     * @return R*Treeがない場合は、INDEX_LAT_LONで代用している
+     */
+    static boolean hasRTree(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[]{TABLE_RTREE}) > 0;
     }
 }
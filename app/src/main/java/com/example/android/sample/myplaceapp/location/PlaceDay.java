@@ -0,0 +1,99 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * 1日分の位置情報の集計のエンティティ。
+ */
+public class PlaceDay {
+
+    /**
+     * 日のキー(yyyymmdd)。
+     */
+    private int dayKey;
+
+    /**
+     * 記録された位置情報の件数。
+     */
+    private int pointCount;
+
+    /**
+     * 最初に取得された時間。
+     */
+    private long firstTime;
+
+    /**
+     * 最後に取得された時間。
+     */
+    private long lastTime;
+
+    /**
+     * 記録された位置情報を囲む領域。
+     */
+    private double minLatitude;
+    private double maxLatitude;
+    private double minLongitude;
+    private double maxLongitude;
+
+    public int getDayKey() {
+        return dayKey;
+    }
+
+    public void setDayKey(int dayKey) {
+        this.dayKey = dayKey;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public void setPointCount(int pointCount) {
+        this.pointCount = pointCount;
+    }
+
+    public long getFirstTime() {
+        return firstTime;
+    }
+
+    public void setFirstTime(long firstTime) {
+        this.firstTime = firstTime;
+    }
+
+    public long getLastTime() {
+        return lastTime;
+    }
+
+    public void setLastTime(long lastTime) {
+        this.lastTime = lastTime;
+    }
+
+    public double getMinLatitude() {
+        return minLatitude;
+    }
+
+    public void setMinLatitude(double minLatitude) {
+        this.minLatitude = minLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return maxLatitude;
+    }
+
+    public void setMaxLatitude(double maxLatitude) {
+        this.maxLatitude = maxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return minLongitude;
+    }
+
+    public void setMinLongitude(double minLongitude) {
+        this.minLongitude = minLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return maxLongitude;
+    }
+
+    public void setMaxLongitude(double maxLongitude) {
+        this.maxLongitude = maxLongitude;
+    }
+}
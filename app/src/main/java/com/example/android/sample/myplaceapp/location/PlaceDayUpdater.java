@@ -0,0 +1,152 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * 日ごとの集計テーブルを、位置情報の変更に合わせて更新するクラス。
+ * 全てのメソッドは、位置情報を変更するトランザクションの中で呼び出す。
+ */
+class PlaceDayUpdater {
+
+    /**
+     * 1件追加された日の集計を更新するSQL。
+     */
+    private static final String SQL_INCREMENT = "UPDATE " + PlaceDBHelper.TABLE_DAY + " SET "
+            + PlaceDBHelper.COLUMN_POINT_COUNT + " = " + PlaceDBHelper.COLUMN_POINT_COUNT + " + 1, "
+            + PlaceDBHelper.COLUMN_FIRST_TIME + " = MIN(" + PlaceDBHelper.COLUMN_FIRST_TIME + ", ?1), "
+            + PlaceDBHelper.COLUMN_LAST_TIME + " = MAX(" + PlaceDBHelper.COLUMN_LAST_TIME + ", ?1), "
+            + PlaceDBHelper.COLUMN_MIN_LATITUDE + " = MIN(" + PlaceDBHelper.COLUMN_MIN_LATITUDE + ", ?2), "
+            + PlaceDBHelper.COLUMN_MAX_LATITUDE + " = MAX(" + PlaceDBHelper.COLUMN_MAX_LATITUDE + ", ?2), "
+            + PlaceDBHelper.COLUMN_MIN_LONGITUDE + " = MIN(" + PlaceDBHelper.COLUMN_MIN_LONGITUDE + ", ?3), "
+            + PlaceDBHelper.COLUMN_MAX_LONGITUDE + " = MAX(" + PlaceDBHelper.COLUMN_MAX_LONGITUDE + ", ?3) "
+            + "WHERE " + PlaceDBHelper.COLUMN_DAY_KEY + " = ?4";
+
+    /**
+     * その日の最初の1件が追加された場合に、集計を作成するSQL。
+     */
+    private static final String SQL_INSERT = "INSERT INTO " + PlaceDBHelper.TABLE_DAY
+            + " VALUES (?4, 1, ?1, ?1, ?2, ?2, ?3, ?3)";
+
+    /**
+     * 指定した日の集計を、位置情報とアーカイブ済みのブロックの集計から作り直すSQL。
+     * 位置情報がなくなった日は作成しない。
+     */
+    private static final String SQL_REBUILD = "INSERT INTO " + PlaceDBHelper.TABLE_DAY + " "
+            + "SELECT * FROM (SELECT ?1 AS day, SUM(count) AS count, "
+            + "MIN(first), MAX(last), MIN(min_lat), MAX(max_lat), MIN(min_lon), MAX(max_lon) "
+            + "FROM (SELECT COUNT(*) AS count, "
+            + "MIN(" + PlaceDBHelper.COLUMN_TIME + ") AS first, MAX(" + PlaceDBHelper.COLUMN_TIME + ") AS last, "
+            + "MIN(" + PlaceDBHelper.COLUMN_LATITUDE + ") AS min_lat, MAX(" + PlaceDBHelper.COLUMN_LATITUDE + ") AS max_lat, "
+            + "MIN(" + PlaceDBHelper.COLUMN_LONGITUDE + ") AS min_lon, MAX(" + PlaceDBHelper.COLUMN_LONGITUDE + ") AS max_lon "
+            + "FROM " + PlaceDBHelper.TABLE_NAME + " "
+            + "WHERE " + PlaceDBHelper.COLUMN_DAY_KEY + " = ?1 "
+            + "UNION ALL "
+            + "SELECT " + PlaceDBHelper.COLUMN_POINT_COUNT + ", "
+            + PlaceDBHelper.COLUMN_FIRST_TIME + ", " + PlaceDBHelper.COLUMN_LAST_TIME + ", "
+            + PlaceDBHelper.COLUMN_MIN_LATITUDE + ", " + PlaceDBHelper.COLUMN_MAX_LATITUDE + ", "
+            + PlaceDBHelper.COLUMN_MIN_LONGITUDE + ", " + PlaceDBHelper.COLUMN_MAX_LONGITUDE + " "
+            + "FROM " + PlaceDBHelper.TABLE_ARCHIVE + " "
+            + "WHERE " + PlaceDBHelper.COLUMN_DAY_KEY + " = ?1)) "
+            + "WHERE count > 0";
+
+    private final SQLiteDatabase mDb;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param db
+     */
+    PlaceDayUpdater(SQLiteDatabase db) {
+        this.mDb = db;
+    }
+
+    /**
+     * 位置情報が1件追加されたことを、その日の集計に反映する。
+     *
+     * @param values 追加した位置情報
+     */
+    void onInserted(ContentValues values) {
+        long time = values.getAsLong(PlaceDBHelper.COLUMN_TIME);
+        double latitude = values.getAsDouble(PlaceDBHelper.COLUMN_LATITUDE);
+        double longitude = values.getAsDouble(PlaceDBHelper.COLUMN_LONGITUDE);
+        int dayKey = values.getAsInteger(PlaceDBHelper.COLUMN_DAY_KEY);
+
+        SQLiteStatement increment = mDb.compileStatement(SQL_INCREMENT);
+        try {
+            bind(increment, dayKey, time, latitude, longitude);
+            if (increment.executeUpdateDelete() > 0) {
+                return;
+            }
+        } finally {
+            increment.close();
+        }
+
+        // その日の最初の位置情報だった場合
+        SQLiteStatement insert = mDb.compileStatement(SQL_INSERT);
+        try {
+            bind(insert, dayKey, time, latitude, longitude);
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * 条件に一致する位置情報が記録された日を返す。
+     * 更新・削除の前に呼び出して、影響を受ける日を調べておく。
+     *
+     * @param selection
+     * @param selectionArgs
+     * @return 日のキーの集合
+     */
+    Set<Integer> collectDays(String selection, String[] selectionArgs) {
+        Set<Integer> dayKeys = new TreeSet<Integer>();
+
+        Cursor cursor = mDb.query(true, PlaceDBHelper.TABLE_NAME,
+                new String[]{PlaceDBHelper.COLUMN_DAY_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                dayKeys.add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return dayKeys;
+    }
+
+    /**
+     * 指定した日の集計を、位置情報から作り直す。
+     *
+     * @param dayKeys 日のキーの集合
+     */
+    void rebuild(Set<Integer> dayKeys) {
+        for (int dayKey : dayKeys) {
+            mDb.delete(PlaceDBHelper.TABLE_DAY,
+                    PlaceDBHelper.COLUMN_DAY_KEY + " = ?",
+                    new String[]{String.valueOf(dayKey)});
+
+            SQLiteStatement rebuild = mDb.compileStatement(SQL_REBUILD);
+            try {
+                rebuild.bindLong(1, dayKey);
+                rebuild.executeInsert();
+            } finally {
+                rebuild.close();
+            }
+        }
+    }
+
+    private static void bind(SQLiteStatement statement, int dayKey, long time, double latitude, double longitude) {
+        statement.bindLong(1, time);
+        statement.bindDouble(2, latitude);
+        statement.bindDouble(3, longitude);
+        statement.bindLong(4, dayKey);
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * 記録する前に、位置情報を保存するかどうかを判定するフィルタ。
+ * <p>
+ * 判定は引数だけで決まり、現在時刻や乱数を使わない。
+ * そのため、記録済みの位置情報を同じ順番で渡せば、同じ結果を再現できる。
+ */
+interface PlaceFilter {
+
+    /**
+     * 集計に使うフィルタの名前を返す。
+     *
+     * @return
+     */
+    String getName();
+
+    /**
+     * 位置情報を保存するかどうかを判定する。
+     *
+     * @param candidate 判定する位置情報
+     * @param lastAccepted 直前に保存した位置情報。まだない場合はnull
+     * @return 保存する場合はtrue
+     */
+    boolean accept(Place candidate, Place lastAccepted);
+}
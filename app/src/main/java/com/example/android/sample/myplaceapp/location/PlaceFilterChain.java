@@ -0,0 +1,166 @@
+package com.example.android.sample.myplaceapp.location;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 位置情報を、登録した順にフィルタに通して、保存するものだけを残す。
+ * <p>
+ * どれか1つのフィルタが除いた位置情報は、以降のフィルタには渡さない。
+ * 保存した位置情報は、次の位置情報を判定する時の直前の位置情報になる。
+ * 保存した数と、フィルタごとに除いた数を数える。
+ */
+class PlaceFilterChain {
+
+    private final List<PlaceFilter> mFilters = new ArrayList<PlaceFilter>();
+
+    /**
+     * フィルタごとの除いた数。mFiltersと同じ順番。
+     */
+    private int[] mRejectedCounts = new int[0];
+
+    private int mAcceptedCount;
+
+    /**
+     * 直前に保存した位置情報。
+     */
+    private Place mLastAccepted;
+
+    /**
+     * 記録サービスで使うフィルタを返す。
+     * 精度、速さ、距離の順に判定する。
+     *
+     * @return
+     */
+    static PlaceFilterChain createDefault() {
+        return new PlaceFilterChain()
+                .add(new AccuracyFilter(AccuracyFilter.DEFAULT_MAX_ACCURACY))
+                .add(new SpeedOutlierFilter(SpeedOutlierFilter.DEFAULT_MAX_SPEED))
+                .add(new AdaptiveDistanceFilter());
+    }
+
+    /**
+     * フィルタを末尾に加える。
+     *
+     * @param filter
+     * @return このオブジェクト
+     */
+    PlaceFilterChain add(PlaceFilter filter) {
+        mFilters.add(filter);
+
+        int[] counts = new int[mFilters.size()];
+        System.arraycopy(mRejectedCounts, 0, counts, 0, mRejectedCounts.length);
+        mRejectedCounts = counts;
+        return this;
+    }
+
+    /**
+     * 直前に保存した位置情報を設定する。DBに保存済みの位置情報から続ける場合に使う。
+     *
+     * @param place まだない場合はnull
+     */
+    void setLastAccepted(Place place) {
+        mLastAccepted = place;
+    }
+
+    /**
+     * 直前に保存した位置情報を返す。
+     *
+     * @return まだない場合はnull
+     */
+    Place getLastAccepted() {
+        return mLastAccepted;
+    }
+
+    /**
+     * 位置情報を判定する。保存する場合は、直前に保存した位置情報にする。
+     *
+     * @param place
+     * @return 保存する場合はtrue
+     */
+    boolean accept(Place place) {
+        for (int i = 0; i < mFilters.size(); i++) {
+            if (!mFilters.get(i).accept(place, mLastAccepted)) {
+                mRejectedCounts[i]++;
+                return false;
+            }
+        }
+
+        mAcceptedCount++;
+        mLastAccepted = place;
+        return true;
+    }
+
+    /**
+     * 位置情報を順番に判定して、保存するものだけを返す。
+     *
+     * @param places
+     * @return
+     */
+    List<Place> filter(List<Place> places) {
+        List<Place> accepted = new ArrayList<Place>(places.size());
+        for (Place place : places) {
+            if (accept(place)) {
+                accepted.add(place);
+            }
+        }
+        return accepted;
+    }
+
+    /**
+     * 保存した数を返す。
+     *
+     * @return
+     */
+    int getAcceptedCount() {
+        return mAcceptedCount;
+    }
+
+    /**
+     * 除いた数の合計を返す。
+     *
+     * @return
+     */
+    int getRejectedCount() {
+        int count = 0;
+        for (int rejected : mRejectedCounts) {
+            count += rejected;
+        }
+        return count;
+    }
+
+    /**
+     * 指定した名前のフィルタが除いた数を返す。
+     *
+     * @param name
+     * @return 該当するフィルタがない場合は0
+     */
+    int getRejectedCount(String name) {
+        for (int i = 0; i < mFilters.size(); i++) {
+            if (mFilters.get(i).getName().equals(name)) {
+                return mRejectedCounts[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * ログに出力する、集計の文字列を返す。
+     * 例：accepted=3 rejected=2 (accuracy=1, speed=1, distance=0)
+     *
+     * @return
+     */
+    String getSummary() {
+        StringBuilder summary = new StringBuilder()
+                .append("accepted=").append(mAcceptedCount)
+                .append(" rejected=").append(getRejectedCount())
+                .append(" (");
+        for (int i = 0; i < mFilters.size(); i++) {
+            if (i > 0) {
+                summary.append(", ");
+            }
+            summary.append(mFilters.get(i).getName()).append('=').append(mRejectedCounts[i]);
+        }
+        return summary.append(')').toString();
+    }
+}
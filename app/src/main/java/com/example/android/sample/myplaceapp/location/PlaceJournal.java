@@ -0,0 +1,520 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 記録した位置情報を、SQLiteに書き込む前に溜めておく追記専用のジャーナル。
+ * <p>
+ * 記録サービスは、位置情報を固定長のレコードとして追記してfsyncするだけで終わる。
+ * 溜まったレコードは、PlaceJournalFlusherが1つのトランザクションでPLACEに移す。
+ * <p>
+ * 各レコードは通し番号を持ち、移し終えた番号はDBのJOURNAL_STATEに記録する。
+ * ファイルからの削除はその後に行うので、途中で終了しても同じレコードを二重に書き込むことはない。
+ * 書き込みの途中で終了した末尾のレコードは、CRCが一致しないので読み飛ばし、次の追記で上書きする。
+ */
+class PlaceJournal {
+
+    /**
+     * ジャーナルの名前。アプリのfilesディレクトリに作る。
+     */
+    private static final String FILE_NAME = "place_journal.bin";
+
+    /**
+     * ファイルの先頭に置く識別子("PJNL")。
+     */
+    static final int MAGIC = 0x504a4e4c;
+
+    /**
+     * ヘッダのバイト数。識別子(4)、レコードのバイト数(4)、次に割り当てる通し番号の下限(8)。
+     */
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * レコードのバイト数。通し番号(8)、取得時刻(8)、緯度E7(4)、経度E7(4)、日のキー(4)、
+     * 精度(4)、速度(4)、進行方向(4)、予約(4)、CRC32(4)。
+     */
+    static final int RECORD_SIZE = 48;
+
+    /**
+     * 精度・速度・進行方向を持たない、以前の形式のレコードのバイト数。
+     * この形式のファイルは、読み込んだ時に現在の形式に書き直す。
+     */
+    static final int LEGACY_RECORD_SIZE = 32;
+
+    /**
+     * この件数以上溜まったら、SQLiteに移す。
+     */
+    static final int FLUSH_RECORD_COUNT = 64;
+
+    /**
+     * 最も古いレコードの取得時刻からこの時間が経ったら、件数によらずSQLiteに移す。
+     */
+    static final long FLUSH_AGE = 15L * 60L * 1000L;
+
+    private static PlaceJournal sInstance;
+
+    private final File mFile;
+
+    /**
+     * ファイルの内容を読み込んだかどうか。以下のフィールドは読み込んだ後に有効になる。
+     */
+    private boolean mLoaded;
+
+    /**
+     * 次に割り当てる通し番号。
+     */
+    private long mNextSequence;
+
+    /**
+     * ファイルのレコードのバイト数。
+     */
+    private int mRecordSize = RECORD_SIZE;
+
+    /**
+     * ヘッダと、壊れていないレコードのバイト数。これより後ろは次の追記で上書きする。
+     */
+    private long mValidLength;
+
+    /**
+     * ファイルに残っているレコードの数。SQLiteに移した後、まだ削除していないものも含む。
+     */
+    private int mRecordCount;
+
+    /**
+     * ファイルに残っているレコードのうち、最も古い取得時刻。
+     */
+    private long mOldestTime;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param file ジャーナルのファイル
+     */
+    PlaceJournal(File file) {
+        this.mFile = file;
+    }
+
+    /**
+     * アプリのジャーナルを返す。
+     *
+     * @param context
+     * @return
+     */
+    static synchronized PlaceJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PlaceJournal(new File(context.getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    /**
+     * 位置情報をレコードとして追記し、ストレージに書き込まれるまで待つ。
+     *
+     * @param places
+     * @throws IOException
+     */
+    synchronized void append(List<Place> places) throws IOException {
+        if (places.isEmpty()) {
+            return;
+        }
+        load();
+
+        ByteBuffer records = ByteBuffer.allocate(places.size() * RECORD_SIZE);
+        long sequence = mNextSequence;
+        for (Place place : places) {
+            putRecord(records, new Entry(sequence++, place.getTime(),
+                    (int) PlaceDBHelper.toE7(place.getLatitude()),
+                    (int) PlaceDBHelper.toE7(place.getLongitude()),
+                    DayKey.of(place.getTime()),
+                    place.getAccuracy(), place.getSpeed(), place.getBearing()));
+        }
+        records.flip();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            if (mValidLength == 0) {
+                writeHeader(channel, mNextSequence);
+                mValidLength = HEADER_SIZE;
+            }
+
+            // 壊れた末尾のレコードがあれば、上書きする
+            channel.truncate(mValidLength);
+            channel.position(mValidLength);
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+            channel.force(false);
+        } finally {
+            file.close();
+        }
+
+        for (Place place : places) {
+            if (mRecordCount == 0 || place.getTime() < mOldestTime) {
+                mOldestTime = place.getTime();
+            }
+            mRecordCount++;
+        }
+        mNextSequence = sequence;
+        mValidLength += places.size() * RECORD_SIZE;
+    }
+
+    /**
+     * ファイルにレコードが残っているかどうかを返す。
+     *
+     * @return
+     * @throws IOException
+     */
+    synchronized boolean hasRecords() throws IOException {
+        load();
+        return mRecordCount > 0;
+    }
+
+    /**
+     * 件数か経過時間の閾値を超えて、SQLiteに移すべきかどうかを返す。
+     *
+     * @param now 現在時刻。エポックからのms
+     * @return
+     * @throws IOException
+     */
+    synchronized boolean shouldFlush(long now) throws IOException {
+        load();
+        return mRecordCount >= FLUSH_RECORD_COUNT
+                || (mRecordCount > 0 && now - mOldestTime >= FLUSH_AGE);
+    }
+
+    /**
+     * 次に割り当てる通し番号を返す。
+     *
+     * @return
+     * @throws IOException
+     */
+    synchronized long getNextSequence() throws IOException {
+        load();
+        return mNextSequence;
+    }
+
+    /**
+     * 指定した通し番号より後のレコードを、通し番号の順に返す。
+     *
+     * @param sequence SQLiteに移し終えた最後の通し番号
+     * @return
+     * @throws IOException
+     */
+    synchronized List<Entry> readAfter(long sequence) throws IOException {
+        load();
+
+        List<Entry> entries = new ArrayList<Entry>();
+        if (mRecordCount == 0) {
+            return entries;
+        }
+
+        for (Entry entry : readRecords()) {
+            if (entry.getSequence() > sequence) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 指定した通し番号までのレコードを、ファイルから削除する。
+     * 残すレコードを別のファイルに書いてから置き換えるので、途中で終了しても元のファイルは壊れない。
+     *
+     * @param sequence SQLiteに移し終えた最後の通し番号
+     * @throws IOException
+     */
+    synchronized void discardThrough(long sequence) throws IOException {
+        load();
+
+        List<Entry> remaining = new ArrayList<Entry>();
+        boolean discarded = false;
+        if (mRecordCount > 0) {
+            for (Entry entry : readRecords()) {
+                if (entry.getSequence() > sequence) {
+                    remaining.add(entry);
+                } else {
+                    discarded = true;
+                }
+            }
+        }
+
+        // 移し終えた番号は、ファイルが空になっても二度と割り当てない
+        long nextSequence = Math.max(mNextSequence, sequence + 1);
+        if (!discarded && nextSequence == mNextSequence) {
+            return;
+        }
+
+        rewrite(remaining, nextSequence);
+    }
+
+    /**
+     * 指定したレコードだけを持つファイルを現在の形式で書いてから、元のファイルと置き換える。
+     */
+    private void rewrite(List<Entry> remaining, long nextSequence) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(remaining.size() * RECORD_SIZE);
+        long oldestTime = 0;
+        for (int i = 0; i < remaining.size(); i++) {
+            Entry entry = remaining.get(i);
+            putRecord(buffer, entry);
+            if (i == 0 || entry.getTime() < oldestTime) {
+                oldestTime = entry.getTime();
+            }
+        }
+        buffer.flip();
+
+        File temp = new File(mFile.getPath() + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(temp, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            channel.truncate(0);
+            writeHeader(channel, nextSequence);
+            channel.position(HEADER_SIZE);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            file.close();
+        }
+
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("failed to replace " + mFile);
+        }
+
+        mNextSequence = nextSequence;
+        mRecordSize = RECORD_SIZE;
+        mValidLength = HEADER_SIZE + remaining.size() * RECORD_SIZE;
+        mRecordCount = remaining.size();
+        mOldestTime = oldestTime;
+    }
+
+    /**
+     * 最初の呼び出しで、ファイルの内容から状態を読み込む。
+     */
+    private void load() throws IOException {
+        if (mLoaded) {
+            return;
+        }
+
+        // 置き換えの途中で終了した場合の、書きかけのファイル
+        File temp = new File(mFile.getPath() + ".tmp");
+        if (temp.exists() && !temp.delete()) {
+            throw new IOException("failed to delete " + temp);
+        }
+
+        mNextSequence = 1;
+        mRecordSize = RECORD_SIZE;
+        mValidLength = 0;
+        mRecordCount = 0;
+        mOldestTime = 0;
+
+        // ヘッダを書き終える前に終了した場合は、レコードもないので空のファイルとして扱う
+        if (mFile.length() >= HEADER_SIZE) {
+            mNextSequence = readHeader();
+            mValidLength = HEADER_SIZE;
+            List<Entry> entries = readRecords();
+            for (Entry entry : entries) {
+                if (mRecordCount == 0 || entry.getTime() < mOldestTime) {
+                    mOldestTime = entry.getTime();
+                }
+                mRecordCount++;
+                mNextSequence = Math.max(mNextSequence, entry.getSequence() + 1);
+                mValidLength += mRecordSize;
+            }
+
+            // 以前の形式のファイルには追記できないので、現在の形式に書き直す
+            if (mRecordSize != RECORD_SIZE) {
+                rewrite(entries, mNextSequence);
+            }
+        }
+
+        mLoaded = true;
+    }
+
+    private long readHeader() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            if (file.length() < HEADER_SIZE) {
+                throw new IOException("journal header is truncated: " + file.length());
+            }
+
+            int magic = file.readInt();
+            int recordSize = file.readInt();
+            if (magic != MAGIC || (recordSize != RECORD_SIZE && recordSize != LEGACY_RECORD_SIZE)) {
+                throw new IOException("unknown journal format: " + Integer.toHexString(magic) + "/" + recordSize);
+            }
+            mRecordSize = recordSize;
+            return file.readLong();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * ヘッダの後ろから、壊れていないレコードを順に読む。
+     * CRCが一致しないか、通し番号が増えていないレコードがあれば、そこで読むのをやめる。
+     */
+    private List<Entry> readRecords() throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            long length = file.length();
+            byte[] record = new byte[mRecordSize];
+            long previous = 0;
+            file.seek(HEADER_SIZE);
+            for (long position = HEADER_SIZE; position + mRecordSize <= length; position += mRecordSize) {
+                file.readFully(record);
+                Entry entry = getRecord(ByteBuffer.wrap(record), mRecordSize);
+                if (entry == null || entry.getSequence() <= previous) {
+                    break;
+                }
+
+                entries.add(entry);
+                previous = entry.getSequence();
+            }
+        } finally {
+            file.close();
+        }
+
+        return entries;
+    }
+
+    private static void writeHeader(FileChannel channel, long nextSequence) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(RECORD_SIZE);
+        header.putLong(nextSequence);
+        header.flip();
+
+        channel.position(0);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, Entry entry) {
+        int start = buffer.position();
+        buffer.putLong(entry.getSequence());
+        buffer.putLong(entry.getTime());
+        buffer.putInt(entry.getLatitudeE7());
+        buffer.putInt(entry.getLongitudeE7());
+        buffer.putInt(entry.getDayKey());
+        buffer.putFloat(entry.getAccuracy());
+        buffer.putFloat(entry.getSpeed());
+        buffer.putFloat(entry.getBearing());
+        buffer.putInt(0);
+        buffer.putInt(crc(buffer.array(), start, RECORD_SIZE - 4));
+    }
+
+    /**
+     * レコードを読む。CRCが一致しない場合はnullを返す。
+     *
+     * @param buffer
+     * @param recordSize レコードのバイト数。以前の形式では、精度・速度・進行方向は不明(NaN)とする
+     */
+    private static Entry getRecord(ByteBuffer buffer, int recordSize) {
+        int crc = buffer.getInt(recordSize - 4);
+        if (crc != crc(buffer.array(), 0, recordSize - 4)) {
+            return null;
+        }
+
+        long sequence = buffer.getLong();
+        long time = buffer.getLong();
+        int latitudeE7 = buffer.getInt();
+        int longitudeE7 = buffer.getInt();
+        int dayKey = buffer.getInt();
+        if (recordSize == LEGACY_RECORD_SIZE) {
+            return new Entry(sequence, time, latitudeE7, longitudeE7, dayKey, Float.NaN, Float.NaN, Float.NaN);
+        }
+        return new Entry(sequence, time, latitudeE7, longitudeE7, dayKey,
+                buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * ジャーナルの1レコード。
+     */
+    static class Entry {
+
+        private final long sequence;
+        private final long time;
+        private final int latitudeE7;
+        private final int longitudeE7;
+        private final int dayKey;
+        private final float accuracy;
+        private final float speed;
+        private final float bearing;
+
+        Entry(long sequence, long time, int latitudeE7, int longitudeE7, int dayKey,
+              float accuracy, float speed, float bearing) {
+            this.sequence = sequence;
+            this.time = time;
+            this.latitudeE7 = latitudeE7;
+            this.longitudeE7 = longitudeE7;
+            this.dayKey = dayKey;
+            this.accuracy = accuracy;
+            this.speed = speed;
+            this.bearing = bearing;
+        }
+
+        long getSequence() {
+            return sequence;
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        int getLatitudeE7() {
+            return latitudeE7;
+        }
+
+        int getLongitudeE7() {
+            return longitudeE7;
+        }
+
+        /**
+         * 追記した時点の、端末のタイムゾーンでの日のキー。
+         */
+        int getDayKey() {
+            return dayKey;
+        }
+
+        /**
+         * 精度m。不明な場合はNaN。
+         */
+        float getAccuracy() {
+            return accuracy;
+        }
+
+        /**
+         * 速度m/s。不明な場合はNaN。
+         */
+        float getSpeed() {
+            return speed;
+        }
+
+        /**
+         * 進行方向(度)。不明な場合はNaN。
+         */
+        float getBearing() {
+            return bearing;
+        }
+    }
+}
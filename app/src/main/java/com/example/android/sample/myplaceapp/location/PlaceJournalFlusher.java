@@ -0,0 +1,134 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ジャーナル(PlaceJournal)に溜まった位置情報を、SQLiteに移すクラス。
+ * <p>
+ * 移し終えていないレコードを1つのトランザクションでPLACEに追加し、同じトランザクションで
+ * JOURNAL_STATEの通し番号を進める。ジャーナルからの削除はコミットの後に行う。
+ * 削除の前に終了しても、次回はJOURNAL_STATEの通し番号より後だけを移すので、何度繰り返しても結果は同じになる。
+ */
+class PlaceJournalFlusher {
+
+    private final SQLiteDatabase mDb;
+    private final PlaceJournal mJournal;
+    private final PlaceDayUpdater mDayUpdater;
+    private final PlaceRTreeUpdater mRTreeUpdater;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param db
+     * @param journal 移す元のジャーナル
+     * @param dayUpdater 追加した位置情報を、日ごとの集計に反映する
+     * @param rTreeUpdater 追加した位置情報を、空間インデックスに反映する
+     */
+    PlaceJournalFlusher(SQLiteDatabase db, PlaceJournal journal,
+                        PlaceDayUpdater dayUpdater, PlaceRTreeUpdater rTreeUpdater) {
+        this.mDb = db;
+        this.mJournal = journal;
+        this.mDayUpdater = dayUpdater;
+        this.mRTreeUpdater = rTreeUpdater;
+    }
+
+    /**
+     * ジャーナルに溜まった位置情報を、全てSQLiteに移す。
+     *
+     * @return 追加した位置情報。_idは追加した行のもの
+     * @throws IOException ジャーナルが読めなかった場合。SQLiteには何も追加しない
+     */
+    synchronized PlaceTrack flush() throws IOException {
+        long flushedSequence = readFlushedSequence();
+
+        // ジャーナルのファイルが失われて作り直された場合、通し番号は1からやり直しになっている
+        if (flushedSequence >= mJournal.getNextSequence()) {
+            flushedSequence = 0;
+        }
+
+        List<PlaceJournal.Entry> entries = mJournal.readAfter(flushedSequence);
+
+        PlaceTrack.Builder inserted = new PlaceTrack.Builder(entries.size());
+        if (!entries.isEmpty()) {
+            long lastSequence = flushedSequence;
+            mDb.beginTransaction();
+            try {
+                for (PlaceJournal.Entry entry : entries) {
+                    ContentValues values = toValues(entry);
+                    long id = mDb.insertOrThrow(PlaceDBHelper.TABLE_E7, null, toE7Values(entry));
+                    mDayUpdater.onInserted(values);
+                    mRTreeUpdater.onInserted(id, values);
+
+                    inserted.add(id, values.getAsDouble(PlaceDBHelper.COLUMN_LATITUDE),
+                            values.getAsDouble(PlaceDBHelper.COLUMN_LONGITUDE), entry.getTime());
+                    lastSequence = entry.getSequence();
+                }
+
+                ContentValues state = new ContentValues();
+                state.put(PlaceDBHelper.COLUMN_FLUSHED_SEQUENCE, lastSequence);
+                mDb.update(PlaceDBHelper.TABLE_JOURNAL_STATE, state, null, null);
+
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            flushedSequence = lastSequence;
+        }
+
+        // 前回、コミットした後に削除できなかったレコードも、ここで削除される
+        mJournal.discardThrough(flushedSequence);
+
+        return inserted.build();
+    }
+
+    private long readFlushedSequence() {
+        return DatabaseUtils.longForQuery(mDb, "SELECT " + PlaceDBHelper.COLUMN_FLUSHED_SEQUENCE
+                + " FROM " + PlaceDBHelper.TABLE_JOURNAL_STATE, null);
+    }
+
+    /**
+     * 集計と空間インデックスの更新に渡す、PLACEのカラムで表した値。
+     */
+    private static ContentValues toValues(PlaceJournal.Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(PlaceDBHelper.COLUMN_LATITUDE, PlaceDBHelper.fromE7(entry.getLatitudeE7()));
+        values.put(PlaceDBHelper.COLUMN_LONGITUDE, PlaceDBHelper.fromE7(entry.getLongitudeE7()));
+        values.put(PlaceDBHelper.COLUMN_TIME, entry.getTime());
+        values.put(PlaceDBHelper.COLUMN_DAY_KEY, entry.getDayKey());
+        putIfKnown(values, PlaceDBHelper.COLUMN_ACCURACY, entry.getAccuracy());
+        putIfKnown(values, PlaceDBHelper.COLUMN_SPEED, entry.getSpeed());
+        putIfKnown(values, PlaceDBHelper.COLUMN_BEARING, entry.getBearing());
+
+        return values;
+    }
+
+    /**
+     * TABLE_E7に書き込む値。ジャーナルのE7の値をそのまま使う。
+     */
+    private static ContentValues toE7Values(PlaceJournal.Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put(PlaceDBHelper.COLUMN_LATITUDE_E7, entry.getLatitudeE7());
+        values.put(PlaceDBHelper.COLUMN_LONGITUDE_E7, entry.getLongitudeE7());
+        values.put(PlaceDBHelper.COLUMN_TIME, entry.getTime());
+        values.put(PlaceDBHelper.COLUMN_DAY_KEY, entry.getDayKey());
+        putIfKnown(values, PlaceDBHelper.COLUMN_ACCURACY, entry.getAccuracy());
+        putIfKnown(values, PlaceDBHelper.COLUMN_SPEED, entry.getSpeed());
+        putIfKnown(values, PlaceDBHelper.COLUMN_BEARING, entry.getBearing());
+
+        return values;
+    }
+
+    /**
+     * 不明(NaN)でない場合だけ値を設定する。不明な値はNULLのまま残す。
+     */
+    private static void putIfKnown(ContentValues values, String column, float value) {
+        if (!Float.isNaN(value)) {
+            values.put(column, value);
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * 条件に一致する位置情報を、取得時刻と_idの順に1ページずつ返すイテレータ。
+ * <p>
+ * ページはPlaceProvider#PAGE_CONTENT_URIから必要になった時に1つずつ読むので、
+ * 件数がどれだけ多くても、保持するのは読み込み中の1ページだけになる。
+ * 1ページは1回の問い合わせで読むため、CursorWindowの詰め直しも起こらない。
+ * <p>
+ * セグメントファイルに移した位置情報のイテレータを渡した場合は、SQLiteのページと取得時刻と_idの順に合わせて、
+ * 同じ件数のページに詰め直して返す。
+ */
+public class PlacePageIterator implements Iterator<PlaceTrack> {
+
+    private final ContentResolver mResolver;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+
+    /**
+     * セグメントファイルに移した位置情報。合わせない場合はnull。
+     */
+    private final Iterator<PlaceTrack> mArchived;
+
+    /**
+     * 次に読むページの条件。
+     */
+    private PlacePageQuery mQuery;
+
+    /**
+     * 読み込み済みで、まだ返していないページ。
+     */
+    private PlaceTrack mNext;
+
+    /**
+     * 最後のページまで読んだかどうか。
+     */
+    private boolean mFinished;
+
+    /**
+     * 詰め直している途中の、SQLiteのページとセグメントファイルのブロック、それぞれの次に返す位置。
+     */
+    private PlaceTrack mStoredPage;
+    private int mStoredIndex;
+    private PlaceTrack mArchivedBlock;
+    private int mArchivedIndex;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param resolver
+     * @param selection
+     * @param selectionArgs
+     * @param pageSize 1ページの件数
+     */
+    PlacePageIterator(ContentResolver resolver, String selection, String[] selectionArgs, int pageSize) {
+        this(resolver, selection, selectionArgs, pageSize, null);
+    }
+
+    /**
+     * コンストラクタ。セグメントファイルに移した位置情報も合わせて返す。
+     * selectionは、archivedが返す位置情報と同じ範囲を選ぶものにする。
+     *
+     * @param resolver
+     * @param selection
+     * @param selectionArgs
+     * @param pageSize 1ページの件数
+     * @param archived セグメントファイルに移した位置情報を、取得時刻と_idの順に返すイテレータ。合わせない場合はnull
+     */
+    PlacePageIterator(ContentResolver resolver, String selection, String[] selectionArgs, int pageSize,
+                      Iterator<PlaceTrack> archived) {
+        this.mResolver = resolver;
+        this.mSelection = selection;
+        this.mSelectionArgs = selectionArgs;
+        this.mQuery = new PlacePageQuery(pageSize);
+        this.mArchived = archived;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (mNext == null) {
+            mNext = mArchived == null ? readPage() : readMergedPage();
+        }
+        return mNext != null;
+    }
+
+    /**
+     * 次のページを返す。ページの中は取得時刻順に並んでいる。
+     *
+     * @return 空でない位置情報の列
+     */
+    @Override
+    public PlaceTrack next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        PlaceTrack page = mNext;
+        mNext = null;
+        return page;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * 次のページを読み込む。
+     *
+     * @return 残りがない場合はnull
+     */
+    private PlaceTrack readPage() {
+        if (mFinished) {
+            return null;
+        }
+
+        Cursor cursor = mResolver.query(mQuery.toUri(),
+                PlaceRepository.PLACE_PROJECTION, mSelection, mSelectionArgs, null);
+
+        if (cursor == null) {
+            mFinished = true;
+            return null;
+        }
+
+        PlaceTrack page;
+        try {
+            page = PlaceTrack.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        // ページが埋まらなければ、これが最後のページ
+        if (page.size() < mQuery.getPageSize()) {
+            mFinished = true;
+        }
+        if (page.isEmpty()) {
+            return null;
+        }
+
+        int last = page.size() - 1;
+        mQuery = mQuery.next(page.getTime(last), page.getId(last));
+        return page;
+    }
+
+    /**
+     * SQLiteのページとセグメントファイルのブロックを、取得時刻と_idの順に合わせて次のページを作る。
+     *
+     * @return 残りがない場合はnull
+     */
+    private PlaceTrack readMergedPage() {
+        int pageSize = mQuery.getPageSize();
+        PlaceTrack.Builder builder = new PlaceTrack.Builder(pageSize);
+        int count = 0;
+
+        while (count < pageSize) {
+            if (mStoredPage == null || mStoredIndex >= mStoredPage.size()) {
+                mStoredPage = readPage();
+                mStoredIndex = 0;
+            }
+            if (mArchivedBlock == null || mArchivedIndex >= mArchivedBlock.size()) {
+                mArchivedBlock = mArchived.hasNext() ? mArchived.next() : null;
+                mArchivedIndex = 0;
+            }
+
+            if (mStoredPage == null && mArchivedBlock == null) {
+                break;
+            }
+
+            if (mArchivedBlock == null || (mStoredPage != null && !isAfter(mStoredPage, mStoredIndex,
+                    mArchivedBlock, mArchivedIndex))) {
+                add(builder, mStoredPage, mStoredIndex++);
+            } else {
+                add(builder, mArchivedBlock, mArchivedIndex++);
+            }
+            count++;
+        }
+
+        return count == 0 ? null : builder.build();
+    }
+
+    /**
+     * firstのi番目が、secondのj番目より(取得時刻, _id)の順で後ろにあるかどうか。
+     */
+    private static boolean isAfter(PlaceTrack first, int i, PlaceTrack second, int j) {
+        if (first.getTime(i) != second.getTime(j)) {
+            return first.getTime(i) > second.getTime(j);
+        }
+        return first.getId(i) > second.getId(j);
+    }
+
+    private static void add(PlaceTrack.Builder builder, PlaceTrack track, int index) {
+        builder.add(track.getId(index), track.getLatitude(index), track.getLongitude(index), track.getTime(index));
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.CancellationSignal;
+
+/**
+ * 位置情報を、取得時刻と_idの順に1ページずつ読むための条件。
+ * <p>
+ * PlaceProvider#PAGE_CONTENT_URIのクエリパラメータとして渡す。
+ * OFFSETで読み飛ばすのではなく、前のページの最後の行(取得時刻, _id)より後の行から読み始める。
+ * インデックス上の位置から直接読み始めるので、何ページ目でも1ページを読む時間は変わらない。
+ */
+public class PlacePageQuery {
+
+    public static final String PARAM_AFTER_TIME = "after_time";
+    public static final String PARAM_AFTER_ID = "after_id";
+    public static final String PARAM_PAGE_SIZE = "page_size";
+
+    /**
+     * ページの大きさを指定しない場合の件数。
+     * 4カラムの行であれば、1ページがCursorWindow(2MB)に十分収まる。
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    /**
+     * ページの大きさの上限。
+     */
+    public static final int MAX_PAGE_SIZE = 10000;
+
+    /**
+     * ページの中の並び順。
+     */
+    static final String SORT_ORDER = PlaceDBHelper.COLUMN_TIME + ", " + PlaceDBHelper.COLUMN_ID;
+
+    /**
+     * 前のページの最後の行があるかどうか。ない場合は最初のページ。
+     */
+    private final boolean mHasAfterKey;
+    private final long mAfterTime;
+    private final long mAfterId;
+    private final int mPageSize;
+
+    /**
+     * 最初のページを読む条件を作る。
+     *
+     * @param pageSize 1ページの件数
+     */
+    public PlacePageQuery(int pageSize) {
+        this(false, 0, 0, pageSize);
+    }
+
+    /**
+     * 指定した行より後のページを読む条件を作る。
+     *
+     * @param afterTime 前のページの最後の行の取得時刻
+     * @param afterId 前のページの最後の行の_id
+     * @param pageSize 1ページの件数
+     */
+    public PlacePageQuery(long afterTime, long afterId, int pageSize) {
+        this(true, afterTime, afterId, pageSize);
+    }
+
+    private PlacePageQuery(boolean hasAfterKey, long afterTime, long afterId, int pageSize) {
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("invalid page size: " + pageSize);
+        }
+
+        this.mHasAfterKey = hasAfterKey;
+        this.mAfterTime = afterTime;
+        this.mAfterId = afterId;
+        this.mPageSize = pageSize;
+    }
+
+    /**
+     * 指定した行の次のページを読む条件を返す。
+     *
+     * @param lastTime このページの最後の行の取得時刻
+     * @param lastId このページの最後の行の_id
+     * @return
+     */
+    public PlacePageQuery next(long lastTime, long lastId) {
+        return new PlacePageQuery(lastTime, lastId, mPageSize);
+    }
+
+    public int getPageSize() {
+        return mPageSize;
+    }
+
+    /**
+     * この条件で検索するためのURIを返す。
+     *
+     * @return
+     */
+    public Uri toUri() {
+        Uri.Builder builder = PlaceProvider.PAGE_CONTENT_URI.buildUpon()
+                .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(mPageSize));
+
+        if (mHasAfterKey) {
+            builder.appendQueryParameter(PARAM_AFTER_TIME, String.valueOf(mAfterTime))
+                    .appendQueryParameter(PARAM_AFTER_ID, String.valueOf(mAfterId));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * URIのクエリパラメータから、検索条件を作る。
+     *
+     * @param uri
+     * @return
+     * @throws IllegalArgumentException パラメータの値が不正な場合
+     */
+    static PlacePageQuery fromUri(Uri uri) {
+        try {
+            String afterTime = uri.getQueryParameter(PARAM_AFTER_TIME);
+            String afterId = uri.getQueryParameter(PARAM_AFTER_ID);
+            String pageSize = uri.getQueryParameter(PARAM_PAGE_SIZE);
+
+            int size = pageSize == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(pageSize);
+
+            // 取得時刻と_idは、両方揃っている場合だけ有効にする
+            if (afterTime == null && afterId == null) {
+                return new PlacePageQuery(size);
+            } else if (afterTime == null || afterId == null) {
+                throw new IllegalArgumentException("after_time and after_id must be specified together: " + uri);
+            }
+
+            return new PlacePageQuery(Long.parseLong(afterTime), Long.parseLong(afterId), size);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid uri: " + uri, e);
+        }
+    }
+
+    /**
+     * 1ページ分を検索する。
+     * 並び順は常に(取得時刻, _id)の昇順で、sortOrderは指定できない。
+     * 次のページを読むために、projectionには取得時刻と_idを含めること。
+     *
+     * @param db
+     * @param projection
+     * @param selection 追加の条件
+     * @param selectionArgs
+     * @param cancellationSignal 検索を中断するためのシグナル。不要な場合はnull
+     * @return
+     */
+    Cursor query(SQLiteDatabase db, String[] projection, String selection, String[] selectionArgs,
+                 CancellationSignal cancellationSignal) {
+        StringBuilder where = new StringBuilder();
+        if (selection != null && !selection.isEmpty()) {
+            where.append('(').append(selection).append(')');
+        }
+
+        if (mHasAfterKey) {
+            if (where.length() > 0) {
+                where.append(" AND ");
+            }
+
+            // (time, _id) > (afterTime, afterId)を、取得時刻の範囲検索になる形で書く
+            where.append(PlaceDBHelper.COLUMN_TIME).append(" >= ").append(mAfterTime)
+                    .append(" AND (").append(PlaceDBHelper.COLUMN_TIME).append(" > ").append(mAfterTime)
+                    .append(" OR ").append(PlaceDBHelper.COLUMN_ID).append(" > ").append(mAfterId).append(')');
+        }
+
+        return db.query(false, PlaceDBHelper.TABLE_NAME, projection,
+                where.length() > 0 ? where.toString() : null, selectionArgs,
+                null, null, SORT_ORDER, String.valueOf(mPageSize), cancellationSignal);
+    }
+}
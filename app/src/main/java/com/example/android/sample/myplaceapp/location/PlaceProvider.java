@@ -1,25 +1,49 @@
 package com.example.android.sample.myplaceapp.location;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Binder;
+import android.os.Bundle;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.example.android.sample.myplaceapp.IdleWalCheckpointer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
 /**
  * 位置情報のContentProvider
  */
 public class PlaceProvider extends ContentProvider {
 
+    private static final String TAG = "PlaceProvider";
+
     // <authority>
     private static final String AUTHORITY    = "com.example.android.sample.myplaceapp.place";
     // <path>
     private static final String CONTENT_PATH = "places";
+    // 日ごとの集計の<path>
+    private static final String DAY_CONTENT_PATH = CONTENT_PATH + "/days";
+    // 矩形による検索の<path>
+    private static final String BOUNDS_CONTENT_PATH = CONTENT_PATH + "/bounds";
+    // ページ単位の読み込みの<path>
+    private static final String PAGE_CONTENT_PATH = CONTENT_PATH + "/page";
+    // アーカイブ済みのブロックの索引の<path>
+    private static final String ARCHIVE_CONTENT_PATH = CONTENT_PATH + "/archive";
 
     // MIME TYPEのプレフィックス。
     // 複数要素にはvnd.android.cursor.dirを、
@@ -29,27 +53,90 @@ public class PlaceProvider extends ContentProvider {
     // 独自のMIME TYPEを設定する。
     public static final String MIME_ITEM = "vnd.myplaceapp.place";
     public static final String MIME_TYPE_MULTIPLE = MIME_DIR_PREFIX + MIME_ITEM;
+    public static final String MIME_DAY_ITEM = "vnd.myplaceapp.place_day";
+    public static final String MIME_DAY_TYPE_MULTIPLE = MIME_DIR_PREFIX + MIME_DAY_ITEM;
+    public static final String MIME_ARCHIVE_ITEM = "vnd.myplaceapp.place_archive";
+    public static final String MIME_ARCHIVE_TYPE_MULTIPLE = MIME_DIR_PREFIX + MIME_ARCHIVE_ITEM;
 
     // このContentProviderがハンドルするURI
+    // 更新・削除は、セグメントファイルに移した日にも及ぶ。対象を含む日をSQLiteに戻してから変更する
     public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + CONTENT_PATH);
+    // 日ごとの集計のURI。読み取り専用
+    public static final Uri DAY_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + DAY_CONTENT_PATH);
+    // 緯度・経度の矩形と取得時刻の範囲で、位置情報を検索するURI。読み取り専用
+    // 条件はPlaceBoundsQuery#toUri()でクエリパラメータとして付ける
+    public static final Uri BOUNDS_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + BOUNDS_CONTENT_PATH);
+    // 位置情報を取得時刻と_idの順に、1ページずつ読むURI。読み取り専用
+    // 前のページの最後の行とページの大きさは、PlacePageQuery#toUri()でクエリパラメータとして付ける
+    public static final Uri PAGE_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + PAGE_CONTENT_PATH);
+    // セグメントファイルに移した位置情報の、ブロックの索引のURI。読み取り専用
+    public static final Uri ARCHIVE_CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/" + ARCHIVE_CONTENT_PATH);
+
+    // call()で、古い日の位置情報をセグメントファイルに移すメソッド。引数はこの日より前を移す日のキー
+    public static final String METHOD_ARCHIVE = "archive";
+    // METHOD_ARCHIVEの結果の、移した日の数
+    public static final String EXTRA_ARCHIVED_DAYS = "archived_days";
+    // call()で、ジャーナルに溜まった位置情報をSQLiteに移すメソッド。引数は使わない
+    public static final String METHOD_FLUSH_JOURNAL = "flush_journal";
+    // METHOD_FLUSH_JOURNALの結果の、追加した位置情報の件数
+    public static final String EXTRA_FLUSHED_PLACES = "flushed_places";
 
     // 位置情報のリストのリクエスト
     private static final int URI_MATCH_PLACE_LIST = 1;
+    // 日ごとの集計のリストのリクエスト
+    private static final int URI_MATCH_DAY_LIST = 2;
+    // 矩形による位置情報の検索のリクエスト
+    private static final int URI_MATCH_BOUNDS = 3;
+    // ページ単位の位置情報の読み込みのリクエスト
+    private static final int URI_MATCH_PAGE = 4;
+    // アーカイブ済みのブロックの索引のリクエスト
+    private static final int URI_MATCH_ARCHIVE = 5;
 
     // URIとの一致をチェックするUriMatcher
     private static final UriMatcher sMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     static {
         sMatcher.addURI(AUTHORITY, CONTENT_PATH, URI_MATCH_PLACE_LIST);
+        sMatcher.addURI(AUTHORITY, DAY_CONTENT_PATH, URI_MATCH_DAY_LIST);
+        sMatcher.addURI(AUTHORITY, BOUNDS_CONTENT_PATH, URI_MATCH_BOUNDS);
+        sMatcher.addURI(AUTHORITY, PAGE_CONTENT_PATH, URI_MATCH_PAGE);
+        sMatcher.addURI(AUTHORITY, ARCHIVE_CONTENT_PATH, URI_MATCH_ARCHIVE);
     }
 
     // 位置情報用のデータベース
     private SQLiteDatabase mPlaceDB;
 
+    // 書き込みが落ち着いた時にWALのチェックポイントを行う
+    private IdleWalCheckpointer mCheckpointer;
+
+    // 日ごとの集計を更新する
+    private PlaceDayUpdater mDayUpdater;
+
+    // 空間インデックスを更新する
+    private PlaceRTreeUpdater mRTreeUpdater;
+
+    // 古い日の位置情報を移したセグメントファイルと、移す処理
+    private PlaceArchive mArchive;
+    private PlaceArchiver mArchiver;
+
+    // 記録サービスが追記したジャーナルの位置情報を、SQLiteに移す
+    private PlaceJournal mJournal;
+    private PlaceJournalFlusher mJournalFlusher;
+
+    // applyBatch()の実行中かどうか。実行中は個々の操作で変更通知を行わず、最後にまとめて通知する
+    private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
+
     @Override
     public boolean onCreate() {
         // SQLiteDatabaseオブジェクトを取得する
         PlaceDBHelper placeHelper = new PlaceDBHelper(getContext());
         mPlaceDB = placeHelper.getWritableDatabase();
+        mCheckpointer = new IdleWalCheckpointer(placeHelper);
+        mDayUpdater = new PlaceDayUpdater(mPlaceDB);
+        mRTreeUpdater = new PlaceRTreeUpdater(mPlaceDB);
+        mArchive = PlaceArchive.getInstance(getContext());
+        mArchiver = new PlaceArchiver(mPlaceDB, mArchive, mRTreeUpdater);
+        mJournal = PlaceJournal.getInstance(getContext());
+        mJournalFlusher = new PlaceJournalFlusher(mPlaceDB, mJournal, mDayUpdater, mRTreeUpdater);
 
         return true;
     }
@@ -89,6 +176,13 @@ public class PlaceProvider extends ContentProvider {
     @Override
     public Cursor query(@NonNull Uri uri, String[] projection, String selection,
                         String[] selectionArgs, String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    @Override
+    public Cursor query(@NonNull Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder,
+                        CancellationSignal cancellationSignal) {
 
         // 呼び出し元の署名をチェックする
         if (!checkSignaturePermission()) {
@@ -98,17 +192,46 @@ public class PlaceProvider extends ContentProvider {
 
         // URIが正しいことをチェックしておく
         Cursor cursor;
-        if (sMatcher.match(uri) == URI_MATCH_PLACE_LIST) {
-            // limitやdistinctを有効にする
-            String limit = uri.getQueryParameter("limit");
-            boolean distinct = "true".equalsIgnoreCase(
-                    uri.getQueryParameter("distinct"));
+        // limitやdistinctを有効にする
+        String limit = uri.getQueryParameter("limit");
+        boolean distinct = "true".equalsIgnoreCase(
+                uri.getQueryParameter("distinct"));
 
-            cursor = mPlaceDB.query(distinct, PlaceDBHelper.TABLE_NAME,
-                    projection, selection, selectionArgs, null, null, sortOrder, limit);
+        int match = sMatcher.match(uri);
 
-        } else {
-            throw new IllegalArgumentException("invalid uri: " + uri);
+        // 画面などから読み込む前に、ジャーナルに溜まっている位置情報をSQLiteに移しておく
+        if (match != URI_MATCH_ARCHIVE) {
+            flushJournalIfNeeded();
+        }
+
+        switch (match) {
+            case URI_MATCH_PLACE_LIST:
+                cursor = mPlaceDB.query(distinct, PlaceDBHelper.TABLE_NAME,
+                        projection, selection, selectionArgs, null, null, sortOrder, limit,
+                        cancellationSignal);
+                break;
+            case URI_MATCH_DAY_LIST:
+                cursor = mPlaceDB.query(distinct, PlaceDBHelper.TABLE_DAY,
+                        projection, selection, selectionArgs, null, null, sortOrder, limit,
+                        cancellationSignal);
+                break;
+            case URI_MATCH_BOUNDS:
+                // 古い日を含む期間の表示でも欠けないように、セグメントファイルに移した分も合わせる
+                cursor = PlaceBoundsQuery.fromUri(uri).queryWithArchive(mPlaceDB, mArchive, mRTreeUpdater.isEnabled(),
+                        projection, selection, selectionArgs, sortOrder, limit, cancellationSignal);
+                break;
+            case URI_MATCH_PAGE:
+                // 並び順とページの大きさはPlacePageQueryが決めるので、sortOrderとlimitは使わない
+                cursor = PlacePageQuery.fromUri(uri).query(mPlaceDB,
+                        projection, selection, selectionArgs, cancellationSignal);
+                break;
+            case URI_MATCH_ARCHIVE:
+                cursor = mPlaceDB.query(distinct, PlaceDBHelper.TABLE_ARCHIVE,
+                        projection, selection, selectionArgs, null, null, sortOrder, limit,
+                        cancellationSignal);
+                break;
+            default:
+                throw new IllegalArgumentException("invalid uri: " + uri);
         }
 
         // 指定したURIへの通知イベントを受信するようにする
@@ -123,10 +246,17 @@ public class PlaceProvider extends ContentProvider {
     @Override
     public String getType(@NonNull Uri uri) {
 
-        if (sMatcher.match(uri) == URI_MATCH_PLACE_LIST) {
-            return MIME_TYPE_MULTIPLE;
-        } else {
-            throw new IllegalArgumentException("invalid uri: " + uri);
+        switch (sMatcher.match(uri)) {
+            case URI_MATCH_PLACE_LIST:
+            case URI_MATCH_BOUNDS:
+            case URI_MATCH_PAGE:
+                return MIME_TYPE_MULTIPLE;
+            case URI_MATCH_DAY_LIST:
+                return MIME_DAY_TYPE_MULTIPLE;
+            case URI_MATCH_ARCHIVE:
+                return MIME_ARCHIVE_TYPE_MULTIPLE;
+            default:
+                throw new IllegalArgumentException("invalid uri: " + uri);
         }
 
     }
@@ -145,21 +275,32 @@ public class PlaceProvider extends ContentProvider {
             // 入力値がおかしい場合にはIllegalArgumentExceptionをスローする
             throw new IllegalArgumentException("invalid values");
         }
+        values = withDayKey(values);
 
         int match = sMatcher.match(uri);
 
         // IDを指定してinsertはおかしいので、IDなし以外は例外をスローする
         if (match == URI_MATCH_PLACE_LIST) {
-            long id = mPlaceDB.insertOrThrow(PlaceDBHelper.TABLE_NAME, null, values);
+            // 位置情報と、日ごとの集計・空間インデックスを同時に更新する
+            long id;
+            mPlaceDB.beginTransaction();
+            try {
+                id = mPlaceDB.insertOrThrow(PlaceDBHelper.TABLE_E7, null, PlaceDBHelper.toE7Values(values));
+                mDayUpdater.onInserted(values);
+                mRTreeUpdater.onInserted(id, values);
+                mPlaceDB.setTransactionSuccessful();
+            } finally {
+                mPlaceDB.endTransaction();
+            }
 
             if (id >= 0) {
+                // 直近の位置情報のキャッシュを更新する
+                offerLastPlace(id, values);
+
                 // 渡されたURIに、IDを付けて返す
                 Uri newUri = Uri.withAppendedPath(CONTENT_URI, String.valueOf(id));
                 // 変更を通知する
-                Context context = getContext();
-                if (context != null) {
-                    context.getContentResolver().notifyChange(newUri, null);
-                }
+                notifyChange(newUri);
 
                 return newUri;
             } else {
@@ -171,6 +312,95 @@ public class PlaceProvider extends ContentProvider {
         throw new IllegalArgumentException("invalid uri: " + uri);
     }
 
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] valuesArray) {
+
+        // 呼び出し元の署名をチェックする
+        if (!checkSignaturePermission()) {
+            // 署名が異なる場合にはSecurityExceptionをスローする
+            throw new SecurityException();
+        }
+
+        if (sMatcher.match(uri) != URI_MATCH_PLACE_LIST) {
+            throw new IllegalArgumentException("invalid uri: " + uri);
+        }
+
+        // 入力値の検証は、書き込みを始める前に全件について行う
+        ContentValues[] validValues = new ContentValues[valuesArray.length];
+        for (int i = 0; i < valuesArray.length; i++) {
+            if (!validateInput(valuesArray[i])) {
+                throw new IllegalArgumentException("invalid values");
+            }
+            validValues[i] = withDayKey(valuesArray[i]);
+        }
+
+        // 全件を1つのトランザクションで書き込む
+        int inserted = 0;
+        long latestId = -1L;
+        ContentValues latestValues = null;
+        mPlaceDB.beginTransaction();
+        try {
+            for (ContentValues values : validValues) {
+                long id = mPlaceDB.insertOrThrow(PlaceDBHelper.TABLE_E7, null, PlaceDBHelper.toE7Values(values));
+                mDayUpdater.onInserted(values);
+                mRTreeUpdater.onInserted(id, values);
+                inserted++;
+
+                // 最も新しい位置情報を覚えておく
+                if (latestValues == null || latestValues.getAsLong(PlaceDBHelper.COLUMN_TIME)
+                        <= values.getAsLong(PlaceDBHelper.COLUMN_TIME)) {
+                    latestId = id;
+                    latestValues = values;
+                }
+            }
+            mPlaceDB.setTransactionSuccessful();
+        } finally {
+            mPlaceDB.endTransaction();
+        }
+
+        if (inserted > 0) {
+            // 直近の位置情報のキャッシュは、コミット後に更新する
+            offerLastPlace(latestId, latestValues);
+
+            // 変更の通知は1回にまとめる
+            notifyChange(CONTENT_URI);
+        }
+
+        return inserted;
+    }
+
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+
+        // 全ての操作を1つのトランザクションで実行し、途中で失敗した場合は全てロールバックする
+        ContentProviderResult[] results;
+        boolean succeeded = false;
+        mApplyingBatch.set(Boolean.TRUE);
+        mPlaceDB.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            mPlaceDB.setTransactionSuccessful();
+            succeeded = true;
+        } finally {
+            mPlaceDB.endTransaction();
+            mApplyingBatch.remove();
+
+            // ロールバックした場合、途中で更新したキャッシュはDBと一致しないので破棄する
+            if (!succeeded) {
+                clearLastPlace();
+            }
+        }
+
+        // 変更の通知は1回にまとめる
+        if (!operations.isEmpty()) {
+            notifyChange(CONTENT_URI);
+        }
+
+        return results;
+    }
+
     @Override
     public int delete(@NonNull Uri uri, String selection, String[] selectionArgs) {
 
@@ -179,15 +409,33 @@ public class PlaceProvider extends ContentProvider {
             throw new SecurityException();
 
         if (sMatcher.match(uri) == URI_MATCH_PLACE_LIST) {
-            int affected = mPlaceDB.delete(PlaceDBHelper.TABLE_NAME,
-                    selection, selectionArgs);
+            // ジャーナルに溜まっている位置情報も、削除の対象にする
+            flushJournalIfNeeded();
+
+            // 位置情報と、削除によって変化する日の集計・空間インデックスを同時に更新する
+            int affected;
+            mPlaceDB.beginTransaction();
+            try {
+                restoreArchived(selection, selectionArgs);
+                Set<Integer> dayKeys = mDayUpdater.collectDays(selection, selectionArgs);
+                List<Long> ids = mRTreeUpdater.collectIds(selection, selectionArgs);
+                affected = mPlaceDB.delete(PlaceDBHelper.TABLE_E7,
+                        toE7Selection(selection), selectionArgs);
+                mDayUpdater.rebuild(dayKeys);
+                mRTreeUpdater.refresh(ids);
+                mPlaceDB.setTransactionSuccessful();
+            } finally {
+                mPlaceDB.endTransaction();
+            }
 
-            // 変更を通知する
-            Context context = getContext();
-            if (context != null) {
-                context.getContentResolver().notifyChange(uri, null);
+            // 直近の位置情報が削除された可能性があるので、キャッシュを破棄する
+            if (affected > 0) {
+                clearLastPlace();
             }
 
+            // 変更を通知する
+            notifyChange(uri);
+
             return affected;
         }
 
@@ -202,21 +450,204 @@ public class PlaceProvider extends ContentProvider {
             throw new SecurityException();
 
         if (sMatcher.match(uri) == URI_MATCH_PLACE_LIST) {
-            int affected = mPlaceDB.update(PlaceDBHelper.TABLE_NAME,
-                    values, selection, selectionArgs);
+            values = withDayKey(values);
+
+            // ジャーナルに溜まっている位置情報も、更新の対象にする
+            flushJournalIfNeeded();
+
+            // 位置情報と、更新によって変化する日の集計・空間インデックスを同時に更新する
+            int affected;
+            mPlaceDB.beginTransaction();
+            try {
+                restoreArchived(selection, selectionArgs);
+                Set<Integer> dayKeys = mDayUpdater.collectDays(selection, selectionArgs);
+                List<Long> ids = PlaceRTreeUpdater.affects(values)
+                        ? mRTreeUpdater.collectIds(selection, selectionArgs)
+                        : Collections.<Long>emptyList();
+                affected = mPlaceDB.update(PlaceDBHelper.TABLE_E7,
+                        PlaceDBHelper.toE7Values(values), toE7Selection(selection), selectionArgs);
+
+                // 取得時刻が変わった場合は、移動先の日も集計し直す
+                Integer dayKey = values.getAsInteger(PlaceDBHelper.COLUMN_DAY_KEY);
+                if (dayKey != null) {
+                    dayKeys.add(dayKey);
+                }
 
-            // 変更を通知する
-            Context context = getContext();
-            if (context != null) {
-                context.getContentResolver().notifyChange(uri, null);
+                mDayUpdater.rebuild(dayKeys);
+                mRTreeUpdater.refresh(ids);
+                mPlaceDB.setTransactionSuccessful();
+            } finally {
+                mPlaceDB.endTransaction();
             }
 
+            // 直近の位置情報が変更された可能性があるので、キャッシュを破棄する
+            if (affected > 0) {
+                clearLastPlace();
+            }
+
+            // 変更を通知する
+            notifyChange(uri);
+
             return affected;
         }
 
         throw new IllegalArgumentException("invalid uri: " + uri);
     }
 
+    @Override
+    public Bundle call(@NonNull String method, String arg, Bundle extras) {
+
+        // 呼び出し元の署名をチェックする
+        if (!checkSignaturePermission()) {
+            throw new SecurityException();
+        }
+
+        if (METHOD_ARCHIVE.equals(method)) {
+            int beforeDayKey;
+            try {
+                beforeDayKey = Integer.parseInt(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("invalid day key: " + arg, e);
+            }
+
+            // 読み込み側から見える内容は変わらないので、変更は通知しない
+            int archived;
+            try {
+                archived = mArchiver.archiveBefore(beforeDayKey);
+            } catch (IOException e) {
+                Log.e(TAG, "failed to archive", e);
+                archived = 0;
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_ARCHIVED_DAYS, archived);
+            return result;
+        }
+
+        if (METHOD_FLUSH_JOURNAL.equals(method)) {
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_FLUSHED_PLACES, flushJournal());
+            return result;
+        }
+
+        return super.call(method, arg, extras);
+    }
+
+    // 条件に一致する位置情報をセグメントファイルに移していれば、その日をSQLiteに戻す
+    private void restoreArchived(String selection, String[] selectionArgs) {
+        try {
+            mArchiver.restoreMatching(selection, selectionArgs);
+        } catch (IOException e) {
+            // 移した日に一致するかどうか分からないまま変更すると、変更が一部の日にしか及ばない
+            throw new IllegalStateException("failed to read archived places", e);
+        }
+    }
+
+    // ジャーナルに位置情報が溜まっていれば、SQLiteに移す
+    private void flushJournalIfNeeded() {
+        boolean hasRecords;
+        try {
+            hasRecords = mJournal.hasRecords();
+        } catch (IOException e) {
+            Log.e(TAG, "failed to read journal", e);
+            return;
+        }
+
+        if (hasRecords) {
+            flushJournal();
+        }
+    }
+
+    // ジャーナルの位置情報をSQLiteに移し、追加した件数を返す。読めない場合はジャーナルに残したままにする
+    private int flushJournal() {
+        PlaceTrack inserted;
+        try {
+            inserted = mJournalFlusher.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "failed to flush journal", e);
+            return 0;
+        }
+
+        if (inserted.isEmpty()) {
+            return 0;
+        }
+
+        // 直近の位置情報のキャッシュは、_idが決まったのでコミット後に更新する
+        int latest = 0;
+        for (int i = 1; i < inserted.size(); i++) {
+            if (inserted.getTime(i) >= inserted.getTime(latest)) {
+                latest = i;
+            }
+        }
+        Context context = getContext();
+        if (context != null) {
+            LastPlaceCache.offer(context, inserted.getId(latest),
+                    inserted.getLatitude(latest), inserted.getLongitude(latest), inserted.getTime(latest));
+        }
+
+        // 変更の通知は1回にまとめる
+        notifyChange(CONTENT_URI);
+
+        return inserted.size();
+    }
+
+    // 直近の位置情報のキャッシュに、追加した位置情報を反映する
+    private void offerLastPlace(long id, ContentValues values) {
+        Context context = getContext();
+        if (context != null) {
+            LastPlaceCache.offer(context, id,
+                    values.getAsDouble(PlaceDBHelper.COLUMN_LATITUDE),
+                    values.getAsDouble(PlaceDBHelper.COLUMN_LONGITUDE),
+                    values.getAsLong(PlaceDBHelper.COLUMN_TIME));
+        }
+    }
+
+    // 直近の位置情報のキャッシュを破棄する
+    private void clearLastPlace() {
+        Context context = getContext();
+        if (context != null) {
+            LastPlaceCache.clear(context);
+        }
+    }
+
+    // 変更を通知する。applyBatch()の実行中は、最後にまとめて通知するので何もしない
+    private void notifyChange(Uri uri) {
+        if (mApplyingBatch.get() != null) {
+            return;
+        }
+
+        // 書き込みが続かなければ、チェックポイントを行う
+        mCheckpointer.onWrite();
+
+        Context context = getContext();
+        if (context != null) {
+            context.getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    // 位置情報のビューのカラムで書かれた条件を、書き込み先のテーブルに対する条件に変換する
+    private static String toE7Selection(String selection) {
+        if (selection == null || selection.isEmpty()) {
+            return null;
+        }
+
+        return PlaceDBHelper.COLUMN_ID + " IN (SELECT " + PlaceDBHelper.COLUMN_ID
+                + " FROM " + PlaceDBHelper.TABLE_NAME + " WHERE " + selection + ")";
+    }
+
+    // 日のキーが指定されていない場合、取得時刻から求めて補う
+    private static ContentValues withDayKey(ContentValues values) {
+        Long time = values.getAsLong(PlaceDBHelper.COLUMN_TIME);
+        if (time == null || values.containsKey(PlaceDBHelper.COLUMN_DAY_KEY)) {
+            return values;
+        }
+
+        // 呼び出し元のContentValuesは変更しない
+        ContentValues newValues = new ContentValues(values);
+        newValues.put(PlaceDBHelper.COLUMN_DAY_KEY, DayKey.of(time));
+        return newValues;
+    }
+
     private boolean validateInput(ContentValues values) {
         // 必須項目を満たしていることを確認する
         return values.getAsDouble(PlaceDBHelper.COLUMN_LATITUDE) != null
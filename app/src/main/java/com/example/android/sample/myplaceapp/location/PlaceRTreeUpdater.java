@@ -0,0 +1,162 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 空間インデックス(R*Tree)を、位置情報の変更に合わせて更新するクラス。
+ * 全てのメソッドは、位置情報を変更するトランザクションの中で呼び出す。
+ * R*Treeを使えない端末では、何もしない。
+ */
+class PlaceRTreeUpdater {
+
+    /**
+     * 1件の位置情報を登録するSQL。更新の場合は置き換える。
+     */
+    private static final String SQL_INSERT = "INSERT OR REPLACE INTO " + PlaceDBHelper.TABLE_RTREE
+            + " VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * 指定した_idの位置情報を、PLACEから登録し直すSQL。
+     */
+    private static final String SQL_REFRESH = "INSERT OR REPLACE INTO " + PlaceDBHelper.TABLE_RTREE + " "
+            + "SELECT " + PlaceDBHelper.COLUMN_ID + ", "
+            + PlaceDBHelper.COLUMN_LATITUDE + ", " + PlaceDBHelper.COLUMN_LATITUDE + ", "
+            + PlaceDBHelper.COLUMN_LONGITUDE + ", " + PlaceDBHelper.COLUMN_LONGITUDE + ", "
+            + PlaceDBHelper.COLUMN_TIME + ", " + PlaceDBHelper.COLUMN_TIME + " "
+            + "FROM " + PlaceDBHelper.TABLE_NAME + " WHERE " + PlaceDBHelper.COLUMN_ID + " = ?";
+
+    /**
+     * 空間インデックスから、指定した_idを削除するSQL。
+     */
+    private static final String SQL_DELETE = "DELETE FROM " + PlaceDBHelper.TABLE_RTREE
+            + " WHERE " + PlaceDBHelper.COLUMN_RTREE_ID + " = ?";
+
+    private final SQLiteDatabase mDb;
+
+    /**
+     * R*Treeを使っているかどうか。
+     */
+    private final boolean mEnabled;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param db
+     */
+    PlaceRTreeUpdater(SQLiteDatabase db) {
+        this.mDb = db;
+        this.mEnabled = PlaceDBHelper.hasRTree(db);
+    }
+
+    /**
+     * R*Treeを使っているかどうかを返す。
+     *
+     * @return
+     */
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * 位置情報が1件追加されたことを、空間インデックスに反映する。
+     *
+     * @param id 追加した行の_id
+     * @param values 追加した位置情報
+     */
+    void onInserted(long id, ContentValues values) {
+        if (!mEnabled) {
+            return;
+        }
+
+        double latitude = values.getAsDouble(PlaceDBHelper.COLUMN_LATITUDE);
+        double longitude = values.getAsDouble(PlaceDBHelper.COLUMN_LONGITUDE);
+        long time = values.getAsLong(PlaceDBHelper.COLUMN_TIME);
+
+        SQLiteStatement insert = mDb.compileStatement(SQL_INSERT);
+        try {
+            insert.bindLong(1, id);
+            insert.bindDouble(2, latitude);
+            insert.bindDouble(3, latitude);
+            insert.bindDouble(4, longitude);
+            insert.bindDouble(5, longitude);
+            insert.bindLong(6, time);
+            insert.bindLong(7, time);
+            insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * 条件に一致する位置情報の_idを返す。
+     * 更新・削除の前に呼び出して、影響を受ける行を調べておく。
+     *
+     * @param selection
+     * @param selectionArgs
+     * @return R*Treeを使っていない場合は空
+     */
+    List<Long> collectIds(String selection, String[] selectionArgs) {
+        List<Long> ids = new ArrayList<Long>();
+        if (!mEnabled) {
+            return ids;
+        }
+
+        Cursor cursor = mDb.query(PlaceDBHelper.TABLE_NAME,
+                new String[]{PlaceDBHelper.COLUMN_ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        return ids;
+    }
+
+    /**
+     * 指定した位置情報を、PLACEの現在の内容で登録し直す。
+     * 削除された行は、空間インデックスからも削除する。
+     *
+     * @param ids collectIds()の結果
+     */
+    void refresh(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        SQLiteStatement delete = mDb.compileStatement(SQL_DELETE);
+        SQLiteStatement refresh = mDb.compileStatement(SQL_REFRESH);
+        try {
+            for (long id : ids) {
+                delete.bindLong(1, id);
+                delete.executeUpdateDelete();
+
+                refresh.bindLong(1, id);
+                refresh.executeInsert();
+            }
+        } finally {
+            delete.close();
+            refresh.close();
+        }
+    }
+
+    /**
+     * 位置・取得時刻の更新が、空間インデックスに影響するかどうかを返す。
+     *
+     * @param values 更新する値
+     * @return
+     */
+    static boolean affects(ContentValues values) {
+        return values.containsKey(PlaceDBHelper.COLUMN_LATITUDE)
+                || values.containsKey(PlaceDBHelper.COLUMN_LONGITUDE)
+                || values.containsKey(PlaceDBHelper.COLUMN_TIME);
+    }
+}
@@ -1,10 +1,15 @@
 package com.example.android.sample.myplaceapp.location;
 
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -13,11 +18,36 @@ import java.util.List;
  */
 public class PlaceRepository {
 
+    private static final String TAG = "PlaceRepository";
+
     /**
      * 1日をms換算した値。
      */
     public static final long DAY = 24L * 60L * 60L * 1000L;
 
+    /**
+     * Placeオブジェクトに変換するために必要なカラム。
+     * 取得時刻のインデックスだけで読み出せるカラムに限定している。
+     */
+    public static final String[] PLACE_PROJECTION = {
+            PlaceDBHelper.COLUMN_ID,
+            PlaceDBHelper.COLUMN_LATITUDE,
+            PlaceDBHelper.COLUMN_LONGITUDE,
+            PlaceDBHelper.COLUMN_TIME
+    };
+
+    /**
+     * セグメントファイルに移すまでの日数の初期値。
+     */
+    public static final int DEFAULT_ARCHIVE_AGE_DAYS = 90;
+
+    /**
+     * アーカイブの設定を保存するSharedPreferencesのファイル名。
+     */
+    private static final String ARCHIVE_PREF_NAME = "place_archive";
+    private static final String KEY_ARCHIVE_AGE_DAYS = "age_days";
+    private static final String KEY_LAST_ARCHIVE_DAY = "last_day";
+
     /**
      * コンストラクタ。
      */
@@ -33,41 +63,146 @@ public class PlaceRepository {
      * @return
      */
     public static Uri insert(Context context,Place place){
-        ContentValues values = new ContentValues();
-        values.put(PlaceDBHelper.COLUMN_LATITUDE,place.getLatitude());
-        values.put(PlaceDBHelper.COLUMN_LONGITUDE,place.getLongitude());
-        values.put(PlaceDBHelper.COLUMN_TIME,place.getTime());
+        return context.getContentResolver().insert(PlaceProvider.CONTENT_URI,placeToValues(place));
+    }
+
+    /**
+     * 複数のデータを1つのトランザクションでまとめて追加する。
+     * 変更の通知も1回にまとめられる。
+     *
+     * @param context
+     * @param places
+     * @return 追加した件数
+     */
+    public static int insertAll(Context context,List<Place> places){
+        if(places.isEmpty()){
+            return 0;
+        }
+
+        ContentValues[] valuesArray = new ContentValues[places.size()];
+        for (int i = 0; i < valuesArray.length; i++){
+            valuesArray[i] = placeToValues(places.get(i));
+        }
 
-        return context.getContentResolver().insert(PlaceProvider.CONTENT_URI,values);
+        return context.getContentResolver().bulkInsert(PlaceProvider.CONTENT_URI,valuesArray);
     }
 
     /**
+     * 記録した位置情報をジャーナルに追記する。SQLiteには、件数か経過時間の閾値を超えた時にまとめて移す。
+     * 記録サービスからの書き込みに使い、1件ごとにContentProviderを経由してトランザクションを行うのを避ける。
+     * 読み込み側は、問い合わせの前にジャーナルが移されるので、追記した位置情報も読める。
+     *
+     * @param context
+     * @param places
+     * @return SQLiteに移した件数。ジャーナルに溜めただけの場合は0
+     */
+    public static int appendToJournal(Context context,List<Place> places){
+        if(places.isEmpty()){
+            return 0;
+        }
+
+        PlaceJournal journal = PlaceJournal.getInstance(context);
+        boolean shouldFlush;
+        try {
+            journal.append(places);
+            shouldFlush = journal.shouldFlush(System.currentTimeMillis());
+        } catch (IOException e){
+            // ジャーナルに書けない場合は、SQLiteに直接書き込む
+            Log.e(TAG,"failed to append to journal",e);
+            return insertAll(context,places);
+        }
+
+        // 記録サービスが次に読む直近の位置情報は、SQLiteに移す前からキャッシュに反映しておく。
+        // _idはSQLiteに移すまで決まらないので0にしておき、移した時に置き換わる
+        Place latest = places.get(0);
+        for (Place place : places){
+            if(place.getTime() >= latest.getTime()){
+                latest = place;
+            }
+        }
+        LastPlaceCache.offer(context,0L,latest.getLatitude(),latest.getLongitude(),latest.getTime());
+
+        return shouldFlush ? flushJournal(context) : 0;
+    }
+
+    /**
+     * ジャーナルに溜まっている位置情報を、SQLiteに移す。
+     *
+     * @param context
+     * @return 移した件数
+     */
+    public static int flushJournal(Context context){
+        Bundle result = context.getContentResolver().call(PlaceProvider.CONTENT_URI,
+                PlaceProvider.METHOD_FLUSH_JOURNAL,null,null);
+
+        return result == null ? 0 : result.getInt(PlaceProvider.EXTRA_FLUSHED_PLACES);
+    }
+
+    /**
+     * 指定した日に記録された、最新の位置情報を返す。
+     * 最後に記録された位置情報のキャッシュがあればそれを使い、DBへの問い合わせはキャッシュがない場合に限る。
+     * キャッシュには全体で最新の位置情報だけを入れるので、過去の日を問い合わせてもキャッシュは変わらない。
      *
      * @param context
      * @param day
      * @return
      */
     public static Place getLastestPlaceInDay(Context context,long day){
+        // 指定した時刻が属する日
+        int dayKey = DayKey.of(day);
+
+        Place latest = LastPlaceCache.get(context);
+        if(latest == null){
+            // キャッシュがなければ、全体で最新の位置情報を読んでキャッシュする
+            latest = queryLatestPlace(context,null,null);
+            if(latest == null){
+                // まだ1件も記録がない
+                return null;
+            }
+
+            // 次回以降はキャッシュから読めるようにする
+            LastPlaceCache.offer(context,latest.getId(),latest.getLatitude(),latest.getLongitude(),latest.getTime());
+        }
+
+        // 最後に記録された位置情報が、指定した日より前なら、指定した日の記録はまだない
+        int latestDayKey = DayKey.of(latest.getTime());
+        if(latestDayKey == dayKey){
+            return latest;
+        } else if(latestDayKey < dayKey){
+            return null;
+        }
+
+        // 指定した日に記録された位置情報を返す。過去の日なので、キャッシュには入れない
+        return queryLatestPlace(context,
+                PlaceDBHelper.COLUMN_DAY_KEY + " = ?",
+                new String[]{String.valueOf(dayKey)});
+    }
+
+    /**
+     * 条件に一致する位置情報のうち、最新のものをDBから読む。
+     *
+     * @param context
+     * @param selection 条件。全件の場合はnull
+     * @param selectionArgs
+     * @return 一致するものがない場合はnull
+     */
+    private static Place queryLatestPlace(Context context,String selection,String[] selectionArgs){
         // URIにlimit=1を追加する
         Uri uri = PlaceProvider.CONTENT_URI.buildUpon()
-                .appendQueryParameter("limite","1")
+                .appendQueryParameter("limit","1")
                 .build();
 
-        // 指定した日の0:00
-        long dayStart = (day/DAY) * DAY;
-        // 指定した日の23:59:59
-        long dayEnd = dayStart + DAY - 1L;
-
-        // 指定した日に記録された位置情報を返す
         Cursor cursor = context.getContentResolver().query(uri,
-                null,
-                PlaceDBHelper.COLUMN_TIME + " BETWEEN ? AND ?",
-                new String[]{String.valueOf(dayStart),String.valueOf(dayEnd)},
-                PlaceDBHelper.COLUMN_REGISTER_TIME + " DESC");
+                PLACE_PROJECTION,
+                selection,
+                selectionArgs,
+                PlaceDBHelper.COLUMN_TIME + " DESC");
 
         Place place = null;
-        if(cursor != null && cursor.moveToNext()){
-            place = cursorToPlace(cursor);
+        if(cursor != null){
+            if(cursor.moveToNext()){
+                place = cursorToPlace(cursor);
+            }
             cursor.close();
         }
 
@@ -82,24 +217,18 @@ public class PlaceRepository {
      */
     public static List<String> getAllDateString(Context context){
 
-        // distinctをつける
-        Uri uri = PlaceProvider.CONTENT_URI.buildUpon()
-                .appendQueryParameter("distinct","true")
-                .build();
-
-        // 「記録された日」をyyyy-mm-ddに変換する
-        String timeToDate = "strftime('%Y-%m-%d', " + PlaceDBHelper.COLUMN_TIME  + "/ 1000, 'unixepoch') AS DATE";
-
-        Cursor cursor = context.getContentResolver().query(uri,
-                new String[]{timeToDate},
+        // 日ごとの集計から、日のキーだけを新しい順に読む
+        Cursor cursor = context.getContentResolver().query(PlaceProvider.DAY_CONTENT_URI,
+                new String[]{PlaceDBHelper.COLUMN_DAY_KEY},
                 null, null,
-                PlaceDBHelper.COLUMN_REGISTER_TIME + " DESC");
+                PlaceDBHelper.COLUMN_DAY_KEY + " DESC");
 
         List<String> dateStrings = new ArrayList<String>();
 
         if(cursor != null){
             while (cursor.moveToNext()){
-                dateStrings.add(cursor.getString(cursor.getColumnIndex("DATE")));
+                // 日のキーをyyyy-mm-ddに変換する
+                dateStrings.add(DayKey.toDateString(cursor.getInt(0)));
             }
             cursor.close();
         }
@@ -107,8 +236,260 @@ public class PlaceRepository {
         return dateStrings;
     }
 
+    /**
+     * 指定した日の位置情報のうち、指定した_idより後に追加されたものを、取得時刻順に返す。
+     * 1回の問い合わせが大きくならないように、ページ単位で読み込んでつなげる。
+     *
+     * @param context
+     * @param dayKey 日のキー(yyyymmdd)
+     * @param afterId この_idより大きい行だけを返す。全て返す場合は0
+     * @return
+     */
+    public static PlaceTrack getTrackInDay(Context context,int dayKey,long afterId){
+        // セグメントファイルに移した分と、SQLiteに残っている分をつなげる
+        PlaceTrack archived = getArchivedTrackInDay(context,dayKey,afterId);
+        return PlaceTrack.merge(archived,getStoredTrackInDay(context,dayKey,afterId));
+    }
+
+    /**
+     * 指定した日の位置情報のうち、SQLiteに残っているものを取得時刻順に返す。
+     *
+     * @param context
+     * @param dayKey 日のキー(yyyymmdd)
+     * @param afterId この_idより大きい行だけを返す。全て返す場合は0
+     * @return
+     */
+    private static PlaceTrack getStoredTrackInDay(Context context,int dayKey,long afterId){
+        PlacePageIterator pages = iteratePlaces(context,
+                PlaceDBHelper.COLUMN_DAY_KEY + " = ? AND " + PlaceDBHelper.COLUMN_ID + " > ?",
+                new String[]{String.valueOf(dayKey),String.valueOf(afterId)},
+                PlacePageQuery.DEFAULT_PAGE_SIZE);
+
+        if(!pages.hasNext()){
+            return PlaceTrack.EMPTY;
+        }
+
+        PlaceTrack.Builder builder = new PlaceTrack.Builder(PlacePageQuery.DEFAULT_PAGE_SIZE);
+        while (pages.hasNext()){
+            PlaceTrack page = pages.next();
+            for (int i = 0; i < page.size(); i++){
+                builder.add(page.getId(i),page.getLatitude(i),page.getLongitude(i),page.getTime(i));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * 指定した日の位置情報のうち、セグメントファイルに移したものを取得時刻順に返す。
+     * 読めないブロックは、ログに残して読み飛ばす。
+     *
+     * @param context
+     * @param dayKey 日のキー(yyyymmdd)
+     * @param afterId この_idより大きい行だけを返す。全て返す場合は0
+     * @return
+     */
+    private static PlaceTrack getArchivedTrackInDay(Context context,int dayKey,long afterId){
+        Cursor cursor = context.getContentResolver().query(PlaceProvider.ARCHIVE_CONTENT_URI,
+                new String[]{PlaceDBHelper.COLUMN_SEGMENT_OFFSET,PlaceDBHelper.COLUMN_SEGMENT_LENGTH},
+                PlaceDBHelper.COLUMN_DAY_KEY + " = ?",
+                new String[]{String.valueOf(dayKey)},
+                PlaceDBHelper.COLUMN_SEGMENT_OFFSET);
+
+        PlaceTrack track = PlaceTrack.EMPTY;
+        if(cursor == null){
+            return track;
+        }
+
+        PlaceArchive archive = PlaceArchive.getInstance(context);
+        try {
+            while (cursor.moveToNext()){
+                try {
+                    track = PlaceTrack.merge(track,archive.read(cursor.getLong(0),cursor.getInt(1)));
+                } catch (IOException e){
+                    Log.e(TAG,"failed to read archived day " + dayKey,e);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if(afterId <= 0 || track.isEmpty()){
+            return track;
+        }
+
+        // 差分の読み込みでは、指定した_idより後の地点だけを残す
+        PlaceTrack.Builder builder = new PlaceTrack.Builder(0);
+        for (int i = 0; i < track.size(); i++){
+            if(track.getId(i) > afterId){
+                builder.add(track.getId(i),track.getLatitude(i),track.getLongitude(i),track.getTime(i));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 指定した日数より前の位置情報を、SQLiteからセグメントファイルに移す。
+     * 移した日も、getTrackInDay()などでこれまで通り読める。時間がかかるので、バックグラウンドスレッドで呼び出すこと。
+     *
+     * @param context
+     * @param ageDays 今日からこの日数より前の日を移す
+     * @return 移した日の数
+     */
+    public static int archiveOldDays(Context context,int ageDays){
+        int beforeDayKey = DayKey.of(System.currentTimeMillis() - ageDays * DAY);
+
+        Bundle result = context.getContentResolver().call(PlaceProvider.CONTENT_URI,
+                PlaceProvider.METHOD_ARCHIVE,String.valueOf(beforeDayKey),null);
+
+        return result == null ? 0 : result.getInt(PlaceProvider.EXTRA_ARCHIVED_DAYS);
+    }
+
+    /**
+     * 今日まだ行っていなければ、設定した日数より前の位置情報をセグメントファイルに移す。
+     *
+     * @param context
+     * @return 移した日の数
+     */
+    public static int archiveOldDaysIfNeeded(Context context){
+        SharedPreferences prefs = getArchivePreferences(context);
+        int today = DayKey.of(System.currentTimeMillis());
+        if(prefs.getInt(KEY_LAST_ARCHIVE_DAY,0) == today){
+            return 0;
+        }
+
+        int archived = archiveOldDays(context,getArchiveAgeDays(context));
+        prefs.edit().putInt(KEY_LAST_ARCHIVE_DAY,today).apply();
+        return archived;
+    }
+
+    /**
+     * セグメントファイルに移すまでの日数を返す。
+     *
+     * @param context
+     * @return
+     */
+    public static int getArchiveAgeDays(Context context){
+        return getArchivePreferences(context).getInt(KEY_ARCHIVE_AGE_DAYS,DEFAULT_ARCHIVE_AGE_DAYS);
+    }
+
+    /**
+     * セグメントファイルに移すまでの日数を設定する。
+     *
+     * @param context
+     * @param ageDays 1以上
+     */
+    public static void setArchiveAgeDays(Context context,int ageDays){
+        if(ageDays < 1){
+            throw new IllegalArgumentException("invalid age: " + ageDays);
+        }
+        getArchivePreferences(context).edit().putInt(KEY_ARCHIVE_AGE_DAYS,ageDays).apply();
+    }
+
+    private static SharedPreferences getArchivePreferences(Context context){
+        return context.getSharedPreferences(ARCHIVE_PREF_NAME,Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 条件に一致する位置情報を、取得時刻と_idの順に1ページずつ返すイテレータを作る。
+     * ページは読み進めるたびに問い合わせるので、全体の件数によらず保持するのは1ページ分だけになる。
+     * 地図への描画、書き出し、集計のように、全件を順番に1回だけ読む処理に使う。
+     * 条件はSQLiteに対して判定するので、セグメントファイルに移した日の位置情報は含まない。
+     * 日単位で読む場合はgetTrackInDay()を、期間で読む場合はiteratePlacesInRange()を使う。
+     *
+     * @param context
+     * @param selection 条件。全件の場合はnull
+     * @param selectionArgs
+     * @param pageSize 1ページの件数。PlacePageQuery#MAX_PAGE_SIZE以下
+     * @return
+     */
+    public static PlacePageIterator iteratePlaces(Context context,String selection,String[] selectionArgs,int pageSize){
+        return new PlacePageIterator(context.getContentResolver(),selection,selectionArgs,pageSize);
+    }
+
+    /**
+     * 指定した期間に取得した位置情報を、取得時刻と_idの順に1ページずつ返すイテレータを作る。
+     * セグメントファイルに移した日の位置情報も、期間に重なるブロックを順に読んで合わせる。
+     *
+     * @param context
+     * @param fromTime この時刻以降に取得した位置情報に限る。エポックからのms
+     * @param toTime この時刻以前に取得した位置情報に限る。エポックからのms
+     * @param pageSize 1ページの件数。PlacePageQuery#MAX_PAGE_SIZE以下
+     * @return
+     */
+    public static PlacePageIterator iteratePlacesInRange(Context context,long fromTime,long toTime,int pageSize){
+        ContentResolver resolver = context.getContentResolver();
+
+        // 期間に重なるブロックの位置だけを先に読み、ブロックの中身は読み進めるたびに読み込む
+        Cursor blocks = resolver.query(PlaceProvider.ARCHIVE_CONTENT_URI,
+                PlaceArchiveIterator.BLOCK_PROJECTION,
+                PlaceArchiveIterator.timeSelection(fromTime,toTime),
+                null,
+                PlaceArchiveIterator.BLOCK_SORT_ORDER);
+        PlaceArchiveIterator archived = new PlaceArchiveIterator(PlaceArchive.getInstance(context),
+                blocks,fromTime,toTime);
+
+        return new PlacePageIterator(resolver,
+                PlaceDBHelper.COLUMN_TIME + " BETWEEN ? AND ?",
+                new String[]{String.valueOf(fromTime),String.valueOf(toTime)},
+                pageSize,archived);
+    }
+
+    /**
+     * 指定した日の集計を返す。
+     *
+     * @param context
+     * @param dayKey 日のキー(yyyymmdd)
+     * @return 記録がない場合はnull
+     */
+    public static PlaceDay getPlaceDay(Context context,int dayKey){
+        Cursor cursor = context.getContentResolver().query(PlaceProvider.DAY_CONTENT_URI,
+                null,
+                PlaceDBHelper.COLUMN_DAY_KEY + " = ?",
+                new String[]{String.valueOf(dayKey)},
+                null);
+
+        PlaceDay placeDay = null;
+        if(cursor != null){
+            if(cursor.moveToNext()){
+                placeDay = cursorToPlaceDay(cursor);
+            }
+            cursor.close();
+        }
+
+        return placeDay;
+    }
+
+    /**
+     * Placeオブジェクトを、ContentProviderに渡すContentValuesに変換する。
+     *
+     * @param place
+     * @return
+     */
+    private static ContentValues placeToValues(Place place){
+        ContentValues values = new ContentValues();
+        values.put(PlaceDBHelper.COLUMN_LATITUDE,place.getLatitude());
+        values.put(PlaceDBHelper.COLUMN_LONGITUDE,place.getLongitude());
+        values.put(PlaceDBHelper.COLUMN_TIME,place.getTime());
+        // 取得した時点の、端末のタイムゾーンでの日付
+        values.put(PlaceDBHelper.COLUMN_DAY_KEY,DayKey.of(place.getTime()));
+        // 不明な値はNULLのままにする
+        putIfKnown(values,PlaceDBHelper.COLUMN_ACCURACY,place.getAccuracy());
+        putIfKnown(values,PlaceDBHelper.COLUMN_SPEED,place.getSpeed());
+        putIfKnown(values,PlaceDBHelper.COLUMN_BEARING,place.getBearing());
+
+        return values;
+    }
+
+    private static void putIfKnown(ContentValues values,String column,float value){
+        if(!Float.isNaN(value)){
+            values.put(column,value);
+        }
+    }
+
     /**
      * カーソルからデータを取り出して、Placeオブジェクトに変換する。
+     * 精度・速度・進行方向は、カーソルに含まれていてNULLでない場合だけ設定する。
      *
      * @param cursor
      * @return
@@ -120,8 +501,40 @@ public class PlaceRepository {
         place.setLatitude(cursor.getDouble(cursor.getColumnIndex(PlaceDBHelper.COLUMN_LATITUDE)));
         place.setLongitude(cursor.getDouble(cursor.getColumnIndex(PlaceDBHelper.COLUMN_LONGITUDE)));
         place.setTime(cursor.getLong(cursor.getColumnIndex(PlaceDBHelper.COLUMN_TIME)));
+        place.setAccuracy(getFloatOrNaN(cursor,PlaceDBHelper.COLUMN_ACCURACY));
+        place.setSpeed(getFloatOrNaN(cursor,PlaceDBHelper.COLUMN_SPEED));
+        place.setBearing(getFloatOrNaN(cursor,PlaceDBHelper.COLUMN_BEARING));
 
         return place;
     }
 
+    private static float getFloatOrNaN(Cursor cursor,String column){
+        int index = cursor.getColumnIndex(column);
+        if(index < 0 || cursor.isNull(index)){
+            return Float.NaN;
+        }
+        return cursor.getFloat(index);
+    }
+
+    /**
+     * カーソルからデータを取り出して、PlaceDayオブジェクトに変換する。
+     *
+     * @param cursor
+     * @return
+     */
+    public static PlaceDay cursorToPlaceDay(Cursor cursor) {
+        PlaceDay placeDay = new PlaceDay();
+
+        placeDay.setDayKey(cursor.getInt(cursor.getColumnIndex(PlaceDBHelper.COLUMN_DAY_KEY)));
+        placeDay.setPointCount(cursor.getInt(cursor.getColumnIndex(PlaceDBHelper.COLUMN_POINT_COUNT)));
+        placeDay.setFirstTime(cursor.getLong(cursor.getColumnIndex(PlaceDBHelper.COLUMN_FIRST_TIME)));
+        placeDay.setLastTime(cursor.getLong(cursor.getColumnIndex(PlaceDBHelper.COLUMN_LAST_TIME)));
+        placeDay.setMinLatitude(cursor.getDouble(cursor.getColumnIndex(PlaceDBHelper.COLUMN_MIN_LATITUDE)));
+        placeDay.setMaxLatitude(cursor.getDouble(cursor.getColumnIndex(PlaceDBHelper.COLUMN_MAX_LATITUDE)));
+        placeDay.setMinLongitude(cursor.getDouble(cursor.getColumnIndex(PlaceDBHelper.COLUMN_MIN_LONGITUDE)));
+        placeDay.setMaxLongitude(cursor.getDouble(cursor.getColumnIndex(PlaceDBHelper.COLUMN_MAX_LONGITUDE)));
+
+        return placeDay;
+    }
+
 }
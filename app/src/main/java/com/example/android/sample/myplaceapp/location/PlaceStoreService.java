@@ -1,15 +1,23 @@
 package com.example.android.sample.myplaceapp.location;
 
 import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.location.LocationAvailability;
 import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.LocationServices;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 位置情報を発行するIntentService。
@@ -18,6 +26,22 @@ public class PlaceStoreService extends IntentService {
 
     private static final String TAG = "PlaceStoreService";
 
+    /**
+     * 位置情報記録サービスのPendingIntentのID。
+     */
+    private static final int PENDING_INTENT_LOCATION = 1;
+
+    /**
+     * 取得間隔を変える時に、Google Play servicesへの接続を待つ秒数。
+     */
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+
+    /**
+     * 精度・速さ・距離で、保存する位置情報を選ぶフィルタ。
+     * 除いた数をプロセスが続く間数え続けるように、起動をまたいで使い回す。
+     */
+    private static PlaceFilterChain sFilterChain;
+
     /**
      * コンストラクタ。
      */
@@ -46,53 +70,166 @@ public class PlaceStoreService extends IntentService {
             List<Location> locations = locationResult.getLocations();
 
             // 位置情報を保存する
-            storeLocationData(locations);
+            int rows = storeLocationData(locations);
+
+            // 起動回数と保存した数を数える
+            LocationStats stats = LocationStats.load(this);
+            if (stats.recordWakeup(System.currentTimeMillis(), rows)) {
+                Log.i(TAG, stats.getSummary());
+            }
+            stats.save(this);
+
+            // 移動しているかどうかに応じて、取得間隔を変える
+            updateSchedule(locations);
         }
     }
 
+    /**
+     * 位置情報を受け取るサービスのPendingIntentを取得する。
+     * 同じPendingIntentでリクエストし直すと、前のリクエストは置き換えられる。
+     *
+     * @param context
+     * @param flag
+     * @return
+     */
+    static PendingIntent getPendingIntent(Context context, int flag) {
+        Intent intent = new Intent(context, PlaceStoreService.class);
+        return PendingIntent.getService(context, PENDING_INTENT_LOCATION, intent, flag);
+    }
+
     /**
      * 位置情報を保存する。
      *
      * @param locations
+     * @return 保存した位置情報の数
      */
-    private void storeLocationData(List<Location> locations) {
+    private int storeLocationData(List<Location> locations) {
         // 本日の、直近の位置情報を取得する
         Place latestPlace =PlaceRepository.getLastestPlaceInDay(this,new Date().getTime());
 
+        // 保存する位置情報。1回のトランザクションでまとめて挿入する
+        List<Place> newPlaces = selectPlaces(locations,latestPlace);
+
+        // 表示中の地図が、DBへの書き込みを待たずに読めるようにする
+        LiveTrackBuffer.getInstance(this).write(newPlaces);
+
+        // ジャーナルに追記する。DBには、ある程度溜まってからまとめて挿入する
+        PlaceRepository.appendToJournal(this,newPlaces);
+
+        // 1日1回、古い日の位置情報をセグメントファイルに移す
+        PlaceRepository.archiveOldDaysIfNeeded(this);
+
+        return newPlaces.size();
+    }
+
+    /**
+     * 精度・速さ・距離で、保存する位置情報を選ぶ。
+     * 除いたものがあった時だけ、起動をまたいだ集計をログに出力する。
+     *
+     * @param locations
+     * @param latestPlace 本日の、直近に保存した位置情報。まだない場合はnull
+     * @return 保存する位置情報
+     */
+    private static synchronized List<Place> selectPlaces(List<Location> locations, Place latestPlace) {
+        if (sFilterChain == null) {
+            sFilterChain = PlaceFilterChain.createDefault();
+        }
+        // 直前の位置情報は、保存済みのものから続ける
+        sFilterChain.setLastAccepted(latestPlace);
+        int rejected = sFilterChain.getRejectedCount();
+
+        List<Place> newPlaces = new ArrayList<Place>(locations.size());
         for (Location location : locations){
             if(location.isFromMockProvider()){
                 // モックから送られた情報は無視する
                 continue;
             }
 
-            if (latestPlace != null){
-                float[] results = new float[1];
-                // 直近の位置情報からの距離を計算する
-                Location.distanceBetween(
-                        latestPlace.getLatitude(),
-                        latestPlace.getLongitude(),
-                        location.getLatitude(),
-                        location.getLongitude(),
-                        results);
-
-                // 100m以上離れていない場合には、無視する
-                if (results[0] < 100f){
-                    continue;
-                }
+            Place place = toPlace(location);
+            if (sFilterChain.accept(place)){
+                // 挿入対象に加える
+                newPlaces.add(place);
             }
+        }
 
-            // DBに保存する
-            Place place = new Place();
-            place.setLatitude(location.getLatitude());
-            place.setLongitude(location.getLongitude());
-            place.setTime(location.getTime());
+        if (sFilterChain.getRejectedCount() > rejected) {
+            Log.d(TAG, sFilterChain.getSummary());
+        }
+        return newPlaces;
+    }
 
-            // DBに挿入する
-            PlaceRepository.insert(this,place);
+    /**
+     * 受け取った位置情報で移動しているかどうかを判定し直し、判定が変わった場合はリクエストし直す。
+     *
+     * @param locations
+     */
+    private void updateSchedule(List<Location> locations) {
+        LocationSchedule schedule = LocationSchedule.load(this);
+        if (!schedule.isEnabled()) {
+            // 記録を止めた後に届いた位置情報
+            return;
+        }
 
-            // 直近の位置情報を、この位置情報にする
-            latestPlace = place;
+        boolean changed = false;
+        for (Location location : locations) {
+            if (!location.isFromMockProvider()) {
+                changed |= schedule.update(toPlace(location));
+            }
         }
 
+        if (!changed) {
+            // 判定中の起点だけを保存する。読み込んだ後に止められていれば保存しない
+            schedule.saveIfEnabled(this);
+            return;
+        }
+
+        GoogleApiClient client = new GoogleApiClient.Builder(this)
+                .addApi(LocationServices.API)
+                .build();
+        ConnectionResult result = client.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.isSuccess()) {
+            Log.w(TAG, "failed to connect: " + result);
+            schedule.saveIfEnabled(this);
+            return;
+        }
+
+        try {
+            // 接続を待つ間に止められていないことを確かめてから、保存とリクエストをまとめて行う。
+            // 止める側はLOCKを取って状態を消してからリクエストを取り消すので、取り消した後にリクエストし直さない
+            synchronized (LocationSchedule.LOCK) {
+                if (!schedule.saveIfEnabled(this)) {
+                    Log.i(TAG, "logging stopped while connecting");
+                    return;
+                }
+                LocationServices.FusedLocationApi.requestLocationUpdates(
+                        client,
+                        schedule.createRequest(),
+                        getPendingIntent(this, PendingIntent.FLAG_UPDATE_CURRENT));
+            }
+            Log.i(TAG, "mode=" + schedule.getMode() + " interval=" + schedule.getInterval());
+        } catch (SecurityException e) {
+            // 記録中にパーミッションを取り消された
+            Log.w(TAG, "permission revoked", e);
+        } finally {
+            client.disconnect();
+        }
+    }
+
+    /**
+     * 位置情報をPlaceに変換する。含まれていない精度・速度・進行方向は、不明(NaN)とする。
+     *
+     * @param location
+     * @return
+     */
+    private static Place toPlace(Location location) {
+        Place place = new Place();
+        place.setLatitude(location.getLatitude());
+        place.setLongitude(location.getLongitude());
+        place.setTime(location.getTime());
+        place.setAccuracy(location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+        place.setSpeed(location.hasSpeed() ? location.getSpeed() : Float.NaN);
+        place.setBearing(location.hasBearing() ? location.getBearing() : Float.NaN);
+
+        return place;
     }
 }
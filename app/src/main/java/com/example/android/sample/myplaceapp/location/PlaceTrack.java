@@ -0,0 +1,334 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * 取得時刻順に並んだ位置情報の列。
+ * <p>
+ * 地図に表示する1日分の位置情報を、Placeのリストではなく、カラムごとのプリミティブ配列で保持する。
+ * 件数が多い日でも、1件ごとのオブジェクト生成が発生しない。
+ * <p>
+ * append()で作った列は、元の列と配列を共有し、配列の空きに書き足す。空きがなくなった時だけ倍の大きさにコピーするので、
+ * 1件の追加にかかる時間は、列全体の件数によらない。元の列から見える範囲は書き換えないので、元の列も変わらずに使える。
+ */
+public class PlaceTrack {
+
+    /**
+     * 位置情報がない列。
+     */
+    public static final PlaceTrack EMPTY = new Builder(0).build();
+
+    /**
+     * 配列を共有する列の間で、配列のどこまでが書き込まれているかを表すオブジェクト。
+     */
+    private static final class Storage {
+
+        /**
+         * 書き込まれている地点の数。続きを書き込んでいる途中の場合は-1。
+         */
+        private int size;
+    }
+
+    private final Storage mStorage;
+
+    private final long[] mIds;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final long[] mTimes;
+    private final int mSize;
+
+    /**
+     * 含まれる行の_idの最大値。
+     */
+    private final long mMaxId;
+
+    /**
+     * 全ての地点を囲む領域。
+     */
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+
+    private PlaceTrack(Builder builder) {
+        this.mStorage = builder.storage;
+        this.mIds = builder.ids;
+        this.mLatitudes = builder.latitudes;
+        this.mLongitudes = builder.longitudes;
+        this.mTimes = builder.times;
+        this.mSize = builder.size;
+        this.mMaxId = builder.maxId;
+        this.mMinLatitude = builder.minLatitude;
+        this.mMaxLatitude = builder.maxLatitude;
+        this.mMinLongitude = builder.minLongitude;
+        this.mMaxLongitude = builder.maxLongitude;
+    }
+
+    /**
+     * カーソルの全ての行から、位置情報の列を作る。
+     * カーソルはPlaceRepository#PLACE_PROJECTIONのカラムを含み、取得時刻順に並んでいること。
+     *
+     * @param cursor
+     * @return
+     */
+    public static PlaceTrack fromCursor(Cursor cursor) {
+        // カラムの位置は、最初に1回だけ調べる
+        int idIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_ID);
+        int latitudeIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_LATITUDE);
+        int longitudeIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_LONGITUDE);
+        int timeIndex = cursor.getColumnIndexOrThrow(PlaceDBHelper.COLUMN_TIME);
+
+        Builder builder = new Builder(cursor.getCount());
+        while (cursor.moveToNext()) {
+            builder.add(cursor.getLong(idIndex),
+                    cursor.getDouble(latitudeIndex),
+                    cursor.getDouble(longitudeIndex),
+                    cursor.getLong(timeIndex));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * 地点の数を返す。
+     *
+     * @return
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * 含まれる行の_idの最大値を返す。これより大きい_idの行は、まだ含まれていない。
+     *
+     * @return 位置情報がない場合は0
+     */
+    public long getMaxId() {
+        return mMaxId;
+    }
+
+    /**
+     * 末尾に、別の位置情報の列をつなげた列を返す。この列自体は変更しない。
+     * この列が配列の末尾まで書き込まれている場合は、配列をコピーせずに続きを書き込むので、
+     * かかる時間はつなげる列の件数に比例する。
+     *
+     * @param tail 取得時刻がこの列の末尾以降の位置情報の列
+     * @return
+     */
+    public PlaceTrack append(PlaceTrack tail) {
+        if (tail.isEmpty()) {
+            return this;
+        }
+
+        Builder builder = new Builder(this, tail.size());
+        for (int i = 0; i < tail.size(); i++) {
+            builder.add(tail.getId(i), tail.getLatitude(i), tail.getLongitude(i), tail.getTime(i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * 2つの位置情報の列を、(取得時刻, _id)の順に並べて1つにする。
+     *
+     * @param first (取得時刻, _id)の順に並んだ列
+     * @param second (取得時刻, _id)の順に並んだ列
+     * @return
+     */
+    static PlaceTrack merge(PlaceTrack first, PlaceTrack second) {
+        if (second.isEmpty()) {
+            return first;
+        } else if (first.isEmpty()) {
+            return second;
+        }
+
+        Builder builder = new Builder(first.size() + second.size());
+        int i = 0;
+        int j = 0;
+        while (i < first.size() || j < second.size()) {
+            PlaceTrack track;
+            int index;
+            if (j == second.size() || (i < first.size() && (first.getTime(i) < second.getTime(j)
+                    || (first.getTime(i) == second.getTime(j) && first.getId(i) < second.getId(j))))) {
+                track = first;
+                index = i++;
+            } else {
+                track = second;
+                index = j++;
+            }
+            builder.add(track.getId(index), track.getLatitude(index), track.getLongitude(index), track.getTime(index));
+        }
+
+        return builder.build();
+    }
+
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    public double getLatitude(int index) {
+        return mLatitudes[index];
+    }
+
+    public double getLongitude(int index) {
+        return mLongitudes[index];
+    }
+
+    public long getTime(int index) {
+        return mTimes[index];
+    }
+
+    public double getMinLatitude() {
+        return mMinLatitude;
+    }
+
+    public double getMaxLatitude() {
+        return mMaxLatitude;
+    }
+
+    public double getMinLongitude() {
+        return mMinLongitude;
+    }
+
+    public double getMaxLongitude() {
+        return mMaxLongitude;
+    }
+
+    /**
+     * 位置情報の列を組み立てるクラス。
+     */
+    public static class Builder {
+
+        private Storage storage;
+        private long[] ids;
+        private double[] latitudes;
+        private double[] longitudes;
+        private long[] times;
+        private int size;
+        private long maxId;
+
+        private double minLatitude = Double.POSITIVE_INFINITY;
+        private double maxLatitude = Double.NEGATIVE_INFINITY;
+        private double minLongitude = Double.POSITIVE_INFINITY;
+        private double maxLongitude = Double.NEGATIVE_INFINITY;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param capacity 追加する地点の数の見込み
+         */
+        public Builder(int capacity) {
+            this.ids = new long[capacity];
+            this.latitudes = new double[capacity];
+            this.longitudes = new double[capacity];
+            this.times = new long[capacity];
+            this.storage = new Storage();
+        }
+
+        /**
+         * 既存の位置情報の列の続きを組み立てる。
+         *
+         * @param track 既存の位置情報の列
+         * @param extra 追加する地点の数の見込み
+         */
+        Builder(PlaceTrack track, int extra) {
+            int required = track.mSize + extra;
+
+            // 配列の末尾まで書き込まれた列であれば、他の列が続きを書き込まないように確保する
+            boolean claimed;
+            synchronized (track.mStorage) {
+                claimed = track.mStorage.size == track.mSize;
+                if (claimed) {
+                    track.mStorage.size = -1;
+                }
+            }
+
+            if (claimed && track.mTimes.length >= required) {
+                // 元の列から見えない、配列の空きに書き込む
+                this.storage = track.mStorage;
+                this.ids = track.mIds;
+                this.latitudes = track.mLatitudes;
+                this.longitudes = track.mLongitudes;
+                this.times = track.mTimes;
+            } else {
+                if (claimed) {
+                    synchronized (track.mStorage) {
+                        track.mStorage.size = track.mSize;
+                    }
+                }
+
+                // 続けて追加されても、しばらくコピーせずに済むように倍の大きさにする
+                int capacity = Math.max(required, track.mSize * 2);
+                this.storage = new Storage();
+                this.ids = Arrays.copyOf(track.mIds, capacity);
+                this.latitudes = Arrays.copyOf(track.mLatitudes, capacity);
+                this.longitudes = Arrays.copyOf(track.mLongitudes, capacity);
+                this.times = Arrays.copyOf(track.mTimes, capacity);
+            }
+            this.size = track.mSize;
+            this.maxId = track.mMaxId;
+            this.minLatitude = track.mMinLatitude;
+            this.maxLatitude = track.mMaxLatitude;
+            this.minLongitude = track.mMinLongitude;
+            this.maxLongitude = track.mMaxLongitude;
+        }
+
+        /**
+         * 地点を末尾に追加する。
+         *
+         * @param id
+         * @param latitude
+         * @param longitude
+         * @param time
+         * @return
+         */
+        public Builder add(long id, double latitude, double longitude, long time) {
+            if (size == times.length) {
+                grow();
+            }
+
+            ids[size] = id;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            times[size] = time;
+            size++;
+
+            maxId = Math.max(maxId, id);
+            minLatitude = Math.min(minLatitude, latitude);
+            maxLatitude = Math.max(maxLatitude, latitude);
+            minLongitude = Math.min(minLongitude, longitude);
+            maxLongitude = Math.max(maxLongitude, longitude);
+
+            return this;
+        }
+
+        /**
+         * 位置情報の列を作る。
+         * 作成後に、このBuilderを使い続けてはならない。
+         *
+         * @return
+         */
+        public PlaceTrack build() {
+            synchronized (storage) {
+                storage.size = size;
+            }
+            return new PlaceTrack(this);
+        }
+
+        private void grow() {
+            // コピーした配列は、このBuilderだけが使う
+            storage = new Storage();
+
+            int capacity = Math.max(16, times.length * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            times = Arrays.copyOf(times, capacity);
+        }
+    }
+}
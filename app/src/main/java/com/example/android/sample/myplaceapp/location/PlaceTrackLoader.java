@@ -0,0 +1,77 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+/**
+ * 指定した日の位置情報を、PlaceTrackとして読み込むLoader。
+ * Cursorの走査とPlaceTrackの組み立て、詳細度ごとの間引きは、全てバックグラウンドスレッドで行う。
+ * <p>
+ * 読み込み後に追加された位置情報は、呼び出し側が差分だけを取得して反映する。
+ * このLoaderは、コンテントプロバイダの変更では再読み込みしない。
+ */
+public class PlaceTrackLoader extends AsyncTaskLoader<TrackLevels> {
+
+    /**
+     * 読み込む日のキー。
+     */
+    private final int mDayKey;
+
+    /**
+     * 読み込んだ結果。
+     */
+    private TrackLevels mTrack;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param context
+     * @param dayKey 日のキー(yyyymmdd)
+     */
+    public PlaceTrackLoader(Context context, int dayKey) {
+        super(context);
+        this.mDayKey = dayKey;
+    }
+
+    @Override
+    public TrackLevels loadInBackground() {
+        PlaceTrack track = PlaceRepository.getTrackInDay(getContext(), mDayKey, 0);
+        return TrackLevels.build(track);
+    }
+
+    @Override
+    public void deliverResult(TrackLevels data) {
+        if (isReset()) {
+            return;
+        }
+
+        mTrack = data;
+
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mTrack != null) {
+            deliverResult(mTrack);
+        }
+
+        if (takeContentChanged() || mTrack == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mTrack = null;
+    }
+}
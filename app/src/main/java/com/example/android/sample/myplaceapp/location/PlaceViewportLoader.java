@@ -0,0 +1,145 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+/**
+ * 地図に表示されている矩形の中の位置情報を、格子ごとにまとめて読み込むLoader。
+ * <p>
+ * 読み込みが不要になった場合は、実行中の検索もCancellationSignalで中断する。
+ * 位置情報は数秒ごとに追加されるので、変更による再読み込みはUPDATE_THROTTLE_MSに1回までにまとめる。
+ */
+public class PlaceViewportLoader extends AsyncTaskLoader<GridClusterer.Clusters> {
+
+    /**
+     * 再読み込みの最短の間隔(ms)。
+     */
+    private static final long UPDATE_THROTTLE_MS = 2000L;
+
+    /**
+     * 検索条件。
+     */
+    private final PlaceBoundsQuery mQuery;
+
+    /**
+     * 位置情報の変更を監視するオブザーバ。
+     */
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    /**
+     * オブザーバを登録済みかどうか。
+     */
+    private boolean mObserving;
+
+    /**
+     * 実行中の検索を中断するためのシグナル。
+     */
+    private CancellationSignal mCancellationSignal;
+
+    /**
+     * 読み込んだ結果。
+     */
+    private GridClusterer.Clusters mClusters;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param context
+     * @param query 格子の大きさを指定した検索条件
+     */
+    public PlaceViewportLoader(Context context, PlaceBoundsQuery query) {
+        super(context);
+        this.mQuery = query;
+        setUpdateThrottle(UPDATE_THROTTLE_MS);
+    }
+
+    @Override
+    public GridClusterer.Clusters loadInBackground() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+        }
+
+        try {
+            Cursor cursor = getContext().getContentResolver().query(mQuery.toUri(),
+                    null, null, null, null, mCancellationSignal);
+
+            if (cursor == null) {
+                return GridClusterer.EMPTY;
+            }
+
+            try {
+                return GridClusterer.fromCursor(cursor);
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(GridClusterer.Clusters data) {
+        if (isReset()) {
+            return;
+        }
+
+        mClusters = data;
+
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        // コンテントプロバイダに変更が加えられた場合に再読み込みする
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(PlaceProvider.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+
+        if (mClusters != null) {
+            deliverResult(mClusters);
+        }
+
+        if (takeContentChanged() || mClusters == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mClusters = null;
+    }
+}
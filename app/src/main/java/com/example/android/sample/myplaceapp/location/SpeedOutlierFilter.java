@@ -0,0 +1,67 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * 直前に保存した位置情報から、ありえない速さで移動した位置情報を除くフィルタ。
+ * <p>
+ * GPSの測位が一時的に飛んだ場合に、軌跡が遠くまで伸びるのを防ぐ。
+ * 距離から両方の精度を引いてから速さを求めるので、誤差の範囲内の移動では除かない。
+ * 取得時刻が直前以前のものは、重複か順番の入れ替わりとして除く。
+ * <p>
+ * 直前の位置情報がSTALE_AFTER以上古い場合は、飛行機での移動のように本当に遠くへ移動したのか
+ * 判断できないので、速さでは除かない。
+ */
+class SpeedOutlierFilter implements PlaceFilter {
+
+    /**
+     * ありえないとみなす速さm/sの初期値。約250km/h。
+     */
+    static final float DEFAULT_MAX_SPEED = 70f;
+
+    /**
+     * 直前の位置情報を速さの判定に使わなくなる経過時間ms。
+     */
+    static final long STALE_AFTER = 30 * 60 * 1000L;
+
+    private final float mMaxSpeed;
+
+    /**
+     * コンストラクタ。
+     *
+     * @param maxSpeed ありえないとみなす速さm/s
+     */
+    SpeedOutlierFilter(float maxSpeed) {
+        this.mMaxSpeed = maxSpeed;
+    }
+
+    @Override
+    public String getName() {
+        return "speed";
+    }
+
+    @Override
+    public boolean accept(Place candidate, Place lastAccepted) {
+        if (lastAccepted == null) {
+            return true;
+        }
+
+        long elapsed = candidate.getTime() - lastAccepted.getTime();
+        if (elapsed <= 0) {
+            return false;
+        }
+        if (elapsed >= STALE_AFTER) {
+            return true;
+        }
+
+        double distance = GeoMath.haversine(
+                lastAccepted.getLatitude(), lastAccepted.getLongitude(),
+                candidate.getLatitude(), candidate.getLongitude());
+        double moved = distance - knownOrZero(lastAccepted.getAccuracy()) - knownOrZero(candidate.getAccuracy());
+
+        // ミリ秒のまま比べて、割り算をしない
+        return moved <= mMaxSpeed * elapsed / 1000.0;
+    }
+
+    private static float knownOrZero(float value) {
+        return Float.isNaN(value) ? 0f : value;
+    }
+}
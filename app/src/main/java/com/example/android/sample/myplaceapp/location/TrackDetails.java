@@ -0,0 +1,103 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * セグメントファイルに移した位置情報の、地点ごとの精度・速さ・向き。
+ * <p>
+ * 地図の表示には使わないので、PlaceTrackとは別に必要な時だけ読み込む。
+ * 地点の順は、同じブロックから読んだPlaceTrackと同じ。値がない地点はNaNになる。
+ */
+class TrackDetails {
+
+    private final float[] mAccuracies;
+    private final float[] mSpeeds;
+    private final float[] mBearings;
+    private final int mSize;
+
+    private TrackDetails(Builder builder) {
+        this.mAccuracies = builder.accuracies;
+        this.mSpeeds = builder.speeds;
+        this.mBearings = builder.bearings;
+        this.mSize = builder.size;
+    }
+
+    /**
+     * 地点の数を返す。
+     *
+     * @return
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * 精度mを返す。
+     *
+     * @param index
+     * @return 値がない場合はNaN
+     */
+    float getAccuracy(int index) {
+        return mAccuracies[index];
+    }
+
+    /**
+     * 速さm/sを返す。
+     *
+     * @param index
+     * @return 値がない場合はNaN
+     */
+    float getSpeed(int index) {
+        return mSpeeds[index];
+    }
+
+    /**
+     * 向き(度)を返す。
+     *
+     * @param index
+     * @return 値がない場合はNaN
+     */
+    float getBearing(int index) {
+        return mBearings[index];
+    }
+
+    /**
+     * TrackDetailsを組み立てるクラス。
+     */
+    static class Builder {
+
+        private final float[] accuracies;
+        private final float[] speeds;
+        private final float[] bearings;
+        private int size;
+
+        /**
+         * コンストラクタ。
+         *
+         * @param capacity 追加する地点の数
+         */
+        Builder(int capacity) {
+            this.accuracies = new float[capacity];
+            this.speeds = new float[capacity];
+            this.bearings = new float[capacity];
+        }
+
+        /**
+         * 地点を末尾に追加する。
+         *
+         * @param accuracy 値がない場合はNaN
+         * @param speed 値がない場合はNaN
+         * @param bearing 値がない場合はNaN
+         * @return
+         */
+        Builder add(float accuracy, float speed, float bearing) {
+            accuracies[size] = accuracy;
+            speeds[size] = speed;
+            bearings[size] = bearing;
+            size++;
+            return this;
+        }
+
+        TrackDetails build() {
+            return new TrackDetails(this);
+        }
+    }
+}
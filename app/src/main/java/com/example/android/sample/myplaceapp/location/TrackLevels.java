@@ -0,0 +1,212 @@
+package com.example.android.sample.myplaceapp.location;
+
+import java.util.Arrays;
+
+/**
+ * 1日分の位置情報の列と、それを複数の詳細度で間引いた結果。
+ * <p>
+ * 間引きは読み込み時に1回だけ行い、地図のズームが変わった時には詳細度を選び直すだけにする。
+ * <p>
+ * append()で作った結果は、PlaceTrackと同じように元の結果と配列を共有し、配列の空きに書き足す。
+ */
+public class TrackLevels {
+
+    /**
+     * 各詳細度の許容誤差m。先頭は間引かない詳細度。
+     */
+    static final double[] TOLERANCES = {0, 2, 8, 32, 128, 512, 2048};
+
+    /**
+     * 許容する誤差のピクセル数。
+     */
+    private static final double PIXEL_TOLERANCE = 1.0;
+
+    /**
+     * ズーム0における、赤道上の1ピクセルあたりのm。
+     */
+    private static final double METERS_PER_PIXEL_AT_ZOOM_0 = 156543.03392;
+
+    /**
+     * 位置情報がない列。
+     */
+    public static final TrackLevels EMPTY = build(PlaceTrack.EMPTY);
+
+    /**
+     * 配列を共有する結果のうち、続きを書き込める結果を表すオブジェクト。
+     */
+    private static final class Storage {
+
+        /**
+         * 配列の末尾まで書き込まれている結果。続きを書き込んでいる途中の場合はnull。
+         */
+        private TrackLevels tip;
+    }
+
+    private final PlaceTrack mTrack;
+
+    /**
+     * 詳細度ごとの、残す地点の位置。先頭のmSizes[level]個が有効。
+     */
+    private final int[][] mLevels;
+
+    /**
+     * 詳細度ごとの、残す地点の数。
+     */
+    private final int[] mSizes;
+
+    private final Storage mStorage;
+
+    private TrackLevels(PlaceTrack track, int[][] levels, int[] sizes, Storage storage) {
+        this.mTrack = track;
+        this.mLevels = levels;
+        this.mSizes = sizes;
+        this.mStorage = storage;
+        synchronized (storage) {
+            storage.tip = this;
+        }
+    }
+
+    /**
+     * 位置情報の列を、全ての詳細度で間引く。
+     * 件数に応じて時間がかかるため、バックグラウンドスレッドで呼び出すこと。
+     *
+     * @param track
+     * @return
+     */
+    public static TrackLevels build(PlaceTrack track) {
+        double[] importance = TrackSimplifier.computeImportance(track);
+
+        int[][] levels = new int[TOLERANCES.length][];
+        int[] sizes = new int[TOLERANCES.length];
+        for (int level = 0; level < TOLERANCES.length; level++) {
+            levels[level] = TrackSimplifier.select(importance, TOLERANCES[level]);
+            sizes[level] = levels[level].length;
+        }
+
+        return new TrackLevels(track, levels, sizes, new Storage());
+    }
+
+    /**
+     * 末尾に位置情報を追加した結果を返す。
+     * 追加した地点は、次に全体を読み込み直すまで、全ての詳細度で間引かずに残す。
+     * この結果が最後に追加した結果であれば、配列をコピーせずに続きを書き込むので、
+     * かかる時間は追加する地点の数に比例する。
+     *
+     * @param tail 取得時刻が既存の末尾以降の位置情報の列
+     * @return
+     */
+    public TrackLevels append(PlaceTrack tail) {
+        if (tail.isEmpty()) {
+            return this;
+        }
+
+        // 最後に追加した結果であれば、他の結果が続きを書き込まないように確保する
+        boolean claimed;
+        synchronized (mStorage) {
+            claimed = mStorage.tip == this;
+            if (claimed) {
+                mStorage.tip = null;
+            }
+        }
+
+        int oldSize = mTrack.size();
+        int[][] levels = new int[mLevels.length][];
+        int[] sizes = new int[mLevels.length];
+        for (int level = 0; level < mLevels.length; level++) {
+            int[] indices = mLevels[level];
+            int size = mSizes[level];
+            if (!claimed || indices.length < size + tail.size()) {
+                // 続けて追加されても、しばらくコピーせずに済むように倍の大きさにする
+                indices = Arrays.copyOf(indices, Math.max(size + tail.size(), size * 2));
+            }
+
+            // この結果から見えない、配列の空きに書き込む
+            for (int i = 0; i < tail.size(); i++) {
+                indices[size + i] = oldSize + i;
+            }
+            levels[level] = indices;
+            sizes[level] = size + tail.size();
+        }
+
+        return new TrackLevels(mTrack.append(tail), levels, sizes, claimed ? mStorage : new Storage());
+    }
+
+    public PlaceTrack getTrack() {
+        return mTrack;
+    }
+
+    /**
+     * 詳細度の数を返す。
+     *
+     * @return
+     */
+    public int getLevelCount() {
+        return mLevels.length;
+    }
+
+    /**
+     * 指定した詳細度で残す地点の位置を返す。
+     * 始点と終点は、全ての詳細度で残る。
+     *
+     * @param level
+     * @return 昇順に並んだ位置
+     */
+    public int[] getIndices(int level) {
+        int[] indices = mLevels[level];
+        return indices.length == mSizes[level] ? indices : Arrays.copyOf(indices, mSizes[level]);
+    }
+
+    /**
+     * 指定した詳細度で残す地点の数を返す。
+     *
+     * @param level
+     * @return
+     */
+    public int getIndexCount(int level) {
+        return mSizes[level];
+    }
+
+    /**
+     * 指定した詳細度で残す地点のうち、i番目の位置を返す。
+     *
+     * @param level
+     * @param i
+     * @return
+     */
+    public int getIndex(int level, int i) {
+        return mLevels[level][i];
+    }
+
+    /**
+     * ズームに応じた詳細度を返す。
+     * 許容誤差が1ピクセルに収まる範囲で、最も粗い詳細度を選ぶ。
+     *
+     * @param zoom 地図のズーム
+     * @return 詳細度
+     */
+    public int levelForZoom(float zoom) {
+        double latitude = (mTrack.getMinLatitude() + mTrack.getMaxLatitude()) / 2;
+        if (mTrack.isEmpty()) {
+            latitude = 0;
+        }
+
+        double tolerance = metersPerPixel(zoom, latitude) * PIXEL_TOLERANCE;
+
+        int level = 0;
+        while (level + 1 < TOLERANCES.length && TOLERANCES[level + 1] <= tolerance) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * 指定した緯度とズームにおける、1ピクセルあたりのmを返す。
+     *
+     * @param zoom
+     * @param latitude
+     * @return
+     */
+    static double metersPerPixel(float zoom, double latitude) {
+        return METERS_PER_PIXEL_AT_ZOOM_0 * Math.cos(Math.toRadians(latitude)) / Math.pow(2, zoom);
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.android.sample.myplaceapp.location;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * 1日分の位置情報を、アーカイブのブロックに変換するクラス。
+ * <p>
+ * ブロックは、0と形式の番号の後に件数を書き、各地点の_id・取得時刻・緯度(E7)・経度(E7)と、
+ * 精度・速さ・向きの有無を表すビット、ある値だけを並べたもの。精度・速さ・向きは1/100の単位に丸める。
+ * 各値は1つ前の地点(精度・速さ・向きは、値があった1つ前の地点)との差分をZigZag符号化し、
+ * 可変長整数(7bitずつ、上位bitが継続フラグ)で書く。
+ * 5分間隔の記録であれば、1地点あたり15バイト前後になる。
+ * <p>
+ * 形式の番号がない最初の形式のブロックは、件数から始まり、_idから経度までしか持たない。
+ * 空のブロックは作らないので、先頭が0かどうかで区別できる。
+ */
+class TrackSegmentCodec {
+
+    /**
+     * 現在の形式の番号。
+     */
+    static final int FORMAT_DETAILS = 1;
+
+    /**
+     * 精度・速さ・向きのそれぞれの値があることを表すビット。
+     */
+    private static final int HAS_ACCURACY = 1;
+    private static final int HAS_SPEED = 1 << 1;
+    private static final int HAS_BEARING = 1 << 2;
+
+    /**
+     * 精度・速さ・向きを整数に丸める倍率。
+     */
+    private static final float DETAIL_SCALE = 100f;
+
+    /**
+     * コンストラクタ。
+     */
+    private TrackSegmentCodec() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 精度・速さ・向きを持たない位置情報をブロックに変換する。
+     *
+     * @see #encode(long[], long[], long[], long[], float[], float[], float[], int)
+     */
+    static byte[] encode(long[] ids, long[] times, long[] latitudesE7, long[] longitudesE7, int count) {
+        return encode(ids, times, latitudesE7, longitudesE7, null, null, null, count);
+    }
+
+    /**
+     * 位置情報をブロックに変換する。
+     * 値は(取得時刻, _id)の順に並んでいること。
+     *
+     * @param ids
+     * @param times
+     * @param latitudesE7 E7の緯度
+     * @param longitudesE7 E7の経度
+     * @param accuracies 精度m。値がない地点はNaN。全ての地点にない場合はnull
+     * @param speeds 速さm/s。値がない地点はNaN。全ての地点にない場合はnull
+     * @param bearings 向き(度)。値がない地点はNaN。全ての地点にない場合はnull
+     * @param count 変換する地点の数
+     * @return
+     */
+    static byte[] encode(long[] ids, long[] times, long[] latitudesE7, long[] longitudesE7,
+                         float[] accuracies, float[] speeds, float[] bearings, int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(count * 15 + 7);
+        writeVarint(out, 0);
+        writeVarint(out, FORMAT_DETAILS);
+        writeVarint(out, count);
+
+        long id = 0;
+        long time = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long accuracy = 0;
+        long speed = 0;
+        long bearing = 0;
+        for (int i = 0; i < count; i++) {
+            writeVarint(out, zigZag(ids[i] - id));
+            writeVarint(out, zigZag(times[i] - time));
+            writeVarint(out, zigZag(latitudesE7[i] - latitude));
+            writeVarint(out, zigZag(longitudesE7[i] - longitude));
+
+            id = ids[i];
+            time = times[i];
+            latitude = latitudesE7[i];
+            longitude = longitudesE7[i];
+
+            float accuracyValue = valueAt(accuracies, i);
+            float speedValue = valueAt(speeds, i);
+            float bearingValue = valueAt(bearings, i);
+            int flags = (Float.isNaN(accuracyValue) ? 0 : HAS_ACCURACY)
+                    | (Float.isNaN(speedValue) ? 0 : HAS_SPEED)
+                    | (Float.isNaN(bearingValue) ? 0 : HAS_BEARING);
+            writeVarint(out, flags);
+
+            if ((flags & HAS_ACCURACY) != 0) {
+                long value = Math.round(accuracyValue * DETAIL_SCALE);
+                writeVarint(out, zigZag(value - accuracy));
+                accuracy = value;
+            }
+            if ((flags & HAS_SPEED) != 0) {
+                long value = Math.round(speedValue * DETAIL_SCALE);
+                writeVarint(out, zigZag(value - speed));
+                speed = value;
+            }
+            if ((flags & HAS_BEARING) != 0) {
+                long value = Math.round(bearingValue * DETAIL_SCALE);
+                writeVarint(out, zigZag(value - bearing));
+                bearing = value;
+            }
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * ブロックを位置情報の列に戻す。
+     * 緯度・経度は、PLACEのビューと同じ計算で度に戻すので、SQLiteから読んだ値と一致する。
+     *
+     * @param buffer ブロックを含むバッファ。位置と上限は変更しない
+     * @param offset ブロックの開始位置
+     * @param length ブロックのバイト数
+     * @return
+     * @throws IllegalArgumentException ブロックが壊れている場合
+     */
+    static PlaceTrack decode(ByteBuffer buffer, int offset, int length) {
+        return decode(buffer, offset, length, true).track;
+    }
+
+    /**
+     * ブロックから、各地点の精度・速さ・向きを読む。
+     * 最初の形式のブロックでは、全ての地点の値がNaNになる。
+     *
+     * @param buffer ブロックを含むバッファ。位置と上限は変更しない
+     * @param offset ブロックの開始位置
+     * @param length ブロックのバイト数
+     * @return decode()が返す列と同じ順に並んだ値
+     * @throws IllegalArgumentException ブロックが壊れている場合
+     */
+    static TrackDetails decodeDetails(ByteBuffer buffer, int offset, int length) {
+        return decode(buffer, offset, length, false).details;
+    }
+
+    /**
+     * ブロックを読み、位置情報の列か、精度・速さ・向きのどちらかを返す。
+     * どちらを返す場合も、ブロック全体が壊れていないことを確かめる。
+     */
+    private static Decoded decode(ByteBuffer buffer, int offset, int length, boolean readTrack) {
+        ByteBuffer block = buffer.duplicate();
+        block.limit(offset + length);
+        block.position(offset);
+
+        long count = readVarint(block);
+        boolean hasDetails = count == 0;
+        if (hasDetails) {
+            long format = readVarint(block);
+            if (format != FORMAT_DETAILS) {
+                throw new IllegalArgumentException("unknown block format: " + format);
+            }
+            count = readVarint(block);
+        }
+        if (count < 0 || count > length) {
+            throw new IllegalArgumentException("invalid point count: " + count);
+        }
+
+        PlaceTrack.Builder track = readTrack ? new PlaceTrack.Builder((int) count) : null;
+        TrackDetails.Builder details = readTrack ? null : new TrackDetails.Builder((int) count);
+        long id = 0;
+        long time = 0;
+        long latitude = 0;
+        long longitude = 0;
+        long accuracy = 0;
+        long speed = 0;
+        long bearing = 0;
+        for (int i = 0; i < count; i++) {
+            id += unZigZag(readVarint(block));
+            time += unZigZag(readVarint(block));
+            latitude += unZigZag(readVarint(block));
+            longitude += unZigZag(readVarint(block));
+
+            if (track != null) {
+                track.add(id, PlaceDBHelper.fromE7(latitude), PlaceDBHelper.fromE7(longitude), time);
+            }
+
+            float accuracyValue = Float.NaN;
+            float speedValue = Float.NaN;
+            float bearingValue = Float.NaN;
+            if (hasDetails) {
+                long flags = readVarint(block);
+                if ((flags & ~(long) (HAS_ACCURACY | HAS_SPEED | HAS_BEARING)) != 0) {
+                    throw new IllegalArgumentException("invalid detail flags: " + flags);
+                }
+                if ((flags & HAS_ACCURACY) != 0) {
+                    accuracy += unZigZag(readVarint(block));
+                    accuracyValue = accuracy / DETAIL_SCALE;
+                }
+                if ((flags & HAS_SPEED) != 0) {
+                    speed += unZigZag(readVarint(block));
+                    speedValue = speed / DETAIL_SCALE;
+                }
+                if ((flags & HAS_BEARING) != 0) {
+                    bearing += unZigZag(readVarint(block));
+                    bearingValue = bearing / DETAIL_SCALE;
+                }
+            }
+
+            if (details != null) {
+                details.add(accuracyValue, speedValue, bearingValue);
+            }
+        }
+
+        if (block.hasRemaining()) {
+            throw new IllegalArgumentException("trailing bytes in block: " + block.remaining());
+        }
+
+        Decoded decoded = new Decoded();
+        decoded.track = track != null ? track.build() : null;
+        decoded.details = details != null ? details.build() : null;
+        return decoded;
+    }
+
+    private static float valueAt(float[] values, int index) {
+        return values == null ? Float.NaN : values[index];
+    }
+
+    /**
+     * 符号付きの値を、絶対値が小さいほど小さい符号なしの値に変換する。
+     */
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        if (!buffer.hasRemaining()) {
+            throw new IllegalArgumentException("truncated block");
+        }
+
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                throw new IllegalArgumentException("truncated block");
+            }
+
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("varint is too long");
+    }
+
+    /**
+     * decode()で読んだ結果。
+     */
+    private static class Decoded {
+        private PlaceTrack track;
+        private TrackDetails details;
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * Douglas-Peucker法で、位置情報の列を間引くクラス。
+ * <p>
+ * 許容誤差ごとに毎回間引くのではなく、全地点について「その地点が残る最大の許容誤差」を1回で求めておく。
+ * ある許容誤差で間引いた結果は、この値が許容誤差を超える地点だけを集めたものと一致する。
+ */
+public class TrackSimplifier {
+
+    /**
+     * 常に残す地点(始点・終点)の重要度。
+     */
+    private static final double ALWAYS_KEEP = Double.POSITIVE_INFINITY;
+
+    /**
+     * コンストラクタ。
+     */
+    private TrackSimplifier() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 各地点の重要度を求める。
+     * 重要度は、Douglas-Peucker法でその地点が残る最大の許容誤差(m)である。
+     *
+     * @param track
+     * @return 地点ごとの重要度
+     */
+    public static double[] computeImportance(PlaceTrack track) {
+        int size = track.size();
+        double[] importance = new double[size];
+        if (size == 0) {
+            return importance;
+        }
+
+        // 緯度・経度を、列の中央の緯度を基準にした平面上のm単位の座標に変換する
+        double[] x = new double[size];
+        double[] y = new double[size];
+        project(track, x, y);
+
+        importance[0] = ALWAYS_KEEP;
+        importance[size - 1] = ALWAYS_KEEP;
+
+        // 再帰の代わりに、区間の始点・終点・親の重要度を積むスタックを使う
+        int[] stackStart = new int[64];
+        int[] stackEnd = new int[64];
+        double[] stackLimit = new double[64];
+        int depth = 0;
+
+        stackStart[0] = 0;
+        stackEnd[0] = size - 1;
+        stackLimit[0] = ALWAYS_KEEP;
+        depth++;
+
+        while (depth > 0) {
+            depth--;
+            int start = stackStart[depth];
+            int end = stackEnd[depth];
+            double limit = stackLimit[depth];
+
+            if (end - start < 2) {
+                continue;
+            }
+
+            // 区間の中で、始点と終点を結ぶ線分から最も離れた地点を探す
+            int farthest = -1;
+            double maxDistance = -1;
+            for (int i = start + 1; i < end; i++) {
+                double distance = segmentDistance(x[i], y[i], x[start], y[start], x[end], y[end]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            // 親の区間が分割されない許容誤差では、この地点も残らない
+            double value = Math.min(maxDistance, limit);
+            importance[farthest] = value;
+
+            if (depth + 2 > stackStart.length) {
+                stackStart = grow(stackStart);
+                stackEnd = grow(stackEnd);
+                stackLimit = grow(stackLimit);
+            }
+
+            stackStart[depth] = start;
+            stackEnd[depth] = farthest;
+            stackLimit[depth] = value;
+            depth++;
+
+            stackStart[depth] = farthest;
+            stackEnd[depth] = end;
+            stackLimit[depth] = value;
+            depth++;
+        }
+
+        return importance;
+    }
+
+    /**
+     * 指定した許容誤差で間引いた地点の位置を返す。
+     *
+     * @param importance computeImportance()の結果
+     * @param tolerance 許容誤差m
+     * @return 残す地点の位置。昇順
+     */
+    public static int[] select(double[] importance, double tolerance) {
+        int count = 0;
+        for (double value : importance) {
+            if (value > tolerance) {
+                count++;
+            }
+        }
+
+        int[] indices = new int[count];
+        int n = 0;
+        for (int i = 0; i < importance.length; i++) {
+            if (importance[i] > tolerance) {
+                indices[n++] = i;
+            }
+        }
+
+        return indices;
+    }
+
+    /**
+     * 位置情報の列を、平面上のm単位の座標に変換する。
+     * 1日分の移動範囲であれば、正距円筒図法の誤差は許容誤差に比べて十分小さい。
+     *
+     * @param track
+     * @param x 経度方向の座標の出力先
+     * @param y 緯度方向の座標の出力先
+     */
+    static void project(PlaceTrack track, double[] x, double[] y) {
+        double centerLatitude = (track.getMinLatitude() + track.getMaxLatitude()) / 2;
+        double scaleX = GeoMath.metersPerDegreeLongitude(centerLatitude);
+        double scaleY = GeoMath.METERS_PER_DEGREE;
+
+        for (int i = 0; i < track.size(); i++) {
+            x[i] = track.getLongitude(i) * scaleX;
+            y[i] = track.getLatitude(i) * scaleY;
+        }
+    }
+
+    /**
+     * 点(px,py)と、線分(ax,ay)-(bx,by)の距離を返す。
+     */
+    static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+        }
+
+        double nearestX = ax + t * dx - px;
+        double nearestY = ay + t * dy - py;
+        return Math.sqrt(nearestX * nearestX + nearestY * nearestY);
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static double[] grow(double[] array) {
+        double[] newArray = new double[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+}
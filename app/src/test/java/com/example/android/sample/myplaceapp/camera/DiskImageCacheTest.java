@@ -0,0 +1,158 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * DiskImageCacheのテスト。
+ */
+public class DiskImageCacheTest {
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mDirectory = File.createTempFile("disk_image_cache", "");
+        assertTrue(mDirectory.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void get_returnsPutValue() {
+        DiskImageCache cache = new DiskImageCache(mDirectory, 1000);
+
+        assertNull(cache.get("a#160"));
+        cache.put("a#160", bytes(10, 1));
+        cache.put("a#320", bytes(20, 2));
+
+        assertArrayEquals(bytes(10, 1), cache.get("a#160"));
+        assertArrayEquals(bytes(20, 2), cache.get("a#320"));
+        assertEquals(30, cache.size());
+
+        // 同じキーは置き換える
+        cache.put("a#160", bytes(5, 3));
+        assertArrayEquals(bytes(5, 3), cache.get("a#160"));
+        assertEquals(25, cache.size());
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    @Test
+    public void put_evictsLeastRecentlyReadByBytes() {
+        DiskImageCache cache = new DiskImageCache(mDirectory, 100);
+        cache.put("a", bytes(40, 1));
+        cache.put("b", bytes(40, 2));
+        cache.get("a");
+
+        cache.put("c", bytes(40, 3));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(80, cache.size());
+
+        // 上限より大きい値は保存しない
+        cache.put("d", bytes(101, 4));
+        assertNull(cache.get("d"));
+        assertEquals(80, cache.size());
+    }
+
+    @Test
+    public void reopen_restoresEntriesAndReadOrder() {
+        DiskImageCache cache = new DiskImageCache(mDirectory, 100);
+        cache.put("a", bytes(40, 1));
+        cache.put("b", bytes(40, 2));
+        cache.get("a");
+        cache.close();
+
+        DiskImageCache reopened = new DiskImageCache(mDirectory, 100);
+        assertEquals(2, reopened.getEntryCount());
+        assertEquals(80, reopened.size());
+
+        // 読まれた順番も復元しているので、bが先に削除される
+        reopened.put("c", bytes(40, 3));
+        assertNull(reopened.get("b"));
+        assertArrayEquals(bytes(40, 1), reopened.get("a"));
+    }
+
+    @Test
+    public void reopen_discardsUnrecordedAndTornEntries() throws Exception {
+        DiskImageCache cache = new DiskImageCache(mDirectory, 1000);
+        cache.put("a", bytes(10, 1));
+        cache.put("b", bytes(10, 2));
+        cache.close();
+
+        // 名前を変えた後、ジャーナルに記録する前に終了した値と、書き込み途中の一時ファイル
+        write(new File(mDirectory, DiskImageCache.toFileName("c")), bytes(10, 3));
+        write(new File(mDirectory, DiskImageCache.toFileName("d") + ".0.tmp"), bytes(5, 4));
+
+        // 最後の行を書いている途中で終了した
+        FileWriter journal = new FileWriter(new File(mDirectory, DiskImageCache.JOURNAL_NAME), true);
+        try {
+            journal.write("CLEAN " + DiskImageCache.toFileName("e") + " 1");
+        } finally {
+            journal.close();
+        }
+
+        DiskImageCache reopened = new DiskImageCache(mDirectory, 1000);
+        assertEquals(2, reopened.getEntryCount());
+        assertEquals(20, reopened.size());
+        assertNull(reopened.get("c"));
+        assertArrayEquals(bytes(10, 2), reopened.get("b"));
+
+        // 記録にないファイルは削除され、ジャーナルとa、bだけが残る
+        assertEquals(3, mDirectory.listFiles().length);
+    }
+
+    @Test
+    public void reopen_discardsUnknownJournalFormat() throws Exception {
+        DiskImageCache cache = new DiskImageCache(mDirectory, 1000);
+        cache.put("a", bytes(10, 1));
+        cache.close();
+
+        FileWriter journal = new FileWriter(new File(mDirectory, DiskImageCache.JOURNAL_NAME));
+        try {
+            journal.write("DiskImageCache 0\nCLEAN " + DiskImageCache.toFileName("a") + " 10\n");
+        } finally {
+            journal.close();
+        }
+
+        DiskImageCache reopened = new DiskImageCache(mDirectory, 1000);
+        assertEquals(0, reopened.getEntryCount());
+        assertNull(reopened.get("a"));
+        assertFalse(new File(mDirectory, DiskImageCache.toFileName("a")).exists());
+    }
+
+    private static byte[] bytes(int length, int value) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) value);
+        return bytes;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(data);
+        } finally {
+            output.close();
+        }
+    }
+}
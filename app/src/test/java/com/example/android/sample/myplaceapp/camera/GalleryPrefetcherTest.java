@@ -0,0 +1,38 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * GalleryPrefetcherのテスト。
+ */
+public class GalleryPrefetcherTest {
+
+    @Test
+    public void rowsAhead_growsWithSpeed() {
+        // 1フレームに数ピクセルなら、次の1行だけ
+        assertEquals(GalleryPrefetcher.MIN_ROWS, GalleryPrefetcher.rowsAhead(2, 480));
+
+        // 30フレームで3行進む速さなら、3行先まで
+        assertEquals(3, GalleryPrefetcher.rowsAhead(48, 480));
+
+        // フリングしても上限まで
+        assertEquals(GalleryPrefetcher.MAX_ROWS, GalleryPrefetcher.rowsAhead(400, 480));
+
+        // 高さが分からない場合は、最小の行数
+        assertEquals(GalleryPrefetcher.MIN_ROWS, GalleryPrefetcher.rowsAhead(400, 0));
+    }
+
+    @Test
+    public void budget_keepsVisibleItemsInCache() {
+        // 32MBのキャッシュの半分に、1.2MBの画像は13枚。表示中の8枚を除いて5枚まで
+        assertEquals(5, GalleryPrefetcher.budget(32 * 1024, 1200, 8));
+
+        // 表示中の画像だけで半分を超える場合は、先読みしない
+        assertEquals(0, GalleryPrefetcher.budget(16 * 1024, 1200, 8));
+
+        // まだ1枚も読み込んでいない場合は、先読みしない
+        assertEquals(0, GalleryPrefetcher.budget(32 * 1024, 0, 8));
+    }
+}
@@ -0,0 +1,35 @@
+package com.example.android.sample.myplaceapp.camera;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Thumbnailsのテスト。
+ */
+public class ThumbnailsTest {
+
+    @Test
+    public void getThumbnailFile_isNextToPicture() {
+        File picture = new File("/pictures/image-2017-01-01-12-00-123.jpg");
+
+        File thumbnail = Thumbnails.getThumbnailFile(picture);
+
+        assertEquals(picture.getParentFile(), thumbnail.getParentFile());
+        assertEquals("image-2017-01-01-12-00-123.thumb.jpg", thumbnail.getName());
+        assertEquals("image.thumb", Thumbnails.getThumbnailFile(new File("/pictures/image")).getName());
+    }
+
+    @Test
+    public void calculateInSampleSize_keepsShortSideAboveSize() {
+        // 4032x3024の写真から、短辺480ピクセル以上を残す
+        assertEquals(4, Thumbnails.calculateInSampleSize(4032, 3024, 480));
+        assertEquals(4, Thumbnails.calculateInSampleSize(3024, 4032, 480));
+
+        // 必要な大きさより小さい画像は、縮小しない
+        assertEquals(1, Thumbnails.calculateInSampleSize(640, 480, 480));
+        assertEquals(1, Thumbnails.calculateInSampleSize(320, 240, 480));
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.android.sample.myplaceapp.location;
+
+import android.content.ContentResolver;
+import android.database.CharArrayBuffer;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * JVM上のテストで使う、PLACEの行を配列で保持するCursor。
+ * Androidのフレームワークに依存しないように、Cursorインターフェースを直接実装している。
+ */
+class ArrayCursor implements Cursor {
+
+    private static final String[] COLUMNS = PlaceRepository.PLACE_PROJECTION;
+
+    private final long[] mIds;
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    private final long[] mTimes;
+    private int mPosition = -1;
+    private boolean mClosed;
+
+    ArrayCursor(long[] ids, double[] latitudes, double[] longitudes, long[] times) {
+        this.mIds = ids;
+        this.mLatitudes = latitudes;
+        this.mLongitudes = longitudes;
+        this.mTimes = times;
+    }
+
+    @Override
+    public int getCount() {
+        return mIds.length;
+    }
+
+    @Override
+    public int getPosition() {
+        return mPosition;
+    }
+
+    @Override
+    public boolean move(int offset) {
+        return moveToPosition(mPosition + offset);
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position < -1) {
+            position = -1;
+        } else if (position > getCount()) {
+            position = getCount();
+        }
+        mPosition = position;
+        return position >= 0 && position < getCount();
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(getCount() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(mPosition + 1);
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+        return moveToPosition(mPosition - 1);
+    }
+
+    @Override
+    public boolean isFirst() {
+        return mPosition == 0 && getCount() > 0;
+    }
+
+    @Override
+    public boolean isLast() {
+        return mPosition == getCount() - 1 && getCount() > 0;
+    }
+
+    @Override
+    public boolean isBeforeFirst() {
+        return mPosition == -1 || getCount() == 0;
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return mPosition == getCount() || getCount() == 0;
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return COLUMNS[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return COLUMNS.clone();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public byte[] getBlob(int columnIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        return columnIndex == 1 || columnIndex == 2
+                ? String.valueOf(getDouble(columnIndex)) : String.valueOf(getLong(columnIndex));
+    }
+
+    @Override
+    public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public short getShort(int columnIndex) {
+        return (short) getLong(columnIndex);
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        switch (columnIndex) {
+            case 0:
+                return mIds[mPosition];
+            case 3:
+                return mTimes[mPosition];
+            default:
+                return (long) getDouble(columnIndex);
+        }
+    }
+
+    @Override
+    public float getFloat(int columnIndex) {
+        return (float) getDouble(columnIndex);
+    }
+
+    @Override
+    public double getDouble(int columnIndex) {
+        switch (columnIndex) {
+            case 1:
+                return mLatitudes[mPosition];
+            case 2:
+                return mLongitudes[mPosition];
+            default:
+                return getLong(columnIndex);
+        }
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        return columnIndex == 1 || columnIndex == 2 ? FIELD_TYPE_FLOAT : FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return false;
+    }
+
+    @Override
+    public void deactivate() {
+    }
+
+    @Override
+    public boolean requery() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        mClosed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return mClosed;
+    }
+
+    @Override
+    public void registerContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void unregisterContentObserver(ContentObserver observer) {
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+    }
+
+    @Override
+    public void setNotificationUri(ContentResolver cr, Uri uri) {
+    }
+
+    @Override
+    public Uri getNotificationUri() {
+        return null;
+    }
+
+    @Override
+    public boolean getWantsAllOnMoveCalls() {
+        return false;
+    }
+
+    @Override
+    public void setExtras(Bundle extras) {
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return null;
+    }
+
+    @Override
+    public Bundle respond(Bundle extras) {
+        return null;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * DayKeyのテスト。
+ */
+public class DayKeyTest {
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() throws Exception {
+        mDefaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Tokyo"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void of_usesDeviceTimeZone() throws Exception {
+        // 2017-03-31T15:30:00Z は、日本時間では 2017-04-01 00:30
+        assertEquals(20170401, DayKey.of(1490974200000L));
+    }
+
+    @Test
+    public void startAndEndOfDay() throws Exception {
+        // 2017-04-01 00:00 JST は、2017-03-31T15:00:00Z
+        assertEquals(1490972400000L, DayKey.startOf(20170401));
+        assertEquals(1490972400000L + PlaceRepository.DAY - 1, DayKey.endOf(20170401));
+        assertEquals(20170401, DayKey.of(DayKey.endOf(20170401)));
+        assertEquals(20170401, DayKey.of(DayKey.startOf(20170401)));
+
+        // 月末・年末をまたぐ
+        assertEquals(DayKey.startOf(20170101) - 1, DayKey.endOf(20161231));
+    }
+
+    @Test
+    public void parseAndFormat() throws Exception {
+        assertEquals(20170401, DayKey.parse("2017-04-01"));
+        assertEquals("2017-04-01", DayKey.toDateString(20170401));
+        assertEquals("0999-12-31", DayKey.toDateString(9991231));
+    }
+
+    @Test
+    public void parse_matchesCalendar() throws Exception {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2016, Calendar.FEBRUARY, 29, 23, 59, 59);
+
+        assertEquals(DayKey.parse("2016-02-29"), DayKey.of(calendar.getTimeInMillis()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsInvalidString() throws Exception {
+        DayKey.parse("2017/04/01");
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 記録時の間引きで使う距離計算の比較。
+ * Vincentyの公式(Location.distanceBetween()と同じ方法)、ハバーサイン、正距円筒図法について、
+ * 1回あたりの所要時間、確保したメモリ量、Vincentyとの最大誤差を出力する。
+ */
+public class GeoMathBenchmarkTest {
+
+    /**
+     * 5分間隔の記録で、隣り合う地点の組。数百m以内の移動が大半を占める。
+     */
+    private static final int PAIRS = 100000;
+    private static final int WARMUP = 10;
+    private static final int ITERATIONS = 10;
+
+    private static final int VINCENTY = 0;
+    private static final int HAVERSINE = 1;
+    private static final int EQUIRECTANGULAR = 2;
+    private static final int CLOSER_THAN = 3;
+
+    private static final String[] NAMES = {"vincenty", "haversine", "equirectangular", "isCloserThan"};
+
+    private final double[] mLatitudes1 = new double[PAIRS];
+    private final double[] mLongitudes1 = new double[PAIRS];
+    private final double[] mLatitudes2 = new double[PAIRS];
+    private final double[] mLongitudes2 = new double[PAIRS];
+
+    /**
+     * 最適化で処理が消えないように、結果を書き込む先。
+     */
+    private double mSink;
+
+    public GeoMathBenchmarkTest() {
+        Random random = new Random(1);
+        for (int i = 0; i < PAIRS; i++) {
+            mLatitudes1[i] = random.nextDouble() * 120 - 60;
+            mLongitudes1[i] = random.nextDouble() * 360 - 180;
+            // 最大で約1km
+            mLatitudes2[i] = mLatitudes1[i] + (random.nextDouble() - 0.5) * 0.018;
+            mLongitudes2[i] = mLongitudes1[i] + (random.nextDouble() - 0.5) * 0.018;
+        }
+    }
+
+    @Test
+    public void kernelsVersusVincenty() throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            for (int kernel = 0; kernel < NAMES.length; kernel++) {
+                run(kernel);
+            }
+        }
+
+        long[][] results = new long[NAMES.length][];
+        for (int kernel = 0; kernel < NAMES.length; kernel++) {
+            results[kernel] = measure(kernel);
+        }
+
+        double haversineError = 0;
+        double equirectangularError = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            double reference = Vincenty.distance(mLatitudes1[i], mLongitudes1[i], mLatitudes2[i], mLongitudes2[i]);
+            haversineError = Math.max(haversineError, Math.abs(reference
+                    - GeoMath.haversine(mLatitudes1[i], mLongitudes1[i], mLatitudes2[i], mLongitudes2[i])));
+            equirectangularError = Math.max(equirectangularError, Math.abs(reference
+                    - GeoMath.equirectangular(mLatitudes1[i], mLongitudes1[i], mLatitudes2[i], mLongitudes2[i])));
+        }
+
+        for (int kernel = 0; kernel < NAMES.length; kernel++) {
+            System.out.println(String.format("%s: %.1f ns/op, %d bytes",
+                    NAMES[kernel], results[kernel][0] / (double) PAIRS, results[kernel][1]));
+        }
+        System.out.println(String.format("max error vs vincenty: haversine %.3f m, equirectangular %.3f m",
+                haversineError, equirectangularError));
+
+        // 100mの閾値に対して、球で近似した誤差は十分小さい
+        assertTrue("haversine error: " + haversineError, haversineError < 10);
+        assertTrue("equirectangular error: " + equirectangularError, equirectangularError < 10);
+
+        // どのカーネルも、計算中にオブジェクトを作らない
+        for (int kernel = HAVERSINE; kernel < NAMES.length; kernel++) {
+            assertTrue(NAMES[kernel] + " allocated " + results[kernel][1] + " bytes", results[kernel][1] < 1024);
+        }
+    }
+
+    /**
+     * 1回の実行の平均の所要時間nsと、確保したメモリ量byteを返す。
+     */
+    private long[] measure(int kernel) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            run(kernel);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        return new long[]{elapsed / ITERATIONS, allocated / ITERATIONS};
+    }
+
+    private void run(int kernel) {
+        double sum = 0;
+        for (int i = 0; i < PAIRS; i++) {
+            switch (kernel) {
+                case VINCENTY:
+                    sum += Vincenty.distance(mLatitudes1[i], mLongitudes1[i], mLatitudes2[i], mLongitudes2[i]);
+                    break;
+                case HAVERSINE:
+                    sum += GeoMath.haversine(mLatitudes1[i], mLongitudes1[i], mLatitudes2[i], mLongitudes2[i]);
+                    break;
+                case EQUIRECTANGULAR:
+                    sum += GeoMath.equirectangular(mLatitudes1[i], mLongitudes1[i], mLatitudes2[i], mLongitudes2[i]);
+                    break;
+                default:
+                    if (GeoMath.isCloserThan(mLatitudes1[i], mLongitudes1[i], mLatitudes2[i], mLongitudes2[i], 100)) {
+                        sum++;
+                    }
+                    break;
+            }
+        }
+        mSink += sum;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
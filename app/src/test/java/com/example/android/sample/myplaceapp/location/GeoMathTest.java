@@ -0,0 +1,99 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * GeoMathのテスト。距離は、楕円体上のVincentyの公式と比べる。
+ */
+public class GeoMathTest {
+
+    @Test
+    public void haversine_isWithinSphericalErrorOfVincenty() throws Exception {
+        // 東京駅から大阪駅まで。楕円体上は約403km
+        double expected = Vincenty.distance(35.681167, 139.767052, 34.702485, 135.495951);
+        double actual = GeoMath.haversine(35.681167, 139.767052, 34.702485, 135.495951);
+
+        assertEquals(expected, actual, expected * 0.005);
+
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            double latitude1 = random.nextDouble() * 160 - 80;
+            double longitude1 = random.nextDouble() * 360 - 180;
+            double latitude2 = random.nextDouble() * 160 - 80;
+            double longitude2 = random.nextDouble() * 360 - 180;
+
+            double reference = Vincenty.distance(latitude1, longitude1, latitude2, longitude2);
+            if (Double.isNaN(reference)) continue;
+
+            // 球と楕円体の差は、最大でも0.6%程度
+            assertEquals(reference, GeoMath.haversine(latitude1, longitude1, latitude2, longitude2),
+                    reference * 0.006 + 1e-6);
+        }
+    }
+
+    @Test
+    public void equirectangular_matchesHaversineForShortDistances() throws Exception {
+        Random random = new Random(2);
+        for (int i = 0; i < 10000; i++) {
+            double latitude = random.nextDouble() * 140 - 70;
+            double longitude = random.nextDouble() * 360 - 180;
+            // 500m以内
+            double latitude2 = latitude + (random.nextDouble() - 0.5) * 0.009;
+            double longitude2 = longitude + (random.nextDouble() - 0.5) * 0.009;
+
+            double haversine = GeoMath.haversine(latitude, longitude, latitude2, longitude2);
+            double equirectangular = GeoMath.equirectangular(latitude, longitude, latitude2, longitude2);
+            assertEquals(haversine, equirectangular, 1e-3);
+        }
+    }
+
+    @Test
+    public void equirectangular_takesShorterWayAcrossAntimeridian() throws Exception {
+        double distance = GeoMath.equirectangular(0, 179.9995, 0, -179.9995);
+
+        assertEquals(GeoMath.haversine(0, 179.9995, 0, -179.9995), distance, 1e-3);
+        assertEquals(111.2, distance, 0.1);
+    }
+
+    @Test
+    public void isCloserThan_comparesWithThreshold() throws Exception {
+        // 緯度方向に約100.1m
+        double latitude2 = 35.0 + 100.1 / GeoMath.METERS_PER_DEGREE;
+
+        assertTrue(GeoMath.isCloserThan(35.0, 139.0, 35.0008, 139.0, 100));
+        assertFalse(GeoMath.isCloserThan(35.0, 139.0, latitude2, 139.0, 100));
+        assertFalse(GeoMath.isCloserThan(35.0, 139.0, 35.0, 139.0, 0));
+    }
+
+    @Test
+    public void spans_coverDistanceInEachDirection() throws Exception {
+        double latitude = 35.0;
+        double meters = 1000;
+
+        double latitudeSpan = GeoMath.latitudeSpan(meters);
+        double longitudeSpan = GeoMath.longitudeSpan(meters, latitude);
+
+        assertEquals(meters, GeoMath.haversine(latitude, 139.0, latitude + latitudeSpan, 139.0), 1e-6);
+        assertEquals(meters, GeoMath.haversine(latitude, 139.0, latitude, 139.0 + longitudeSpan), 0.01);
+
+        // 極の近くでは、経度は全周になる
+        assertEquals(180, GeoMath.longitudeSpan(meters, 89.999), 0);
+        assertEquals(180, GeoMath.longitudeSpan(meters, 90), 0);
+    }
+
+    @Test
+    public void contains_handlesAntimeridian() throws Exception {
+        assertTrue(GeoMath.contains(35, 139, 36, 140, 35.5, 139.5));
+        assertFalse(GeoMath.contains(35, 139, 36, 140, 36.5, 139.5));
+        assertFalse(GeoMath.contains(35, 139, 36, 140, 35.5, 140.5));
+
+        // 経度170度から-170度まで
+        assertTrue(GeoMath.contains(-10, 170, 10, -170, 0, 179));
+        assertTrue(GeoMath.contains(-10, 170, 10, -170, 0, -175));
+        assertFalse(GeoMath.contains(-10, 170, 10, -170, 0, 0));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * GridClustererのテスト。
+ */
+public class GridClustererTest {
+
+    private static final double CELL_SIZE = 48;
+
+    @Test
+    public void cluster_countsEveryPointOnce() throws Exception {
+        PlaceTrack track = TrackSimplifierTest.randomWalk(new Random(9), 10000);
+
+        for (float zoom = 3; zoom <= 21; zoom += 1.5f) {
+            GridClusterer.Clusters clusters = GridClusterer.cluster(track, track.size(), zoom, CELL_SIZE);
+
+            int total = 0;
+            for (int i = 0; i < clusters.size(); i++) {
+                total += clusters.getCount(i);
+            }
+            assertEquals(track.size(), total);
+        }
+    }
+
+    @Test
+    public void cluster_mergesNearbyAndSeparatesDistantPoints() throws Exception {
+        PlaceTrack track = new PlaceTrack.Builder(4)
+                .add(1, 35.6800, 139.7600, 0)
+                .add(2, 35.6801, 139.7601, 1)
+                .add(3, 34.7000, 135.5000, 2)
+                .add(4, 34.7001, 135.5001, 3)
+                .build();
+
+        GridClusterer.Clusters clusters = GridClusterer.cluster(track, track.size(), 12, CELL_SIZE);
+
+        assertEquals(2, clusters.size());
+        assertEquals(2, clusters.getCount(0));
+        assertEquals(2, clusters.getCount(1));
+
+        // クラスタの位置は重心
+        assertEquals(35.68005, clusters.getLatitude(0), 1e-9);
+        assertEquals(139.76005, clusters.getLongitude(0), 1e-9);
+        assertEquals(34.70005, clusters.getLatitude(1), 1e-9);
+        assertEquals(135.50005, clusters.getLongitude(1), 1e-9);
+    }
+
+    @Test
+    public void cluster_fewerClustersWhenZoomedOut() throws Exception {
+        PlaceTrack track = TrackSimplifierTest.randomWalk(new Random(10), 10000);
+
+        // 整数のズームでは、1段階引いた格子は4つの格子をまとめたものになる
+        int previous = Integer.MAX_VALUE;
+        for (int zoom = 21; zoom >= 2; zoom--) {
+            int size = GridClusterer.cluster(track, track.size(), zoom, CELL_SIZE).size();
+            assertTrue("zoom " + zoom + ": " + size, size <= previous);
+            previous = size;
+        }
+        assertEquals(1, previous);
+    }
+
+    @Test
+    public void cluster_ignoresPointsAfterCount() throws Exception {
+        PlaceTrack track = new PlaceTrack.Builder(3)
+                .add(1, 35.0, 139.0, 0)
+                .add(2, 35.0, 139.0, 1)
+                .add(3, 10.0, 100.0, 2)
+                .build();
+
+        GridClusterer.Clusters clusters = GridClusterer.cluster(track, 2, 15, CELL_SIZE);
+
+        assertEquals(1, clusters.size());
+        assertEquals(2, clusters.getCount(0));
+        assertEquals(0, GridClusterer.cluster(track, 0, 15, CELL_SIZE).size());
+    }
+
+    @Test
+    public void append_matchesClusteringFromScratch() throws Exception {
+        PlaceTrack track = TrackSimplifierTest.randomWalk(new Random(11), 5000);
+
+        // 前半をまとめた結果に、後半を少しずつ加える
+        GridClusterer.Clusters appended = GridClusterer.cluster(track, 3000, 15, CELL_SIZE);
+        for (int from = 3000; from < track.size(); from += 7) {
+            int to = Math.min(track.size(), from + 7);
+            int before = appended.size();
+            int[] changed = appended.append(track, from, to);
+
+            // 変わったクラスタだけが返る
+            assertTrue(changed.length >= 1 && changed.length <= to - from);
+            for (int i = 1; i < changed.length; i++) {
+                assertTrue(changed[i - 1] < changed[i]);
+            }
+            for (int i = before; i < appended.size(); i++) {
+                assertTrue(Arrays.binarySearch(changed, i) >= 0);
+            }
+        }
+
+        GridClusterer.Clusters full = GridClusterer.cluster(track, track.size(), 15, CELL_SIZE);
+        assertEquals(full.size(), appended.size());
+        for (int i = 0; i < full.size(); i++) {
+            assertEquals(full.getKey(i), appended.getKey(i));
+            assertEquals(full.getCount(i), appended.getCount(i));
+            assertEquals(full.getLatitude(i), appended.getLatitude(i), 1e-9);
+        }
+    }
+
+    @Test
+    public void worldCoordinates() throws Exception {
+        assertEquals(0.5, GridClusterer.worldX(0), 1e-12);
+        assertEquals(0.5, GridClusterer.worldY(0), 1e-12);
+        assertEquals(0.0, GridClusterer.worldX(-180), 1e-12);
+        assertTrue(GridClusterer.worldY(35) < 0.5);
+        assertEquals(0.0, GridClusterer.worldY(90), 1e-6);
+    }
+
+    @Test
+    public void iconBucket() throws Exception {
+        assertEquals(2, ClusterIconFactory.bucket(2));
+        assertEquals(9, ClusterIconFactory.bucket(9));
+        assertEquals(10, ClusterIconFactory.bucket(19));
+        assertEquals(50, ClusterIconFactory.bucket(99));
+        assertEquals(1000, ClusterIconFactory.bucket(123456));
+    }
+}
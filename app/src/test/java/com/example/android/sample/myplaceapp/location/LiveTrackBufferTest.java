@@ -0,0 +1,146 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * LiveTrackBufferのテスト。
+ */
+public class LiveTrackBufferTest {
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    @Test
+    public void read_returnsOnlyRecordsStillInBuffer() throws Exception {
+        LiveTrackBuffer buffer = new LiveTrackBuffer(null, 4);
+        LiveTrackBuffer.Fix fix = new LiveTrackBuffer.Fix();
+
+        assertFalse(buffer.read(0, fix));
+
+        for (int i = 0; i < 6; i++) {
+            buffer.write(timeOf(i), latitudeOf(i), longitudeOf(i));
+        }
+
+        assertEquals(6, buffer.getWriteCount());
+        // 最初の2件は上書きされている
+        assertFalse(buffer.read(0, fix));
+        assertFalse(buffer.read(1, fix));
+        // まだ書き込まれていない
+        assertFalse(buffer.read(6, fix));
+
+        for (int i = 2; i < 6; i++) {
+            assertTrue(buffer.read(i, fix));
+            assertEquals(i, fix.getIndex());
+            assertEquals(timeOf(i), fix.getTime());
+            assertEquals(latitudeOf(i), fix.getLatitude(), 1e-7);
+            assertEquals(longitudeOf(i), fix.getLongitude(), 1e-7);
+        }
+    }
+
+    @Test
+    public void reopen_restoresRecordsFromFile() throws Exception {
+        File file = File.createTempFile("live_track", ".buf");
+        try {
+            LiveTrackBuffer buffer = new LiveTrackBuffer(file, 8);
+            for (int i = 0; i < 3; i++) {
+                buffer.write(timeOf(i), latitudeOf(i), longitudeOf(i));
+            }
+
+            LiveTrackBuffer reopened = new LiveTrackBuffer(file, 8);
+            LiveTrackBuffer.Fix fix = new LiveTrackBuffer.Fix();
+            assertEquals(3, reopened.getWriteCount());
+            assertTrue(reopened.read(2, fix));
+            assertEquals(timeOf(2), fix.getTime());
+
+            // 容量が変わった場合は、空から始める
+            LiveTrackBuffer resized = new LiveTrackBuffer(file, 16);
+            assertEquals(0, resized.getWriteCount());
+            assertFalse(resized.read(0, fix));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void concurrentReaders_neverSeeTornRecord() throws Exception {
+        // 容量を小さくして、読み込み中の上書きを頻繁に起こす
+        final LiveTrackBuffer buffer = new LiveTrackBuffer(null, 8);
+        final int writes = 200000;
+        final int readers = 4;
+
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final AtomicLong reads = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread[] threads = new Thread[readers];
+        for (int r = 0; r < readers; r++) {
+            threads[r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    LiveTrackBuffer.Fix fix = new LiveTrackBuffer.Fix();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+
+                    long count = 0;
+                    while (!done.get() && failure.get() == null) {
+                        long writeCount = buffer.getWriteCount();
+                        for (long i = Math.max(0, writeCount - buffer.getCapacity()); i < writeCount; i++) {
+                            if (!buffer.read(i, fix)) continue;
+
+                            // 全ての値が、同じ番号の書き込みのものであること
+                            int n = (int) fix.getIndex();
+                            if (fix.getIndex() != i
+                                    || fix.getTime() != timeOf(n)
+                                    || PlaceDBHelper.toE7(fix.getLatitude()) != PlaceDBHelper.toE7(latitudeOf(n))
+                                    || PlaceDBHelper.toE7(fix.getLongitude()) != PlaceDBHelper.toE7(longitudeOf(n))) {
+                                failure.compareAndSet(null, "torn record at " + i + ": index=" + fix.getIndex()
+                                        + " time=" + fix.getTime());
+                                return;
+                            }
+                            count++;
+                        }
+                    }
+                    reads.addAndGet(count);
+                }
+            });
+            threads[r].start();
+        }
+
+        start.countDown();
+        for (int i = 0; i < writes; i++) {
+            buffer.write(timeOf(i), latitudeOf(i), longitudeOf(i));
+        }
+        done.set(true);
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(failure.get(), failure.get());
+        assertEquals(writes, buffer.getWriteCount());
+        assertTrue(reads.get() > 0);
+    }
+
+    private static long timeOf(int i) {
+        return START_TIME + i * 1000L;
+    }
+
+    private static double latitudeOf(int i) {
+        return 35.0 + (i % 10000) * 1e-5;
+    }
+
+    private static double longitudeOf(int i) {
+        return 139.0 - (i % 7000) * 1e-5;
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * LocationScheduleとLocationStatsのテスト。
+ */
+public class LocationScheduleTest {
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    private static final long MINUTE = 60 * 1000L;
+
+    @Test
+    public void update_becomesStationaryAfterDwelling() {
+        LocationSchedule schedule = new LocationSchedule();
+
+        // 最初の位置情報は起点になるだけ
+        assertFalse(schedule.update(place(0, 35.0, 139.0, Float.NaN)));
+        assertEquals(LocationSchedule.MODE_DEFAULT, schedule.getMode());
+
+        // 範囲の中で揺れている間は、時間が経つまで変わらない
+        assertFalse(schedule.update(place(10, 35.0008, 139.0, Float.NaN)));
+        assertFalse(schedule.update(place(19, 34.9993, 139.0005, Float.NaN)));
+        assertTrue(schedule.update(place(20, 35.0005, 139.0, Float.NaN)));
+        assertEquals(LocationSchedule.MODE_STATIONARY, schedule.getMode());
+
+        assertTrue(schedule.getInterval() > 10 * MINUTE);
+        assertTrue(schedule.getMaxWaitTime() > 60 * MINUTE);
+        assertEquals(104, schedule.getPriority()); // PRIORITY_LOW_POWER
+    }
+
+    @Test
+    public void update_becomesMovingWhenLeavingOrFast() {
+        LocationSchedule schedule = new LocationSchedule();
+        schedule.update(place(0, 35.0, 139.0, Float.NaN));
+        schedule.update(place(30, 35.0, 139.0, Float.NaN));
+        assertEquals(LocationSchedule.MODE_STATIONARY, schedule.getMode());
+
+        // 範囲を出た
+        assertTrue(schedule.update(place(31, 35.002, 139.0, Float.NaN)));
+        assertEquals(LocationSchedule.MODE_MOVING, schedule.getMode());
+        assertTrue(schedule.getInterval() < 10 * MINUTE);
+        assertEquals(102, schedule.getPriority()); // PRIORITY_BALANCED_POWER_ACCURACY
+
+        // 新しい起点で静止し、範囲の中でも速さがあれば移動中に戻る
+        schedule.update(place(60, 35.002, 139.0, 0f));
+        assertEquals(LocationSchedule.MODE_STATIONARY, schedule.getMode());
+        assertTrue(schedule.update(place(61, 35.002, 139.0, 5f)));
+        assertEquals(LocationSchedule.MODE_MOVING, schedule.getMode());
+
+        // 移動し続けている間は変わらない
+        assertFalse(schedule.update(place(62, 35.004, 139.0, 5f)));
+        assertFalse(schedule.update(place(63, 35.006, 139.0, 5f)));
+    }
+
+    @Test
+    public void update_staysStationaryOnInaccurateFixes() {
+        LocationSchedule schedule = new LocationSchedule();
+        schedule.update(place(0, 35.0, 139.0, Float.NaN, 20f));
+        schedule.update(place(30, 35.0, 139.0, Float.NaN, 20f));
+        assertEquals(LocationSchedule.MODE_STATIONARY, schedule.getMode());
+
+        // 誤差が大きい位置情報は、誤差の中に収まるずれや速さでは移動とみなさない
+        assertFalse(schedule.update(place(31, 35.005, 139.0, Float.NaN, 800f)));
+        assertFalse(schedule.update(place(32, 35.0005, 139.0, 3f, 500f)));
+        assertEquals(LocationSchedule.MODE_STATIONARY, schedule.getMode());
+
+        // 約220m離れていても、誤差100mを差し引けば範囲の中
+        assertFalse(schedule.update(place(33, 35.002, 139.0, Float.NaN, 100f)));
+        assertEquals(LocationSchedule.MODE_STATIONARY, schedule.getMode());
+
+        // 誤差を差し引いても範囲の外なら、移動中
+        assertTrue(schedule.update(place(34, 35.002, 139.0, Float.NaN, 20f)));
+        assertEquals(LocationSchedule.MODE_MOVING, schedule.getMode());
+    }
+
+    @Test
+    public void update_leavesStationaryOnFarInaccurateFix() {
+        LocationSchedule schedule = new LocationSchedule();
+        schedule.update(place(0, 35.0, 139.0, Float.NaN, 20f));
+        schedule.update(place(30, 35.0, 139.0, Float.NaN, 20f));
+        assertEquals(LocationSchedule.MODE_STATIONARY, schedule.getMode());
+
+        // 低電力の測位で誤差1500mでも、約5km離れていれば移動中
+        assertTrue(schedule.update(place(40, 35.045, 139.0, Float.NaN, 1500f)));
+        assertEquals(LocationSchedule.MODE_MOVING, schedule.getMode());
+    }
+
+    @Test
+    public void recordWakeup_averagesCompletedHours() {
+        LocationStats stats = new LocationStats();
+
+        assertFalse(stats.recordWakeup(START_TIME, 1));
+        assertFalse(stats.recordWakeup(START_TIME + 10 * MINUTE, 0));
+        assertFalse(stats.recordWakeup(START_TIME + 59 * MINUTE, 2));
+        assertEquals(3, stats.getWakeups());
+        assertEquals(3, stats.getRows());
+        assertEquals(0, stats.getWakeupsPerHour(), 0);
+
+        // 2時間後。起動がなかった1時間も含めて平均する
+        assertTrue(stats.recordWakeup(START_TIME + 2 * LocationStats.HOUR + MINUTE, 1));
+        assertEquals(1, stats.getWakeups());
+        assertEquals(1.5, stats.getWakeupsPerHour(), 1e-9);
+        assertEquals(1.5, stats.getRowsPerHour(), 1e-9);
+        assertEquals("hours=2 wakeups/h=1.50 rows/h=1.50 (current hour: wakeups=1 rows=1)", stats.getSummary());
+    }
+
+    private static Place place(int minute, double latitude, double longitude, float speed) {
+        return place(minute, latitude, longitude, speed, Float.NaN);
+    }
+
+    private static Place place(int minute, double latitude, double longitude, float speed, float accuracy) {
+        Place place = new Place();
+        place.setAccuracy(accuracy);
+        place.setLatitude(latitude);
+        place.setLongitude(longitude);
+        place.setTime(START_TIME + minute * MINUTE);
+        place.setSpeed(speed);
+        return place;
+    }
+}
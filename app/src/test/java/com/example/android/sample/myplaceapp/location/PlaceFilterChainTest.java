@@ -0,0 +1,142 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaceFilterChainと、記録サービスで使うフィルタのテスト。
+ */
+public class PlaceFilterChainTest {
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    /**
+     * 北へ1分ごとに約200m進む記録に、測位の飛び・精度の悪い位置情報・重複を混ぜたもの。
+     */
+    private static List<Place> trace() {
+        List<Place> places = new ArrayList<Place>();
+        places.add(place(0, 35.000, 139.0, 10f));
+        places.add(place(1, 35.0018, 139.0, 10f));
+        // 1分で約11km先に飛んだ
+        places.add(place(2, 35.1, 139.0, 10f));
+        places.add(place(2, 35.0036, 139.0, 10f));
+        // 基地局による測位
+        places.add(place(3, 35.0054, 139.0, 1500f));
+        places.add(place(3, 35.0054, 139.0, 10f));
+        // 同じ時刻の重複
+        places.add(place(3, 35.0054, 139.0, 10f));
+        // ほとんど動いていない
+        places.add(place(4, 35.0058, 139.0, 10f));
+        places.add(place(5, 35.0075, 139.0, 10f));
+        return places;
+    }
+
+    @Test
+    public void filter_rejectsJumpsLowAccuracyAndDuplicates() {
+        PlaceFilterChain chain = PlaceFilterChain.createDefault();
+
+        List<Place> accepted = chain.filter(trace());
+
+        assertEquals(5, accepted.size());
+        for (Place place : accepted) {
+            assertTrue(place.getLatitude() < 35.01);
+            assertEquals(10f, place.getAccuracy(), 0f);
+        }
+        for (int i = 1; i < accepted.size(); i++) {
+            assertTrue(accepted.get(i).getTime() > accepted.get(i - 1).getTime());
+        }
+
+        assertEquals(5, chain.getAcceptedCount());
+        assertEquals(4, chain.getRejectedCount());
+        assertEquals(1, chain.getRejectedCount("accuracy"));
+        assertEquals(2, chain.getRejectedCount("speed"));
+        assertEquals(1, chain.getRejectedCount("distance"));
+        assertEquals("accepted=5 rejected=4 (accuracy=1, speed=2, distance=1)", chain.getSummary());
+    }
+
+    @Test
+    public void filter_isReplayable() {
+        List<Place> first = PlaceFilterChain.createDefault().filter(trace());
+        List<Place> second = PlaceFilterChain.createDefault().filter(trace());
+
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.get(i).getTime(), second.get(i).getTime());
+            assertEquals(first.get(i).getLatitude(), second.get(i).getLatitude(), 0);
+        }
+    }
+
+    @Test
+    public void accept_continuesFromLastAccepted() {
+        PlaceFilterChain chain = PlaceFilterChain.createDefault();
+        chain.setLastAccepted(place(0, 35.0, 139.0, 10f));
+
+        // 保存済みの位置情報から近すぎる
+        assertFalse(chain.accept(place(1, 35.0005, 139.0, 10f)));
+        assertTrue(chain.accept(place(2, 35.002, 139.0, 10f)));
+        assertEquals(35.002, chain.getLastAccepted().getLatitude(), 0);
+    }
+
+    @Test
+    public void speedOutlierFilter_allowsMovementWithinAccuracy() {
+        SpeedOutlierFilter filter = new SpeedOutlierFilter(SpeedOutlierFilter.DEFAULT_MAX_SPEED);
+        Place last = place(0, 35.0, 139.0, 50f);
+
+        // 10秒で約1.1km。精度を引いても速すぎる
+        Place far = place(0, 35.01, 139.0, 50f);
+        far.setTime(last.getTime() + 10000L);
+        assertFalse(filter.accept(far, last));
+
+        // 10秒で約1.06km。精度の合計600mを引けば約460m
+        Place near = place(0, 35.0095, 139.0, 300f);
+        near.setTime(last.getTime() + 10000L);
+        assertFalse(filter.accept(near, place(0, 35.0, 139.0, Float.NaN)));
+        assertTrue(filter.accept(near, place(0, 35.0, 139.0, 300f)));
+
+        // 直前の位置情報が古すぎる場合は、遠くても除かない
+        Place afterFlight = place(0, 34.0, 135.0, 10f);
+        afterFlight.setTime(last.getTime() + SpeedOutlierFilter.STALE_AFTER);
+        assertTrue(filter.accept(afterFlight, last));
+    }
+
+    @Test
+    public void adaptiveDistanceFilter_growsThresholdWithSpeed() {
+        Place last = place(0, 35.0, 139.0, 10f);
+        Place walking = place(1, 35.0, 139.0, 10f);
+        walking.setSpeed(1.5f);
+        Place driving = place(1, 35.0, 139.0, 10f);
+        driving.setSpeed(15f);
+        Place highway = place(1, 35.0, 139.0, 10f);
+        highway.setSpeed(40f);
+
+        assertEquals(AdaptiveDistanceFilter.MIN_DISTANCE, AdaptiveDistanceFilter.threshold(walking, last), 0);
+        assertEquals(300, AdaptiveDistanceFilter.threshold(driving, last), 1e-3);
+        assertEquals(AdaptiveDistanceFilter.MAX_DISTANCE, AdaptiveDistanceFilter.threshold(highway, last), 0);
+
+        // 速さが含まれていなければ、直前からの移動で求める。1分で約330m進んだので約110m
+        Place implied = place(1, 35.003, 139.0, 10f);
+        assertEquals(111, AdaptiveDistanceFilter.threshold(implied, last), 1);
+    }
+
+    @Test
+    public void accuracyFilter_acceptsUnknownAccuracy() {
+        AccuracyFilter filter = new AccuracyFilter(AccuracyFilter.DEFAULT_MAX_ACCURACY);
+
+        assertTrue(filter.accept(place(0, 35.0, 139.0, Float.NaN), null));
+        assertTrue(filter.accept(place(0, 35.0, 139.0, 100f), null));
+        assertFalse(filter.accept(place(0, 35.0, 139.0, 100.5f), null));
+    }
+
+    private static Place place(int minute, double latitude, double longitude, float accuracy) {
+        Place place = new Place();
+        place.setLatitude(latitude);
+        place.setLongitude(longitude);
+        place.setTime(START_TIME + minute * 60000L);
+        place.setAccuracy(accuracy);
+        return place;
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * PlaceJournalのテスト。
+ */
+public class PlaceJournalTest {
+
+    private static final long START_TIME = 1483228800000L; // 2017-01-01T00:00:00Z
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("place_journal", ".bin");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+    }
+
+    @Test
+    public void readAfter_returnsAppendedRecords() throws Exception {
+        PlaceJournal journal = new PlaceJournal(mFile);
+        journal.append(places(0, 3));
+        journal.append(places(3, 2));
+
+        List<PlaceJournal.Entry> entries = journal.readAfter(0);
+
+        assertEquals(5, entries.size());
+        assertEquals(PlaceJournal.HEADER_SIZE + 5 * PlaceJournal.RECORD_SIZE, mFile.length());
+        for (int i = 0; i < entries.size(); i++) {
+            PlaceJournal.Entry entry = entries.get(i);
+            assertEquals(i + 1, entry.getSequence());
+            assertEquals(START_TIME + i * 60000L, entry.getTime());
+            assertEquals(PlaceDBHelper.toE7(35.0 + i * 0.001), entry.getLatitudeE7());
+            assertEquals(PlaceDBHelper.toE7(139.0 - i * 0.001), entry.getLongitudeE7());
+            assertEquals(DayKey.of(entry.getTime()), entry.getDayKey());
+        }
+
+        assertEquals(2, journal.readAfter(3).size());
+    }
+
+    @Test
+    public void reopen_continuesSequenceAndIgnoresTornRecord() throws Exception {
+        new PlaceJournal(mFile).append(places(0, 3));
+
+        // 最後のレコードを書いている途中で終了した状態にする
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(mFile.length() - 5);
+        } finally {
+            file.close();
+        }
+
+        PlaceJournal journal = new PlaceJournal(mFile);
+        assertEquals(2, journal.readAfter(0).size());
+        assertEquals(3, journal.getNextSequence());
+
+        // 壊れたレコードは上書きされる
+        journal.append(places(3, 1));
+        List<PlaceJournal.Entry> entries = new PlaceJournal(mFile).readAfter(0);
+        assertEquals(3, entries.size());
+        assertEquals(3, entries.get(2).getSequence());
+        assertEquals(START_TIME + 3 * 60000L, entries.get(2).getTime());
+    }
+
+    @Test
+    public void reopen_ignoresRecordWithBadChecksum() throws Exception {
+        new PlaceJournal(mFile).append(places(0, 3));
+
+        // 2件目の緯度を書き換える
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(PlaceJournal.HEADER_SIZE + PlaceJournal.RECORD_SIZE + 16);
+            file.writeInt(0);
+        } finally {
+            file.close();
+        }
+
+        assertEquals(1, new PlaceJournal(mFile).readAfter(0).size());
+    }
+
+    @Test
+    public void discardThrough_keepsLaterRecordsAndSequence() throws Exception {
+        PlaceJournal journal = new PlaceJournal(mFile);
+        journal.append(places(0, 5));
+
+        journal.discardThrough(3);
+
+        List<PlaceJournal.Entry> entries = journal.readAfter(0);
+        assertEquals(2, entries.size());
+        assertEquals(4, entries.get(0).getSequence());
+
+        // 全て削除しても、通し番号は続きから割り当てる
+        journal.discardThrough(5);
+        assertFalse(journal.hasRecords());
+        assertEquals(PlaceJournal.HEADER_SIZE, mFile.length());
+
+        PlaceJournal reopened = new PlaceJournal(mFile);
+        reopened.append(places(5, 1));
+        assertEquals(6, reopened.readAfter(0).get(0).getSequence());
+    }
+
+    @Test
+    public void readAfter_skipsFlushedRecordsBeforeDiscard() throws Exception {
+        // SQLiteにコミットした後、ジャーナルから削除する前に終了した場合
+        new PlaceJournal(mFile).append(places(0, 4));
+
+        PlaceJournal journal = new PlaceJournal(mFile);
+        assertTrue(journal.hasRecords());
+        assertTrue(journal.readAfter(4).isEmpty());
+
+        // 何度繰り返しても同じ
+        journal.discardThrough(4);
+        journal.discardThrough(4);
+        assertTrue(journal.readAfter(0).isEmpty());
+        assertEquals(5, journal.getNextSequence());
+    }
+
+    @Test
+    public void append_keepsAccuracySpeedAndBearing() throws Exception {
+        List<Place> places = places(0, 2);
+        places.get(0).setAccuracy(12.5f);
+        places.get(0).setSpeed(3.25f);
+        places.get(0).setBearing(270f);
+        new PlaceJournal(mFile).append(places);
+
+        List<PlaceJournal.Entry> entries = new PlaceJournal(mFile).readAfter(0);
+        assertEquals(12.5f, entries.get(0).getAccuracy(), 0f);
+        assertEquals(3.25f, entries.get(0).getSpeed(), 0f);
+        assertEquals(270f, entries.get(0).getBearing(), 0f);
+        assertTrue(Float.isNaN(entries.get(1).getAccuracy()));
+        assertTrue(Float.isNaN(entries.get(1).getSpeed()));
+        assertTrue(Float.isNaN(entries.get(1).getBearing()));
+    }
+
+    @Test
+    public void reopen_convertsLegacyRecords() throws Exception {
+        // 精度・速度・進行方向を持たない形式で、2件書いたファイルを作る
+        ByteBuffer buffer = ByteBuffer.allocate(PlaceJournal.HEADER_SIZE + 2 * PlaceJournal.LEGACY_RECORD_SIZE);
+        buffer.putInt(PlaceJournal.MAGIC).putInt(PlaceJournal.LEGACY_RECORD_SIZE).putLong(3);
+        for (int i = 0; i < 2; i++) {
+            int start = buffer.position();
+            buffer.putLong(i + 1).putLong(START_TIME + i * 60000L)
+                    .putInt((int) PlaceDBHelper.toE7(35.0)).putInt((int) PlaceDBHelper.toE7(139.0))
+                    .putInt(DayKey.of(START_TIME));
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), start, PlaceJournal.LEGACY_RECORD_SIZE - 4);
+            buffer.putInt((int) crc.getValue());
+        }
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(buffer.array());
+        } finally {
+            out.close();
+        }
+
+        PlaceJournal journal = new PlaceJournal(mFile);
+        journal.append(places(2, 1));
+
+        List<PlaceJournal.Entry> entries = new PlaceJournal(mFile).readAfter(0);
+        assertEquals(3, entries.size());
+        assertEquals(PlaceJournal.HEADER_SIZE + 3 * PlaceJournal.RECORD_SIZE, mFile.length());
+        assertEquals(START_TIME + 60000L, entries.get(1).getTime());
+        assertTrue(Float.isNaN(entries.get(1).getAccuracy()));
+        assertEquals(3, entries.get(2).getSequence());
+    }
+
+    @Test
+    public void shouldFlush_checksCountAndAge() throws Exception {
+        PlaceJournal journal = new PlaceJournal(mFile);
+        assertFalse(journal.shouldFlush(START_TIME));
+
+        journal.append(places(0, 1));
+        assertFalse(journal.shouldFlush(START_TIME + 1000L));
+        assertTrue(journal.shouldFlush(START_TIME + PlaceJournal.FLUSH_AGE));
+
+        journal.append(places(1, PlaceJournal.FLUSH_RECORD_COUNT - 1));
+        assertTrue(journal.shouldFlush(START_TIME));
+    }
+
+    @Test
+    public void append_ignoresEmptyList() throws Exception {
+        PlaceJournal journal = new PlaceJournal(mFile);
+        journal.append(new ArrayList<Place>());
+
+        assertFalse(mFile.exists());
+        assertFalse(journal.hasRecords());
+        assertEquals(1, journal.getNextSequence());
+        assertEquals(Arrays.<PlaceJournal.Entry>asList(), journal.readAfter(0));
+    }
+
+    private static List<Place> places(int from, int count) {
+        List<Place> places = new ArrayList<Place>(count);
+        for (int i = from; i < from + count; i++) {
+            Place place = new Place();
+            place.setLatitude(35.0 + i * 0.001);
+            place.setLongitude(139.0 - i * 0.001);
+            place.setTime(START_TIME + i * 60000L);
+            places.add(place);
+        }
+        return places;
+    }
+}
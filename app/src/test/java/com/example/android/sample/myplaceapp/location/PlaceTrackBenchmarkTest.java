@@ -0,0 +1,155 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * 1日分(1万地点)の位置情報を地図用に読み込む処理の、List&lt;Place&gt;とPlaceTrackの比較。
+ * 所要時間と、スレッドが確保したメモリ量を出力する。
+ */
+public class PlaceTrackBenchmarkTest {
+
+    private static final int POINTS = 10000;
+    private static final int WARMUP = 30;
+    private static final int ITERATIONS = 30;
+
+    /**
+     * 地図に渡すLatLngの代わり。
+     */
+    private static final class Point {
+        final double latitude;
+        final double longitude;
+
+        Point(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    private final long[] mIds = new long[POINTS];
+    private final double[] mLatitudes = new double[POINTS];
+    private final double[] mLongitudes = new double[POINTS];
+    private final long[] mTimes = new long[POINTS];
+
+    /**
+     * 最適化で処理が消えないように、結果を書き込む先。
+     */
+    private double mSink;
+
+    public PlaceTrackBenchmarkTest() {
+        for (int i = 0; i < POINTS; i++) {
+            mIds[i] = i + 1;
+            mLatitudes[i] = 35.0 + Math.sin(i * 0.001) * 0.05;
+            mLongitudes[i] = 139.0 + Math.cos(i * 0.001) * 0.05;
+            mTimes[i] = 1500000000000L + i * 8640L;
+        }
+    }
+
+    @Test
+    public void placeListVersusPlaceTrack() throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            loadAsPlaceList();
+            loadAsPlaceTrack();
+        }
+
+        long[] list = measure(false);
+        long[] track = measure(true);
+
+        System.out.println(String.format(
+                "%d points: List<Place> %.3f ms, %d bytes / PlaceTrack %.3f ms, %d bytes",
+                POINTS, list[0] / 1e6, list[1], track[0] / 1e6, track[1]));
+
+        assertTrue("PlaceTrack should allocate less: " + track[1] + " vs " + list[1],
+                track[1] < list[1]);
+    }
+
+    @Test
+    public void placeTrack_keepsOrderAndBounds() throws Exception {
+        PlaceTrack track = PlaceTrack.fromCursor(newCursor());
+
+        assertEquals(POINTS, track.size());
+        for (int i = 0; i < POINTS; i++) {
+            assertEquals(mIds[i], track.getId(i));
+            assertEquals(mLatitudes[i], track.getLatitude(i), 0.0);
+            assertEquals(mLongitudes[i], track.getLongitude(i), 0.0);
+            assertEquals(mTimes[i], track.getTime(i));
+            assertTrue(track.getMinLatitude() <= mLatitudes[i] && mLatitudes[i] <= track.getMaxLatitude());
+            assertTrue(track.getMinLongitude() <= mLongitudes[i] && mLongitudes[i] <= track.getMaxLongitude());
+        }
+    }
+
+    /**
+     * 平均の所要時間nsと、確保したメモリ量byteを返す。
+     */
+    private long[] measure(boolean placeTrack) {
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (placeTrack) {
+                loadAsPlaceTrack();
+            } else {
+                loadAsPlaceList();
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        return new long[]{elapsed / ITERATIONS, allocated / ITERATIONS};
+    }
+
+    /**
+     * 変更前の処理。1行ごとにPlaceを作り、領域の計算と線分用に、1地点あたり2回LatLngを作る。
+     */
+    private void loadAsPlaceList() {
+        ArrayCursor cursor = newCursor();
+
+        List<Place> places = new ArrayList<Place>();
+        while (cursor.moveToNext()) {
+            places.add(PlaceRepository.cursorToPlace(cursor));
+        }
+
+        double minLatitude = Double.POSITIVE_INFINITY;
+        for (Place place : places) {
+            Point point = new Point(place.getLatitude(), place.getLongitude());
+            minLatitude = Math.min(minLatitude, point.latitude);
+        }
+
+        List<Point> line = new ArrayList<Point>();
+        for (Place place : places) {
+            line.add(new Point(place.getLatitude(), place.getLongitude()));
+        }
+
+        mSink += minLatitude + line.size();
+    }
+
+    /**
+     * 変更後の処理。PlaceTrackに読み込み、領域は計算済みの値を使う。
+     */
+    private void loadAsPlaceTrack() {
+        PlaceTrack track = PlaceTrack.fromCursor(newCursor());
+
+        List<Point> line = new ArrayList<Point>(track.size());
+        for (int i = 0; i < track.size(); i++) {
+            line.add(new Point(track.getLatitude(i), track.getLongitude(i)));
+        }
+
+        mSink += track.getMinLatitude() + line.size();
+    }
+
+    private ArrayCursor newCursor() {
+        return new ArrayCursor(mIds, mLatitudes, mLongitudes, mTimes);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
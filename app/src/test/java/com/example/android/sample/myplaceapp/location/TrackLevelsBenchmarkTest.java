@@ -0,0 +1,70 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 5万地点の位置情報を、全ての詳細度で間引く処理のベンチマーク。
+ * 所要時間と、詳細度ごとに残った地点の数を出力する。
+ */
+public class TrackLevelsBenchmarkTest {
+
+    private static final int POINTS = 50000;
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 10;
+
+    @Test
+    public void build50kPoints() throws Exception {
+        // 高精度で記録した日と、円を描くように移動した日
+        PlaceTrack[] tracks = {
+                TrackSimplifierTest.randomWalk(new Random(50), POINTS),
+                circle(POINTS),
+        };
+        String[] names = {"random walk", "circle"};
+
+        for (int t = 0; t < tracks.length; t++) {
+            PlaceTrack track = tracks[t];
+
+            TrackLevels levels = null;
+            for (int i = 0; i < WARMUP; i++) {
+                levels = TrackLevels.build(track);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                levels = TrackLevels.build(track);
+            }
+            long elapsed = (System.nanoTime() - start) / ITERATIONS;
+
+            StringBuilder counts = new StringBuilder();
+            for (int level = 0; level < levels.getLevelCount(); level++) {
+                counts.append(String.format(" %.0fm:%d", TrackLevels.TOLERANCES[level],
+                        levels.getIndices(level).length));
+            }
+            System.out.println(String.format("%d points (%s): %.3f ms,%s",
+                    POINTS, names[t], elapsed / 1e6, counts));
+
+            // 最も粗い詳細度では、地図に渡す地点が大幅に減ること
+            int coarsest = levels.getIndices(levels.getLevelCount() - 1).length;
+            assertTrue("coarsest level keeps " + coarsest + " points", coarsest < POINTS / 100);
+        }
+    }
+
+    /**
+     * 半径2kmの円周上を、等間隔に移動する。
+     */
+    private static PlaceTrack circle(int points) {
+        PlaceTrack.Builder builder = new PlaceTrack.Builder(points);
+        for (int i = 0; i < points; i++) {
+            double angle = 2 * Math.PI * i / points;
+            builder.add(i + 1,
+                    35.68 + Math.sin(angle) * 0.018,
+                    139.76 + Math.cos(angle) * 0.022,
+                    1500000000000L + i * 1000L);
+        }
+        return builder.build();
+    }
+}
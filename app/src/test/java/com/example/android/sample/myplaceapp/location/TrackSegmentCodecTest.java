@@ -0,0 +1,197 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TrackSegmentCodecとPlaceArchiveのテスト。
+ */
+public class TrackSegmentCodecTest {
+
+    @Test
+    public void decode_matchesEncodedValuesExactly() throws Exception {
+        Random random = new Random(1);
+        int count = 288;
+        long[] ids = new long[count];
+        long[] times = new long[count];
+        long[] latitudes = new long[count];
+        long[] longitudes = new long[count];
+
+        long id = 1000000L;
+        long time = 1483228800000L;
+        long latitude = PlaceDBHelper.toE7(35.681167);
+        long longitude = PlaceDBHelper.toE7(-0.1276);
+        for (int i = 0; i < count; i++) {
+            // _idは飛び飛びで、緯度・経度は正負どちらにも動く
+            id += 1 + random.nextInt(5);
+            time += 5L * 60L * 1000L + random.nextInt(2000) - 1000;
+            latitude += random.nextInt(20001) - 10000;
+            longitude += random.nextInt(20001) - 10000;
+
+            ids[i] = id;
+            times[i] = time;
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+        }
+
+        byte[] block = TrackSegmentCodec.encode(ids, times, latitudes, longitudes, count);
+        PlaceTrack track = TrackSegmentCodec.decode(ByteBuffer.wrap(block), 0, block.length);
+
+        assertEquals(count, track.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(ids[i], track.getId(i));
+            assertEquals(times[i], track.getTime(i));
+            // PLACEのビューと同じ計算で度に戻す
+            assertEquals(PlaceDBHelper.fromE7(latitudes[i]), track.getLatitude(i), 0);
+            assertEquals(PlaceDBHelper.fromE7(longitudes[i]), track.getLongitude(i), 0);
+        }
+
+        // 5分間隔の1日分は、精度などがなければ1地点あたり11バイト程度
+        assertTrue(block.length + " bytes", block.length < count * 12);
+    }
+
+    @Test
+    public void zigZag_roundTripsExtremeValues() throws Exception {
+        long[] values = {0, 1, -1, 63, -64, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+        for (long value : values) {
+            assertEquals(value, TrackSegmentCodec.unZigZag(TrackSegmentCodec.zigZag(value)));
+        }
+
+        long[] ids = {Long.MAX_VALUE, 0};
+        long[] times = {Long.MIN_VALUE, Long.MAX_VALUE};
+        long[] latitudes = {-900000000L, 900000000L};
+        long[] longitudes = {1800000000L, -1800000000L};
+        byte[] block = TrackSegmentCodec.encode(ids, times, latitudes, longitudes, 2);
+        PlaceTrack track = TrackSegmentCodec.decode(ByteBuffer.wrap(block), 0, block.length);
+
+        assertEquals(Long.MAX_VALUE, track.getId(0));
+        assertEquals(0, track.getId(1));
+        assertEquals(Long.MIN_VALUE, track.getTime(0));
+        assertEquals(Long.MAX_VALUE, track.getTime(1));
+        assertEquals(-90.0, track.getLatitude(0), 0);
+        assertEquals(-180.0, track.getLongitude(1), 0);
+    }
+
+    @Test
+    public void decodeDetails_roundTripsNullableValues() throws Exception {
+        long[] ids = {1, 2, 3, 4};
+        long[] times = {1000, 2000, 3000, 4000};
+        long[] latitudes = {350000000, 350000100, 350000200, 350000300};
+        long[] longitudes = {1390000000, 1390000100, 1390000200, 1390000300};
+        // 値がない地点を挟んでも、値があった地点との差分で戻る
+        float[] accuracies = {12.5f, Float.NaN, 8.25f, 1500f};
+        float[] speeds = {Float.NaN, 0f, 3.14f, Float.NaN};
+        float[] bearings = {359.99f, 0.01f, Float.NaN, 180f};
+
+        byte[] block = TrackSegmentCodec.encode(ids, times, latitudes, longitudes,
+                accuracies, speeds, bearings, ids.length);
+        TrackDetails details = TrackSegmentCodec.decodeDetails(ByteBuffer.wrap(block), 0, block.length);
+        PlaceTrack track = TrackSegmentCodec.decode(ByteBuffer.wrap(block), 0, block.length);
+
+        assertEquals(ids.length, details.size());
+        assertEquals(ids.length, track.size());
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], track.getId(i));
+            // 1/100の単位に丸める
+            assertEquals(accuracies[i], details.getAccuracy(i), 0.005f);
+            assertEquals(speeds[i], details.getSpeed(i), 0.005f);
+            assertEquals(bearings[i], details.getBearing(i), 0.005f);
+        }
+        assertTrue(Float.isNaN(details.getAccuracy(1)));
+        assertTrue(Float.isNaN(details.getSpeed(3)));
+        assertTrue(Float.isNaN(details.getBearing(2)));
+    }
+
+    @Test
+    public void decode_readsBlocksWithoutFormat() throws Exception {
+        // 形式の番号を書く前の形式。件数2、各地点の_id・取得時刻・緯度・経度の差分だけを持つ
+        byte[] block = {
+                0x02,
+                0x02, (byte) 0xd0, 0x0f, 0x02, 0x06,
+                0x02, (byte) 0xd0, 0x0f, 0x02, 0x02
+        };
+
+        PlaceTrack track = TrackSegmentCodec.decode(ByteBuffer.wrap(block), 0, block.length);
+        assertEquals(2, track.size());
+        assertEquals(2, track.getId(1));
+        assertEquals(2000, track.getTime(1));
+        assertEquals(PlaceDBHelper.fromE7(2), track.getLatitude(1), 0);
+        assertEquals(PlaceDBHelper.fromE7(4), track.getLongitude(1), 0);
+
+        TrackDetails details = TrackSegmentCodec.decodeDetails(ByteBuffer.wrap(block), 0, block.length);
+        assertEquals(2, details.size());
+        assertTrue(Float.isNaN(details.getAccuracy(0)));
+        assertTrue(Float.isNaN(details.getSpeed(1)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsTruncatedBlock() throws Exception {
+        byte[] block = TrackSegmentCodec.encode(new long[]{1, 2}, new long[]{1000, 2000},
+                new long[]{1, 2}, new long[]{3, 4}, 2);
+        TrackSegmentCodec.decode(ByteBuffer.wrap(block), 0, block.length - 1);
+    }
+
+    @Test
+    public void archive_readsAppendedBlocksThroughMapping() throws Exception {
+        File file = File.createTempFile("place_archive", ".seg");
+        try {
+            PlaceArchive archive = new PlaceArchive(file);
+
+            byte[] first = TrackSegmentCodec.encode(new long[]{1, 2}, new long[]{1000, 2000},
+                    new long[]{350000000, 350000100}, new long[]{1390000000, 1390000100}, 2);
+            long firstOffset = archive.append(first);
+            assertEquals(0, firstOffset);
+            assertEquals(2, archive.read(firstOffset, first.length).size());
+
+            // マップした後に追記したブロックも読める
+            byte[] second = TrackSegmentCodec.encode(new long[]{3}, new long[]{3000},
+                    new long[]{350000200}, new long[]{1390000200}, 1);
+            long secondOffset = archive.append(second);
+            assertEquals(first.length, secondOffset);
+
+            PlaceTrack track = archive.read(secondOffset, second.length);
+            assertEquals(1, track.size());
+            assertEquals(3, track.getId(0));
+            assertEquals(35.00002, track.getLatitude(0), 0);
+
+            // 精度・速さ・向きも同じブロックから読める
+            byte[] third = TrackSegmentCodec.encode(new long[]{4}, new long[]{4000},
+                    new long[]{350000300}, new long[]{1390000300},
+                    new float[]{25f}, new float[]{1.5f}, new float[]{Float.NaN}, 1);
+            long thirdOffset = archive.append(third);
+            TrackDetails details = archive.readDetails(thirdOffset, third.length);
+            assertEquals(25f, details.getAccuracy(0), 0);
+            assertEquals(1.5f, details.getSpeed(0), 0);
+            assertTrue(Float.isNaN(details.getBearing(0)));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void merge_ordersByTimeAndId() throws Exception {
+        PlaceTrack archived = new PlaceTrack.Builder(3)
+                .add(1, 35.0, 139.0, 100)
+                .add(3, 35.0, 139.0, 200)
+                .add(5, 35.0, 139.0, 300)
+                .build();
+        PlaceTrack stored = new PlaceTrack.Builder(2)
+                .add(2, 35.0, 139.0, 200)
+                .add(4, 35.0, 139.0, 250)
+                .build();
+
+        PlaceTrack merged = PlaceTrack.merge(archived, stored);
+
+        long[] expected = {1, 2, 3, 4, 5};
+        assertEquals(expected.length, merged.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], merged.getId(i));
+        }
+        assertEquals(5, merged.getMaxId());
+    }
+}
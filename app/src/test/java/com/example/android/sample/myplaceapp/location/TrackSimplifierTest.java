@@ -0,0 +1,252 @@
+package com.example.android.sample.myplaceapp.location;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * TrackSimplifierとTrackLevelsのテスト。
+ */
+public class TrackSimplifierTest {
+
+    /**
+     * 計算誤差として許す距離m。
+     */
+    private static final double EPSILON = 1e-6;
+
+    @Test
+    public void everyLevel_staysWithinTolerance() throws Exception {
+        PlaceTrack track = randomWalk(new Random(1), 20000);
+        TrackLevels levels = TrackLevels.build(track);
+
+        double[] x = new double[track.size()];
+        double[] y = new double[track.size()];
+        TrackSimplifier.project(track, x, y);
+
+        for (int level = 0; level < levels.getLevelCount(); level++) {
+            double tolerance = TrackLevels.TOLERANCES[level];
+            int[] indices = levels.getIndices(level);
+
+            // 間引かれた地点は全て、それを挟む残った2地点の線分から許容誤差以内にあること
+            for (int n = 0; n + 1 < indices.length; n++) {
+                int start = indices[n];
+                int end = indices[n + 1];
+                for (int i = start + 1; i < end; i++) {
+                    double distance = TrackSimplifier.segmentDistance(
+                            x[i], y[i], x[start], y[start], x[end], y[end]);
+                    assertTrue("level " + level + ", point " + i + ": " + distance + " m",
+                            distance <= tolerance + EPSILON);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void levels_keepEndpointsAndAreNested() throws Exception {
+        PlaceTrack track = randomWalk(new Random(2), 5000);
+        TrackLevels levels = TrackLevels.build(track);
+
+        // 最も細かい詳細度は、全地点を残す
+        assertEquals(track.size(), levels.getIndices(0).length);
+
+        for (int level = 0; level < levels.getLevelCount(); level++) {
+            int[] indices = levels.getIndices(level);
+            assertEquals(0, indices[0]);
+            assertEquals(track.size() - 1, indices[indices.length - 1]);
+
+            // 粗い詳細度の地点は、細かい詳細度にも含まれる
+            if (level > 0) {
+                int[] finer = levels.getIndices(level - 1);
+                assertTrue(indices.length <= finer.length);
+                int f = 0;
+                for (int index : indices) {
+                    while (finer[f] < index) {
+                        f++;
+                    }
+                    assertEquals(index, finer[f]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void select_matchesRecursiveDouglasPeucker() throws Exception {
+        PlaceTrack track = randomWalk(new Random(3), 2000);
+        double[] importance = TrackSimplifier.computeImportance(track);
+
+        double[] x = new double[track.size()];
+        double[] y = new double[track.size()];
+        TrackSimplifier.project(track, x, y);
+
+        for (double tolerance : new double[]{1, 5, 20, 100}) {
+            List<Integer> expected = new ArrayList<Integer>();
+            expected.add(0);
+            douglasPeucker(x, y, 0, track.size() - 1, tolerance, expected);
+            expected.add(track.size() - 1);
+
+            int[] actual = TrackSimplifier.select(importance, tolerance);
+            assertEquals(expected.size(), actual.length);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals((int) expected.get(i), actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void shortTracks() throws Exception {
+        assertEquals(0, TrackLevels.build(PlaceTrack.EMPTY).getIndices(0).length);
+
+        PlaceTrack one = new PlaceTrack.Builder(1).add(1, 35.0, 139.0, 0).build();
+        assertArrayEquals(new int[]{0}, TrackLevels.build(one).getIndices(TrackLevels.TOLERANCES.length - 1));
+
+        PlaceTrack two = new PlaceTrack.Builder(2)
+                .add(1, 35.0, 139.0, 0)
+                .add(2, 35.0, 139.0, 1)
+                .build();
+        assertArrayEquals(new int[]{0, 1}, TrackLevels.build(two).getIndices(TrackLevels.TOLERANCES.length - 1));
+    }
+
+    @Test
+    public void append_keepsNewPointsAtEveryLevel() throws Exception {
+        PlaceTrack track = randomWalk(new Random(5), 3000);
+        TrackLevels levels = TrackLevels.build(track);
+
+        PlaceTrack tail = new PlaceTrack.Builder(2)
+                .add(5001, 36.0, 140.0, 1600000000000L)
+                .add(5002, 36.1, 140.1, 1600000001000L)
+                .build();
+        TrackLevels appended = levels.append(tail);
+
+        PlaceTrack all = appended.getTrack();
+        assertEquals(track.size() + 2, all.size());
+        assertEquals(5002, all.getMaxId());
+        assertEquals(36.1, all.getMaxLatitude(), 0.0);
+        assertEquals(track.getMinLatitude(), all.getMinLatitude(), 0.0);
+        assertEquals(track.getLatitude(100), all.getLatitude(100), 0.0);
+
+        for (int level = 0; level < appended.getLevelCount(); level++) {
+            int[] before = levels.getIndices(level);
+            int[] after = appended.getIndices(level);
+            assertEquals(before.length + 2, after.length);
+            assertEquals(track.size(), after[after.length - 2]);
+            assertEquals(track.size() + 1, after[after.length - 1]);
+        }
+
+        // 元の列は変更されない
+        assertEquals(3000, levels.getTrack().size());
+        assertSame(levels, levels.append(PlaceTrack.EMPTY));
+    }
+
+    @Test
+    public void append_branchesDoNotOverwriteEachOther() throws Exception {
+        PlaceTrack track = randomWalk(new Random(6), 100);
+        TrackLevels levels = TrackLevels.build(track);
+
+        // 続けて追加した結果は配列を共有し、途中の結果から見える範囲は変わらない
+        TrackLevels first = levels.append(point(1001, 36.0, 1600000000000L));
+        TrackLevels second = first.append(point(1002, 36.1, 1600000001000L));
+        assertEquals(101, first.getTrack().size());
+        assertEquals(102, second.getTrack().size());
+
+        // 最後の結果でないものから追加すると、コピーしてから書き込む
+        TrackLevels branch = first.append(point(2002, 37.0, 1600000001000L));
+        assertEquals(1002, second.getTrack().getId(101));
+        assertEquals(2002, branch.getTrack().getId(101));
+        assertEquals(36.1, second.getTrack().getLatitude(101), 0.0);
+        assertEquals(37.0, branch.getTrack().getLatitude(101), 0.0);
+        assertEquals(37.0, branch.getTrack().getMaxLatitude(), 0.0);
+        assertEquals(36.1, second.getTrack().getMaxLatitude(), 0.0);
+
+        for (int level = 0; level < levels.getLevelCount(); level++) {
+            int count = levels.getIndexCount(level);
+            assertEquals(count + 1, first.getIndexCount(level));
+            assertEquals(count + 2, second.getIndexCount(level));
+            assertEquals(count + 2, branch.getIndexCount(level));
+            assertEquals(101, second.getIndex(level, count + 1));
+            assertEquals(101, branch.getIndex(level, count + 1));
+            assertArrayEquals(levels.getIndices(level), Arrays.copyOf(second.getIndices(level), count));
+        }
+
+        // 多数の追加でも、元の列は変わらない
+        TrackLevels many = second;
+        for (int i = 0; i < 1000; i++) {
+            many = many.append(point(3000 + i, 35.0, 1600000002000L + i));
+        }
+        assertEquals(1102, many.getTrack().size());
+        assertEquals(102, second.getTrack().size());
+        assertEquals(1002, second.getTrack().getId(101));
+        assertEquals(1002, many.getTrack().getId(101));
+        assertEquals(3999, many.getTrack().getMaxId());
+    }
+
+    private static PlaceTrack point(long id, double latitude, long time) {
+        return new PlaceTrack.Builder(1).add(id, latitude, 140.0, time).build();
+    }
+
+    @Test
+    public void levelForZoom_coarserWhenZoomedOut() throws Exception {
+        TrackLevels levels = TrackLevels.build(randomWalk(new Random(4), 100));
+
+        int previous = Integer.MAX_VALUE;
+        for (float zoom = 2; zoom <= 21; zoom += 0.5f) {
+            int level = levels.levelForZoom(zoom);
+            assertTrue(level <= previous);
+            previous = level;
+        }
+
+        assertEquals(0, levels.levelForZoom(21));
+        assertEquals(levels.getLevelCount() - 1, levels.levelForZoom(2));
+    }
+
+    /**
+     * 比較用の、再帰によるDouglas-Peucker法。
+     */
+    private static void douglasPeucker(double[] x, double[] y, int start, int end,
+                                       double tolerance, List<Integer> result) {
+        int farthest = -1;
+        double maxDistance = -1;
+        for (int i = start + 1; i < end; i++) {
+            double distance = TrackSimplifier.segmentDistance(x[i], y[i], x[start], y[start], x[end], y[end]);
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = i;
+            }
+        }
+
+        if (farthest < 0 || maxDistance <= tolerance) {
+            return;
+        }
+
+        douglasPeucker(x, y, start, farthest, tolerance, result);
+        result.add(farthest);
+        douglasPeucker(x, y, farthest, end, tolerance, result);
+    }
+
+    /**
+     * 向きを少しずつ変えながら進み、GPSの誤差程度にぶれる移動を作る。
+     */
+    static PlaceTrack randomWalk(Random random, int points) {
+        PlaceTrack.Builder builder = new PlaceTrack.Builder(points);
+
+        double latitude = 35.68;
+        double longitude = 139.76;
+        double heading = 0;
+        for (int i = 0; i < points; i++) {
+            heading += random.nextGaussian() * 0.2;
+            latitude += Math.cos(heading) * 0.00005;
+            longitude += Math.sin(heading) * 0.00005;
+
+            builder.add(i + 1,
+                    latitude + random.nextGaussian() * 0.00003,
+                    longitude + random.nextGaussian() * 0.00003,
+                    1500000000000L + i * 1000L);
+        }
+
+        return builder.build();
+    }
+}
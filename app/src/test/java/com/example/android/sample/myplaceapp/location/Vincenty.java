@@ -0,0 +1,76 @@
+package com.example.android.sample.myplaceapp.location;
+
+/**
+ * GeoMathのテストで基準に使う、WGS84楕円体上の距離をVincentyの公式で求めるクラス。
+ * Location.distanceBetween()と同じ方法で、JVM上のテストでも使えるようにしたもの。
+ */
+class Vincenty {
+
+    private static final double A = 6378137.0;
+    private static final double F = 1 / 298.257223563;
+    private static final double B = A * (1 - F);
+
+    /**
+     * コンストラクタ。
+     */
+    private Vincenty() {
+        // インスタンス化禁止
+    }
+
+    /**
+     * 2地点間の楕円体上の距離を返す。
+     *
+     * @return 距離m。収束しない場合(ほぼ対蹠点)はNaN
+     */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double l = Math.toRadians(longitude2 - longitude1);
+        double u1 = Math.atan((1 - F) * Math.tan(Math.toRadians(latitude1)));
+        double u2 = Math.atan((1 - F) * Math.tan(Math.toRadians(latitude2)));
+        double sinU1 = Math.sin(u1);
+        double cosU1 = Math.cos(u1);
+        double sinU2 = Math.sin(u2);
+        double cosU2 = Math.cos(u2);
+
+        double lambda = l;
+        double sinSigma;
+        double cosSigma;
+        double sigma;
+        double cosSqAlpha;
+        double cos2SigmaM;
+        for (int iteration = 0; ; iteration++) {
+            if (iteration == 200) {
+                return Double.NaN;
+            }
+
+            double sinLambda = Math.sin(lambda);
+            double cosLambda = Math.cos(lambda);
+            sinSigma = Math.sqrt((cosU2 * sinLambda) * (cosU2 * sinLambda)
+                    + (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda) * (cosU1 * sinU2 - sinU1 * cosU2 * cosLambda));
+            if (sinSigma == 0) {
+                return 0;
+            }
+
+            cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+            sigma = Math.atan2(sinSigma, cosSigma);
+            double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+            cosSqAlpha = 1 - sinAlpha * sinAlpha;
+            cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+
+            double c = F / 16 * cosSqAlpha * (4 + F * (4 - 3 * cosSqAlpha));
+            double previous = lambda;
+            lambda = l + (1 - c) * F * sinAlpha
+                    * (sigma + c * sinSigma * (cos2SigmaM + c * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+            if (Math.abs(lambda - previous) < 1e-12) {
+                break;
+            }
+        }
+
+        double uSq = cosSqAlpha * (A * A - B * B) / (B * B);
+        double bigA = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+        double bigB = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+        double deltaSigma = bigB * sinSigma * (cos2SigmaM + bigB / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)
+                - bigB / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+
+        return B * bigA * (sigma - deltaSigma);
+    }
+}